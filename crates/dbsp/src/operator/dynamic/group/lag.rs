@@ -186,6 +186,298 @@ where
     }
 }
 
+impl<B> Stream<RootCircuit, B>
+where
+    B: IndexedZSet + Send,
+{
+    /// See [`Stream::lag_rows_custom_order`].
+    #[allow(clippy::type_complexity)]
+    pub fn dyn_lag_rows<OV>(
+        &self,
+        persistent_id: Option<&str>,
+        factories: &LagFactories<B, OV>,
+        rows: usize,
+        project: Box<dyn Fn(&B::Val, &mut dyn Iterator<Item = &B::Val>, &mut OV)>,
+    ) -> Stream<RootCircuit, OrdIndexedZSet<B::Key, DynPair<B::Val, OV>>>
+    where
+        OV: DataTrait + ?Sized,
+    {
+        self.dyn_group_transform(
+            persistent_id,
+            &factories.input_factories,
+            &factories.output_factories,
+            Box::new(LagRows::new(
+                factories.output_factories.val_factory(),
+                factories.keys_factory,
+                factories.output_val_factory,
+                rows,
+                project,
+            )),
+        )
+    }
+}
+
+impl Stream<RootCircuit, MonoIndexedZSet> {
+    pub fn dyn_lag_rows_custom_order_mono(
+        &self,
+        persistent_id: Option<&str>,
+        factories: &LagCustomOrdFactories<MonoIndexedZSet, DynData, DynData, DynData>,
+        rows: usize,
+        encode: Box<dyn Fn(&DynData, &mut DynData)>,
+        project: Box<dyn Fn(&DynData, &mut dyn Iterator<Item = &DynData>, &mut DynData)>,
+        decode: Box<dyn Fn(&DynData, &DynData, &mut DynData)>,
+    ) -> Stream<RootCircuit, MonoIndexedZSet> {
+        self.dyn_lag_rows_custom_order(persistent_id, factories, rows, encode, project, decode)
+    }
+}
+
+impl<B, K, V> Stream<RootCircuit, B>
+where
+    B: IndexedZSet<Key = K, Val = V> + Send,
+    K: DataTrait + ?Sized,
+    V: DataTrait + ?Sized,
+{
+    /// See [`Stream::lag_rows_custom_order`].
+    #[allow(clippy::type_complexity)]
+    pub fn dyn_lag_rows_custom_order<V2, VL, OV>(
+        &self,
+        persistent_id: Option<&str>,
+        factories: &LagCustomOrdFactories<B, V2, VL, OV>,
+        rows: usize,
+        encode: Box<dyn Fn(&V, &mut V2)>,
+        project: Box<dyn Fn(&V2, &mut dyn Iterator<Item = &V2>, &mut VL)>,
+        decode: Box<dyn Fn(&V2, &VL, &mut OV)>,
+    ) -> Stream<RootCircuit, OrdIndexedZSet<K, OV>>
+    where
+        V2: DataTrait + ?Sized,
+        VL: DataTrait + ?Sized,
+        OV: DataTrait + ?Sized,
+        B: for<'a> DynFilterMap<DynItemRef<'a> = (&'a K, &'a V)>,
+    {
+        self.circuit().region(&format!("lag_rows_custom_order_{rows}"), || {
+            self.dyn_map_index(
+                &factories.lag_factories.input_factories,
+                Box::new(move |(k, v), kv| {
+                    let (out_k, out_v) = kv.split_mut();
+                    k.clone_to(out_k);
+                    encode(v, out_v);
+                }),
+            )
+            .set_persistent_id(
+                persistent_id
+                    .map(|name| format!("{name}-ordered"))
+                    .as_deref(),
+            )
+            .dyn_lag_rows(persistent_id, &factories.lag_factories, rows, project)
+            .dyn_map_index(
+                &factories.output_factories,
+                Box::new(move |(k, v), kv| {
+                    let (out_k, out_v) = kv.split_mut();
+                    let (v1, v2) = v.split();
+                    k.clone_to(out_k);
+                    decode(v1, v2, out_v);
+                }),
+            )
+        })
+    }
+}
+
+/// Implements the `lag_rows` operator, which matches each row with the
+/// `rows` rows that precede it in the same group.
+///
+/// The preceding rows are not stored in the output: the transformer keeps a
+/// window of the last `rows` values while it scans a group, and `project`
+/// reduces the current value and the window to a single output value.
+/// A change to a group only invalidates the outputs of the changed value and
+/// of the `rows` values that follow it, so only these are retracted and
+/// recomputed; the cost of a step is proportional to the number of changes
+/// times `rows`.
+struct LagRows<I: DataTrait + ?Sized, O: DataTrait + ?Sized> {
+    name: String,
+    rows: usize,
+    project: Box<dyn Fn(&I, &mut dyn Iterator<Item = &I>, &mut O)>,
+    output_pair_factory: &'static dyn Factory<DynPair<I, O>>,
+    output_val_factory: &'static dyn Factory<O>,
+    /// The changed values of the group.
+    changes: Box<DynVec<I>>,
+    /// Holds the first value after a segment of recomputed values.
+    stop: Box<DynVec<I>>,
+    /// Holds the oldest value that enters the window before the first changed value.
+    from: Box<DynVec<I>>,
+    /// Ring buffer with the last `rows` values; `start` is the oldest one.
+    window: Box<DynVec<I>>,
+    start: usize,
+    _phantom: PhantomData<fn(&I, &O)>,
+}
+
+impl<I, O> LagRows<I, O>
+where
+    I: DataTrait + ?Sized,
+    O: DataTrait + ?Sized,
+{
+    fn new(
+        output_pair_factory: &'static dyn Factory<DynPair<I, O>>,
+        keys_factory: &'static dyn Factory<DynVec<I>>,
+        output_val_factory: &'static dyn Factory<O>,
+        rows: usize,
+        project: Box<dyn Fn(&I, &mut dyn Iterator<Item = &I>, &mut O)>,
+    ) -> Self {
+        Self {
+            name: format!("lag_rows({rows})"),
+            rows,
+            project,
+            output_pair_factory,
+            output_val_factory,
+            changes: keys_factory.default_box(),
+            stop: keys_factory.default_box(),
+            from: keys_factory.default_box(),
+            window: keys_factory.default_box(),
+            start: 0,
+            _phantom: PhantomData,
+        }
+    }
+}
+
+impl<I, O> GroupTransformer<I, DynPair<I, O>> for LagRows<I, O>
+where
+    I: DataTrait + ?Sized,
+    O: DataTrait + ?Sized,
+{
+    fn name(&self) -> &str {
+        self.name.as_str()
+    }
+
+    fn monotonicity(&self) -> Monotonicity {
+        Monotonicity::Unordered
+    }
+
+    fn transform(
+        &mut self,
+        input_delta: &mut dyn ZCursor<I, DynUnit, ()>,
+        input_trace: &mut dyn ZCursor<I, DynUnit, ()>,
+        output_trace: &mut dyn ZCursor<DynPair<I, O>, DynUnit, ()>,
+        output_cb: &mut dyn FnMut(&mut DynPair<I, O>, &mut DynZWeight),
+    ) {
+        if !input_delta.key_valid() {
+            return;
+        }
+        self.changes.clear();
+        while input_delta.key_valid() {
+            self.changes.push_ref(input_delta.key());
+            input_delta.step_key();
+        }
+        input_delta.rewind_keys();
+
+        let mut cursor = CursorPair::new(input_delta, input_trace);
+        let mut output_pair = self.output_pair_factory.default_box();
+        let mut new_val = self.output_val_factory.default_box();
+
+        // The frame of a value only contains the `rows` values that precede it,
+        // so a change only affects the outputs of the changed value and of the
+        // `rows` values that follow it.  Each segment of affected values
+        // starts at a changed value, and ends when `rows` values have been
+        // recomputed after the last change in the segment.
+        let mut next = 0;
+        while next < self.changes.len() {
+            let first = self.changes.index(next);
+
+            // Find the values that precede the first changed value and fill the
+            // window with them.  Each value occurs as many times as its weight;
+            // values with negative weights are ignored.
+            self.window.clear();
+            self.start = 0;
+            self.from.clear();
+            cursor.fast_forward_keys();
+            cursor.seek_key_with_reverse(&|key| key < first);
+            let mut preceding = 0;
+            while cursor.key_valid() && preceding < self.rows {
+                let weight = **cursor.weight();
+                if weight > 0 {
+                    preceding += weight as usize;
+                    self.from.clear();
+                    self.from.push_ref(cursor.key());
+                }
+                cursor.step_key_reverse();
+            }
+            cursor.rewind_keys();
+            cursor.seek_key(self.from.first().unwrap_or(first));
+            while cursor.key_valid() && cursor.key() < first {
+                let weight = **cursor.weight();
+                for _ in 0..weight {
+                    push_window(&mut self.window, &mut self.start, self.rows, cursor.key());
+                }
+                cursor.step_key();
+            }
+
+            // Recompute the outputs of the values in the segment.
+            self.stop.clear();
+            let mut remaining = 0;
+            while cursor.key_valid() {
+                let mut changed = false;
+                while next < self.changes.len() && self.changes.index(next) <= cursor.key() {
+                    changed = true;
+                    next += 1;
+                }
+                if !changed && remaining == 0 {
+                    self.stop.push_ref(cursor.key());
+                    break;
+                }
+                let weight = **cursor.weight();
+                for _ in 0..weight {
+                    let len = self.window.len();
+                    let (window, start) = (&self.window, self.start);
+                    let mut iter =
+                        (0..len).map(|i| window.index((start + len - 1 - i) % len));
+                    (self.project)(cursor.key(), &mut iter, &mut new_val);
+                    output_pair.from_refs(cursor.key(), &new_val);
+                    output_cb(output_pair.as_mut(), 1.erase_mut());
+                    push_window(&mut self.window, &mut self.start, self.rows, cursor.key());
+                }
+                remaining = if changed {
+                    self.rows
+                } else {
+                    remaining.saturating_sub(weight.max(0) as usize)
+                };
+                cursor.step_key();
+            }
+            if !cursor.key_valid() {
+                // All the remaining changes precede the end of the group.
+                next = self.changes.len();
+            }
+
+            // Retract the old outputs of the values in the segment, including
+            // the values that have been deleted.
+            let stop = self.stop.first();
+            output_trace.seek_key_with(&|key| key.fst() >= first);
+            while output_trace.key_valid()
+                && stop.is_none_or(|stop| output_trace.key().fst() < stop)
+            {
+                let weight = **output_trace.weight();
+                output_trace.key().clone_to(output_pair.as_mut());
+                output_cb(output_pair.as_mut(), weight.neg().erase_mut());
+                output_trace.step_key();
+            }
+        }
+    }
+}
+
+/// Append `value` to the ring buffer `window` of at most `rows` values,
+/// evicting the oldest value, at index `start`, if the window is full.
+fn push_window<I>(window: &mut DynVec<I>, start: &mut usize, rows: usize, value: &I)
+where
+    I: DataTrait + ?Sized,
+{
+    if rows == 0 {
+        return;
+    }
+    if window.len() < rows {
+        window.push_ref(value);
+    } else {
+        value.clone_to(window.index_mut(*start));
+        *start = (*start + 1) % rows;
+    }
+}
+
 /// Implement both `lag` and `lead` operators.
 struct Lag<I: DataTrait + ?Sized, O: DataTrait + ?Sized, KCF> {
     name: String,
@@ -1,6 +1,13 @@
 #![allow(clippy::type_complexity)]
 
-use std::cmp::Ordering;
+use std::{
+    cmp::Ordering,
+    collections::BTreeMap,
+    sync::{
+        Arc,
+        atomic::{AtomicUsize, Ordering as AtomicOrdering},
+    },
+};
 
 use crate::{
     DBData, DynZWeight, RootCircuit, Runtime, ZWeight,
@@ -372,6 +379,139 @@ fn lag_custom_order_test_circuit(
     Ok((input_handle, lag_handle))
 }
 
+fn lag_rows_test_circuit(
+    circuit: &mut RootCircuit,
+) -> AnyResult<(
+    IndexedZSetHandle<i32, i32>,
+    OutputHandle<SpineSnapshot<OrdIndexedZSet<i32, Tup2<i32, Vec<i32>>>>>,
+)> {
+    struct Asc;
+
+    impl CmpFunc<i32> for Asc {
+        fn cmp(left: &i32, right: &i32) -> std::cmp::Ordering {
+            left.cmp(right)
+        }
+    }
+
+    let (input_stream, input_handle) = circuit.add_input_indexed_zset::<i32, i32>();
+
+    let lag_handle = input_stream
+        .lag_rows_custom_order::<_, _, _, Asc, _>(
+            3,
+            |v| *v,
+            |v, preceding| Tup2(*v, preceding.clone()),
+        )
+        .accumulate_integrate()
+        .accumulate_output();
+
+    Ok((input_handle, lag_handle))
+}
+
+/// Reference implementation of `lag_rows_custom_order(3)` for the circuit above.
+fn lag_rows_reference(
+    contents: &BTreeMap<i32, BTreeMap<i32, ZWeight>>,
+) -> OrdIndexedZSet<i32, Tup2<i32, Vec<i32>>> {
+    let mut tuples = Vec::new();
+    for (k, values) in contents.iter() {
+        let mut seen: Vec<i32> = Vec::new();
+        for (v, w) in values.iter() {
+            for _ in 0..*w {
+                let preceding = seen.iter().rev().take(3).cloned().collect::<Vec<_>>();
+                tuples.push(Tup2(Tup2(*k, Tup2(*v, preceding)), 1));
+                seen.push(*v);
+            }
+        }
+    }
+    OrdIndexedZSet::from_tuples((), tuples)
+}
+
+fn lag_rows_test(trace: Vec<Vec<(i32, i32, ZWeight)>>, transaction: bool) {
+    let (mut dbsp, (input_handle, lag_handle)) = Runtime::init_circuit(
+        CircuitConfig::from(4).with_splitter_chunk_size_records(2),
+        lag_rows_test_circuit,
+    )
+    .unwrap();
+
+    let mut contents = BTreeMap::<i32, BTreeMap<i32, ZWeight>>::new();
+
+    if transaction {
+        dbsp.start_transaction().unwrap();
+    }
+    for batch in trace.into_iter() {
+        for (k, v, r) in batch.into_iter() {
+            *contents.entry(k).or_default().entry(v).or_default() += r;
+            input_handle.push(k, (v, r));
+        }
+        if transaction {
+            dbsp.step().unwrap();
+        } else {
+            dbsp.transaction().unwrap();
+            let lag_result = lag_handle.concat().consolidate();
+            assert_typed_batch_eq(&lag_result, &lag_rows_reference(&contents));
+        }
+    }
+    if transaction {
+        dbsp.commit_transaction().unwrap();
+        let lag_result = lag_handle.concat().consolidate();
+        assert_typed_batch_eq(&lag_result, &lag_rows_reference(&contents));
+    }
+}
+
+#[test]
+fn lag_rows_bounded_recompute() {
+    struct Asc;
+
+    impl CmpFunc<i32> for Asc {
+        fn cmp(left: &i32, right: &i32) -> std::cmp::Ordering {
+            left.cmp(right)
+        }
+    }
+
+    let calls = Arc::new(AtomicUsize::new(0));
+    let calls_clone = calls.clone();
+    let (mut dbsp, (input_handle, lag_handle)) =
+        Runtime::init_circuit(CircuitConfig::from(1), move |circuit| {
+            let (input_stream, input_handle) = circuit.add_input_indexed_zset::<i32, i32>();
+            let calls = calls_clone.clone();
+            let lag_handle = input_stream
+                .lag_rows_custom_order::<_, _, _, Asc, _>(
+                    3,
+                    |v| *v,
+                    move |v, preceding| {
+                        calls.fetch_add(1, AtomicOrdering::Relaxed);
+                        Tup2(*v, preceding.clone())
+                    },
+                )
+                .accumulate_output();
+            Ok((input_handle, lag_handle))
+        })
+        .unwrap();
+
+    for v in 0..100 {
+        input_handle.push(0, (2 * v, 1));
+    }
+    dbsp.transaction().unwrap();
+    assert_eq!(calls.swap(0, AtomicOrdering::Relaxed), 100);
+
+    // Only the inserted value and the 3 values that follow it are recomputed.
+    input_handle.push(0, (101, 1));
+    dbsp.transaction().unwrap();
+    assert_eq!(calls.load(AtomicOrdering::Relaxed), 4);
+    let output = lag_handle.concat().consolidate();
+    let expected = indexed_zset! { i32 => Tup2<i32, Vec<i32>>:
+        0 => {
+            Tup2(101, vec![100, 98, 96]) => 1,
+            Tup2(102, vec![100, 98, 96]) => -1,
+            Tup2(102, vec![101, 100, 98]) => 1,
+            Tup2(104, vec![102, 100, 98]) => -1,
+            Tup2(104, vec![102, 101, 100]) => 1,
+            Tup2(106, vec![104, 102, 100]) => -1,
+            Tup2(106, vec![104, 102, 101]) => 1
+        }
+    };
+    assert_typed_batch_eq(&output, &expected);
+}
+
 fn lead_test(trace: Vec<Vec<(i32, i32, ZWeight)>>, transaction: bool) {
     let (mut dbsp, (input_handle, lead_handle)) = Runtime::init_circuit(
         CircuitConfig::from(4).with_splitter_chunk_size_records(2),
@@ -898,6 +1038,16 @@ proptest! {
         lag_test(trace, true)
     }
 
+    #[test]
+    fn test_lag_rows_small_step(trace in input_trace(5, 100, 200, 20)) {
+        lag_rows_test(trace, false)
+    }
+
+    #[test]
+    fn test_lag_rows_big_step(trace in input_trace(5, 100, 200, 20)) {
+        lag_rows_test(trace, true)
+    }
+
     #[test]
     fn test_lead_small_step(trace in input_trace(5, 100, 200, 20)) {
         lead_test(trace, false)
@@ -510,6 +510,24 @@ where
         bounds
     }
 
+    /// Makes traces of `other` use the trace bounds of `self`.
+    ///
+    /// Operators that re-partition their input before integrating it use this
+    /// so that bounds set on the input, e.g., by
+    /// [`Stream::integrate_trace_retain_keys`], also apply to the trace of the
+    /// re-partitioned stream.  Must be called before creating the trace of
+    /// `other`.
+    pub(crate) fn share_trace_bounds(&self, other: &Self)
+    where
+        B: BatchReader,
+    {
+        let bounds = self.trace_bounds();
+        self.circuit().cache_insert(
+            BoundsId::<B>::new(other.try_unsharded_version().stream_id()),
+            bounds,
+        );
+    }
+
     // TODO: this method should replace `Stream::integrate()`.
     #[track_caller]
     pub fn dyn_integrate_trace(&self, factories: &B::Factories) -> Stream<C, Spine<B>>
@@ -1,11 +1,12 @@
 use crate::{
     Circuit, DBData, DBWeight, Stream,
-    dynamic::{DataTrait, Erase, WeightTrait},
-    trace::BatchReaderFactories,
+    dynamic::{DataTrait, DynData, Erase, WeightTrait},
+    trace::{BatchReader as _, BatchReaderFactories, Builder, Cursor},
     typed_batch::{
-        Batch, BatchReader, DynOrdIndexedWSet, DynOrdWSet, DynVecIndexedWSet, DynVecWSet,
-        OrdIndexedWSet, OrdWSet, TypedBatch,
+        Batch, BatchReader, DynBatch, DynOrdIndexedWSet, DynOrdWSet, DynOrdZSet,
+        DynVecIndexedWSet, DynVecWSet, OrdIndexedWSet, OrdWSet, OrdZSet, TypedBatch,
     },
+    utils::Tup2,
 };
 
 /// This trait abstracts away a stream of records that can be filtered
@@ -164,6 +165,110 @@ impl<C: Circuit, B: FilterMap> Stream<C, B> {
     }
 }
 
+/// Maximum number of records passed at once to the function of a batched
+/// operator ([`Stream::map_batched`], [`Stream::filter_batched`]).
+pub const BATCHED_CHUNK_SIZE: usize = 1024;
+
+impl<C: Circuit, K: DBData> Stream<C, OrdZSet<K>> {
+    /// Behaves as [`Self::map`], but evaluates the function on chunks of
+    /// records instead of one record at a time.
+    ///
+    /// The function is split in two parts.  `gather` is invoked on a reference
+    /// to each record and copies the fields that the function uses into the
+    /// column vectors in `columns`.  After at most [`BATCHED_CHUNK_SIZE`]
+    /// records `compute` is invoked with the number of records gathered; it
+    /// must push exactly one output record for each of them, in order, to the
+    /// output vector, and leave `columns` empty.  Working on columns allows
+    /// `compute` to evaluate its expressions in tight loops that the Rust
+    /// compiler can auto-vectorize, without cloning the input records.
+    #[track_caller]
+    pub fn map_batched<S, G, F, K2>(&self, gather: G, compute: F) -> Stream<C, OrdZSet<K2>>
+    where
+        K2: DBData,
+        S: Default + 'static,
+        G: Fn(&K, &mut S) + 'static,
+        F: Fn(usize, &mut S, &mut Vec<K2>) + 'static,
+    {
+        self.apply_named("MapBatched", move |batch: &OrdZSet<K>| {
+            let capacity = BATCHED_CHUNK_SIZE.min(batch.len());
+            let mut columns = S::default();
+            let mut weights = Vec::with_capacity(capacity);
+            let mut outputs = Vec::with_capacity(capacity);
+            let mut tuples = Vec::with_capacity(batch.len());
+
+            let mut cursor = batch.inner().cursor();
+            while cursor.key_valid() {
+                gather(unsafe { cursor.key().downcast::<K>() }, &mut columns);
+                weights.push(**cursor.weight());
+                cursor.step_key();
+                if weights.len() == BATCHED_CHUNK_SIZE || !cursor.key_valid() {
+                    compute(weights.len(), &mut columns, &mut outputs);
+                    debug_assert_eq!(outputs.len(), weights.len());
+                    tuples.extend(
+                        outputs
+                            .drain(..)
+                            .zip(weights.drain(..))
+                            .map(|(key, weight)| Tup2(key, weight)),
+                    );
+                }
+            }
+            // Like `map`, the outputs are not ordered and must be consolidated.
+            OrdZSet::from_keys((), tuples)
+        })
+    }
+
+    /// Behaves as [`Self::filter`], but evaluates the predicate on chunks of
+    /// records instead of one record at a time.
+    ///
+    /// `gather` and `compute` are used as in [`Self::map_batched`]; `compute`
+    /// pushes one boolean for each record, and only the records with a `true`
+    /// value are retained.  The retained records are copied to the output in
+    /// the order of the input, so the output batch is built without sorting.
+    #[track_caller]
+    pub fn filter_batched<S, G, F>(&self, gather: G, compute: F) -> Self
+    where
+        S: Default + 'static,
+        G: Fn(&K, &mut S) + 'static,
+        F: Fn(usize, &mut S, &mut Vec<bool>) + 'static,
+    {
+        self.apply_named("FilterBatched", move |batch: &OrdZSet<K>| {
+            let mut columns = S::default();
+            let mut retain = Vec::with_capacity(BATCHED_CHUNK_SIZE.min(batch.len()));
+            let input = batch.inner();
+            let mut builder = <DynOrdZSet<DynData> as DynBatch>::Builder::with_capacity(
+                &input.factories(),
+                input.key_count(),
+                input.len(),
+            );
+
+            // `cursor` gathers the columns of a chunk, and `output` trails
+            // behind it to copy the retained records of the chunk.
+            let mut cursor = input.cursor();
+            let mut output = input.cursor();
+            let mut count = 0;
+            while cursor.key_valid() {
+                gather(unsafe { cursor.key().downcast::<K>() }, &mut columns);
+                count += 1;
+                cursor.step_key();
+                if count == BATCHED_CHUNK_SIZE || !cursor.key_valid() {
+                    compute(count, &mut columns, &mut retain);
+                    debug_assert_eq!(retain.len(), count);
+                    for keep in retain.drain(..) {
+                        if keep {
+                            builder.push_diff(output.weight());
+                            builder.push_val(output.val());
+                            builder.push_key(output.key());
+                        }
+                        output.step_key();
+                    }
+                    count = 0;
+                }
+            }
+            OrdZSet::from_inner(builder.done())
+        })
+    }
+}
+
 impl<K, DynK, R, DynR> FilterMap for TypedBatch<K, (), R, DynOrdWSet<DynK, DynR>>
 where
     K: DBData + Erase<DynK>,
@@ -441,3 +546,66 @@ where
             .typed()
     }
 }
+
+#[cfg(test)]
+mod test {
+    use crate::{Circuit, OrdZSet, RootCircuit, operator::Generator, utils::Tup2, zset};
+    use std::vec;
+
+    #[test]
+    fn batched_test() {
+        let circuit = RootCircuit::build(move |circuit| {
+            let mut input: vec::IntoIter<OrdZSet<Tup2<i64, i64>>> = vec![
+                zset! { Tup2(1, 2) => 1, Tup2(-1, 3) => 2, Tup2(5, 5) => -1 },
+                // More records than fit in a single chunk
+                OrdZSet::from_keys((), (0..3000).map(|i| Tup2(Tup2(i, 1), 1)).collect()),
+            ]
+            .into_iter();
+            let mut sum_output = vec![
+                zset! { 3 => 1, 2 => 2, 10 => -1 },
+                OrdZSet::from_keys((), (0..3000).map(|i| Tup2(i + 1, 1)).collect()),
+            ]
+            .into_iter();
+            let mut filter_output = vec![
+                zset! { Tup2(1, 2) => 1, Tup2(5, 5) => -1 },
+                OrdZSet::from_keys((), (1..3000).map(|i| Tup2(Tup2(i, 1), 1)).collect()),
+            ]
+            .into_iter();
+
+            let input = circuit.add_source(Generator::new(move || input.next().unwrap()));
+            let sum = input.map_batched(
+                |row: &Tup2<i64, i64>, columns: &mut (Vec<i64>, Vec<i64>)| {
+                    columns.0.push(row.0);
+                    columns.1.push(row.1);
+                },
+                |n, columns: &mut (Vec<i64>, Vec<i64>), out: &mut Vec<i64>| {
+                    let (left, right) = (&columns.0[..n], &columns.1[..n]);
+                    out.extend((0..n).map(|i| left[i] + right[i]));
+                    columns.0.clear();
+                    columns.1.clear();
+                },
+            );
+            let positive = input.filter_batched(
+                |row: &Tup2<i64, i64>, column: &mut Vec<i64>| column.push(row.0),
+                |n, column: &mut Vec<i64>, out: &mut Vec<bool>| {
+                    out.extend(column[..n].iter().map(|x| *x > 0));
+                    column.clear();
+                },
+            );
+
+            sum.inspect(move |n| {
+                assert_eq!(*n, sum_output.next().unwrap());
+            });
+            positive.inspect(move |n| {
+                assert_eq!(*n, filter_output.next().unwrap());
+            });
+            Ok(())
+        })
+        .unwrap()
+        .0;
+
+        for _ in 0..2 {
+            circuit.transaction().unwrap();
+        }
+    }
+}
@@ -1,3 +1,7 @@
+use std::cmp::Ordering;
+
+use crate::algebra::UnimplementedSemigroup;
+use crate::operator::Fold;
 use crate::operator::dynamic::group::LagCustomOrdFactories;
 use crate::operator::group::custom_ord::WithCustomOrd;
 use crate::{
@@ -142,4 +146,226 @@ where
             )
             .typed()
     }
+
+    /// Matches each row in a group with the `rows` rows that precede it in the
+    /// order defined by the comparison function `CF`.
+    ///
+    /// `output` receives the current value and the projections of up to `rows`
+    /// preceding values, the most recent first; there are fewer than `rows`
+    /// projections for the first values of a group.  As for
+    /// [`Stream::lag_custom_order`], the preceding values are computed as if
+    /// each value occurred as many times as its weight.
+    ///
+    /// Unlike a chain of `rows` lag operators, the operator does not store the
+    /// preceding rows: besides the integral of the input it only stores the
+    /// output of each row, so the state does not grow with the number of rows
+    /// that the input rows are matched with.
+    ///
+    /// # Arguments
+    ///
+    /// * `rows` - number of preceding rows.
+    /// * `project` - projection function to apply to each preceding row.
+    /// * `output` - output function that constructs the output value from
+    ///   the value of the current row and the projections of the preceding
+    ///   rows.
+    #[allow(clippy::type_complexity)]
+    pub fn lag_rows_custom_order<VL, OV, PF, CF, OF>(
+        &self,
+        rows: usize,
+        project: PF,
+        output: OF,
+    ) -> Stream<RootCircuit, OrdIndexedZSet<K, OV>>
+    where
+        VL: DBData,
+        OV: DBData,
+        CF: CmpFunc<V>,
+        PF: Fn(&V) -> VL + 'static,
+        OF: Fn(&V, &Vec<VL>) -> OV + 'static,
+    {
+        self.lag_rows_custom_order_persistent::<VL, OV, PF, CF, OF>(None, rows, project, output)
+    }
+
+    #[allow(clippy::type_complexity)]
+    pub fn lag_rows_custom_order_persistent<VL, OV, PF, CF, OF>(
+        &self,
+        persistent_id: Option<&str>,
+        rows: usize,
+        project: PF,
+        output: OF,
+    ) -> Stream<RootCircuit, OrdIndexedZSet<K, OV>>
+    where
+        VL: DBData,
+        OV: DBData,
+        CF: CmpFunc<V>,
+        PF: Fn(&V) -> VL + 'static,
+        OF: Fn(&V, &Vec<VL>) -> OV + 'static,
+    {
+        let factories = LagCustomOrdFactories::<
+            DynOrdIndexedZSet<DynData, DynData>,
+            DynData,
+            DynData,
+            DynData,
+        >::new::<K, V, WithCustomOrd<V, CF>, OV, OV>();
+
+        self.inner()
+            .dyn_lag_rows_custom_order_mono(
+                persistent_id,
+                &factories,
+                rows,
+                Box::new(move |v1, v2: &mut DynData| unsafe {
+                    *v2.downcast_mut::<WithCustomOrd<V, CF>>() =
+                        WithCustomOrd::new(v1.downcast::<V>().clone())
+                }),
+                Box::new(move |v, preceding, ov: &mut DynData| unsafe {
+                    let preceding = preceding
+                        .map(|p| project(&p.downcast::<WithCustomOrd<V, CF>>().val))
+                        .collect::<Vec<VL>>();
+                    *ov.downcast_mut::<OV>() =
+                        output(&v.downcast::<WithCustomOrd<V, CF>>().val, &preceding)
+                }),
+                Box::new(move |_v2, vl, ov| unsafe {
+                    *ov.downcast_mut::<OV>() = vl.downcast::<OV>().clone()
+                }),
+            )
+            .typed()
+    }
+
+    /// Like [`Stream::lag_custom_order`] for `offset > 0`, but specialized for
+    /// append-only inputs whose values are inserted in increasing order within
+    /// each group.
+    ///
+    /// The operator does not store the integral of the input; it only keeps
+    /// the last `offset` values of each group, and hence requires O(offset)
+    /// memory per key.  The output is correct only if the input stream never
+    /// contains negative weights and every new value is greater than or equal
+    /// (according to `CF`) to all the values previously inserted in the same
+    /// group.
+    ///
+    /// # Arguments
+    ///
+    /// * `offset` - offset to the previous value; must be positive.
+    /// * `project` - projection function to apply to the delayed row.
+    /// * `output` - output function that constructs the output value from
+    ///   the value of the current row and the projection of the delayed
+    ///   row.
+    #[allow(clippy::type_complexity)]
+    pub fn lag_custom_order_append_only<VL, OV, PF, CF, OF>(
+        &self,
+        offset: isize,
+        project: PF,
+        output: OF,
+    ) -> Stream<RootCircuit, OrdIndexedZSet<K, OV>>
+    where
+        VL: DBData,
+        OV: DBData,
+        CF: CmpFunc<V>,
+        PF: Fn(Option<&V>) -> VL + Clone + 'static,
+        OF: Fn(&V, &VL) -> OV + Clone + 'static,
+    {
+        self.lag_custom_order_append_only_persistent::<VL, OV, PF, CF, OF>(
+            None, offset, project, output,
+        )
+    }
+
+    #[allow(clippy::type_complexity)]
+    pub fn lag_custom_order_append_only_persistent<VL, OV, PF, CF, OF>(
+        &self,
+        persistent_id: Option<&str>,
+        offset: isize,
+        project: PF,
+        output: OF,
+    ) -> Stream<RootCircuit, OrdIndexedZSet<K, OV>>
+    where
+        VL: DBData,
+        OV: DBData,
+        CF: CmpFunc<V>,
+        PF: Fn(Option<&V>) -> VL + Clone + 'static,
+        OF: Fn(&V, &VL) -> OV + Clone + 'static,
+    {
+        assert!(
+            offset > 0,
+            "lag_custom_order_append_only requires a positive offset"
+        );
+        let n = offset as usize;
+
+        // The last `n` values of each group, and the number of values seen so far.
+        // The counter ensures that every insertion changes the accumulator, so the
+        // previous tail is always retracted by the chain aggregate.
+        let tails = self.chain_aggregate_persistent(
+            persistent_id,
+            move |v: &V, w| {
+                let mut tail = Tup2(0u64, Vec::new());
+                lag_tail_push::<V, CF>(&mut tail, v, w, n);
+                tail
+            },
+            move |mut tail, v, w| {
+                lag_tail_push::<V, CF>(&mut tail, v, w, n);
+                tail
+            },
+        );
+
+        // Bring together the new values of each group and the tail of the group
+        // before this step, which appears with a negative weight in `tails`.
+        let previous =
+            tails.map_index(|(k, tail)| (k.clone(), Tup2(Some(tail.clone()), None)));
+        let current = self.map_index(|(k, v)| (k.clone(), Tup2(None, Some(v.clone()))));
+        current
+            .plus(&previous)
+            .stream_aggregate(<Fold<_, _, UnimplementedSemigroup<_>, _, _>>::with_output(
+                Tup2(Vec::new(), Vec::new()),
+                |acc: &mut Tup2<Vec<V>, Vec<V>>,
+                 event: &Tup2<Option<Tup2<u64, Vec<V>>>, Option<V>>,
+                 w: ZWeight| match event {
+                    Tup2(Some(tail), _) if w < 0 => acc.0 = tail.1.clone(),
+                    Tup2(_, Some(v)) => {
+                        for _ in 0..w {
+                            acc.1.push(v.clone())
+                        }
+                    }
+                    _ => {}
+                },
+                move |Tup2(previous, mut current): Tup2<Vec<V>, Vec<V>>| -> Vec<OV> {
+                    current.sort_by(|a, b| CF::cmp(a, b));
+                    let base = previous.len();
+                    let all: Vec<&V> = previous.iter().chain(current.iter()).collect();
+                    current
+                        .iter()
+                        .enumerate()
+                        .map(|(i, v)| {
+                            let index = base + i;
+                            let delayed = if index >= n {
+                                Some(all[index - n])
+                            } else {
+                                None
+                            };
+                            output(v, &project(delayed))
+                        })
+                        .collect()
+                },
+            ))
+            .flat_map_index(|(k, outputs)| {
+                outputs
+                    .clone()
+                    .into_iter()
+                    .map(|ov| (k.clone(), ov))
+                    .collect::<Vec<_>>()
+            })
+    }
+}
+
+/// Insert `w` copies of `v` into the tail of a group, sorted according to `CF`,
+/// keeping only the last `n` values.
+fn lag_tail_push<V, CF>(tail: &mut Tup2<u64, Vec<V>>, v: &V, w: ZWeight, n: usize)
+where
+    V: Clone,
+    CF: CmpFunc<V>,
+{
+    let copies = (w.max(0) as usize).min(n);
+    tail.0 += w.max(0) as u64;
+    let position = tail.1.partition_point(|x| CF::cmp(x, v) != Ordering::Greater);
+    for _ in 0..copies {
+        tail.1.insert(position, v.clone());
+    }
+    let excess = tail.1.len().saturating_sub(n);
+    tail.1.drain(0..excess);
 }
@@ -1,10 +1,11 @@
 use crate::{
-    Circuit, DBData, Stream,
+    Circuit, DBData, RootCircuit, Runtime, Stream,
     dynamic::{DowncastTrait, DynData, Erase},
     operator::dynamic::join_range::StreamJoinRangeFactories,
     typed_batch::{
         DynOrdIndexedZSet, DynOrdZSet, IndexedZSet, IndexedZSetReader, OrdIndexedZSet, OrdZSet,
     },
+    utils::Tup2,
 };
 
 impl<C, I1> Stream<C, I1>
@@ -162,3 +163,207 @@ where
             .typed()
     }
 }
+
+impl<K1, V1> Stream<RootCircuit, OrdIndexedZSet<K1, V1>>
+where
+    K1: DBData,
+    V1: DBData,
+{
+    /// Incremental range-join of two streams into an `OrdZSet`.
+    ///
+    /// Computes the same result as applying
+    /// [`stream_join_range`](`Self::stream_join_range`) to the integrals of
+    /// both inputs, but only does work proportional to the changes:
+    /// `Δz1 ⋈ ∫z2 + ∫z1 ⋈ Δz2 - Δz1 ⋈ Δz2`.
+    ///
+    /// # Arguments
+    ///
+    /// * `self` - the left-hand side of the join.
+    /// * `other` - the right-hand side of the join.
+    /// * `partition_func` - maps a key to the partition it belongs to.  Keys
+    ///   in different partitions never match, i.e., all keys in
+    ///   `range_func(k)` must be in the same partition as `k`.  In a
+    ///   multi-worker circuit both inputs are sharded by partition.
+    /// * `range_func` - maps a key in `self` to the half-closed interval of
+    ///   keys in `other` it matches.
+    /// * `inverse_range_func` - maps a key in `other` to the half-closed
+    ///   interval of keys in `self` it matches, i.e., `k2` is in
+    ///   `range_func(k1)` iff `k1` is in `inverse_range_func(k2)`.
+    /// * `join_func` - join function that maps a pair of matching records to
+    ///   output values.
+    ///
+    /// Bounds set on the inputs with
+    /// [`integrate_trace_retain_keys`](`Self::integrate_trace_retain_keys`)
+    /// apply to the traces maintained by this operator.
+    #[track_caller]
+    pub fn join_range<V2, P, PF, RF, IRF, JF, It>(
+        &self,
+        other: &Stream<RootCircuit, OrdIndexedZSet<K1, V2>>,
+        partition_func: PF,
+        range_func: RF,
+        inverse_range_func: IRF,
+        join_func: JF,
+    ) -> Stream<RootCircuit, OrdZSet<It::Item>>
+    where
+        V2: DBData,
+        P: DBData,
+        PF: Fn(&K1) -> P + Clone + 'static,
+        RF: Fn(&K1) -> (K1, K1) + Clone + 'static,
+        IRF: Fn(&K1) -> (K1, K1) + 'static,
+        JF: Fn(&K1, &V1, &K1, &V2) -> It + Clone + 'static,
+        It: IntoIterator + 'static,
+        It::Item: DBData,
+    {
+        let (left, right) = if Runtime::num_workers() > 1 {
+            (
+                self.partition_range(partition_func.clone()),
+                other.partition_range(partition_func),
+            )
+        } else {
+            (self.clone(), other.clone())
+        };
+
+        let join_func_swapped = join_func.clone();
+
+        // Δz1 ⋈ ∫z2, where ∫z2 already includes Δz2.
+        let delta_left = left.stream_join_range(
+            &right.integrate_trace(),
+            range_func.clone(),
+            join_func.clone(),
+        );
+        // ∫z1 ⋈ Δz2, where ∫z1 already includes Δz1.
+        let delta_right = right.stream_join_range(
+            &left.integrate_trace(),
+            inverse_range_func,
+            move |k2, v2, k1, v1| join_func_swapped(k1, v1, k2, v2),
+        );
+        // Δz1 ⋈ Δz2 is counted by both terms above.
+        let both = left.stream_join_range(&right, range_func, join_func);
+
+        delta_left.plus(&delta_right).minus(&both)
+    }
+
+    /// Shards `self` by `partition_func` applied to the key, so that keys in
+    /// the same partition are processed by the same worker.
+    fn partition_range<P, PF>(&self, partition_func: PF) -> Self
+    where
+        P: DBData,
+        PF: Fn(&K1) -> P + 'static,
+    {
+        let partitioned = self
+            .map_index(move |(k, v)| (partition_func(k), Tup2(k.clone(), v.clone())))
+            .shard()
+            .map_index(|(_, Tup2(k, v))| (k.clone(), v.clone()));
+        self.inner().share_trace_bounds(&partitioned.inner());
+        partitioned
+    }
+}
+
+#[cfg(test)]
+mod test {
+    use crate::{Circuit, RootCircuit, Runtime, operator::Generator, utils::Tup2, zset};
+
+    fn join_range_test_circuit(circuit: &RootCircuit) {
+        let mut input1 = vec![
+            zset! {
+                Tup2(Tup2(0, 1), 'a') => 1,
+                Tup2(Tup2(0, 5), 'b') => 1,
+                Tup2(Tup2(1, 1), 'q') => 1,
+            },
+            zset! { Tup2(Tup2(0, 3), 'c') => 1 },
+            zset! { Tup2(Tup2(0, 1), 'a') => -1 },
+            zset! {},
+        ]
+        .into_iter();
+        let mut input2 = vec![
+            zset! { Tup2(Tup2(0, 2), 'x') => 1 },
+            zset! {
+                Tup2(Tup2(0, 4), 'y') => 1,
+                Tup2(Tup2(0, 6), 'z') => 2,
+                Tup2(Tup2(1, 2), 'w') => 1,
+            },
+            zset! {},
+            zset! { Tup2(Tup2(0, 2), 'x') => -1 },
+        ]
+        .into_iter();
+        // Keys are `(partition, ts)`; matches keys with the same partition
+        // and `ts2` in `[ts1 - 1, ts1 + 2)`.
+        let mut outputs = vec![
+            zset! { Tup2(Tup2(1, 'a'), Tup2(2, 'x')) => 1 },
+            zset! {
+                Tup2(Tup2(3, 'c'), Tup2(2, 'x')) => 1,
+                Tup2(Tup2(3, 'c'), Tup2(4, 'y')) => 1,
+                Tup2(Tup2(5, 'b'), Tup2(4, 'y')) => 1,
+                Tup2(Tup2(5, 'b'), Tup2(6, 'z')) => 2,
+                Tup2(Tup2(1, 'q'), Tup2(2, 'w')) => 1,
+            },
+            zset! { Tup2(Tup2(1, 'a'), Tup2(2, 'x')) => -1 },
+            zset! { Tup2(Tup2(3, 'c'), Tup2(2, 'x')) => -1 },
+        ]
+        .into_iter();
+
+        let index1 = circuit
+            .add_source(Generator::new(move || {
+                if Runtime::worker_index() == 0 {
+                    input1.next().unwrap()
+                } else {
+                    zset! {}
+                }
+            }))
+            .map_index(|Tup2(k, v)| (*k, *v));
+        let index2 = circuit
+            .add_source(Generator::new(move || {
+                if Runtime::worker_index() == 0 {
+                    input2.next().unwrap()
+                } else {
+                    zset! {}
+                }
+            }))
+            .map_index(|Tup2(k, v)| (*k, *v));
+        index1
+            .join_range(
+                &index2,
+                |&Tup2(p, _)| p,
+                |&Tup2(p, ts1)| (Tup2(p, ts1 - 1), Tup2(p, ts1 + 2)),
+                |&Tup2(p, ts2)| (Tup2(p, ts2 - 1), Tup2(p, ts2 + 2)),
+                |&Tup2(_, ts1), &v1, &Tup2(_, ts2), &v2| {
+                    Some(Tup2(Tup2(ts1, v1), Tup2(ts2, v2)))
+                },
+            )
+            .gather(0)
+            .inspect(move |fm| {
+                if Runtime::worker_index() == 0 {
+                    assert_eq!(fm, &outputs.next().unwrap())
+                }
+            });
+    }
+
+    #[test]
+    fn join_range_test() {
+        let circuit = RootCircuit::build(move |circuit| {
+            join_range_test_circuit(circuit);
+            Ok(())
+        })
+        .unwrap()
+        .0;
+
+        for _ in 0..4 {
+            circuit.transaction().unwrap();
+        }
+    }
+
+    #[test]
+    fn join_range_test_mt() {
+        let (mut dbsp, _) = Runtime::init_circuit(4, move |circuit| {
+            join_range_test_circuit(circuit);
+            Ok(())
+        })
+        .unwrap();
+
+        for _ in 0..4 {
+            dbsp.transaction().unwrap();
+        }
+
+        dbsp.kill().unwrap();
+    }
+}
@@ -111,6 +111,17 @@ impl UnsignedWrapper {
         let o = UnsignedWrapper::to_signed::<O, S, I, U>(value, ascending, nullsLast);
         Some(o)
     }
+
+    // Append the encoding of a value to the encoding of a prefix of a composite key.
+    // The result preserves the lexicographic order of (prefix, value) if 'radix'
+    // is larger than all encoded values.  The compiler checks that this cannot overflow.
+    #[doc(hidden)]
+    pub fn pack<U, V>(prefix: U, radix: U, value: V) -> U
+    where
+        U: UnsignedPrimInt + From<V>,
+    {
+        prefix * radix + <U as From<V>>::from(value)
+    }
 }
 
 // Macro to create variants of an aggregation function
@@ -782,3 +793,15 @@ where
         (Some(left), Some(right)) => left >= right,
     }
 }
+
+/// Applies the `increment` function of a fold to each of the `rows`,
+/// each with weight 1.  Used to aggregate the rows of a window frame.
+#[doc(hidden)]
+pub fn fold_rows<A, T, F>(accumulator: &mut A, rows: &[T], increment: F)
+where
+    F: Fn(&mut A, &T, Weight),
+{
+    for row in rows {
+        increment(accumulator, row, 1);
+    }
+}
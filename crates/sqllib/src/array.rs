@@ -236,6 +236,56 @@ where
     index_N_(value.as_ref()?, index?)
 }
 
+// Helpers for UNNEST with multiple arrays, which zips the arrays
+// and pads the shorter ones with NULL values.
+
+#[doc(hidden)]
+pub fn unnest_len_<T>(value: &Array<T>) -> usize {
+    value.len()
+}
+
+#[doc(hidden)]
+pub fn unnest_lenN<T>(value: &Option<Array<T>>) -> usize {
+    value.as_ref().map(|value| value.len()).unwrap_or(0)
+}
+
+#[doc(hidden)]
+pub fn unnest_indexes(len: usize) -> std::ops::Range<usize> {
+    0..len
+}
+
+#[doc(hidden)]
+pub fn unnest_element__<T>(value: &Array<T>, index: usize) -> Option<T>
+where
+    T: Clone,
+{
+    value.get(index).cloned()
+}
+
+#[doc(hidden)]
+pub fn unnest_element_N<T>(value: &Array<Option<T>>, index: usize) -> Option<T>
+where
+    T: Clone,
+{
+    value.get(index)?.clone()
+}
+
+#[doc(hidden)]
+pub fn unnest_elementN_<T>(value: &Option<Array<T>>, index: usize) -> Option<T>
+where
+    T: Clone,
+{
+    unnest_element__(value.as_ref()?, index)
+}
+
+#[doc(hidden)]
+pub fn unnest_elementNN<T>(value: &Option<Array<Option<T>>>, index: usize) -> Option<T>
+where
+    T: Clone,
+{
+    unnest_element_N(value.as_ref()?, index)
+}
+
 #[doc(hidden)]
 pub fn array<T>() -> Array<T> {
     vec![].into()
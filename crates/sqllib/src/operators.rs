@@ -2,7 +2,9 @@ use std::ops::{Add, Div, Mul, Sub};
 
 use dbsp::algebra::{F32, F64, HasZero};
 use num::{PrimInt, Zero};
-use num_traits::{CheckedAdd, CheckedDiv, CheckedMul, CheckedSub};
+use num_traits::{
+    CheckedAdd, CheckedDiv, CheckedMul, CheckedSub, WrappingAdd, WrappingMul, WrappingSub,
+};
 use std::cmp::Ordering;
 
 use crate::{for_all_int_operator, some_existing_operator, some_operator, type_name};
@@ -320,6 +322,42 @@ where
 some_operator!(fp_times, times, f, F32, F32);
 some_operator!(fp_times, times, d, F64, F64);
 
+// The following operations are used by the compiler only when it can prove
+// that the result cannot overflow, so they do not need to check for overflow.
+
+#[inline(always)]
+#[doc(hidden)]
+fn plus_unchecked<T>(left: T, right: T) -> T
+where
+    T: WrappingAdd,
+{
+    left.wrapping_add(&right)
+}
+
+for_all_int_operator!(plus_unchecked);
+
+#[inline(always)]
+#[doc(hidden)]
+fn minus_unchecked<T>(left: T, right: T) -> T
+where
+    T: WrappingSub,
+{
+    left.wrapping_sub(&right)
+}
+
+for_all_int_operator!(minus_unchecked);
+
+#[inline(always)]
+#[doc(hidden)]
+fn times_unchecked<T>(left: T, right: T) -> T
+where
+    T: WrappingMul,
+{
+    left.wrapping_mul(&right)
+}
+
+for_all_int_operator!(times_unchecked);
+
 #[inline(always)]
 #[doc(hidden)]
 fn band<T>(left: T, right: T) -> T
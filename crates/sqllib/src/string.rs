@@ -25,6 +25,7 @@ use rkyv::{
 use serde::{Deserialize, Serialize};
 use size_of::{Context, SizeOf};
 use std::{
+    cell::RefCell,
     cmp::max,
     fmt::{Display, Formatter},
     mem::{MaybeUninit, transmute},
@@ -345,6 +346,54 @@ pub fn like3___(value: SqlString, pattern: SqlString, escape: SqlString) -> bool
 
 some_function3!(like3, SqlString, SqlString, SqlString, bool);
 
+// The following functions implement LIKE for constant patterns
+// which are analyzed by the compiler.
+
+/// LIKE with a pattern without wildcards
+#[doc(hidden)]
+pub fn like_equals__(value: SqlString, pattern: SqlString) -> bool {
+    value.str() == pattern.str()
+}
+
+some_function2!(like_equals, SqlString, SqlString, bool);
+
+/// LIKE with a pattern of the form 'prefix%'
+#[doc(hidden)]
+pub fn like_starts_with__(value: SqlString, prefix: SqlString) -> bool {
+    value.str().starts_with(prefix.str())
+}
+
+some_function2!(like_starts_with, SqlString, SqlString, bool);
+
+/// LIKE with a pattern of the form '%suffix'
+#[doc(hidden)]
+pub fn like_ends_with__(value: SqlString, suffix: SqlString) -> bool {
+    value.str().ends_with(suffix.str())
+}
+
+some_function2!(like_ends_with, SqlString, SqlString, bool);
+
+/// LIKE with a pattern of the form '%infix%'
+#[doc(hidden)]
+pub fn like_contains__(value: SqlString, infix: SqlString) -> bool {
+    value.str().contains(infix.str())
+}
+
+some_function2!(like_contains, SqlString, SqlString, bool);
+
+/// LIKE with a pattern of the form 'prefix%suffix'
+#[doc(hidden)]
+pub fn like_starts_ends_with___(value: SqlString, prefix: SqlString, suffix: SqlString) -> bool {
+    let value = value.str();
+    let prefix = prefix.str();
+    let suffix = suffix.str();
+    value.len() >= prefix.len() + suffix.len()
+        && value.starts_with(prefix)
+        && value.ends_with(suffix)
+}
+
+some_function3!(like_starts_ends_with, SqlString, SqlString, SqlString, bool);
+
 #[doc(hidden)]
 pub fn ilike2__(value: SqlString, pattern: SqlString) -> bool {
     // Convert both the value and the pattern to lowercase for case-insensitive comparison
@@ -716,8 +765,50 @@ pub enum ParsedRegex {
     Invalid(SqlString, String),
 }
 
-#[doc(hidden)]
-pub fn make_regex_(re: SqlString) -> ParsedRegex {
+/// Number of entries in the per-thread caches of compiled patterns.
+const PATTERN_CACHE_SIZE: usize = 16;
+
+/// A small cache of values compiled from strings, such as regular
+/// expressions and format strings.  The SQL compiler turns constant
+/// patterns into static values, which are compiled only once; this
+/// cache helps when a pattern is computed at runtime, but takes only a
+/// few distinct values.  When full, entries are replaced round-robin.
+pub(crate) struct PatternCache<T> {
+    entries: Vec<(SqlString, T)>,
+    next: usize,
+}
+
+impl<T: Clone> PatternCache<T> {
+    pub(crate) const fn new() -> Self {
+        Self {
+            entries: Vec::new(),
+            next: 0,
+        }
+    }
+
+    pub(crate) fn get_or_insert_with<F>(&mut self, key: &SqlString, compile: F) -> T
+    where
+        F: FnOnce() -> T,
+    {
+        if let Some((_, value)) = self.entries.iter().find(|(k, _)| k == key) {
+            return value.clone();
+        }
+        let value = compile();
+        if self.entries.len() < PATTERN_CACHE_SIZE {
+            self.entries.push((key.clone(), value.clone()));
+        } else {
+            self.entries[self.next] = (key.clone(), value.clone());
+            self.next = (self.next + 1) % PATTERN_CACHE_SIZE;
+        }
+        value
+    }
+}
+
+thread_local! {
+    static REGEX_CACHE: RefCell<PatternCache<ParsedRegex>> = const { RefCell::new(PatternCache::new()) };
+}
+
+fn compile_regex(re: SqlString) -> ParsedRegex {
     match Regex::new(re.str()) {
         Ok(r) => ParsedRegex::Regex(r),
         Err(e) => {
@@ -731,6 +822,15 @@ pub fn make_regex_(re: SqlString) -> ParsedRegex {
     }
 }
 
+#[doc(hidden)]
+pub fn make_regex_(re: SqlString) -> ParsedRegex {
+    REGEX_CACHE.with(|cache| {
+        cache
+            .borrow_mut()
+            .get_or_insert_with(&re, || compile_regex(re.clone()))
+    })
+}
+
 some_function1!(make_regex, SqlString, ParsedRegex);
 
 #[doc(hidden)]
@@ -7,8 +7,9 @@ use crate::{
     casts::*,
     interval::{LongInterval, ShortInterval},
     rfc3339::parse_timestamp_from_rfc3339,
+    string::PatternCache,
 };
-use chrono::format::ParseErrorKind;
+use chrono::format::{Item, ParseErrorKind, ParseResult, Parsed, StrftimeItems, parse};
 use chrono::{
     DateTime, Datelike, Days, Duration, FixedOffset, Months, NaiveDate, NaiveDateTime, NaiveTime,
     TimeZone, Timelike, Utc,
@@ -26,13 +27,16 @@ use serde::{Deserialize, Deserializer, Serializer, de::Error as _, ser::Error as
 use size_of::SizeOf;
 use std::{
     borrow::Cow,
+    cell::RefCell,
     fmt::{self, Debug},
     ops::{Add, Sub},
+    sync::Arc,
 };
 
 use crate::{
     operators::{eq, gt, gte, lt, lte, neq},
-    some_existing_operator, some_function2, some_operator, some_polymorphic_function1,
+    some_existing_operator, some_function1, some_function2, some_operator,
+    some_polymorphic_function1,
     some_polymorphic_function2, some_polymorphic_function3,
 };
 
@@ -1406,6 +1410,13 @@ pub fn hop_TimestampN_ShortInterval_ShortInterval_ShortInterval(
 #[doc(hidden)]
 pub fn parse_timestamp__(format: SqlString, st: SqlString) -> Option<Timestamp> {
     let nt = NaiveDateTime::parse_from_str(st.str(), format.str());
+    timestamp_from_parse_result(&format, nt)
+}
+
+fn timestamp_from_parse_result(
+    format: &SqlString,
+    nt: ParseResult<NaiveDateTime>,
+) -> Option<Timestamp> {
     match nt {
         Ok(nt) => Some(Timestamp::from_naiveDateTime(nt)),
         Err(e) => match e.kind() {
@@ -1437,6 +1448,38 @@ pub fn parse_timestampNN(format: Option<SqlString>, st: Option<SqlString>) -> Op
     parse_timestamp__(format, st)
 }
 
+#[doc(hidden)]
+pub fn parse_timestamp_fmt__(format: ParsedFormat, st: SqlString) -> Option<Timestamp> {
+    match format {
+        ParsedFormat::Invalid(format) => parse_timestamp__(format, st),
+        ParsedFormat::Items(format, items) => {
+            let mut parsed = Parsed::new();
+            let nt = parse(&mut parsed, st.str(), items.iter())
+                .and_then(|_| parsed.to_naive_datetime_with_offset(0));
+            timestamp_from_parse_result(&format, nt)
+        }
+    }
+}
+
+pub fn parse_timestamp_fmtN_(format: Option<ParsedFormat>, st: SqlString) -> Option<Timestamp> {
+    let format = format?;
+    parse_timestamp_fmt__(format, st)
+}
+
+pub fn parse_timestamp_fmt_N(format: ParsedFormat, st: Option<SqlString>) -> Option<Timestamp> {
+    let st = st?;
+    parse_timestamp_fmt__(format, st)
+}
+
+pub fn parse_timestamp_fmtNN(
+    format: Option<ParsedFormat>,
+    st: Option<SqlString>,
+) -> Option<Timestamp> {
+    let st = st?;
+    let format = format?;
+    parse_timestamp_fmt__(format, st)
+}
+
 //////////////////////////// Date
 
 /// A representation of a Date in the Gregorian calendar.
@@ -2075,6 +2118,34 @@ pub fn datediff_day_Date_Date(left: Date, right: Date) -> i32 {
 
 some_polymorphic_function2!(datediff_day, Date, Date, Date, Date, i32);
 
+/// A format string for the FORMAT_* and PARSE_* functions, parsed once.
+#[doc(hidden)]
+#[derive(Debug, Clone)]
+pub enum ParsedFormat {
+    Items(SqlString, Arc<[Item<'static>]>),
+    // Format strings that cannot be parsed are passed to the functions
+    // that take the format as a string, which report the errors.
+    Invalid(SqlString),
+}
+
+thread_local! {
+    static FORMAT_CACHE: RefCell<PatternCache<ParsedFormat>> = const { RefCell::new(PatternCache::new()) };
+}
+
+#[doc(hidden)]
+pub fn make_format_(format: SqlString) -> ParsedFormat {
+    FORMAT_CACHE.with(|cache| {
+        cache.borrow_mut().get_or_insert_with(&format, || {
+            match StrftimeItems::new(format.str()).parse_to_owned() {
+                Ok(items) => ParsedFormat::Items(format.clone(), items.into()),
+                Err(_) => ParsedFormat::Invalid(format.clone()),
+            }
+        })
+    })
+}
+
+some_function1!(make_format, SqlString, ParsedFormat);
+
 #[doc(hidden)]
 pub fn format_date__(format: SqlString, date: Date) -> SqlString {
     SqlString::from(date.to_dateTime().format(format.str()).to_string())
@@ -2096,9 +2167,54 @@ pub fn format_timestamp__(format: SqlString, date: Timestamp) -> SqlString {
 
 some_function2!(format_timestamp, SqlString, Timestamp, SqlString);
 
+#[doc(hidden)]
+pub fn format_date_fmt__(format: ParsedFormat, date: Date) -> SqlString {
+    match format {
+        ParsedFormat::Invalid(format) => format_date__(format, date),
+        ParsedFormat::Items(_, items) => SqlString::from(
+            date.to_dateTime()
+                .format_with_items(items.iter())
+                .to_string(),
+        ),
+    }
+}
+
+some_function2!(format_date_fmt, ParsedFormat, Date, SqlString);
+
+#[doc(hidden)]
+pub fn format_time_fmt__(format: ParsedFormat, time: Time) -> SqlString {
+    match format {
+        ParsedFormat::Invalid(format) => format_time__(format, time),
+        ParsedFormat::Items(_, items) => {
+            SqlString::from(time.to_time().format_with_items(items.iter()).to_string())
+        }
+    }
+}
+
+some_function2!(format_time_fmt, ParsedFormat, Time, SqlString);
+
+#[doc(hidden)]
+pub fn format_timestamp_fmt__(format: ParsedFormat, timestamp: Timestamp) -> SqlString {
+    match format {
+        ParsedFormat::Invalid(format) => format_timestamp__(format, timestamp),
+        ParsedFormat::Items(_, items) => SqlString::from(
+            timestamp
+                .to_naiveDateTime()
+                .format_with_items(items.iter())
+                .to_string(),
+        ),
+    }
+}
+
+some_function2!(format_timestamp_fmt, ParsedFormat, Timestamp, SqlString);
+
 #[doc(hidden)]
 pub fn parse_date__(format: SqlString, st: SqlString) -> Option<Date> {
     let nd = NaiveDate::parse_from_str(st.str(), format.str());
+    date_from_parse_result(&format, nd)
+}
+
+fn date_from_parse_result(format: &SqlString, nd: ParseResult<NaiveDate>) -> Option<Date> {
     match nd {
         Ok(nd) => Some(Date::from_date(nd)),
         Err(e) => match e.kind() {
@@ -2126,6 +2242,35 @@ pub fn parse_dateNN(format: Option<SqlString>, st: Option<SqlString>) -> Option<
     parse_date__(format, st)
 }
 
+#[doc(hidden)]
+pub fn parse_date_fmt__(format: ParsedFormat, st: SqlString) -> Option<Date> {
+    match format {
+        ParsedFormat::Invalid(format) => parse_date__(format, st),
+        ParsedFormat::Items(format, items) => {
+            let mut parsed = Parsed::new();
+            let nd =
+                parse(&mut parsed, st.str(), items.iter()).and_then(|_| parsed.to_naive_date());
+            date_from_parse_result(&format, nd)
+        }
+    }
+}
+
+pub fn parse_date_fmtN_(format: Option<ParsedFormat>, st: SqlString) -> Option<Date> {
+    let format = format?;
+    parse_date_fmt__(format, st)
+}
+
+pub fn parse_date_fmt_N(format: ParsedFormat, st: Option<SqlString>) -> Option<Date> {
+    let st = st?;
+    parse_date_fmt__(format, st)
+}
+
+pub fn parse_date_fmtNN(format: Option<ParsedFormat>, st: Option<SqlString>) -> Option<Date> {
+    let st = st?;
+    let format = format?;
+    parse_date_fmt__(format, st)
+}
+
 #[doc(hidden)]
 pub fn date_trunc_millennium_Timestamp(timestamp: Timestamp) -> Timestamp {
     let dt = timestamp.get_date();
@@ -2889,6 +3034,10 @@ some_polymorphic_function1!(extract_hour, Time, Time, i64);
 #[doc(hidden)]
 pub fn parse_time__(format: SqlString, st: SqlString) -> Option<Time> {
     let nt = NaiveTime::parse_from_str(st.str(), format.str());
+    time_from_parse_result(&format, nt)
+}
+
+fn time_from_parse_result(format: &SqlString, nt: ParseResult<NaiveTime>) -> Option<Time> {
     match nt {
         Ok(nt) => Some(Time::from_time(nt)),
         Err(e) => match e.kind() {
@@ -2916,6 +3065,35 @@ pub fn parse_timeNN(format: Option<SqlString>, st: Option<SqlString>) -> Option<
     parse_time__(format, st)
 }
 
+#[doc(hidden)]
+pub fn parse_time_fmt__(format: ParsedFormat, st: SqlString) -> Option<Time> {
+    match format {
+        ParsedFormat::Invalid(format) => parse_time__(format, st),
+        ParsedFormat::Items(format, items) => {
+            let mut parsed = Parsed::new();
+            let nt =
+                parse(&mut parsed, st.str(), items.iter()).and_then(|_| parsed.to_naive_time());
+            time_from_parse_result(&format, nt)
+        }
+    }
+}
+
+pub fn parse_time_fmtN_(format: Option<ParsedFormat>, st: SqlString) -> Option<Time> {
+    let format = format?;
+    parse_time_fmt__(format, st)
+}
+
+pub fn parse_time_fmt_N(format: ParsedFormat, st: Option<SqlString>) -> Option<Time> {
+    let st = st?;
+    parse_time_fmt__(format, st)
+}
+
+pub fn parse_time_fmtNN(format: Option<ParsedFormat>, st: Option<SqlString>) -> Option<Time> {
+    let st = st?;
+    let format = format?;
+    parse_time_fmt__(format, st)
+}
+
 #[cfg(test)]
 mod test {
     use std::sync::LazyLock;
@@ -0,0 +1,15 @@
+package org.dbsp.sqlCompiler.circuit.annotation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/** Annotation used on the {@link org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator}
+ * operators that implement an UNNEST; these can be fused with the operator that follows them. */
+public class Unnest extends Annotation {
+    public static final Unnest INSTANCE = new Unnest();
+
+    private Unnest() {}
+
+    public static Unnest fromJson(JsonNode unused) {
+        return INSTANCE;
+    }
+}
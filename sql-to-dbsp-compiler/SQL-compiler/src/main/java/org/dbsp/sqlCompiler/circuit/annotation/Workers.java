@@ -0,0 +1,34 @@
+package org.dbsp.sqlCompiler.circuit.annotation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.dbsp.util.JsonStream;
+import org.dbsp.util.Utilities;
+
+/** Number of workers that should evaluate an operator.
+ * The inputs of the operator are sent to the first 'workers' workers of the circuit,
+ * instead of being sharded across all workers. */
+public class Workers extends Annotation {
+    public final int workers;
+
+    public Workers(int workers) {
+        this.workers = workers;
+    }
+
+    public static Workers fromJson(JsonNode node) {
+        int workers = Utilities.getIntProperty(node, "workers");
+        return new Workers(workers);
+    }
+
+    @Override
+    public void asJson(JsonStream stream) {
+        stream.beginObject().appendClass(this);
+        stream.label("workers");
+        stream.append(this.workers);
+        stream.endObject();
+    }
+
+    @Override
+    public String toString() {
+        return "Workers: " + this.workers;
+    }
+}
@@ -12,6 +12,7 @@ import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.EquivalenceContext;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.Expensive;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.RefineNullability;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
@@ -35,7 +36,9 @@ import org.dbsp.util.Utilities;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /** A Chain operator performs a linear chain of Map/Filter/MapIndex operations.
  * In the end it is lowered to a {@link DBSPFlatMapOperator} or
@@ -174,21 +177,26 @@ public class DBSPChainOperator extends DBSPUnaryOperator implements ILinear {
             boolean foundFilter = false;
             boolean foundNonFilter = false;
             List<DBSPStatement> statements = new ArrayList<>();
+            // Fields of the current argument known to be non-null because of the preceding filters
+            Set<Integer> nonNull = new HashSet<>();
             for (Computation comp: this.computations) {
                 CalciteObject node = comp.closure().getNode();
+                DBSPClosureExpression closure = RefineNullability.refine(compiler, comp.closure, nonNull);
                 DBSPStatement stat;
                 switch (comp.kind) {
                     case Map, MapIndex: {
                         foundNonFilter = true;
                         DBSPVariablePath nextVar = comp.closure.getResultType().var();
                         stat = new DBSPLetStatement(nextVar.variable,
-                                this.call(compiler, comp.closure, currentArg));
+                                this.call(compiler, closure, currentArg));
                         currentArg = nextVar;
+                        nonNull.clear();
                         break;
                     }
                     case Filter: {
                         foundFilter = true;
-                        DBSPExpression condition = this.call(compiler, comp.closure, currentArg).not();
+                        nonNull.addAll(RefineNullability.nonNullFields(comp.closure));
+                        DBSPExpression condition = this.call(compiler, closure, currentArg).not();
                         Simplify simplify = new Simplify(compiler);
                         condition = simplify.apply(condition).to(DBSPExpression.class);
                         DBSPExpression cond = new DBSPIfExpression(node, condition,
@@ -0,0 +1,132 @@
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.dbsp.sqlCompiler.circuit.OutputPort;
+import org.dbsp.sqlCompiler.compiler.backend.JsonDecoder;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteEmptyRel;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteRelNode;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRawTuple;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
+import org.dbsp.util.Utilities;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+
+/** An incremental join where the last field of the key is matched against a range
+ * instead of for equality.  All other key fields are matched for equality.
+ * It corresponds to the DBSP join_range operator.
+ * Both range functions take a reference to the last key field of one input and
+ * return a raw tuple with the half-closed range [lower, upper) of values of the
+ * last key field of the other input that match. */
+public final class DBSPJoinRangeOperator extends DBSPJoinBaseOperator implements IIncremental {
+    /** Range of right keys matching a left key */
+    public final DBSPClosureExpression rangeFunction;
+    /** Range of left keys matching a right key */
+    public final DBSPClosureExpression inverseRangeFunction;
+
+    /**
+     * Create a range join operator
+     *
+     * @param node                 Calcite node
+     * @param outputType           Output type of operator
+     * @param function             Closure from key, valueLeft, valueRight to result type
+     * @param rangeFunction        Range of right key fields matching a left key field
+     * @param inverseRangeFunction Range of left key fields matching a right key field
+     * @param isMultiset           True if output is a multiset
+     * @param left                 Left input
+     * @param right                Right input
+     */
+    public DBSPJoinRangeOperator(CalciteRelNode node, DBSPTypeZSet outputType,
+                                 DBSPExpression function,
+                                 DBSPClosureExpression rangeFunction,
+                                 DBSPClosureExpression inverseRangeFunction,
+                                 boolean isMultiset,
+                                 OutputPort left, OutputPort right) {
+        super(node, "join_range", function, outputType, isMultiset, left, right, false);
+        this.rangeFunction = rangeFunction;
+        this.inverseRangeFunction = inverseRangeFunction;
+        this.checkResultType(function, this.getOutputZSetElementType());
+        DBSPTypeTuple keyType = this.getKeyType().to(DBSPTypeTuple.class);
+        Utilities.enforce(keyType.size() > 0);
+        DBSPType rangeType = keyType.getFieldType(keyType.size() - 1);
+        for (DBSPClosureExpression range: List.of(rangeFunction, inverseRangeFunction)) {
+            Utilities.enforce(range.parameters.length == 1);
+            Utilities.enforce(range.parameters[0].getType().deref().sameType(rangeType));
+            DBSPTypeRawTuple resultType = range.getResultType().to(DBSPTypeRawTuple.class);
+            Utilities.enforce(resultType.size() == 2);
+            Utilities.enforce(resultType.getFieldType(0).sameType(rangeType));
+            Utilities.enforce(resultType.getFieldType(1).sameType(rangeType));
+        }
+    }
+
+    /** Index of the key field matched against a range */
+    public int getRangeKeyIndex() {
+        return this.getKeyType().to(DBSPTypeTuple.class).size() - 1;
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        visitor.push(this);
+        VisitDecision decision = visitor.preorder(this);
+        if (!decision.stop())
+            visitor.postorder(this);
+        visitor.pop(this);
+    }
+
+    @Override
+    public void accept(InnerVisitor visitor) {
+        super.accept(visitor);
+        visitor.property("rangeFunction");
+        this.rangeFunction.accept(visitor);
+        visitor.property("inverseRangeFunction");
+        this.inverseRangeFunction.accept(visitor);
+    }
+
+    @Override
+    public DBSPSimpleOperator with(
+            @Nullable DBSPExpression function, DBSPType outputType,
+            List<OutputPort> newInputs, boolean force) {
+        Utilities.enforce(newInputs.size() == 2);
+        if (this.mustReplace(force, function, newInputs, outputType)) {
+            return new DBSPJoinRangeOperator(
+                    this.getRelNode(), outputType.to(DBSPTypeZSet.class),
+                    Objects.requireNonNull(function), this.rangeFunction, this.inverseRangeFunction,
+                    this.isMultiset, newInputs.get(0), newInputs.get(1))
+                    .copyAnnotations(this);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean equivalent(DBSPOperator other) {
+        if (!super.equivalent(other))
+            return false;
+        DBSPJoinRangeOperator otherOperator = other.as(DBSPJoinRangeOperator.class);
+        if (otherOperator == null)
+            return false;
+        return this.rangeFunction.equivalent(otherOperator.rangeFunction) &&
+                this.inverseRangeFunction.equivalent(otherOperator.inverseRangeFunction);
+    }
+
+    @SuppressWarnings("unused")
+    public static DBSPJoinRangeOperator fromJson(JsonNode node, JsonDecoder decoder) {
+        CommonInfo info = DBSPSimpleOperator.commonInfoFromJson(node, decoder);
+        DBSPClosureExpression rangeFunction = fromJsonInner(
+                node, "rangeFunction", decoder, DBSPClosureExpression.class);
+        DBSPClosureExpression inverseRangeFunction = fromJsonInner(
+                node, "inverseRangeFunction", decoder, DBSPClosureExpression.class);
+        return new DBSPJoinRangeOperator(
+                CalciteEmptyRel.INSTANCE, info.getZsetType(), info.getFunction(),
+                rangeFunction, inverseRangeFunction,
+                info.isMultiset(), info.getInput(0), info.getInput(1))
+                .addAnnotations(info.annotations(), DBSPJoinRangeOperator.class);
+    }
+}
@@ -20,12 +20,22 @@ import java.util.List;
 
 /** Implements the LAG/LEAD operators for an SQL OVER Window.  The LEAD/LAG operator
  * is an interesting WINDOW operator, since it computes the entire content of the window.
- * The output of other window aggregates need to be joined with the data, but this one doesn't. */
+ * The output of other window aggregates need to be joined with the data, but this one doesn't.
+ * The same operator also matches each row with all the 'offset' rows that precede it,
+ * which is used to implement window aggregates over ROWS frames. */
 public final class DBSPLagOperator extends DBSPUnaryOperator implements IContainsIntegrator, IIncremental {
     // Usually a DBSPComparatorExpression, replaced with a PathExpression later.
     public final DBSPExpression comparator;
     public final DBSPExpression projection;
     public final int offset;
+    /** True if the input is append-only and sorted by the comparator; then the operator
+     * only keeps the last 'offset' rows of each partition. */
+    public final boolean appendOnly;
+    /** True if each row is matched with all the 'offset' rows that precede it.
+     * Then the projection is applied to each preceding row, with type &amp;V -&gt; VL,
+     * and the second argument of the function is a vector with the projections
+     * of the preceding rows, the most recent first. */
+    public final boolean rows;
 
     /**
      * Create a LEAD/LAG window aggregation operator.
@@ -38,12 +48,20 @@ public final class DBSPLagOperator extends DBSPUnaryOperator implements IContain
      * @param comparator Comparator used for sorting.
      * @param outputType Type of output record produced.
      * @param source     Input node for the lag operator.
+     * @param appendOnly True if the source is append-only and the rows arrive in the order
+     *                   defined by the comparator.
+     * @param rows       True if each row is matched with all the 'offset' preceding rows.
      */
     public DBSPLagOperator(CalciteRelNode node, int offset,
                            DBSPExpression projection, DBSPExpression function,
                            DBSPExpression comparator,
-                           DBSPTypeIndexedZSet outputType, OutputPort source) {
-        super(node, "lag_custom_order", function, outputType, source.isMultiset(), source);
+                           DBSPTypeIndexedZSet outputType, OutputPort source,
+                           boolean appendOnly, boolean rows) {
+        super(node, rows ? "lag_rows_custom_order" :
+                        appendOnly ? "lag_custom_order_append_only" : "lag_custom_order",
+                function, outputType, source.isMultiset(), source);
+        Utilities.enforce(!appendOnly || offset > 0);
+        Utilities.enforce(!rows || (offset > 0 && !appendOnly));
         Utilities.enforce(comparator.is(DBSPComparatorExpression.class) ||
                 comparator.is(DBSPPathExpression.class));
         if (comparator.is(DBSPComparatorExpression.class)) {
@@ -56,6 +74,24 @@ public final class DBSPLagOperator extends DBSPUnaryOperator implements IContain
         this.comparator = comparator;
         this.projection = projection;
         this.offset = offset;
+        this.appendOnly = appendOnly;
+        this.rows = rows;
+    }
+
+    public DBSPLagOperator(CalciteRelNode node, int offset,
+                           DBSPExpression projection, DBSPExpression function,
+                           DBSPExpression comparator,
+                           DBSPTypeIndexedZSet outputType, OutputPort source) {
+        this(node, offset, projection, function, comparator, outputType, source, false, false);
+    }
+
+    /** The same operator, implemented for an append-only sorted input */
+    public DBSPLagOperator asAppendOnly(OutputPort source) {
+        Utilities.enforce(!this.rows);
+        return new DBSPLagOperator(this.getRelNode(), this.offset,
+                this.projection, this.getFunction(), this.comparator,
+                this.getOutputIndexedZSetType(), source, true, false)
+                .copyAnnotations(this);
     }
 
     @Override
@@ -67,7 +103,9 @@ public final class DBSPLagOperator extends DBSPUnaryOperator implements IContain
             return false;
         return this.comparator.equivalent(otherOperator.comparator) &&
                 this.projection.equivalent(otherOperator.projection) &&
-                this.offset == otherOperator.offset;
+                this.offset == otherOperator.offset &&
+                this.appendOnly == otherOperator.appendOnly &&
+                this.rows == otherOperator.rows;
     }
 
     @Override
@@ -78,7 +116,7 @@ public final class DBSPLagOperator extends DBSPUnaryOperator implements IContain
             Utilities.enforce(newInputs.size() == 1, () -> "Expected 1 input " + newInputs);
             return new DBSPLagOperator(this.getRelNode(), this.offset,
                     this.projection, toClosure(function), this.comparator,
-                    outputType.to(DBSPTypeIndexedZSet.class), newInputs.get(0))
+                    outputType.to(DBSPTypeIndexedZSet.class), newInputs.get(0), this.appendOnly, this.rows)
                     .copyAnnotations(this);
         }
         return this;
@@ -106,11 +144,13 @@ public final class DBSPLagOperator extends DBSPUnaryOperator implements IContain
     public static DBSPLagOperator fromJson(JsonNode node, JsonDecoder decoder) {
         CommonInfo info = DBSPSimpleOperator.commonInfoFromJson(node, decoder);
         int offset = Utilities.getIntProperty(node, "offset");
+        boolean appendOnly = Utilities.getBooleanProperty(node, "appendOnly");
+        boolean rows = Utilities.getBooleanProperty(node, "rows");
         DBSPExpression comparator = fromJsonInner(node, "comparator", decoder, DBSPExpression.class);
         DBSPExpression projection = fromJsonInner(node, "projection", decoder, DBSPExpression.class);
         return new DBSPLagOperator(
                 CalciteEmptyRel.INSTANCE, offset, projection, info.getFunction(),
-                comparator, info.getIndexedZsetType(), info.getInput(0))
+                comparator, info.getIndexedZsetType(), info.getInput(0), appendOnly, rows)
                 .addAnnotations(info.annotations(), DBSPLagOperator.class);
     }
 }
@@ -72,6 +72,9 @@ public class CompilerOptions implements IDiff<CompilerOptions>, IValidate {
         @Parameter(names = "--unaryPlusNoop",
                 description = "Compile unary plus into a no-operation; similar to sqlite")
         public boolean unaryPlusNoop = false;
+        @Parameter(names = "--internKeys",
+                description = "Intern string columns used as join or GROUP BY keys")
+        public boolean internKeys = false;
 
         public boolean same(Language language) {
             // Only compare fields that matter.
@@ -87,6 +90,7 @@ public class CompilerOptions implements IDiff<CompilerOptions>, IValidate {
                     "\n\tgenerateInputForEveryTable=" + this.generateInputForEveryTable +
                     ",\n\tignoreOrderBy=" + this.ignoreOrderBy +
                     ",\n\tincrementalize=" + this.incrementalize +
+                    ",\n\tinternKeys=" + this.internKeys +
                     ",\n\tlenient=" + this.lenient +
                     ",\n\toptimizationLevel=" + this.optimizationLevel +
                     ",\n\toutputsAreSets=" + this.outputsAreSets +
@@ -5,6 +5,7 @@ import org.dbsp.sqlCompiler.compiler.backend.JsonDecoder;
 import org.dbsp.sqlCompiler.compiler.backend.ToJsonInnerVisitor;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.ProgramIdentifier;
 import org.dbsp.sqlCompiler.compiler.frontend.parser.SqlCreateView;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateViewStatement;
 import org.dbsp.util.IJson;
 import org.dbsp.util.JsonStream;
 import org.dbsp.util.Linq;
@@ -47,6 +48,17 @@ public class ViewMetadata implements IJson {
         return Linq.any(this.columns, m -> m.lateness != null);
     }
 
+    /** The number of workers requested for the view using the 'workers' property, or 0 */
+    public int getWorkers() {
+        if (this.properties == null)
+            return 0;
+        String workers = this.properties.getPropertyValue(CreateViewStatement.WORKERS);
+        if (workers == null)
+            return 0;
+        // Validated by the front-end
+        return Integer.parseInt(workers);
+    }
+
     public void asJson(ToJsonInnerVisitor visitor, boolean ignoreProperties) {
         JsonStream stream = visitor.stream;
         stream.beginObject();
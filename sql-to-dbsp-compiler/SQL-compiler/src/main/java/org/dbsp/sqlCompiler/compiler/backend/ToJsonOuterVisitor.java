@@ -263,6 +263,10 @@ public class ToJsonOuterVisitor extends CircuitVisitor {
             return VisitDecision.STOP;
         this.property("offset");
         this.stream.append(operator.offset);
+        this.property("appendOnly");
+        this.stream.append(operator.appendOnly);
+        this.property("rows");
+        this.stream.append(operator.rows);
         return VisitDecision.CONTINUE;
     }
 
@@ -72,6 +72,9 @@ public class RustSqlRuntimeLibrary {
         this.arithmeticFunctions.put(DBSPOpcode.SUB, "minus");
         this.arithmeticFunctions.put(DBSPOpcode.MOD, "modulo");
         this.arithmeticFunctions.put(DBSPOpcode.MUL, "times");
+        this.arithmeticFunctions.put(DBSPOpcode.ADD_UNCHECKED, DBSPOpcode.ADD_UNCHECKED.toString());
+        this.arithmeticFunctions.put(DBSPOpcode.SUB_UNCHECKED, DBSPOpcode.SUB_UNCHECKED.toString());
+        this.arithmeticFunctions.put(DBSPOpcode.MUL_UNCHECKED, DBSPOpcode.MUL_UNCHECKED.toString());
         this.arithmeticFunctions.put(DBSPOpcode.DIV, "div");
         this.arithmeticFunctions.put(DBSPOpcode.BW_AND, "band");
         this.arithmeticFunctions.put(DBSPOpcode.BW_OR, "bor");
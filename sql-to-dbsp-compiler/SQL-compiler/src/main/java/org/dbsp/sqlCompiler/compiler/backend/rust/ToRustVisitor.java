@@ -36,6 +36,7 @@ import org.dbsp.sqlCompiler.circuit.operator.IInputMapOperator;
 import org.dbsp.sqlCompiler.circuit.OutputPort;
 import org.dbsp.sqlCompiler.circuit.annotation.OperatorHash;
 import org.dbsp.sqlCompiler.circuit.annotation.Recursive;
+import org.dbsp.sqlCompiler.circuit.annotation.Workers;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAsofJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateLinearPostprocessOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateLinearPostprocessRetainKeysOperator;
@@ -48,6 +49,8 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPControlledKeyFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPInputMapWithWaterlineOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainNValuesOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPInternOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPNestedOperator;
@@ -64,6 +67,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainKeysOperato
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainValuesOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPNowOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
@@ -93,6 +97,8 @@ import org.dbsp.sqlCompiler.compiler.frontend.statements.IHasSchema;
 import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.CanonicalForm;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Vectorizable;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.AssignWorkers;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.CollectSourcePositions;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.DeclareComparators;
@@ -102,23 +108,30 @@ import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
 import org.dbsp.sqlCompiler.ir.IDBSPNode;
 import org.dbsp.sqlCompiler.ir.IDBSPOuterNode;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPComparatorExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPFieldComparatorExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPWindowBoundExpression;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPISizeLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPUSizeLiteral;
 import org.dbsp.sqlCompiler.ir.expression.DBSPIndexedZSetExpression;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPStrLiteral;
 import org.dbsp.sqlCompiler.ir.expression.DBSPZSetExpression;
 import org.dbsp.sqlCompiler.ir.statement.DBSPFunctionItem;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructItem;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRawTuple;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeStream;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeStruct;
@@ -134,11 +147,15 @@ import org.dbsp.util.Utilities;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 
 /** This visitor generates a Rust implementation of a circuit. */
 public class ToRustVisitor extends CircuitVisitor {
@@ -154,6 +171,14 @@ public class ToRustVisitor extends CircuitVisitor {
     final Set<String> perCircuitDeclarations;
     final SourcePositionResource sourcePositionResource;
     final LateMaterializations materializations;
+    /** Inputs of the current operator which have been sent to a subset of the workers,
+     * indexed by input number */
+    final Map<Integer, String> partitionedInputs;
+    /** Streams which enter a view with a 'workers' property, and the name of the
+     * stream that holds their data on the subset of the workers */
+    final Map<String, String> workerStreams;
+    /** Cache for {@link #onWorkers} */
+    final Map<DBSPOperator, Boolean> onWorkersCache;
 
     /* Example output generated when 'useHandles' is false:
      * pub fn circuit0(workers: usize) -> (DBSPHandle, Catalog) {
@@ -190,6 +215,9 @@ public class ToRustVisitor extends CircuitVisitor {
         this.innerVisitor = this.createInnerVisitor(builder);
         this.sourcePositionResource = new SourcePositionResource();
         this.materializations = materializations;
+        this.partitionedInputs = new HashMap<>();
+        this.workerStreams = new HashMap<>();
+        this.onWorkersCache = new HashMap<>();
     }
 
     ToRustInnerVisitor createInnerVisitor(IIndentStream builder) {
@@ -234,7 +262,11 @@ public class ToRustVisitor extends CircuitVisitor {
             // No output produced for view declarations
             return;
 
+        Workers workers = operator.annotations.first(Workers.class);
+        if (workers != null)
+            this.partitionInputs(operator, workers.workers);
         operator.accept(this);
+        this.partitionedInputs.clear();
         this.builder.newline();
         if (operator.is(DBSPSimpleOperator.class) &&
                 !operator.is(DBSPSinkOperator.class) &&
@@ -390,7 +422,66 @@ public class ToRustVisitor extends CircuitVisitor {
         return VisitDecision.STOP;
     }
 
+    /** True if the data produced by the operator is only on the subset of workers
+     * selected by a {@link Workers} annotation */
+    boolean onWorkers(DBSPOperator operator) {
+        Boolean result = this.onWorkersCache.get(operator);
+        if (result != null)
+            return result;
+        if (operator.annotations.first(Workers.class) != null)
+            result = true;
+        else
+            result = AssignWorkers.preservesWorkers(operator) && !operator.inputs.isEmpty() &&
+                    Linq.all(operator.inputs, i -> this.onWorkers(i.node()));
+        this.onWorkersCache.put(operator, result);
+        return result;
+    }
+
+    /** Send all inputs of an operator to the first 'workers' workers,
+     * and mark them as sharded, so the operator does not shard them again.
+     * Streams that enter the view are sent once, and reused by all the operators
+     * that consume them; streams produced inside the view are already on these workers. */
+    void partitionInputs(DBSPOperator operator, int workers) {
+        for (int i = 0; i < operator.inputs.size(); i++) {
+            String input = this.getInputName(operator, i);
+            boolean local = this.onWorkers(operator.inputs.get(i).node());
+            if (local && workers == 1) {
+                // All the data is already on worker 0
+                this.builder.append(input).append(".mark_sharded();").newline();
+                continue;
+            }
+            // When each operator is generated separately the streams cannot be reused
+            boolean reuse = !local && !this.preferHash;
+            if (reuse) {
+                String sent = this.workerStreams.get(input);
+                if (sent != null) {
+                    this.partitionedInputs.put(i, sent);
+                    continue;
+                }
+            }
+            String name = operator.getNodeName(this.preferHash) + "_input" + i;
+            this.builder.append("let ")
+                    .append(name)
+                    .append(" = ")
+                    .append(input);
+            if (workers == 1) {
+                this.builder.append(".gather(0)");
+            } else {
+                this.builder.append(".shard_workers(0..usize::min(")
+                        .append(workers)
+                        .append(", Runtime::num_workers()))");
+            }
+            this.builder.append(".mark_sharded();").newline();
+            this.partitionedInputs.put(i, name);
+            if (reuse)
+                this.workerStreams.put(input, name);
+        }
+    }
+
     String getInputName(DBSPOperator operator, int input) {
+        String partitioned = this.partitionedInputs.get(input);
+        if (partitioned != null)
+            return partitioned;
         if (this.preferHash)
             return "i" + input;
         else
@@ -1133,6 +1224,198 @@ public class ToRustVisitor extends CircuitVisitor {
         return VisitDecision.STOP;
     }
 
+    /** Emit the type of the column vectors used by a vectorized operator:
+     * a tuple with a vector for each of the specified fields of the row. */
+    void columnsType(DBSPTypeTuple rowType, Set<Integer> fields) {
+        this.builder.append("(");
+        for (int field: fields) {
+            this.builder.append("Vec<");
+            rowType.getFieldType(field).accept(this.innerVisitor);
+            this.builder.append(">, ");
+        }
+        this.builder.append(")");
+    }
+
+    /** Emit the statements "let x_k = x_k[i];" loading the element i of the specified columns */
+    void loadColumns(Set<Integer> fields) {
+        for (int field: fields) {
+            String name = Vectorizable.columnName(field);
+            this.builder.append("let ")
+                    .append(name)
+                    .append(" = ")
+                    .append(name)
+                    .append("[i];")
+                    .newline();
+        }
+    }
+
+    /** Emit a map or filter operator whose function is evaluated column-at-a-time
+     * on chunks of rows, as described in {@link Vectorizable}.
+     * For a map with function |x| Tup2::new(x.0 + x.1, x.2) this generates:
+     * <pre>
+     * stream.map_batched(
+     *     move |row: &Tup3<...>, columns: &mut (Vec<i32>, Vec<i32>, Vec<i32>,)| {
+     *         columns.0.push(row.0);
+     *         ...
+     *     },
+     *     move |n: usize, columns: &mut (Vec<i32>, Vec<i32>, Vec<i32>,), out: &mut Vec<Tup2<...>>| {
+     *         let x_0 = &columns.0[..n];
+     *         ...
+     *         let y_0 = (0..n).map(|i| { let x_0 = x_0[i]; let x_1 = x_1[i]; x_0 + x_1 }).collect::<Vec<i32>>();
+     *         let y_1 = (0..n).map(|i| { let x_2 = x_2[i]; x_2 }).collect::<Vec<i32>>();
+     *         out.extend((0..n).map(|i| { let y_0 = y_0[i]; let y_1 = y_1[i]; Tup2::new(y_0, y_1) }));
+     *         columns.0.clear();
+     *         ...
+     *     })
+     * </pre>
+     * The first closure borrows each row and copies only the used fields.
+     * A filter pushes the values of the predicate into 'out' instead. */
+    VisitDecision vectorized(DBSPSimpleOperator operator, List<DBSPExpression> columns) {
+        DBSPClosureExpression closure = operator.getClosureFunction();
+        DBSPParameter row = closure.parameters[0];
+        DBSPTypeTuple rowType = row.type.deref().to(DBSPTypeTuple.class);
+        boolean isMap = operator.is(DBSPMapOperator.class);
+
+        List<Set<Integer>> fields = new ArrayList<>();
+        Set<Integer> allFields = new TreeSet<>();
+        for (DBSPExpression column: columns) {
+            Set<Integer> used = Objects.requireNonNull(Vectorizable.getColumns(this.compiler, row, column));
+            fields.add(used);
+            allFields.addAll(used);
+        }
+
+        this.computeHash(operator);
+        this.innerVisitor.setOperatorContext(operator);
+        DBSPType streamType = this.streamType(operator);
+        this.writeComments(operator)
+                .append("let ")
+                .append(operator.getNodeName(this.preferHash))
+                .append(": ");
+        streamType.accept(this.innerVisitor);
+        this.builder.append(" = ")
+                .append(this.getInputName(operator, 0))
+                .append(isMap ? ".map_batched(" : ".filter_batched(")
+                .increase()
+                .append("move |row: &");
+        rowType.accept(this.innerVisitor);
+        this.builder.append(", columns: &mut ");
+        this.columnsType(rowType, allFields);
+        this.builder.append("| {")
+                .increase();
+        // Copy the fields of the row that are used into the column vectors
+        int index = 0;
+        for (int field: allFields) {
+            this.builder.append("columns.")
+                    .append(index++)
+                    .append(".push(row.")
+                    .append(field)
+                    .append(");")
+                    .newline();
+        }
+        this.builder.decrease()
+                .append("},")
+                .newline()
+                .append("move |n: usize, columns: &mut ");
+        this.columnsType(rowType, allFields);
+        this.builder.append(", out: &mut Vec<");
+        if (isMap)
+            closure.getResultType().accept(this.innerVisitor);
+        else
+            this.builder.append("bool");
+        this.builder.append(">| {")
+                .increase();
+        index = 0;
+        for (int field: allFields) {
+            // Slicing tells the Rust compiler that no bounds checks are needed
+            this.builder.append("let ")
+                    .append(Vectorizable.columnName(field))
+                    .append(" = &columns.")
+                    .append(index++)
+                    .append("[..n];")
+                    .newline();
+        }
+
+        // Compute each result into a separate vector
+        List<DBSPExpression> results = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            DBSPExpression column = columns.get(i);
+            DBSPExpression expression = Vectorizable.replaceColumns(this.compiler, row, column);
+            if (isMap) {
+                DBSPVariablePath result = new DBSPVariablePath("y_" + i, column.getType());
+                results.add(result);
+                this.builder.append("let ")
+                        .append(result.variable)
+                        .append(" = ");
+            } else {
+                this.builder.append("out.extend(");
+            }
+            this.builder.append("(0..n).map(|i| {").increase();
+            this.loadColumns(fields.get(i));
+            expression.accept(this.innerVisitor);
+            this.builder.newline()
+                    .decrease()
+                    .append("})");
+            if (isMap) {
+                this.builder.append(".collect::<Vec<");
+                column.getType().accept(this.innerVisitor);
+                this.builder.append(">>();");
+            } else {
+                this.builder.append(");");
+            }
+            this.builder.newline();
+        }
+
+        if (isMap) {
+            // Assemble the output rows
+            this.builder.append("out.extend((0..n).map(|i| {").increase();
+            for (DBSPExpression result: results) {
+                String name = result.to(DBSPVariablePath.class).variable;
+                this.builder.append("let ")
+                        .append(name)
+                        .append(" = ")
+                        .append(name)
+                        .append("[i];")
+                        .newline();
+            }
+            new DBSPTupleExpression(results, false).accept(this.innerVisitor);
+            this.builder.newline()
+                    .decrease()
+                    .append("}));")
+                    .newline();
+        }
+        for (int i = 0; i < allFields.size(); i++)
+            this.builder.append("columns.")
+                    .append(i)
+                    .append(".clear();")
+                    .newline();
+        this.builder.decrease()
+                .append("}")
+                .newline()
+                .decrease()
+                .append(")")
+                .append(this.markDistinct(operator))
+                .append(";");
+        this.innerVisitor.setOperatorContext(null);
+        this.tagStream(operator);
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPMapOperator operator) {
+        List<DBSPExpression> columns = Vectorizable.getColumnExpressions(this.compiler, operator);
+        if (columns != null)
+            return this.vectorized(operator, columns);
+        return super.preorder(operator);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPFilterOperator operator) {
+        List<DBSPExpression> columns = Vectorizable.getColumnExpressions(this.compiler, operator);
+        if (columns != null)
+            return this.vectorized(operator, columns);
+        return super.preorder(operator);
+    }
+
     @Override
     public VisitDecision preorder(DBSPSimpleOperator operator) {
         this.computeHash(operator);
@@ -1355,6 +1638,79 @@ public class ToRustVisitor extends CircuitVisitor {
         return VisitDecision.STOP;
     }
 
+    /** Given a function computing the range of values of the last field of a key
+     * matching a value, produce a function computing the range of matching keys. */
+    static DBSPClosureExpression keyRangeFunction(DBSPTypeTuple keyType, DBSPClosureExpression range) {
+        int rangeIndex = keyType.size() - 1;
+        DBSPVariablePath key = keyType.ref().var();
+        DBSPLetStatement bounds = new DBSPLetStatement(range.getResultType().var().variable,
+                range.call(key.deref().field(rangeIndex).borrow()));
+        DBSPVariablePath boundsVar = bounds.getVarReference();
+        List<DBSPExpression> lower = new ArrayList<>();
+        List<DBSPExpression> upper = new ArrayList<>();
+        for (int i = 0; i < rangeIndex; i++) {
+            lower.add(key.deref().field(i).applyCloneIfNeeded());
+            upper.add(key.deref().field(i).applyCloneIfNeeded());
+        }
+        lower.add(boundsVar.field(0).applyCloneIfNeeded());
+        upper.add(boundsVar.field(1).applyCloneIfNeeded());
+        DBSPExpression result = new DBSPRawTupleExpression(
+                new DBSPTupleExpression(lower, false), new DBSPTupleExpression(upper, false));
+        return new DBSPBlockExpression(Linq.list(bounds), result).closure(key);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPJoinRangeOperator operator) {
+        this.computeHash(operator);
+        this.innerVisitor.setOperatorContext(operator);
+        DBSPType streamType = this.streamType(operator);
+        DBSPTypeTuple keyType = operator.getKeyType().to(DBSPTypeTuple.class);
+
+        // Records are partitioned on the key fields compared for equality
+        DBSPVariablePath key = keyType.ref().var();
+        List<DBSPExpression> prefix = new ArrayList<>();
+        for (int i = 0; i < operator.getRangeKeyIndex(); i++)
+            prefix.add(key.deref().field(i).applyCloneIfNeeded());
+        DBSPClosureExpression partition = new DBSPTupleExpression(prefix, false).closure(key);
+        DBSPClosureExpression range = keyRangeFunction(keyType, operator.rangeFunction);
+        DBSPClosureExpression inverseRange = keyRangeFunction(keyType, operator.inverseRangeFunction);
+        // The DBSP join function also receives the right key and must produce an iterator.
+        DBSPClosureExpression closure = operator.getClosureFunction();
+        DBSPParameter rightKey = keyType.ref().var().asParameter();
+        DBSPClosureExpression join = closure.body.some().closure(
+                closure.parameters[0], closure.parameters[1], rightKey, closure.parameters[2]);
+
+        this.writeComments(operator)
+                .append("let ")
+                .append(operator.getNodeName(this.preferHash))
+                .append(": ");
+        streamType.accept(this.innerVisitor);
+        this.builder.append(" = ")
+                .append(this.getInputName(operator, 0))
+                .append(".")
+                .append(operator.operation)
+                .append("(&")
+                .increase()
+                .append(this.getInputName(operator, 1))
+                .append(", ")
+                .newline();
+        partition.accept(this.innerVisitor);
+        this.builder.append(", ").newline();
+        range.accept(this.innerVisitor);
+        this.builder.append(", ").newline();
+        inverseRange.accept(this.innerVisitor);
+        this.builder.append(", ").newline();
+        join.accept(this.innerVisitor);
+        this.builder.newline()
+                .decrease()
+                .append(")")
+                .append(this.markDistinct(operator))
+                .append(";");
+        this.tagStream(operator);
+        this.innerVisitor.setOperatorContext(null);
+        return VisitDecision.STOP;
+    }
+
     VisitDecision processJoinIndexOperator(DBSPJoinBaseOperator operator) {
         String operation = "join_index";
         if (operator.is(DBSPLeftJoinIndexOperator.class))
@@ -1421,7 +1777,8 @@ public class ToRustVisitor extends CircuitVisitor {
         this.builder.append(", _>")
                 .append("(hash, ")
                 .increase();
-        DBSPISizeLiteral offset = new DBSPISizeLiteral(operator.offset);
+        DBSPLiteral offset = operator.rows ?
+                new DBSPUSizeLiteral(operator.offset) : new DBSPISizeLiteral(operator.offset);
         offset.accept(this.innerVisitor);
         this.builder.append(", ").newline();
         operator.projection.accept(this.innerVisitor);
@@ -29,10 +29,12 @@ import com.google.common.collect.ImmutableList;
 import org.apache.calcite.adapter.jdbc.JdbcTableScan;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.prepare.RelOptTableImpl;
+import org.apache.calcite.rel.RelCollations;
 import org.apache.calcite.rel.RelFieldCollation;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelRoot;
 import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.Aggregate;
 import org.apache.calcite.rel.core.AggregateCall;
 import org.apache.calcite.rel.core.Collect;
 import org.apache.calcite.rel.core.Filter;
@@ -59,11 +61,14 @@ import org.apache.calcite.rel.logical.LogicalWindow;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rel.type.RelRecordType;
+import org.apache.calcite.rex.RexBuilder;
 import org.apache.calcite.rex.RexCall;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexOver;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.SqlAggFunction;
 import org.apache.calcite.sql.SqlDataTypeSpec;
 import org.apache.calcite.sql.SqlIdentifier;
 import org.apache.calcite.sql.SqlInsert;
@@ -71,9 +76,11 @@ import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.SqlNodeList;
 import org.apache.calcite.sql.SqlUserDefinedTypeNameSpec;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.util.ImmutableBitSet;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.annotation.Unnest;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAsofJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateZeroOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPConstantOperator;
@@ -85,6 +92,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPHopOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
@@ -116,6 +124,7 @@ import org.dbsp.sqlCompiler.compiler.ProgramMetadata;
 import org.dbsp.sqlCompiler.compiler.ViewColumnMetadata;
 import org.dbsp.sqlCompiler.compiler.ViewMetadata;
 import org.dbsp.sqlCompiler.compiler.frontend.aggregates.AggregateCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.aggregates.RangeAggregates;
 import org.dbsp.sqlCompiler.compiler.frontend.aggregates.RankAggregate;
 import org.dbsp.sqlCompiler.compiler.frontend.aggregates.WindowAggregates;
 import org.dbsp.sqlCompiler.compiler.errors.CompilationError;
@@ -165,6 +174,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPApplyMethodExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBaseTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPComparatorExpression;
@@ -182,10 +192,13 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPShortIntervalLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPUSizeLiteral;
 import org.dbsp.sqlCompiler.ir.expression.DBSPArrayExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPZSetExpression;
 import org.dbsp.sqlCompiler.ir.statement.DBSPFunctionItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPItem;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructItem;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
@@ -197,12 +210,14 @@ import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeStruct;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTupleBase;
 import org.dbsp.sqlCompiler.ir.type.IHasZero;
+import org.dbsp.sqlCompiler.ir.type.IsNumericType;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBaseType;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeShortInterval;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeLongInterval;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeString;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeTimestamp;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeUSize;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeVoid;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
@@ -256,6 +271,8 @@ public class CalciteToDBSPCompiler extends RelVisitor
     final ProgramMetadata metadata;
     /** Recursive views, indexed by actual view name (not rewritten name) */
     final Map<ProgramIdentifier, DeclareViewStatement> recursiveViews = new HashMap<>();
+    /** Aggregates compiled so far whose results can be rolled up by other aggregates */
+    final List<LogicalAggregate> rollupSources = new ArrayList<>();
 
     /**
      * Create a compiler that translated from calcite to DBSP circuits.
@@ -435,11 +452,42 @@ public class CalciteToDBSPCompiler extends RelVisitor
         RelNode uncollectInput = uncollect.getInput();
         if (!(uncollectInput instanceof LogicalProject project))
             throw this.decorrelateError(node);
-        if (project.getProjects().size() != 1)
-            throw this.decorrelateError(node);
-        RexNode projection = project.getProjects().get(0);
         DBSPVariablePath dataVar = new DBSPVariablePath(leftElementType.ref());
         ExpressionCompiler eComp = new ExpressionCompiler(correlate, dataVar, this.compiler);
+        if (project.getProjects().size() > 1) {
+            // UNNEST of multiple arrays
+            List<DBSPExpression> arrays = Linq.map(project.getProjects(), eComp::compile);
+            DBSPTypeTuple uncollectType = this.convertType(
+                    node.getPositionRange(), uncollect.getRowType(), false).to(DBSPTypeTuple.class);
+            // Every array can be padded with NULL values
+            List<DBSPType> fieldTypes = new ArrayList<>();
+            for (int i = 0; i < uncollectType.size(); i++) {
+                DBSPType ft = uncollectType.getFieldType(i);
+                if (i < arrays.size())
+                    ft = ft.withMayBeNull(true);
+                fieldTypes.add(ft);
+            }
+            DBSPTypeTuple elementType = new DBSPTypeTuple(fieldTypes);
+            List<DBSPClosureExpression> rightProjections = null;
+            if (rightProject != null) {
+                rightProjections = new ArrayList<>(rightProject.getProjects().size());
+                for (RexNode proj: rightProject.getProjects()) {
+                    DBSPVariablePath eVar = new DBSPVariablePath(elementType.ref());
+                    final ExpressionCompiler eComp0 = new ExpressionCompiler(correlate, eVar, this.compiler);
+                    rightProjections.add(eComp0.compile(proj).closure(eVar));
+                }
+            }
+            DBSPClosureExpression function = this.zipArrays(node, dataVar, arrays, leftElementType.size(),
+                    elementType, uncollect.withOrdinality, rightProjections, type);
+            DBSPSimpleOperator result = new DBSPFlatMapOperator(
+                    new LastRel(correlate, SourcePositionRange.INVALID),
+                    function, TypeCompiler.makeZSet(type), left.outputPort())
+                    .addAnnotation(Unnest.INSTANCE, DBSPFlatMapOperator.class);
+            result = this.filterAfterUnnest(correlate, rightFilter, type, result);
+            this.assignOperator(correlate, result);
+            return;
+        }
+        RexNode projection = project.getProjects().get(0);
         DBSPClosureExpression arrayExpression = eComp.compile(projection).closure(dataVar);
         DBSPTypeTuple uncollectElementType = this.convertType(
                 node.getPositionRange(), uncollect.getRowType(), false).to(DBSPTypeTuple.class);
@@ -504,29 +552,36 @@ public class CalciteToDBSPCompiler extends RelVisitor
                 () -> "Expected type to be\n" + functionType + "\nbut it is\n" + flatmap.getType());
         DBSPSimpleOperator result = new DBSPFlatMapOperator(
                 new LastRel(correlate, SourcePositionRange.INVALID),
-                flatmap, TypeCompiler.makeZSet(type), left.outputPort());
-        if (rightFilter != null) {
-            // This is a specialized version of visit(LogicalFilter)
-            DBSPVariablePath t = type.ref().var();
-            // Here we apply the filter AFTER the flatmap, whereas the original
-            // filter was applied BEFORE the flatmap.  So we need to adjust the
-            // index of RexInputRef expressions in the condition to apply to the
-            // result AFTER the join.
-            ShiftingExpressionCompiler expressionCompiler = new ShiftingExpressionCompiler(
-                    rightFilter, t, this.compiler, -correlate.getLeft().getRowType().getFieldCount());
-            DBSPExpression condition = expressionCompiler.compile(rightFilter.getCondition());
-            condition = condition.wrapBoolIfNeeded();
-            condition = new DBSPClosureExpression(
-                    CalciteObject.create(rightFilter, rightFilter.getCondition()), condition, t.asParameter());
-            this.addOperator(result);
-            result = new DBSPFilterOperator(
-                    new LastRel(correlate, SourcePositionRange.INVALID), condition, result.outputPort());
-        }
-
+                flatmap, TypeCompiler.makeZSet(type), left.outputPort())
+                .addAnnotation(Unnest.INSTANCE, DBSPFlatMapOperator.class);
+        result = this.filterAfterUnnest(correlate, rightFilter, type, result);
         Utilities.enforce(type.sameType(result.getOutputZSetElementType()));
         this.assignOperator(correlate, result);
     }
 
+    /** Apply the filter that appears between a correlate and an uncollect
+     * to the result of the flatmap that implements the correlate. */
+    DBSPSimpleOperator filterAfterUnnest(LogicalCorrelate correlate, @Nullable Filter rightFilter,
+                                         DBSPTypeTuple type, DBSPSimpleOperator result) {
+        if (rightFilter == null)
+            return result;
+        // This is a specialized version of visit(LogicalFilter)
+        DBSPVariablePath t = type.ref().var();
+        // Here we apply the filter AFTER the flatmap, whereas the original
+        // filter was applied BEFORE the flatmap.  So we need to adjust the
+        // index of RexInputRef expressions in the condition to apply to the
+        // result AFTER the join.
+        ShiftingExpressionCompiler expressionCompiler = new ShiftingExpressionCompiler(
+                rightFilter, t, this.compiler, -correlate.getLeft().getRowType().getFieldCount());
+        DBSPExpression condition = expressionCompiler.compile(rightFilter.getCondition());
+        condition = condition.wrapBoolIfNeeded();
+        condition = new DBSPClosureExpression(
+                CalciteObject.create(rightFilter, rightFilter.getCondition()), condition, t.asParameter());
+        this.addOperator(result);
+        return new DBSPFilterOperator(
+                new LastRel(correlate, SourcePositionRange.INVALID), condition, result.outputPort());
+    }
+
     /** Given a DESCRIPTOR RexCall, return the reference to the single colum
      * that is referred by the DESCRIPTOR. */
     int getDescriptor(RexNode descriptor) {
@@ -689,7 +744,17 @@ public class CalciteToDBSPCompiler extends RelVisitor
             indexType = tuple.getFieldType(tuple.size() - 1);
         }
         if (inputRowType.size() > 1) {
-            throw new UnimplementedException("UNNEST with multiple vectors", node);
+            DBSPVariablePath data = new DBSPVariablePath(inputRowType.ref());
+            List<DBSPExpression> arrays = Linq.map(Linq.range(0, inputRowType.size()),
+                    i -> data.deref().field(i));
+            DBSPTypeTuple tuple = type.to(DBSPTypeTuple.class);
+            DBSPClosureExpression function = this.zipArrays(node, data, arrays, 0,
+                    tuple, uncollect.withOrdinality, null, tuple);
+            DBSPFlatMapOperator flatMap = new DBSPFlatMapOperator(node.getFinal(), function,
+                    TypeCompiler.makeZSet(type), opInput.outputPort())
+                    .addAnnotation(Unnest.INSTANCE, DBSPFlatMapOperator.class);
+            this.assignOperator(uncollect, flatMap);
+            return;
         }
         DBSPVariablePath data = new DBSPVariablePath(inputRowType.ref());
         DBSPType arrayType = data.deref().field(0).getType();
@@ -714,10 +779,106 @@ public class CalciteToDBSPCompiler extends RelVisitor
         DBSPTypeFunction functionType = new DBSPTypeFunction(type, inputRowType.ref());
         Utilities.enforce(function.getType().sameType(functionType));
         DBSPFlatMapOperator flatMap = new DBSPFlatMapOperator(node.getFinal(), function,
-                TypeCompiler.makeZSet(type), opInput.outputPort());
+                TypeCompiler.makeZSet(type), opInput.outputPort())
+                .addAnnotation(Unnest.INSTANCE, DBSPFlatMapOperator.class);
         this.assignOperator(uncollect, flatMap);
     }
 
+    /** Implement an UNNEST of multiple arrays.  The arrays are zipped, and the shorter ones
+     * are padded with NULL values:
+     * move |x| {
+     *    let x0 = (*x).0.clone();
+     *    let a0 = (*x).1.clone();
+     *    let a1 = (*x).2.clone();
+     *    let len = unnest_len_(&a0).max(unnest_lenN(&a1));
+     *    unnest_indexes(len).map(move |i| Tup4::new(x0.clone(), unnest_element__(&a0, i), unnest_elementN_(&a1, i), i+1))
+     * }
+     *
+     * @param node              Calcite node that is compiled.
+     * @param data              Variable holding the input row.
+     * @param arrays            Expressions computing the arrays from the input row.
+     * @param leftFields        Number of fields of the input row copied to the output.
+     * @param elementType       Type of the tuple produced by the UNNEST, including the ordinality.
+     * @param withOrdinality    True if the last field of elementType is the ordinality.
+     * @param rightProjections  If not null, projections applied to each tuple produced by the UNNEST.
+     * @param resultType        Type of the result produced for each element. */
+    DBSPClosureExpression zipArrays(CalciteObject node, DBSPVariablePath data, List<DBSPExpression> arrays,
+                                    int leftFields, DBSPTypeTuple elementType, boolean withOrdinality,
+                                    @Nullable List<DBSPClosureExpression> rightProjections,
+                                    DBSPTypeTuple resultType) {
+        DBSPVariablePath i = DBSPTypeUSize.INSTANCE.var();
+        List<DBSPStatement> statements = new ArrayList<>();
+        List<DBSPExpression> resultFields = new ArrayList<>();
+        for (int index = 0; index < leftFields; index++) {
+            DBSPLetStatement field = new DBSPLetStatement("x" + index,
+                    data.deref().field(index).applyCloneIfNeeded());
+            statements.add(field);
+            resultFields.add(field.getVarReference().applyCloneIfNeeded());
+        }
+
+        List<DBSPExpression> elements = new ArrayList<>();
+        DBSPExpression length = null;
+        for (int index = 0; index < arrays.size(); index++) {
+            DBSPExpression arrayExpression = arrays.get(index);
+            DBSPType arrayType = arrayExpression.getType();
+            if (!arrayType.is(DBSPTypeArray.class))
+                throw new UnimplementedException("UNNEST with multiple collections of type " +
+                        arrayType.asSqlString(), node);
+            DBSPType collectionElementType = arrayType.to(DBSPTypeArray.class).getElementType();
+            if (collectionElementType.is(DBSPTypeTupleBase.class))
+                throw new UnimplementedException("UNNEST with multiple arrays of structures", node);
+            DBSPLetStatement array = new DBSPLetStatement("a" + index, arrayExpression.applyCloneIfNeeded());
+            statements.add(array);
+            String suffix = arrayType.mayBeNull ? "N" : "_";
+            DBSPExpression len = new DBSPApplyExpression(node, "unnest_len" + suffix,
+                    DBSPTypeUSize.INSTANCE, array.getVarReference().borrow());
+            if (length == null)
+                length = len;
+            else
+                length = new DBSPApplyMethodExpression(node, "max", DBSPTypeUSize.INSTANCE, length, len);
+            suffix += collectionElementType.mayBeNull ? "N" : "_";
+            DBSPExpression element = new DBSPApplyExpression(node, "unnest_element" + suffix,
+                    collectionElementType.withMayBeNull(true), array.getVarReference().borrow(), i);
+            // The element is NULL when the array is shorter than the longest one
+            DBSPType type = elementType.getFieldType(index).withMayBeNull(true);
+            if (!type.sameType(element.getType()))
+                element = element.cast(node, type, DBSPCastExpression.CastType.SqlUnsafe);
+            elements.add(element);
+        }
+        Utilities.enforce(length != null);
+        DBSPLetStatement len = new DBSPLetStatement("len", length);
+        statements.add(len);
+        if (withOrdinality) {
+            DBSPExpression ordinality = new DBSPBinaryExpression(node,
+                    DBSPTypeUSize.INSTANCE, DBSPOpcode.ADD, i, new DBSPUSizeLiteral(1))
+                    .cast(node, elementType.getFieldType(elementType.size() - 1),
+                            DBSPCastExpression.CastType.SqlUnsafe);
+            elements.add(ordinality);
+        }
+
+        if (rightProjections != null) {
+            DBSPExpression element = new DBSPTupleExpression(elements, false);
+            for (DBSPClosureExpression projection: rightProjections) {
+                DBSPExpression call = projection.call(element.borrow()).reduce(this.compiler);
+                resultFields.add(call.applyCloneIfNeeded());
+            }
+        } else {
+            for (DBSPExpression element: elements) {
+                DBSPType type = resultType.getFieldType(resultFields.size());
+                if (!type.sameType(element.getType()))
+                    element = element.cast(node, type, DBSPCastExpression.CastType.SqlUnsafe);
+                resultFields.add(element);
+            }
+        }
+        DBSPClosureExpression toTuple = new DBSPTupleExpression(resultFields, false).closure(i);
+        DBSPExpression iter = new DBSPApplyExpression(node, "unnest_indexes",
+                DBSPTypeAny.getDefault(), len.getVarReference());
+        DBSPExpression makeTuple = new DBSPApplyMethodExpression(node,
+                "map", DBSPTypeAny.getDefault(), iter, toTuple);
+        DBSPBlockExpression block = new DBSPBlockExpression(statements, makeTuple);
+        return block.closure(data);
+    }
+
     /** Generate a list of the groupings that have to be evaluated for all aggregates */
     @SuppressWarnings("unused")
     List<ImmutableBitSet> planGroups(
@@ -940,10 +1101,152 @@ public class CalciteToDBSPCompiler extends RelVisitor
         return zero.outputPort();
     }
 
+    /** True if the aggregate has a single group set, and only computes
+     * SUM and COUNT aggregates, without DISTINCT or FILTER.
+     * The results of such an aggregate can be rolled up to fewer keys. */
+    static boolean isRollupAggregate(LogicalAggregate aggregate) {
+        if (aggregate.getGroupType() != Aggregate.Group.SIMPLE || aggregate.getAggCallList().isEmpty())
+            return false;
+        for (AggregateCall call: aggregate.getAggCallList()) {
+            if (call.isDistinct() || call.isApproximate() || call.filterArg >= 0 ||
+                    !call.getCollation().getFieldCollations().isEmpty() ||
+                    call.getArgList().size() > 1)
+                return false;
+            SqlKind kind = call.getAggregation().getKind();
+            if (kind != SqlKind.SUM && kind != SqlKind.SUM0 && kind != SqlKind.COUNT)
+                return false;
+        }
+        return true;
+    }
+
+    /** The relation the keys and arguments of an aggregate are computed from;
+     * looks through a projection which computes the keys. */
+    static RelNode rollupBase(LogicalAggregate aggregate) {
+        RelNode input = aggregate.getInput();
+        if (input instanceof LogicalProject project)
+            return project.getInput();
+        return input;
+    }
+
+    /** An input column of an aggregate expressed over the {@link #rollupBase}. */
+    static RexNode rollupExpression(LogicalAggregate aggregate, int column) {
+        RelNode input = aggregate.getInput();
+        if (input instanceof LogicalProject project)
+            return project.getProjects().get(column);
+        return RexInputRef.of(column, input.getRowType());
+    }
+
+    /** Find in 'finer' an aggregate call that computes the same function as 'call' in 'aggregate'.
+     * Return its index, or -1. */
+    static int findRollupCall(LogicalAggregate finer, LogicalAggregate aggregate, AggregateCall call) {
+        List<RexNode> args = Linq.map(call.getArgList(), c -> rollupExpression(aggregate, c));
+        List<AggregateCall> calls = finer.getAggCallList();
+        for (int i = 0; i < calls.size(); i++) {
+            AggregateCall candidate = calls.get(i);
+            if (candidate.getAggregation().getKind() != call.getAggregation().getKind())
+                continue;
+            List<RexNode> candidateArgs = Linq.map(candidate.getArgList(), c -> rollupExpression(finer, c));
+            if (candidateArgs.equals(args))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Try to implement an aggregate as a rollup of a previously compiled aggregate
+     * which groups the same data by a superset of the keys, and computes the same aggregates.
+     * E.g., SELECT x, SUM(z) FROM T GROUP BY x can be computed from the result of
+     * SELECT x, y, SUM(z) FROM T GROUP BY x, y.  Return true on success. */
+    boolean implementAsRollup(LogicalAggregate aggregate) {
+        if (this.options.languageOptions.optimizationLevel < 2 ||
+                !this.recursiveViews.isEmpty() ||
+                !isRollupAggregate(aggregate))
+            return false;
+        DBSPSimpleOperator base = this.getOperator(rollupBase(aggregate));
+        List<RexNode> aggregateKeys = Linq.map(aggregate.getGroupSet().asList(), c -> rollupExpression(aggregate, c));
+        if (!Linq.all(aggregateKeys, RexUtil::isDeterministic))
+            return false;
+
+        for (LogicalAggregate finer: this.rollupSources) {
+            if (finer.getGroupCount() <= aggregate.getGroupCount() ||
+                    this.getOperator(rollupBase(finer)) != base)
+                continue;
+            List<RexNode> finerKeys = Linq.map(finer.getGroupSet().asList(), c -> rollupExpression(finer, c));
+            // For each key of the aggregate the index of the same key in the output of 'finer'
+            List<Integer> keys = new ArrayList<>();
+            for (RexNode key: aggregateKeys) {
+                int index = finerKeys.indexOf(key);
+                if (index < 0)
+                    break;
+                keys.add(index);
+            }
+            if (keys.size() != aggregateKeys.size())
+                continue;
+            // For each aggregate call the index of the same call in 'finer'
+            List<Integer> calls = new ArrayList<>();
+            for (AggregateCall call: aggregate.getAggCallList()) {
+                int index = findRollupCall(finer, aggregate, call);
+                if (index < 0)
+                    break;
+                calls.add(index);
+            }
+            if (calls.size() != aggregate.getAggCallList().size())
+                continue;
+            this.implementRollup(aggregate, finer, keys, calls);
+            return true;
+        }
+        return false;
+    }
+
+    /** Implement 'aggregate' as an aggregate of the output of 'finer'.
+     * COUNT is rolled up by summing the counts, SUM by summing the partial sums.
+     * @param aggregate  Aggregate to implement.
+     * @param finer      Compiled aggregate over the same data that groups by more keys.
+     * @param keys       For each key of 'aggregate' the corresponding key of 'finer'.
+     * @param calls      For each aggregate call the corresponding call of 'finer'. */
+    void implementRollup(LogicalAggregate aggregate, LogicalAggregate finer,
+                         List<Integer> keys, List<Integer> calls) {
+        ImmutableBitSet groupSet = ImmutableBitSet.of(keys);
+        List<AggregateCall> rollupCalls = new ArrayList<>();
+        for (int i = 0; i < calls.size(); i++) {
+            AggregateCall call = aggregate.getAggCallList().get(i);
+            SqlAggFunction function = call.getAggregation().getKind() == SqlKind.COUNT ?
+                    SqlStdOperatorTable.SUM0 : call.getAggregation();
+            int column = finer.getGroupCount() + calls.get(i);
+            rollupCalls.add(AggregateCall.create(function, false, false, false, List.of(),
+                    List.of(column), -1, null, RelCollations.EMPTY,
+                    groupSet.cardinality(), finer, null, call.getName()));
+        }
+        LogicalAggregate rollup = LogicalAggregate.create(finer, List.of(), groupSet, null, rollupCalls);
+
+        // Reorder the keys and restore the types of the original aggregate
+        RexBuilder rexBuilder = aggregate.getCluster().getRexBuilder();
+        List<RexNode> projections = new ArrayList<>();
+        for (int key: keys)
+            projections.add(RexInputRef.of(groupSet.indexOf(key), rollup.getRowType()));
+        for (int i = 0; i < rollupCalls.size(); i++)
+            projections.add(RexInputRef.of(groupSet.cardinality() + i, rollup.getRowType()));
+        List<RelDataTypeField> fields = aggregate.getRowType().getFieldList();
+        for (int i = 0; i < projections.size(); i++) {
+            RelDataType type = fields.get(i).getType();
+            if (!type.equals(projections.get(i).getType()))
+                projections.set(i, rexBuilder.makeCast(type, projections.get(i)));
+        }
+        LogicalProject project = LogicalProject.create(
+                rollup, List.of(), projections, aggregate.getRowType(), Set.of());
+        this.visit(project, 0, null);
+        Utilities.putNew(this.nodeOperator, aggregate, this.getOperator(project));
+    }
+
     /** Implement a LogicalAggregate.  The LogicalAggregate can contain a rollup,
      * described by a set of groups.  The aggregate is computed for each group,
      * and the results are combined. */
     void visitAggregate(LogicalAggregate aggregate) {
+        if (this.implementAsRollup(aggregate)) {
+            this.rollupSources.add(aggregate);
+            return;
+        }
+        if (isRollupAggregate(aggregate))
+            this.rollupSources.add(aggregate);
         IntermediateRel node = CalciteObject.create(aggregate);
         DBSPType type = this.convertType(node.getPositionRange(), aggregate.getRowType(), false);
         List<ImmutableBitSet> plan = this.planGroups(
@@ -1518,6 +1821,78 @@ public class CalciteToDBSPCompiler extends RelVisitor
                 TypeCompiler.makeZSet(resultType), operator.outputPort());
     }
 
+    /** Compile the literal of an offset in a range test */
+    DBSPExpression compileRangeOffset(JoinConditionAnalyzer.RangeOffset offset) {
+        ExpressionCompiler expressionCompiler = new ExpressionCompiler(null, null, this.compiler);
+        return expressionCompiler.compile(offset.literal());
+    }
+
+    /** Check whether a join can be implemented using a range join.
+     * This is only done for inner joins outside recursive components, which
+     * also have an equality test, where the range test compares integer or TIMESTAMP
+     * columns with literal offsets.
+     * @return The range test to implement, or null if a range join cannot be used. */
+    @Nullable
+    JoinConditionAnalyzer.RangeTest getRangeJoinTest(
+            JoinRelType joinType, JoinConditionAnalyzer.ConditionDecomposition decomposition,
+            DBSPTypeTuple leftElementType, DBSPTypeTuple rightElementType) {
+        JoinConditionAnalyzer.RangeTest test = decomposition.rangeTest;
+        if (test == null || joinType != JoinRelType.INNER ||
+                decomposition.comparisons.isEmpty() || !this.recursiveViews.isEmpty())
+            return null;
+        DBSPType type = leftElementType.getFieldType(test.leftColumn()).withMayBeNull(false);
+        if (!type.sameType(rightElementType.getFieldType(test.rightColumn()).withMayBeNull(false)))
+            return null;
+        final Class<? extends DBSPType> offsetType;
+        if (type.is(DBSPTypeInteger.class))
+            offsetType = DBSPTypeInteger.class;
+        else if (type.is(DBSPTypeTimestamp.class))
+            offsetType = DBSPTypeShortInterval.class;
+        else
+            return null;
+        for (JoinConditionAnalyzer.RangeOffset offset: Linq.list(test.lower(), test.upper())) {
+            if (offset == null)
+                continue;
+            DBSPType literalType = this.compileRangeOffset(offset).getType();
+            if (literalType.mayBeNull || !literalType.is(offsetType))
+                return null;
+        }
+        return test;
+    }
+
+    /** Add an offset to a value of a range join column */
+    DBSPExpression shiftRangeJoinValue(CalciteObject node, DBSPType type, DBSPExpression value,
+                                       @Nullable JoinConditionAnalyzer.RangeOffset offset, boolean negate) {
+        if (offset == null)
+            return value;
+        DBSPExpression literal = this.compileRangeOffset(offset);
+        if (type.is(DBSPTypeInteger.class))
+            literal = literal.cast(node, type, DBSPCastExpression.CastType.SqlUnsafe);
+        DBSPOpcode opcode = offset.negated() != negate ? DBSPOpcode.SUB : DBSPOpcode.ADD;
+        return ExpressionCompiler.makeBinaryExpression(node, type, opcode, value, literal);
+    }
+
+    /** Create a range function for a range join: given a reference to a value v of
+     * the range column, it returns the half-open range [v + start, v + end + 1) of values
+     * of the range column of the other input, where 1 is the smallest increment of the type.
+     * @param negate If true the offsets are subtracted instead of added. */
+    DBSPClosureExpression rangeJoinFunction(
+            CalciteObject node, DBSPType type,
+            @Nullable JoinConditionAnalyzer.RangeOffset start,
+            @Nullable JoinConditionAnalyzer.RangeOffset end, boolean negate) {
+        DBSPVariablePath var = type.ref().var(node);
+        DBSPExpression lower = this.shiftRangeJoinValue(node, type, var.deref(), start, negate);
+        DBSPExpression upper = this.shiftRangeJoinValue(node, type, var.deref(), end, negate);
+        // The runtime ranges exclude the upper bound, so we add the smallest increment
+        final DBSPExpression increment;
+        if (type.is(DBSPTypeInteger.class))
+            increment = type.to(IsNumericType.class).getOne();
+        else
+            increment = DBSPShortIntervalLiteral.fromMicroseconds(DBSPTypeShortInterval.Units.SECONDS, 1, false);
+        upper = ExpressionCompiler.makeBinaryExpression(node, type, DBSPOpcode.ADD, upper, increment);
+        return new DBSPRawTupleExpression(lower, upper).closure(var);
+    }
+
     private void visitJoin(LogicalJoin join) {
         final CalciteObject conditionNode = CalciteObject.create(join, join.getCondition());
         final IntermediateRel node = CalciteObject.create(join, conditionNode.getPositionRange());
@@ -1576,14 +1951,28 @@ public class CalciteToDBSPCompiler extends RelVisitor
             // An outer cross-join is always equivalent with an inner cross join
             joinType = JoinRelType.INNER;
 
+        // If the condition also bounds a pair of columns within a range, a range join
+        // only looks up matching rows, and it can discard state that is too old to match.
+        final @Nullable JoinConditionAnalyzer.RangeTest rangeTest = this.getRangeJoinTest(
+                joinType, decomposition, leftElementType, rightElementType);
+
         // If any key field that is compared with = is nullable we need to filter the inputs of the join;
         // this will make some key columns non-nullable
-        final DBSPSimpleOperator filteredLeft = this.filterNonNullFields(conditionNode, join,
+        final List<Integer> leftNonNullFields = new ArrayList<>(
                 Linq.map(Linq.where(decomposition.comparisons, JoinConditionAnalyzer.EqualityTest::nonNull),
-                        JoinConditionAnalyzer.EqualityTest::leftColumn), leftPulled, false);
-        final DBSPSimpleOperator filteredRight = this.filterNonNullFields(conditionNode, join,
+                        JoinConditionAnalyzer.EqualityTest::leftColumn));
+        final List<Integer> rightNonNullFields = new ArrayList<>(
                 Linq.map(Linq.where(decomposition.comparisons, JoinConditionAnalyzer.EqualityTest::nonNull),
-                        JoinConditionAnalyzer.EqualityTest::rightColumn), rightPulled, false);
+                        JoinConditionAnalyzer.EqualityTest::rightColumn));
+        if (rangeTest != null) {
+            // A null value never satisfies the range comparisons
+            leftNonNullFields.add(rangeTest.leftColumn());
+            rightNonNullFields.add(rangeTest.rightColumn());
+        }
+        final DBSPSimpleOperator filteredLeft = this.filterNonNullFields(
+                conditionNode, join, leftNonNullFields, leftPulled, false);
+        final DBSPSimpleOperator filteredRight = this.filterNonNullFields(
+                conditionNode, join, rightNonNullFields, rightPulled, false);
 
         final DBSPTypeTuple leftResultType = resultType.slice(0, leftColumns);
         final DBSPTypeTuple rightResultType = resultType.slice(leftColumns, leftColumns + rightColumns);
@@ -1605,16 +1994,27 @@ public class CalciteToDBSPCompiler extends RelVisitor
         {
             final DBSPVariablePath l = leftElementType.ref().var(conditionNode);
             final DBSPVariablePath r = rightElementType.ref().var(conditionNode);
-            final List<DBSPExpression> leftKeyFields = Linq.map(
+            final List<DBSPExpression> leftKeyFields = new ArrayList<>(Linq.map(
                     decomposition.comparisons,
                     c -> l.deref().field(c.node(), c.leftColumn())
                             .applyCloneIfNeeded()
-                            .cast(c.node(), c.commonType(), DBSPCastExpression.CastType.SqlUnsafe));
-            final List<DBSPExpression> rightKeyFields = Linq.map(
+                            .cast(c.node(), c.commonType(), DBSPCastExpression.CastType.SqlUnsafe)));
+            final List<DBSPExpression> rightKeyFields = new ArrayList<>(Linq.map(
                     decomposition.comparisons,
                     c -> r.deref().field(c.node(), c.rightColumn())
                             .applyCloneIfNeeded()
-                            .cast(c.node(), c.commonType(), DBSPCastExpression.CastType.SqlUnsafe));
+                            .cast(c.node(), c.commonType(), DBSPCastExpression.CastType.SqlUnsafe)));
+            if (rangeTest != null) {
+                // The range column is the last key field.  It is not removed from the values,
+                // since the left and right keys differ in this field.
+                final DBSPType rangeType = leftElementType.getFieldType(rangeTest.leftColumn()).withMayBeNull(false);
+                leftKeyFields.add(l.deref().field(rangeTest.node(), rangeTest.leftColumn())
+                        .applyCloneIfNeeded()
+                        .cast(rangeTest.node(), rangeType, DBSPCastExpression.CastType.SqlUnsafe));
+                rightKeyFields.add(r.deref().field(rangeTest.node(), rangeTest.rightColumn())
+                        .applyCloneIfNeeded()
+                        .cast(rangeTest.node(), rangeType, DBSPCastExpression.CastType.SqlUnsafe));
+            }
             final DBSPExpression leftKey = new DBSPTupleExpression(node, leftKeyFields);
             keyType = leftKey.getType().to(DBSPTypeTupleBase.class);
 
@@ -1675,9 +2075,32 @@ public class CalciteToDBSPCompiler extends RelVisitor
             }
 
             final DBSPClosureExpression makeTuple = lr.closure(k, l0, r0);
-            joinResult = new DBSPStreamJoinOperator(node, TypeCompiler.makeZSet(lr.getType()),
-                    makeTuple, left.isMultiset || right.isMultiset,
-                    leftNonNullIndex.outputPort(), rightNonNullIndex.outputPort(), false);
+            if (rangeTest != null) {
+                // The range join is incremental-only, so we make a D/J/I sandwich.
+                // The post-join filter still checks the exact range comparisons.
+                final DBSPType rangeType = keyType.getFieldType(keyType.size() - 1);
+                // Right values b matching a left value a: a - upper <= b <= a - lower
+                final DBSPClosureExpression range = this.rangeJoinFunction(
+                        rangeTest.node(), rangeType, rangeTest.upper(), rangeTest.lower(), true);
+                // Left values a matching a right value b: b + lower <= a <= b + upper
+                final DBSPClosureExpression inverseRange = this.rangeJoinFunction(
+                        rangeTest.node(), rangeType, rangeTest.lower(), rangeTest.upper(), false);
+                final DBSPDifferentiateOperator leftDiff = new DBSPDifferentiateOperator(
+                        node, leftNonNullIndex.outputPort());
+                this.addOperator(leftDiff);
+                final DBSPDifferentiateOperator rightDiff = new DBSPDifferentiateOperator(
+                        node, rightNonNullIndex.outputPort());
+                this.addOperator(rightDiff);
+                final DBSPJoinRangeOperator rangeJoin = new DBSPJoinRangeOperator(
+                        node, TypeCompiler.makeZSet(lr.getType()), makeTuple, range, inverseRange,
+                        left.isMultiset || right.isMultiset, leftDiff.outputPort(), rightDiff.outputPort());
+                this.addOperator(rangeJoin);
+                joinResult = new DBSPIntegrateOperator(node, rangeJoin.outputPort());
+            } else {
+                joinResult = new DBSPStreamJoinOperator(node, TypeCompiler.makeZSet(lr.getType()),
+                        makeTuple, left.isMultiset || right.isMultiset,
+                        leftNonNullIndex.outputPort(), rightNonNullIndex.outputPort(), false);
+            }
             inner = joinResult;
 
             if (joinType == JoinRelType.LEFT && leftPulled == left && !hasFilter) {
@@ -2557,6 +2980,23 @@ public class CalciteToDBSPCompiler extends RelVisitor
             }
             result.add(previous);
         }
+        return combineRangeAggregates(result);
+    }
+
+    /** Adjacent {@link RangeAggregates} with the same partition and order are implemented
+     * together, even if they have different frames; their results are joined with the
+     * input only once. */
+    static List<WindowAggregates> combineRangeAggregates(List<WindowAggregates> aggregates) {
+        List<WindowAggregates> result = new ArrayList<>();
+        RangeAggregates previous = null;
+        for (WindowAggregates aggregate: aggregates) {
+            if (previous != null && previous.canCombine(aggregate)) {
+                previous.combine(aggregate.to(RangeAggregates.class));
+                continue;
+            }
+            result.add(aggregate);
+            previous = aggregate.as(RangeAggregates.class);
+        }
         return result;
     }
 
@@ -2668,8 +3108,10 @@ public class CalciteToDBSPCompiler extends RelVisitor
             if (lastOperator != input)
                 this.addOperator(lastOperator);
             lastOperator = ga.implement(input, lastOperator, index == toProcess.size() - 1);
-            shuffle.add(inputRowType.size() + elementIndex);
-            elementIndex++;
+            for (int i = 0; i < ga.size(); i++) {
+                shuffle.add(inputRowType.size() + elementIndex);
+                elementIndex++;
+            }
             index++;
         }
 
@@ -861,6 +861,122 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                         operandCount + " arguments is unknown", node);
     }
 
+    /** Result of the analysis of a constant LIKE pattern.
+     *
+     * @param fragments Literal fragments of the pattern, separated by '%' wildcards,
+     *                  or null if the pattern contains '_' wildcards.
+     * @param regex     A regular expression equivalent to the pattern. */
+    record LikePattern(@Nullable List<String> fragments, String regex) {}
+
+    static void appendRegexLiteral(StringBuilder regex, int codePoint) {
+        if ("\\.+*?()|[]{}^$#&-~".indexOf(codePoint) >= 0)
+            regex.append('\\');
+        regex.appendCodePoint(codePoint);
+    }
+
+    /** Analyze a constant LIKE pattern.  Returns null if the pattern or the escape
+     * are not legal; these are left to the runtime, which reports the errors. */
+    @Nullable
+    static LikePattern analyzeLikePattern(String pattern, @Nullable String escape) {
+        int escapeChar = -1;
+        if (escape != null) {
+            if (escape.codePointCount(0, escape.length()) != 1)
+                return null;
+            escapeChar = escape.codePointAt(0);
+            if (escapeChar == '%' || escapeChar == '_')
+                return null;
+        }
+
+        List<String> fragments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        StringBuilder regex = new StringBuilder("(?s)^");
+        boolean underscore = false;
+        boolean lastPercent = false;
+        int index = 0;
+        while (index < pattern.length()) {
+            int c = pattern.codePointAt(index);
+            index += Character.charCount(c);
+            if (c == '%') {
+                if (!lastPercent) {
+                    fragments.add(current.toString());
+                    current.setLength(0);
+                    regex.append(".*");
+                }
+                lastPercent = true;
+                continue;
+            }
+            lastPercent = false;
+            if (c == '_') {
+                underscore = true;
+                regex.append('.');
+                continue;
+            }
+            if (c == escapeChar) {
+                if (index >= pattern.length())
+                    return null;
+                c = pattern.codePointAt(index);
+                index += Character.charCount(c);
+                if (c != '%' && c != '_' && c != escapeChar)
+                    return null;
+            }
+            current.appendCodePoint(c);
+            appendRegexLiteral(regex, c);
+        }
+        fragments.add(current.toString());
+        regex.append('$');
+        return new LikePattern(underscore ? null : fragments, regex.toString());
+    }
+
+    /** Compile a LIKE with a constant pattern into a call to a specialized function,
+     * which does not interpret the pattern for each row: 'abc' is an equality test,
+     * 'abc%', '%abc', '%abc%' and 'abc%def' are prefix, suffix, and substring tests.
+     * Other patterns are compiled into a regular expression, which is
+     * turned into a static value by {@link org.dbsp.sqlCompiler.compiler.visitors.inner.ImplementStatics}.
+     * Returns null if the pattern is not constant. */
+    @Nullable
+    DBSPExpression compileConstantLike(CalciteObject node, DBSPType type, List<DBSPExpression> ops) {
+        DBSPStringLiteral pattern = ops.get(1).as(DBSPStringLiteral.class);
+        if (pattern == null || pattern.value == null)
+            return null;
+        String escape = null;
+        if (ops.size() > 2) {
+            DBSPStringLiteral escapeLiteral = ops.get(2).as(DBSPStringLiteral.class);
+            if (escapeLiteral == null || escapeLiteral.value == null)
+                return null;
+            escape = escapeLiteral.value;
+        }
+        LikePattern like = analyzeLikePattern(pattern.value, escape);
+        if (like == null)
+            return null;
+        DBSPExpression value = ops.get(0);
+        if (value.is(DBSPLiteral.class) && value.to(DBSPLiteral.class).isNull())
+            return type.none();
+
+        List<String> fragments = like.fragments;
+        if (fragments != null) {
+            if (fragments.size() == 1)
+                return compileFunction("like_equals", node, type,
+                        Linq.list(value, new DBSPStringLiteral(fragments.get(0))), 2);
+            if (fragments.size() == 2) {
+                String prefix = fragments.get(0);
+                String suffix = fragments.get(1);
+                if (suffix.isEmpty())
+                    return compileFunction("like_starts_with", node, type,
+                            Linq.list(value, new DBSPStringLiteral(prefix)), 2);
+                if (prefix.isEmpty())
+                    return compileFunction("like_ends_with", node, type,
+                            Linq.list(value, new DBSPStringLiteral(suffix)), 2);
+                return compileFunction("like_starts_ends_with", node, type,
+                        Linq.list(value, new DBSPStringLiteral(prefix), new DBSPStringLiteral(suffix)), 3);
+            }
+            if (fragments.size() == 3 && fragments.get(0).isEmpty() && fragments.get(2).isEmpty())
+                return compileFunction("like_contains", node, type,
+                        Linq.list(value, new DBSPStringLiteral(fragments.get(1))), 2);
+        }
+        DBSPExpression regex = this.makeRegex(new DBSPStringLiteral(like.regex));
+        return compileFunction("rlike", node, type, Linq.list(value, regex), 2);
+    }
+
     @Nullable
     DBSPExpression makeRegex(DBSPExpression arg) {
         DBSPType argType = arg.getType();
@@ -877,6 +993,30 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                 user, arg);
     }
 
+    /** Wrap a format string argument of the FORMAT_* and PARSE_* functions into a call
+     * that parses the format.  If the format is a constant, the call is turned into a
+     * static value by {@link org.dbsp.sqlCompiler.compiler.visitors.inner.ImplementStatics},
+     * so the format is parsed only once.  The function to call is 'baseName' with a "_fmt" suffix. */
+    static DBSPExpression makeFormat(DBSPExpression arg) {
+        DBSPType argType = arg.getType();
+        DBSPTypeUser user = new DBSPTypeUser(CalciteObject.EMPTY, USER, "ParsedFormat", argType.mayBeNull);
+        return new DBSPApplyExpression(CalciteObject.EMPTY,
+                "make_format" + argType.nullableUnderlineSuffix(),
+                user, arg);
+    }
+
+    /** Compile a FORMAT_* or PARSE_* function whose first argument is a format string */
+    DBSPExpression compileFormatFunction(RexCall call, CalciteObject node, DBSPType type,
+                                         List<DBSPExpression> ops) {
+        DBSPExpression none = this.strictnessCheck(ops, type);
+        if (none != null)
+            return none;
+        if (!ops.get(0).getType().is(DBSPTypeString.class))
+            return compileFunction(call, node, type, ops, 2);
+        ops.set(0, makeFormat(ops.get(0)));
+        return compileFunction(getCallName(call) + "_fmt", node, type, ops, 2);
+    }
+
     @Nullable
     DBSPExpression makeTimezone(DBSPExpression arg) {
         DBSPType argType = arg.getType();
@@ -1452,7 +1592,7 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                     case "format_timestamp":
                     case "format_time":
                         this.checkFormatArg(ops, 0);
-                        return compileFunction(call, node, type, ops, 2);
+                        return this.compileFormatFunction(call, node, type, ops);
                     case "bround": {
                         validateArgCount(node, opName, ops.size(), 2);
                         this.ensureInteger(node, ops, 1);
@@ -1540,6 +1680,11 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                         for (int i = 0; i < ops.size(); i++)
                             this.ensureInteger(node, ops, i);
                         return compileFunction(call, node, type, ops, 2);
+                    case "unnest_padded":
+                        // Array of an UNNEST of multiple arrays, with nullable elements
+                        Utilities.enforce(ops.size() == 1,
+                                () -> "expected one argument for unnest_padded function");
+                        return ops.get(0).cast(node, type, DBSPCastExpression.CastType.SqlUnsafe);
                     case "blackbox":
                         Utilities.enforce(ops.size() == 1,
                                 () -> "expected one argument for blackbox function");
@@ -1560,7 +1705,7 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                         this.checkFormatArg(ops, 0);
                         ensureString(ops, 0);
                         ensureString(ops, 1);
-                        return compileStrictFunction(call, node, type, ops, 2);
+                        return this.compileFormatFunction(call, node, type, ops);
                     }
                     case "timestamp_trunc":
                     case "time_trunc":
@@ -1723,6 +1868,11 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                 for (int i = 0; i < ops.size(); i++)
                     // Calcite does not enforce the type of the arguments, why?
                     this.ensureString(ops, i);
+                if (getCallName(call).equals("like")) {
+                    DBSPExpression specialized = this.compileConstantLike(node, type, ops);
+                    if (specialized != null)
+                        return specialized;
+                }
                 return compileStrictFunction(call, node, type, ops, 2, 3);
             }
             case FLOOR:
@@ -73,6 +73,34 @@ public class JoinConditionAnalyzer implements IWritesLogs {
         }
     }
 
+    /** A literal offset added to a column in a range comparison.
+     * @param literal Literal that is added to the column
+     * @param negated If true the literal is subtracted instead */
+    record RangeOffset(RexLiteral literal, boolean negated) {
+        RangeOffset negate() {
+            return new RangeOffset(this.literal, !this.negated);
+        }
+    }
+
+    /** Represents a range test in a join between two columns in the two tables:
+     * right + lower <= left <= right + upper.
+     * Strict comparisons are approximated by non-strict ones, so the
+     * comparisons that produced the range still have to be checked after the join.
+     * @param node        Calcite node corresponding to the join condition
+     * @param leftColumn  Column from the left relation that is compared
+     * @param rightColumn Column from the right relation that is compared
+     * @param lower       Offset of the lower bound; null if the offset is 0
+     * @param upper       Offset of the upper bound; null if the offset is 0 */
+    record RangeTest(CalciteObject node, int leftColumn, int rightColumn,
+                     @Nullable RangeOffset lower, @Nullable RangeOffset upper) {}
+
+    /** One side of a range test: left op right + offset.
+     * @param lower If true op is >= or >, else it is <= or <. */
+    record RangeBound(int leftColumn, int rightColumn, @Nullable RangeOffset offset, boolean lower) {}
+
+    /** A column reference, possibly with a literal offset: column + offset. */
+    record ShiftedColumn(RexInputRef column, @Nullable RangeOffset offset) {}
+
     /** A join condition is decomposed into a list of equality comparisons
      * and another general-purpose boolean expression. */
     class ConditionDecomposition {
@@ -85,6 +113,10 @@ public class JoinConditionAnalyzer implements IWritesLogs {
          * only involve one side of the join). */
         @Nullable
         RexNode leftOver;
+        /** A range test between a left and a right column, if one is found
+         * in the leftover predicates.  The range test is also part of leftOver. */
+        @Nullable
+        RangeTest rangeTest;
 
         ConditionDecomposition(RelNode join) {
             this.join = join;
@@ -92,6 +124,7 @@ public class JoinConditionAnalyzer implements IWritesLogs {
             this.leftPredicates = new ArrayList<>();
             this.rightPredicates = new ArrayList<>();
             this.leftOver = null;
+            this.rangeTest = null;
         }
 
         void setLeftOver(RexNode leftOver) {
@@ -192,6 +225,7 @@ public class JoinConditionAnalyzer implements IWritesLogs {
                 }
             }
 
+            this.rangeTest = this.findRangeTest(unprocessed);
             if (!unprocessed.isEmpty()) {
                 if (unprocessed.size() == 1) {
                     this.setLeftOver(unprocessed.get(0));
@@ -202,6 +236,72 @@ public class JoinConditionAnalyzer implements IWritesLogs {
             }
         }
 
+        /** Find a pair of comparisons that bound a left column between two offsets
+         * of a right column.  Returns null if there is no such pair. */
+        @Nullable
+        RangeTest findRangeTest(List<RexNode> predicates) {
+            List<RangeBound> bounds = new ArrayList<>();
+            for (RexNode predicate: predicates) {
+                if (predicate instanceof RexCall call) {
+                    RangeBound bound = this.analyzeComparison(call);
+                    if (bound != null)
+                        bounds.add(bound);
+                }
+            }
+            for (RangeBound lower: bounds) {
+                if (!lower.lower())
+                    continue;
+                for (RangeBound upper: bounds) {
+                    if (upper.lower() ||
+                            upper.leftColumn() != lower.leftColumn() ||
+                            upper.rightColumn() != lower.rightColumn())
+                        continue;
+                    return new RangeTest(CalciteObject.create(this.join), lower.leftColumn(),
+                            lower.rightColumn(), lower.offset(), upper.offset());
+                }
+            }
+            return null;
+        }
+
+        /** Analyze a comparison of the form left op right + offset, with the
+         * operands in any order.  Returns null if the comparison does not have this shape. */
+        @Nullable
+        RangeBound analyzeComparison(RexCall call) {
+            boolean lower;
+            switch (call.op.kind) {
+                case GREATER_THAN, GREATER_THAN_OR_EQUAL -> lower = true;
+                case LESS_THAN, LESS_THAN_OR_EQUAL -> lower = false;
+                default -> {
+                    return null;
+                }
+            }
+            if (call.operands.size() != 2)
+                return null;
+            ShiftedColumn first = asShiftedColumn(call.operands.get(0));
+            ShiftedColumn second = asShiftedColumn(call.operands.get(1));
+            if (first == null || second == null)
+                return null;
+            if (first.offset() != null && second.offset() != null)
+                return null;
+            boolean firstIsLeft = first.column().getIndex() < JoinConditionAnalyzer.this.leftTableColumnCount;
+            boolean secondIsLeft = second.column().getIndex() < JoinConditionAnalyzer.this.leftTableColumnCount;
+            if (firstIsLeft == secondIsLeft)
+                return null;
+            if (!firstIsLeft) {
+                // right + c op left <=> left flip(op) right + c
+                ShiftedColumn tmp = first;
+                first = second;
+                second = tmp;
+                lower = !lower;
+            }
+            // left + c1 op right + c2 <=> left op right + c2 - c1
+            @Nullable RangeOffset firstOffset = first.offset();
+            @Nullable RangeOffset offset = firstOffset != null ? firstOffset.negate() : second.offset();
+            return new RangeBound(first.column().getIndex(),
+                    second.column().getIndex() - JoinConditionAnalyzer.this.leftTableColumnCount,
+                    offset, lower);
+        }
+
         /** Analyze an equality comparison.  Return 'true' if this is suitable for an equijoin */
         public boolean analyzeEquals(RexCall call) {
             Utilities.enforce(call.operands.size() == 2, () -> "Expected 2 operands for equality checking");
@@ -251,6 +351,29 @@ public class JoinConditionAnalyzer implements IWritesLogs {
         return (RexInputRef) node;
     }
 
+    /** Recognizes expressions of the form column, column + literal,
+     * literal + column, and column - literal. */
+    @Nullable
+    static ShiftedColumn asShiftedColumn(RexNode node) {
+        RexInputRef ref = asInputRef(node);
+        if (ref != null)
+            return new ShiftedColumn(ref, null);
+        if (!(node instanceof RexCall call) || call.operands.size() != 2)
+            return null;
+        RexNode left = call.operands.get(0);
+        RexNode right = call.operands.get(1);
+        if (call.op.kind == SqlKind.PLUS) {
+            if (left instanceof RexInputRef leftRef && right instanceof RexLiteral literal)
+                return new ShiftedColumn(leftRef, new RangeOffset(literal, false));
+            if (left instanceof RexLiteral literal && right instanceof RexInputRef rightRef)
+                return new ShiftedColumn(rightRef, new RangeOffset(literal, false));
+        } else if (call.op.kind == SqlKind.MINUS) {
+            if (left instanceof RexInputRef leftRef && right instanceof RexLiteral literal)
+                return new ShiftedColumn(leftRef, new RangeOffset(literal, true));
+        }
+        return null;
+    }
+
     /**
      * Returns 'true' if this expression is referencing a column in the left table.
      * @param node  A row expression.
@@ -594,13 +594,17 @@ public class AggregateCompiler implements ICompilerComponent {
             }
             default -> throw new UnimplementedException("Aggregate function not yet implemented", node);
         };
+        if (this.filterArgument >= 0 && !this.isWindowAggregate()) {
+            this.processFilteredMinMax(operation, semigroupName);
+            return;
+        }
         DBSPExpression zero = DBSPLiteral.none(this.nullableResultType);
         DBSPExpression aggregatedValue = ExpressionCompiler.expandTuple(node, this.getAggregatedValue());
         DBSPVariablePath accumulator = this.nullableResultType.var();
         DBSPExpression increment = this.incrementOperation(
                 node, opcode, this.nullableResultType, accumulator, aggregatedValue, this.filterArgument());
         DBSPTypeUser semigroup = new DBSPTypeUser(node, SEMIGROUP, semigroupName, false, accumulator.getType());
-        // If there is a filter, do not use a MinMaxAggregate
+        // If there is a filter in a window, do not use a MinMaxAggregate
         NonLinearAggregate aggregate;
         if (this.filterArgument >= 0)
             aggregate = new NonLinearAggregate(
@@ -612,6 +616,54 @@ public class AggregateCompiler implements ICompilerComponent {
         this.setResult(aggregate);
     }
 
+    /** Implement MAX(x) FILTER (WHERE c) as ARG_MAX(if p { x } else { NULL }, (p, x)),
+     * and MIN(x) FILTER (WHERE c) as ARG_MIN(if p { x } else { NULL }, (!p, x)),
+     * where p is c AND x IS NOT NULL.  Rows that pass the filter always win the comparison.
+     * Unlike a conditional increment, the result is a {@link MinMaxAggregate}, so when x has
+     * a lateness the input trace can be garbage-collected like for unfiltered MIN/MAX. */
+    void processFilteredMinMax(MinMaxAggregate.Operation operation, String semigroupName) {
+        DBSPExpression x = ExpressionCompiler.expandTuple(node, this.getAggregatedValue());
+        DBSPExpression passes = Objects.requireNonNull(this.filterArgument());
+        if (x.getType().mayBeNull)
+            passes = new DBSPBinaryExpression(node, DBSPTypeBool.create(false), DBSPOpcode.AND,
+                    passes, x.is_null().not());
+        DBSPExpression flag;
+        DBSPOpcode opcode;
+        MinMaxAggregate.Operation argOperation;
+        if (operation == MinMaxAggregate.Operation.Max) {
+            flag = passes;
+            opcode = DBSPOpcode.AGG_MAX1;
+            argOperation = MinMaxAggregate.Operation.ArgMax;
+        } else {
+            flag = passes.not();
+            opcode = DBSPOpcode.AGG_MIN1;
+            argOperation = MinMaxAggregate.Operation.ArgMin;
+        }
+        DBSPExpression compared = new DBSPTupleExpression(flag, x.applyCloneIfNeeded());
+        DBSPExpression result = new DBSPIfExpression(node, passes.deepCopy(),
+                x.deepCopy().applyCloneIfNeeded().cast(
+                        node, this.nullableResultType, DBSPCastExpression.CastType.SqlUnsafe),
+                this.nullableResultType.none());
+
+        DBSPTypeRawTuple accumulatorType = new DBSPTypeRawTuple(
+                node, Linq.list(compared.getType().withMayBeNull(true), this.nullableResultType));
+        DBSPExpression zero = new DBSPRawTupleExpression(
+                accumulatorType.tupFields[0].none(),
+                accumulatorType.tupFields[1].none());
+        DBSPExpression aggregatedValue = new DBSPRawTupleExpression(compared, result);
+        DBSPVariablePath accumulator = accumulatorType.var();
+        // The filter is already part of the compared value
+        DBSPExpression increment = this.incrementOperation(
+                node, opcode, accumulatorType, accumulator, aggregatedValue, null);
+        DBSPTypeUser semigroup = new DBSPTypeUser(node, SEMIGROUP, semigroupName, false, accumulatorType);
+        var acc2 = accumulatorType.var();
+        DBSPClosureExpression postProcessing = acc2.field(1).applyCloneIfNeeded().closure(acc2);
+        this.setResult(new MinMaxAggregate(
+                node, zero, this.makeRowClosure(increment, accumulator),
+                this.nullableResultType.none(), semigroup,
+                aggregatedValue.deepCopy().closure(this.v), postProcessing, argOperation));
+    }
+
     void processSingle(SqlSingleValueAggFunction function) {
         DBSPExpression postZero = DBSPLiteral.none(this.nullableResultType);
         // (false, null)
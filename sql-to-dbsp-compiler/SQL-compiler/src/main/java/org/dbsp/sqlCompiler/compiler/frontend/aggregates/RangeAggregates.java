@@ -7,12 +7,16 @@ import org.apache.calcite.rex.RexWindowBound;
 import org.apache.calcite.rex.RexWindowExclusion;
 import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.mapping.Mapping;
+import org.apache.calcite.util.mapping.MappingType;
+import org.apache.calcite.util.mapping.Mappings;
 import org.dbsp.sqlCompiler.circuit.annotation.NoChain;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
 import org.dbsp.sqlCompiler.compiler.errors.CompilationError;
 import org.dbsp.sqlCompiler.compiler.errors.UnimplementedException;
@@ -39,6 +43,8 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPUnsignedWrapExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
 import org.dbsp.sqlCompiler.ir.expression.DBSPWindowBoundExpression;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPU128Literal;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPU64Literal;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
 import org.dbsp.sqlCompiler.ir.type.IsNumericType;
@@ -58,6 +64,7 @@ import org.dbsp.util.Linq;
 import org.dbsp.util.Utilities;
 
 import javax.annotation.Nullable;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -69,9 +76,16 @@ import static org.dbsp.sqlCompiler.ir.type.DBSPTypeCode.*;
 public class RangeAggregates extends WindowAggregates {
     final int orderColumnIndex;
     final RelFieldCollation collation;
+    /** True if there are multiple ORDER BY columns; these are encoded as a single
+     * unsigned value by {@link #packedOrderField}. */
+    final boolean packed;
+    /** Aggregates with the same partition and order, but a different frame,
+     * which are computed by {@link #implement} together with this one. */
+    final List<RangeAggregates> combined;
 
     protected RangeAggregates(CalciteToDBSPCompiler compiler, Window window, Window.Group group, int windowFieldIndex) {
         super(compiler, window, group, windowFieldIndex);
+        this.combined = new ArrayList<>();
 
         CalciteObject object = CalciteObject.create(group.aggCalls.get(0).pos);
         List<RelFieldCollation> orderKeys = this.group.orderKeys.getFieldCollations();
@@ -79,8 +93,10 @@ public class RangeAggregates extends WindowAggregates {
             throw new UnimplementedException("Window aggregates with ROWS", 457, object);
         if (orderKeys.isEmpty())
             throw new CompilationError("Missing ORDER BY in OVER", object);
-        if (orderKeys.size() > 1)
-            throw new UnimplementedException("ORDER BY in OVER requires exactly 1 column", 457, object);
+        this.packed = orderKeys.size() > 1;
+        if (this.packed && (!isUnboundedOrCurrent(group.lowerBound) || !isUnboundedOrCurrent(group.upperBound)))
+            throw new UnimplementedException(
+                    "ORDER BY in OVER with multiple columns requires UNBOUNDED or CURRENT ROW bounds", 457, object);
         if (group.exclude != RexWindowExclusion.EXCLUDE_NO_OTHER)
             throw new UnimplementedException("EXCLUDE BY in OVER", 457, object);
 
@@ -88,6 +104,59 @@ public class RangeAggregates extends WindowAggregates {
         this.orderColumnIndex = this.collation.getFieldIndex();
     }
 
+    static boolean isUnboundedOrCurrent(RexWindowBound bound) {
+        return bound.isUnbounded() || bound.isCurrentRow();
+    }
+
+    /** Encode all the ORDER BY columns of a row as a single unsigned integer, preserving
+     * the lexicographic order of the columns.  Each column is converted using an
+     * {@link DBSPUnsignedWrapExpression}, and the converted values are combined as the
+     * digits of a mixed-radix number.  The narrowest of u64 and u128 which can represent
+     * all the combinations is used. */
+    DBSPExpression packedOrderField(DBSPVariablePath rowVar) {
+        List<DBSPExpression> wrapped = new ArrayList<>();
+        List<BigInteger> radixes = new ArrayList<>();
+        BigInteger range = BigInteger.ONE;
+        for (RelFieldCollation c: this.group.orderKeys.getFieldCollations()) {
+            DBSPExpression field = rowVar.deref().field(c.getFieldIndex());
+            DBSPType type = field.getType();
+            if ((!type.is(DBSPTypeInteger.class) || !type.to(DBSPTypeInteger.class).signed) &&
+                    !type.is(DBSPTypeTimestamp.class) &&
+                    !type.is(DBSPTypeDate.class) &&
+                    !type.is(DBSPTypeTime.class))
+                throw new UnimplementedException("OVER with multiple ORDER BY columns currently cannot sort on columns with type "
+                        + Utilities.singleQuote(type.asSqlString()), 457, this.node);
+            DBSPUnsignedWrapExpression wrap = new DBSPUnsignedWrapExpression(
+                    this.node, field, CalciteToDBSPCompiler.ascending(c), CalciteToDBSPCompiler.nullsLast(c));
+            // The wrapped values of a type with width w, including NULL, are all smaller than 2^w + 2
+            int width = wrap.sequence.dataConvertedType.getWidth();
+            BigInteger radix = BigInteger.ONE.shiftLeft(width).add(BigInteger.TWO);
+            wrapped.add(wrap);
+            radixes.add(radix);
+            range = range.multiply(radix);
+        }
+
+        final DBSPTypeInteger resultType;
+        if (range.compareTo(BigInteger.ONE.shiftLeft(64)) <= 0)
+            resultType = DBSPTypeInteger.getType(this.node, UINT64, false);
+        else if (range.compareTo(BigInteger.ONE.shiftLeft(128)) <= 0)
+            resultType = DBSPTypeInteger.getType(this.node, UINT128, false);
+        else
+            throw new UnimplementedException("ORDER BY columns in OVER are too wide to be combined", 457, this.node);
+
+        DBSPExpression result = this.unsignedLiteral(resultType, BigInteger.ZERO);
+        for (int i = 0; i < wrapped.size(); i++)
+            result = new DBSPApplyExpression("UnsignedWrapper::pack", resultType,
+                    result, this.unsignedLiteral(resultType, radixes.get(i)), wrapped.get(i));
+        return result;
+    }
+
+    DBSPExpression unsignedLiteral(DBSPTypeInteger type, BigInteger value) {
+        if (type.code == UINT64)
+            return new DBSPU64Literal(this.node, type, value);
+        return new DBSPU128Literal(this.node, type, value);
+    }
+
     String intervalConversionFunction(CalciteObject node, DBSPType unsignedType, DBSPType sortType, DBSPType deltaType) {
         if (deltaType.is(DBSPTypeLongInterval.class)) {
             throw new UnsupportedException("""
@@ -144,15 +213,76 @@ public class RangeAggregates extends WindowAggregates {
         return new DBSPWindowBoundExpression(node, bound.isPreceding(), numericBound);
     }
 
+    /** True if the other aggregates can be computed together with this one:
+     * they have the same partition and the same order, but may have a different frame. */
+    public boolean canCombine(WindowAggregates other) {
+        if (!other.is(RangeAggregates.class))
+            return false;
+        RangeAggregates range = other.to(RangeAggregates.class);
+        return range.window == this.window &&
+                range.windowFieldIndex == this.windowFieldIndex + this.size() &&
+                range.partitionKeys.equals(this.partitionKeys) &&
+                range.group.orderKeys.equals(this.group.orderKeys);
+    }
+
+    /** Compute the other aggregates together with this one; they must be compatible
+     * according to {@link #canCombine}, and their results must follow the results of this
+     * aggregate and of the previously combined aggregates in the window. */
+    public void combine(RangeAggregates other) {
+        Utilities.enforce(this.canCombine(other));
+        Utilities.enforce(other.combined.isEmpty());
+        this.combined.add(other);
+    }
+
     @Override
-    public DBSPSimpleOperator implement(DBSPSimpleOperator input, DBSPSimpleOperator lastOperator, boolean isLast) {
-        // The final result is accumulated using join operators, which just keep adding columns to
-        // the "lastOperator".
+    public int size() {
+        int result = super.size();
+        for (RangeAggregates other: this.combined)
+            result += other.size();
+        return result;
+    }
+
+    /** The fields of the input rows used by the aggregates in this group, in increasing order. */
+    List<Integer> aggregatedFields() {
+        ImmutableBitSet.Builder builder = ImmutableBitSet.builder();
+        for (AggregateCall call: this.aggregateCalls) {
+            builder.addAll(call.getArgList());
+            if (call.filterArg >= 0)
+                builder.set(call.filterArg);
+            for (RelFieldCollation c: call.getCollation().getFieldCollations())
+                builder.set(c.getFieldIndex());
+        }
+        // Indexes past the end of the row refer to the window constants
+        return Linq.where(builder.build().asList(), f -> f < this.inputRowType.size());
+    }
+
+    /** The aggregate calls in this group, rewritten to use rows containing only the specified
+     * fields of the input rows.  The window constants follow these fields. */
+    List<AggregateCall> projectCalls(List<Integer> fields) {
+        int rowSize = this.inputRowType.size();
+        int constants = this.window.constants.size();
+        Mapping mapping = Mappings.create(MappingType.PARTIAL_FUNCTION,
+                rowSize + constants, fields.size() + constants);
+        for (int i = 0; i < fields.size(); i++)
+            mapping.set(fields.get(i), i);
+        for (int i = 0; i < constants; i++)
+            mapping.set(rowSize + i, fields.size() + i);
+        return Linq.map(this.aggregateCalls, c -> c.transform(mapping));
+    }
+
+    /** Result of a rolling aggregate.
+     *
+     * @param integral   Integrated result, indexed by a tuple with the partition fields followed
+     *                   by the order field.
+     * @param resultType Type of the aggregate values. */
+    record RollingAggregate(DBSPSimpleOperator integral, DBSPTypeTuple resultType) {}
+
+    /** Compute the aggregates in this group (ignoring the combined ones) using a partitioned
+     * rolling aggregate operator. */
+    RollingAggregate rollingAggregate(DBSPSimpleOperator input) {
         List<RelFieldCollation> orderKeys = this.group.orderKeys.getFieldCollations();
         if (orderKeys.isEmpty())
             throw new CompilationError("Missing ORDER BY in OVER", this.node);
-        if (orderKeys.size() > 1)
-            throw new UnimplementedException("ORDER BY in OVER requires exactly 1 column", 457, this.node);
 
         final DBSPExpression originalOrderField = this.inputRowRefVar.deref().field(orderColumnIndex);
         // Original type that sorting is performed on
@@ -164,16 +294,18 @@ public class RangeAggregates extends WindowAggregates {
         final boolean nullsLast = CalciteToDBSPCompiler.nullsLast(this.collation);
         final DBSPType partitionType;
         final DBSPType partitionAndRowType;
-        final DBSPTypeTuple lastTupleType = lastOperator.getOutputZSetElementType().to(DBSPTypeTuple.class);
         // For Decimal and floating point this function converts the value to a signed integer.
         @Nullable
         DBSPClosureExpression convertToSigned = null;
+        final List<Integer> aggregatedFields = this.aggregatedFields();
 
         {
             DBSPTupleExpression partitionKeys = this.partitionKeys();
             partitionType = partitionKeys.getType();
             DBSPVariablePath var = originalSortType.var();
-            if (originalSortType.is(DBSPTypeDecimal.class)) {
+            if (this.packed) {
+                sortType = null;
+            } else if (originalSortType.is(DBSPTypeDecimal.class)) {
                 // Scale decimal to make it an integer by multiplying with 10^scale
                 DBSPTypeDecimal dec = originalSortType.to(DBSPTypeDecimal.class);
                 DBSPTypeCode code = DBSPTypeInteger.smallestInteger(dec.precision);
@@ -197,28 +329,37 @@ public class RangeAggregates extends WindowAggregates {
                 sortType = originalSortType;
             }
 
-            if (sortType == null ||
+            if (!this.packed && (sortType == null ||
                     !sortType.is(DBSPTypeInteger.class) &&
                     !sortType.is(DBSPTypeTimestamp.class) &&
                     !sortType.is(DBSPTypeDate.class) &&
                     !sortType.is(DBSPTypeTime.class) &&
-                    !sortType.is(DBSPTypeShortInterval.class))
+                    !sortType.is(DBSPTypeShortInterval.class)))
                 throw new UnimplementedException("OVER currently cannot sort on columns with type "
                         + Utilities.singleQuote(originalSortType.asSqlString()), 457, node);
 
-            final DBSPExpression converted;
-            if (convertToSigned != null)
-                converted = convertToSigned.call(originalOrderField).reduce(this.compiler.compiler());
-            else
-                converted = originalOrderField;
             // The DBSP rolling aggregate requires the order field to be unsigned.
-            DBSPExpression orderField = new DBSPUnsignedWrapExpression(
-                    this.node, converted, ascending, nullsLast);
+            DBSPExpression orderField;
+            if (this.packed) {
+                orderField = this.packedOrderField(this.inputRowRefVar);
+            } else {
+                final DBSPExpression converted;
+                if (convertToSigned != null)
+                    converted = convertToSigned.call(originalOrderField).reduce(this.compiler.compiler());
+                else
+                    converted = originalOrderField;
+                orderField = new DBSPUnsignedWrapExpression(
+                        this.node, converted, ascending, nullsLast);
+            }
             unsignedSortType = orderField.getType();
 
-            // Map each row to an expression of the form: |t| (order, Tup2(partition, (*t).clone()))
+            // Map each row to an expression of the form: |t| (order, Tup2(partition, Tup(t.a, t.b, ...)))
+            // The rolling aggregate stores these values, while the full rows are stored by the join
+            // with the aggregate results, so only keep the fields used by the aggregates.
+            DBSPExpression aggregatedFields = new DBSPTupleExpression(
+                    Linq.map(aggregatedFields, f -> inputRowRefVar.deref().field(f).applyCloneIfNeeded()), false);
             DBSPExpression partitionAndRow = new DBSPTupleExpression(
-                    partitionKeys, inputRowRefVar.deref().applyClone());
+                    partitionKeys, aggregatedFields);
             partitionAndRowType = partitionAndRow.getType();
             DBSPExpression indexExpr = new DBSPRawTupleExpression(orderField, partitionAndRow);
             DBSPClosureExpression indexClosure = indexExpr.closure(inputRowRefVar);
@@ -247,8 +388,10 @@ public class RangeAggregates extends WindowAggregates {
                     this.aggregateCalls,
                     c -> this.compiler.convertType(this.node.getPositionRange(), c.type, false));
             DBSPTypeTuple tuple = new DBSPTypeTuple(types);
+            DBSPTypeTuple aggregatedType = new DBSPTypeTuple(
+                    Linq.map(aggregatedFields, this.inputRowType::getFieldType));
             DBSPAggregateList list = this.compiler.createAggregates(this.compiler.compiler(),
-                    this.window, this.aggregateCalls, this.window.constants, tuple, this.inputRowType, 0,
+                    this.window, this.projectCalls(aggregatedFields), this.window.constants, tuple, aggregatedType, 0,
                     ImmutableBitSet.of(), false);
 
             // This function is always the same: |Tup2(x, y)| (x, y)
@@ -292,17 +435,23 @@ public class RangeAggregates extends WindowAggregates {
             // new DBSPTypeOption(aggResultType)).ref()));
             DBSPExpression ts = var.field(1).deref().field(0);
             DBSPExpression agg = var.field(1).deref().field(1).applyCloneIfNeeded();
-            DBSPExpression unwrap = new DBSPUnsignedUnwrapExpression(
-                    this.node, ts, sortType, ascending, nullsLast);
-            if (originalSortType.is(DBSPTypeDecimal.class)) {
-                // convert back to decimal and rescale
-                DBSPType i128 = DBSPTypeInteger.getType(this.node, INT128, originalSortType.mayBeNull);
-                unwrap = unwrap.cast(this.node, i128, DBSPCastExpression.CastType.SqlUnsafe);
-                unwrap = new DBSPUnaryExpression(this.node, originalSortType,
-                        DBSPOpcode.INTEGER_TO_DECIMAL, unwrap);
-            } else if (originalSortType.is(DBSPTypeShortInterval.class)) {
-                unwrap = new DBSPUnaryExpression(this.node, originalSortType,
-                        DBSPOpcode.INTEGER_TO_SHORT_INTERVAL, unwrap);
+            DBSPExpression unwrap;
+            if (this.packed) {
+                // The result is indexed by the encoded order columns
+                unwrap = ts;
+            } else {
+                unwrap = new DBSPUnsignedUnwrapExpression(
+                        this.node, ts, Objects.requireNonNull(sortType), ascending, nullsLast);
+                if (originalSortType.is(DBSPTypeDecimal.class)) {
+                    // convert back to decimal and rescale
+                    DBSPType i128 = DBSPTypeInteger.getType(this.node, INT128, originalSortType.mayBeNull);
+                    unwrap = unwrap.cast(this.node, i128, DBSPCastExpression.CastType.SqlUnsafe);
+                    unwrap = new DBSPUnaryExpression(this.node, originalSortType,
+                            DBSPOpcode.INTEGER_TO_DECIMAL, unwrap);
+                } else if (originalSortType.is(DBSPTypeShortInterval.class)) {
+                    unwrap = new DBSPUnaryExpression(this.node, originalSortType,
+                            DBSPOpcode.INTEGER_TO_SHORT_INTERVAL, unwrap);
+                }
             }
 
             DBSPExpression ixKey = var.field(0).deref();
@@ -319,8 +468,44 @@ public class RangeAggregates extends WindowAggregates {
 
         DBSPIntegrateOperator integral = new DBSPIntegrateOperator(this.node, index.outputPort());
         this.compiler.addOperator(integral);
+        return new RollingAggregate(integral, aggResultType);
+    }
+
+    @Override
+    public DBSPSimpleOperator implement(DBSPSimpleOperator input, DBSPSimpleOperator lastOperator, boolean isLast) {
+        // The final result is accumulated using join operators, which just keep adding columns to
+        // the "lastOperator".
+        final DBSPTypeTuple lastTupleType = lastOperator.getOutputZSetElementType().to(DBSPTypeTuple.class);
+        RollingAggregate rolling = this.rollingAggregate(input);
+        DBSPSimpleOperator aggregates = rolling.integral;
+        // The types of the window fields produced, in order
+        List<DBSPType> resultTypes = new ArrayList<>();
+        for (int i = 0; i < rolling.resultType.size(); i++)
+            resultTypes.add(this.windowResultType.getFieldType(this.windowFieldIndex + i));
+
+        // Aggregates with other frames are joined with this aggregate on the partition and order fields.
+        // Each join has one row on each side for each key, and the traces are much narrower
+        // than the traces of a join with the previous result.
+        for (RangeAggregates other: this.combined) {
+            RollingAggregate next = other.rollingAggregate(input);
+            for (int i = 0; i < next.resultType.size(); i++)
+                resultTypes.add(this.windowResultType.getFieldType(other.windowFieldIndex + i));
+            DBSPTypeIndexedZSet ix = aggregates.getOutputIndexedZSetType();
+            DBSPVariablePath key = ix.keyType.ref().var();
+            DBSPVariablePath left = ix.elementType.ref().var();
+            DBSPVariablePath right = next.resultType.ref().var();
+            DBSPTupleExpression value = DBSPTupleExpression.flatten(left.deref(), right.deref());
+            DBSPClosureExpression combine = new DBSPRawTupleExpression(
+                    key.deref().applyCloneIfNeeded(), value).closure(key, left, right);
+            aggregates = new DBSPStreamJoinIndexOperator(this.node,
+                    TypeCompiler.makeIndexedZSet(ix.keyType, value.getType()), combine,
+                    aggregates.isMultiset || next.integral.isMultiset,
+                    aggregates.outputPort(), next.integral.outputPort(), false);
+            this.compiler.addOperator(aggregates);
+        }
+        final DBSPTypeTuple aggResultType = aggregates.getOutputIndexedZSetType().elementType.to(DBSPTypeTuple.class);
 
-        // Join the previous result with the aggregate
+        // Join the previous result with the aggregates
         DBSPSimpleOperator indexInput;
         DBSPType lastPartAndOrderType;
         DBSPType lastCopiedFieldsType;
@@ -330,8 +515,10 @@ public class RangeAggregates extends WindowAggregates {
             List<DBSPExpression> expressions = Linq.map(partitionKeys,
                     f -> previousRowRefVar.deref().field(f).applyCloneIfNeeded());
 
-            DBSPExpression orderField = previousRowRefVar.deref().field(orderColumnIndex);
-            expressions.add(orderField.applyCloneIfNeeded());
+            DBSPExpression orderField = this.packed ?
+                    this.packedOrderField(previousRowRefVar) :
+                    previousRowRefVar.deref().field(orderColumnIndex).applyCloneIfNeeded();
+            expressions.add(orderField);
             DBSPExpression partAndOrder = new DBSPTupleExpression(expressions, false);
             lastPartAndOrderType = partAndOrder.getType();
             // Copy all the fields from the previousRowRefVar except the partition fields.
@@ -339,7 +526,7 @@ public class RangeAggregates extends WindowAggregates {
             for (int i = 0; i < lastTupleType.size(); i++) {
                 if (partitionKeys.contains(i))
                     continue;
-                if (orderColumnIndex == i)
+                if (!this.packed && orderColumnIndex == i)
                     continue;
                 fields.add(previousRowRefVar.deref().field(i).applyCloneIfNeeded());
             }
@@ -371,7 +558,7 @@ public class RangeAggregates extends WindowAggregates {
                             .field(keyIndex)
                             .applyCloneIfNeeded();
                     indexField++;
-                } else if (orderColumnIndex == i) {
+                } else if (!this.packed && orderColumnIndex == i) {
                     // If the field is the order key, use it from the index too; it's the last one
                     allFields[i] = key
                             .deref()
@@ -387,15 +574,14 @@ public class RangeAggregates extends WindowAggregates {
                 // for these aggregates.  So we have to cast the results to whatever
                 // Calcite says they will be.
                 allFields[i + lastTupleType.size()] = right.deref().field(i).applyCloneIfNeeded().cast(
-                        this.node, this.windowResultType.getFieldType(this.windowFieldIndex + i),
-                        DBSPCastExpression.CastType.SqlUnsafe);
+                        this.node, resultTypes.get(i), DBSPCastExpression.CastType.SqlUnsafe);
             }
             DBSPTupleExpression addExtraFieldBody = new DBSPTupleExpression(allFields);
             DBSPClosureExpression addExtraField =
                     addExtraFieldBody.closure(key, left, right);
             return new DBSPStreamJoinOperator(node.maybeFinal(isLast), TypeCompiler.makeZSet(addExtraFieldBody.getType()),
-                    addExtraField, indexInput.isMultiset || windowAgg.isMultiset,
-                    indexInput.outputPort(), integral.outputPort(), false);
+                    addExtraField, indexInput.isMultiset || aggregates.isMultiset,
+                    indexInput.outputPort(), aggregates.outputPort(), false);
         }
     }
 
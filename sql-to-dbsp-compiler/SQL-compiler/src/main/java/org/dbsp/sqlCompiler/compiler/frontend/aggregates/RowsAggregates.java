@@ -0,0 +1,177 @@
+package org.dbsp.sqlCompiler.compiler.frontend.aggregates;
+
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.Window;
+import org.apache.calcite.rex.RexWindowBound;
+import org.apache.calcite.rex.RexWindowExclusion;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.dbsp.sqlCompiler.circuit.OutputPort;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDeindexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
+import org.dbsp.sqlCompiler.compiler.errors.CompilationError;
+import org.dbsp.sqlCompiler.compiler.errors.UnimplementedException;
+import org.dbsp.sqlCompiler.compiler.errors.UnsupportedException;
+import org.dbsp.sqlCompiler.compiler.frontend.CalciteToDBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.aggregate.DBSPAggregateList;
+import org.dbsp.sqlCompiler.ir.aggregate.DBSPFold;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPComparatorExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPIntLiteral;
+import org.dbsp.sqlCompiler.ir.statement.DBSPExpressionStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeVoid;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeVec;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeWeight;
+import org.dbsp.util.Linq;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/** Implements a window aggregate with a frame of the form
+ * ROWS BETWEEN n PRECEDING AND CURRENT ROW.
+ * A single lag operator matches each row with the n rows that precede it
+ * in its partition; the aggregate is then computed from these rows
+ * by applying the fold of the aggregate.  The lag operator keeps the
+ * integral of its input and one output row for each input row, independent of n;
+ * this state can be garbage-collected using LATENESS. */
+public class RowsAggregates extends WindowAggregates {
+    /** Number of preceding rows in the frame */
+    final int preceding;
+
+    protected RowsAggregates(CalciteToDBSPCompiler compiler, Window window, Window.Group group, int windowFieldIndex) {
+        super(compiler, window, group, windowFieldIndex);
+        CalciteObject object = CalciteObject.create(group.aggCalls.get(0).pos);
+        if (group.orderKeys.getFieldCollations().isEmpty())
+            throw new CompilationError("Missing ORDER BY in OVER", object);
+        if (group.exclude != RexWindowExclusion.EXCLUDE_NO_OTHER)
+            throw new UnimplementedException("EXCLUDE BY in OVER", 457, object);
+        this.preceding = this.getPreceding(group.lowerBound);
+    }
+
+    /** True if the frame of the group is ROWS BETWEEN n PRECEDING AND CURRENT ROW */
+    static boolean isSupported(Window.Group group) {
+        if (!group.isRows || !group.upperBound.isCurrentRow())
+            return false;
+        RexWindowBound lower = group.lowerBound;
+        return lower.isCurrentRow() || (lower.isPreceding() && !lower.isUnbounded());
+    }
+
+    int getPreceding(RexWindowBound bound) {
+        if (bound.isCurrentRow())
+            return 0;
+        DBSPExpression value = this.eComp.compile(Objects.requireNonNull(bound.getOffset()));
+        Simplify simplify = new Simplify(this.compiler.compiler());
+        IDBSPInnerNode simplified = simplify.apply(value);
+        if (!simplified.is(DBSPIntLiteral.class) || simplified.to(DBSPIntLiteral.class).isNull())
+            throw new UnsupportedException("Currently window bounds must be constant values: " +
+                    simplified, this.node);
+        BigInteger offset = simplified.to(DBSPIntLiteral.class).getValue();
+        if (offset.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0)
+            throw new CompilationError("Window bound " + offset + " PRECEDING is too large; " +
+                    "the largest supported value is " + Integer.MAX_VALUE, this.node);
+        return offset.intValueExact();
+    }
+
+    @Override
+    public DBSPSimpleOperator implement(
+            DBSPSimpleOperator unusedInput, DBSPSimpleOperator lastOperator, boolean isLast) {
+        OutputPort inputIndexed = this.indexInput(lastOperator);
+
+        // Lag is always incremental, so create the non-incremental version
+        // of the operator by adding a Differentiator and an Integrator around it.
+        DBSPDifferentiateOperator diff = new DBSPDifferentiateOperator(this.node, inputIndexed);
+        this.compiler.addOperator(diff);
+
+        DBSPTypeTuple lastRowType = diff.getOutputIndexedZSetType().elementType.to(DBSPTypeTuple.class);
+        DBSPType keyType = diff.getOutputIndexedZSetType().keyType;
+        DBSPComparatorExpression comparator = CalciteToDBSPCompiler.generateComparator(
+                this.node, this.group.orderKeys.getFieldCollations(), lastRowType, false);
+
+        // The preceding rows are projected on the fields of the window input
+        DBSPVariablePath var = lastRowType.ref().var();
+        List<DBSPExpression> fields = new ArrayList<>();
+        for (int i = 0; i < this.inputRowType.size(); i++)
+            fields.add(var.deref().field(i).applyCloneIfNeeded());
+        DBSPClosureExpression projection = new DBSPTupleExpression(fields, false).closure(var);
+
+        // Fold the current row and the preceding rows
+        List<DBSPType> types = Linq.map(
+                this.aggregateCalls,
+                c -> this.compiler.convertType(this.node.getPositionRange(), c.type, false));
+        DBSPAggregateList list = this.compiler.createAggregates(this.compiler.compiler(),
+                this.window, this.aggregateCalls, this.window.constants, new DBSPTypeTuple(types),
+                this.inputRowType, 0, ImmutableBitSet.of(), false);
+        DBSPFold fold = list.asFold(this.compiler.compiler());
+
+        DBSPVariablePath row = lastRowType.ref().var();
+        DBSPVariablePath precedingRows = new DBSPTypeVec(this.inputRowType, false).ref().var();
+        List<DBSPStatement> statements = new ArrayList<>();
+        DBSPVariablePath accumulator = fold.zero.getType().var();
+        statements.add(new DBSPLetStatement(accumulator.variable, fold.zero, true));
+
+        List<DBSPExpression> current = new ArrayList<>();
+        for (int i = 0; i < this.inputRowType.size(); i++)
+            current.add(row.deref().field(i).applyCloneIfNeeded());
+        DBSPVariablePath currentRow = this.inputRowType.var();
+        statements.add(new DBSPLetStatement(currentRow.variable, new DBSPTupleExpression(current, false)));
+        statements.add(new DBSPExpressionStatement(fold.increment.call(
+                accumulator.borrow(true), currentRow.borrow(), DBSPTypeWeight.INSTANCE.one())
+                .reduce(this.compiler.compiler())));
+        statements.add(new DBSPExpressionStatement(new DBSPApplyExpression(this.node, "fold_rows",
+                DBSPTypeVoid.INSTANCE, accumulator.borrow(true), precedingRows, fold.increment.deepCopy())));
+        DBSPTypeTuple aggResultType = list.getEmptySetResultType().to(DBSPTypeTuple.class);
+        DBSPVariablePath aggregates = aggResultType.var();
+        statements.add(new DBSPLetStatement(aggregates.variable,
+                fold.postProcess.call(accumulator).reduce(this.compiler.compiler())));
+
+        List<DBSPExpression> resultFields = new ArrayList<>();
+        for (int i = 0; i < lastRowType.size(); i++)
+            resultFields.add(row.deref().field(i).applyCloneIfNeeded());
+        for (int i = 0; i < aggResultType.size(); i++) {
+            // Cast the results to whatever Calcite says they will be.
+            resultFields.add(aggregates.deepCopy().field(i).applyCloneIfNeeded().cast(this.node,
+                    this.windowResultType.getFieldType(this.windowFieldIndex + i),
+                    DBSPCastExpression.CastType.SqlUnsafe));
+        }
+        DBSPExpression result = new DBSPTupleExpression(resultFields, false);
+        DBSPClosureExpression function = new DBSPBlockExpression(statements, result)
+                .closure(row, precedingRows);
+
+        DBSPLagOperator lag = new DBSPLagOperator(
+                this.node, this.preceding, projection, function, comparator,
+                TypeCompiler.makeIndexedZSet(keyType, result.getType()), diff.outputPort(), false, true);
+        this.compiler.addOperator(lag);
+
+        DBSPIntegrateOperator integral = new DBSPIntegrateOperator(this.node, lag.outputPort());
+        this.compiler.addOperator(integral);
+        return new DBSPDeindexOperator(this.node.maybeFinal(isLast), this.node, integral.outputPort());
+    }
+
+    @Override
+    public boolean isCompatible(AggregateCall call) {
+        SqlKind kind = call.getAggregation().getKind();
+        return kind != SqlKind.LAG &&
+                kind != SqlKind.LEAD &&
+                kind != SqlKind.FIRST_VALUE &&
+                kind != SqlKind.LAST_VALUE;
+    }
+}
@@ -104,6 +104,11 @@ public abstract class WindowAggregates implements ICastable {
         this.aggregateCalls.add(call);
     }
 
+    /** Number of window fields produced by {@link #implement} */
+    public int size() {
+        return this.aggregateCalls.size();
+    }
+
     public DBSPTupleExpression partitionKeys() {
         List<DBSPExpression> expressions = Linq.map(this.partitionKeys,
                 f -> this.inputRowRefVar.deref().field(f).applyCloneIfNeeded());
@@ -133,9 +138,13 @@ public abstract class WindowAggregates implements ICastable {
                             CalciteObject.create(window));
                 yield new LeadLagAggregates(compiler, window, group, windowFieldIndex);
             }
-            default -> (isUnbounded(group) && group.orderKeys.getFieldCollations().isEmpty()) ?
-                    new SimpleAggregates(compiler, window, group, windowFieldIndex) :
-                    new RangeAggregates(compiler, window, group, windowFieldIndex);
+            default -> {
+                if (isUnbounded(group) && group.orderKeys.getFieldCollations().isEmpty())
+                    yield new SimpleAggregates(compiler, window, group, windowFieldIndex);
+                if (RowsAggregates.isSupported(group))
+                    yield new RowsAggregates(compiler, window, group, windowFieldIndex);
+                yield new RangeAggregates(compiler, window, group, windowFieldIndex);
+            }
         };
         result.addAggregate(call);
         return result;
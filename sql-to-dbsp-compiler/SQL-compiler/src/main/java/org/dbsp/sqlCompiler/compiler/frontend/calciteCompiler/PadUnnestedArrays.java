@@ -0,0 +1,73 @@
+package org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlOperatorBinding;
+import org.apache.calcite.sql.type.ArraySqlType;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.util.SqlShuttle;
+import org.apache.calcite.sql.validate.SqlValidator;
+import org.apache.calcite.sql.validate.SqlValidatorScope;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.Objects;
+
+/** An UNNEST of multiple arrays zips the arrays, padding the shorter ones with NULL values.
+ * Calcite types the UNNEST fields with the element types of the arrays, so they are NOT NULL
+ * for arrays with non-nullable elements.  This shuttle wraps each array of such an UNNEST
+ * in a call to {@link #UNNEST_PADDED}, which only changes the element type of the array to
+ * be nullable, so that all the types derived from the UNNEST are nullable. */
+public class PadUnnestedArrays extends SqlShuttle {
+    /** Identity function on arrays, whose result has nullable elements */
+    static class UnnestPaddedFunction extends SqlFunction {
+        UnnestPaddedFunction() {
+            super("UNNEST_PADDED", SqlKind.OTHER_FUNCTION, UnnestPaddedFunction::inferType,
+                    null, OperandTypes.ANY, SqlFunctionCategory.SYSTEM);
+        }
+
+        static RelDataType inferType(SqlOperatorBinding binding) {
+            RelDataType type = binding.getOperandType(0);
+            if (!(type instanceof ArraySqlType))
+                return type;
+            RelDataTypeFactory factory = binding.getTypeFactory();
+            RelDataType element = Objects.requireNonNull(type.getComponentType());
+            RelDataType result = factory.createArrayType(factory.createTypeWithNullability(element, true), -1);
+            return factory.createTypeWithNullability(result, type.isNullable());
+        }
+
+        @Override
+        public RelDataType deriveType(SqlValidator validator, SqlValidatorScope scope, SqlCall call) {
+            // The function is not in the operator table, so it must not be looked up
+            for (SqlNode operand: call.getOperandList())
+                validator.deriveType(scope, operand);
+            return this.validateOperands(validator, scope, call);
+        }
+
+        @Override
+        public boolean isDeterministic() {
+            // Prevent the constant folding code from trying to evaluate the function
+            return false;
+        }
+    }
+
+    public static final SqlFunction UNNEST_PADDED = new UnnestPaddedFunction();
+
+    @Override
+    public @Nullable SqlNode visit(SqlCall call) {
+        SqlCall newCall = Objects.requireNonNull((SqlCall) super.visit(call));
+        if (newCall.getOperator().kind != SqlKind.UNNEST || newCall.operandCount() < 2)
+            return newCall;
+        List<SqlNode> operands = newCall.getOperandList();
+        for (int i = 0; i < operands.size(); i++) {
+            SqlNode operand = operands.get(i);
+            newCall.setOperand(i, UNNEST_PADDED.createCall(operand.getParserPosition(), operand));
+        }
+        return newCall;
+    }
+}
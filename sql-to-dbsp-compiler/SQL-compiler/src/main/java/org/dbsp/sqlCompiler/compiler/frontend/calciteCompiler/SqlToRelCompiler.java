@@ -758,6 +758,8 @@ public class SqlToRelCompiler implements IWritesLogs {
             RemoveUnaryNoop remove = new RemoveUnaryNoop();
             node = Objects.requireNonNull(remove.visitNode(node));
         }
+        PadUnnestedArrays pad = new PadUnnestedArrays();
+        node = Objects.requireNonNull(pad.visitNode(node));
         ReplacePositions replace = new ReplacePositions(!saveLines);
         node = Objects.requireNonNull(replace.visitNode(node));
         return node;
@@ -1906,6 +1908,9 @@ public class SqlToRelCompiler implements IWritesLogs {
             case CreateViewStatement.EMIT_FINAL:
                 // Actual value validated elsewhere
                 break;
+            case CreateViewStatement.WORKERS:
+                this.validatePositiveProperty(node, key, value);
+                break;
             case "rust":
             case "connectors":
                 this.validateConnectorsProperty(node, false, view, key, value);
@@ -1933,6 +1938,16 @@ public class SqlToRelCompiler implements IWritesLogs {
         }
     }
 
+    void validatePositiveProperty(CalciteObject node, SqlFragment key, SqlFragment value) {
+        String vs = value.getString();
+        try {
+            if (Integer.parseInt(vs) > 0)
+                return;
+        } catch (NumberFormatException ignored) {}
+        throw new CompilationError("Expected a positive integer value for property " +
+                Utilities.singleQuote(key.getString()), node);
+    }
+
     static SourcePositionRange elementPositionRange(SqlFragment value, String path, boolean toValue) {
         String json = value.getString();
         SourcePosition pos = Utilities.jsonPointerLocation(json, path, toValue);
@@ -2090,6 +2105,13 @@ public class SqlToRelCompiler implements IWritesLogs {
                                 "please use 'CREATE MATERIALIZED VIEW' instead");
             }
 
+            SqlFragment workers = viewProperties.getPropertyValue(CreateViewStatement.WORKERS);
+            if (workers != null && cv.viewKind == SqlCreateView.ViewKind.LOCAL) {
+                this.errorReporter.reportWarning(workers.getSourcePosition(),
+                        "Workers property not used",
+                        "The 'workers' property is ignored for LOCAL views");
+            }
+
             SqlFragment val = viewProperties.getPropertyValue(CreateViewStatement.EMIT_FINAL);
             if (val != null) {
                 try {
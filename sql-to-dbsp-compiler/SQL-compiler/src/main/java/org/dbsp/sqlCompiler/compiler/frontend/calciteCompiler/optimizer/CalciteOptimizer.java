@@ -382,6 +382,8 @@ public class CalciteOptimizer implements IWritesLogs {
                 CoreRules.PROJECT_JOIN_JOIN_REMOVE,
                 CoreRules.PROJECT_JOIN_REMOVE
         ));
+        this.addStep(new SimpleOptimizerStep("Late materialization", 2,
+                new LateMaterialization()));
         /*
         return Linq.list(
             CoreRules.AGGREGATE_PROJECT_PULL_UP_CONSTANTS,
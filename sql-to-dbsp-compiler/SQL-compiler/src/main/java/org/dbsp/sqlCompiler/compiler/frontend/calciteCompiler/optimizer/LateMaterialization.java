@@ -0,0 +1,307 @@
+package org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.optimizer;
+
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.rules.TransformationRule;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Late materialization of wide columns that flow through a tree of joins.
+ *
+ * <p>Every join stores its inputs in traces, so a wide column (a string or binary with a
+ * large or no declared length, a VARIANT, an ARRAY or a MAP) that flows through N joins is stored N times.
+ * If the column comes from a table with a primary key, and it is not used by any
+ * join condition, but only by the projection that follows the join tree, we can
+ * join the result again with the table on its primary key, and read the wide column
+ * from there.  The columns left unused in the original join tree are then removed
+ * from all the intermediate joins by the DBSP unused fields analysis.
+ *
+ * <p>Plan before:
+ * LogicalProject($w)
+ *   LogicalJoin
+ *     LogicalJoin
+ *       TableScan(T)      -- T has primary key $k and wide column $w
+ *       X
+ *     Y
+ *
+ * <p>Plan after:
+ * LogicalProject($w')
+ *   LogicalJoin(condition=[=($k, $k')])
+ *     LogicalJoin
+ *       LogicalJoin
+ *         TableScan(T)
+ *         X
+ *       Y
+ *     TableScan(T)
+ *
+ * <p>The cost model uses an estimate of the width in bytes of each column, derived from its type.
+ * The rewrite saves the wide columns from the traces of the joins they cross, but the extra join
+ * stores a whole row of the table, and the narrow columns of the join output, a second time.
+ * The rewrite is applied only when the savings exceed this cost.  It can be disabled by
+ * skipping the "Late materialization" Calcite optimization step. */
+public class LateMaterialization
+        extends RelRule<DefaultOptRuleConfig<LateMaterialization>>
+        implements TransformationRule {
+    /** Minimum number of joins that a column has to cross for the rewrite to apply */
+    static final int MIN_DEPTH = 2;
+    /** Minimum estimated width in bytes of a column that is rematerialized */
+    static final int MIN_WIDE_BYTES = 64;
+    /** Estimated width in bytes of a string or binary without a declared length;
+     * such columns are often used for large payloads, so they are considered wide */
+    static final int UNBOUNDED_STRING_BYTES = 2 * MIN_WIDE_BYTES;
+    /** Estimated width in bytes of a VARIANT, ARRAY, MAP, or MULTISET value */
+    static final int COLLECTION_BYTES = 256;
+
+    protected LateMaterialization() {
+        super(CONFIG);
+    }
+
+    /** A table scan which is a leaf of the join tree.
+     *
+     * @param scan     Table scanned.
+     * @param offset   Offset of the leaf columns in the output of the join tree.
+     * @param depth    Number of joins above the leaf.
+     * @param nullable True if some outer join may produce nulls for the columns of the leaf.
+     * @param columns  For each column of the leaf the column of the scan it is a copy of,
+     *                 or -1 if it is computed. */
+    record Leaf(TableScan scan, int offset, int depth, boolean nullable, int[] columns) {
+        /** The leaf column which is a copy of the specified scan column, or -1 */
+        int find(int scanColumn) {
+            for (int i = 0; i < this.columns.length; i++)
+                if (this.columns[i] == scanColumn)
+                    return i;
+            return -1;
+        }
+    }
+
+    /** A leaf whose wide columns are rematerialized.
+     *
+     * @param leaf        Leaf of the join tree.
+     * @param keyColumns  Primary key columns of the scanned table.
+     * @param leafKeys    Leaf columns that contain the primary key columns.
+     * @param wide        Leaf columns which are replaced. */
+    record Rematerialized(Leaf leaf, List<Integer> keyColumns, List<Integer> leafKeys, List<Integer> wide) {}
+
+    /** Estimated width in bytes of a value of the specified type */
+    static int estimatedWidth(RelDataType type) {
+        SqlTypeName name = type.getSqlTypeName();
+        return switch (name) {
+            case BOOLEAN, TINYINT -> 1;
+            case SMALLINT -> 2;
+            case INTEGER, REAL, DATE -> 4;
+            case DECIMAL, UUID -> 16;
+            case CHAR, VARCHAR, BINARY, VARBINARY ->
+                    type.getPrecision() == RelDataType.PRECISION_NOT_SPECIFIED ?
+                            UNBOUNDED_STRING_BYTES : type.getPrecision();
+            case VARIANT, ARRAY, MAP, MULTISET -> COLLECTION_BYTES;
+            case ROW -> {
+                int result = 0;
+                for (RelDataTypeField field: type.getFieldList())
+                    result += estimatedWidth(field.getType());
+                yield result;
+            }
+            default -> 8;
+        };
+    }
+
+    static boolean isWide(RelDataType type) {
+        return estimatedWidth(type) >= MIN_WIDE_BYTES;
+    }
+
+    /** If the node is a chain of filters and projections over a table scan return a leaf
+     * describing it, otherwise return null. */
+    @Nullable
+    static Leaf getLeaf(RelNode node, int offset, int depth, boolean nullable) {
+        int[] columns = new int[node.getRowType().getFieldCount()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = i;
+        while (true) {
+            node = node.stripped();
+            if (node instanceof TableScan scan) {
+                return new Leaf(scan, offset, depth, nullable, columns);
+            } else if (node instanceof Filter filter) {
+                node = filter.getInput();
+            } else if (node instanceof Project project) {
+                for (int i = 0; i < columns.length; i++) {
+                    if (columns[i] < 0)
+                        continue;
+                    RexNode expression = project.getProjects().get(columns[i]);
+                    columns[i] = expression instanceof RexInputRef ref ? ref.getIndex() : -1;
+                }
+                node = project.getInput();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /** Collect the leaves of a join tree, and the columns used by the join conditions. */
+    static void collect(RelNode node, int offset, int depth, boolean nullable,
+                        List<Leaf> leaves, ImmutableBitSet.Builder conditionFields) {
+        node = node.stripped();
+        if (node instanceof Join join && join.getJoinType().projectsRight()) {
+            conditionFields.addAll(RelOptUtil.InputFinder.bits(join.getCondition()).shift(offset));
+            int leftFields = join.getLeft().getRowType().getFieldCount();
+            JoinRelType type = join.getJoinType();
+            collect(join.getLeft(), offset, depth + 1,
+                    nullable || type.generatesNullsOnLeft(), leaves, conditionFields);
+            collect(join.getRight(), offset + leftFields, depth + 1,
+                    nullable || type.generatesNullsOnRight(), leaves, conditionFields);
+            return;
+        }
+        Leaf leaf = getLeaf(node, offset, depth, nullable);
+        if (leaf != null)
+            leaves.add(leaf);
+    }
+
+    /** Check whether the wide columns of a leaf can be rematerialized, and return
+     * the description of the rewrite, or null.
+     *
+     * @param leaf             Leaf of the join tree.
+     * @param joinType         Type of the output of the join tree.
+     * @param projected        Columns of the join output used by the projection.
+     * @param conditionFields  Columns of the join output used by join conditions.
+     * @param narrowWidth      Estimated width of the columns of the join output which are
+     *                         used and not wide; these are stored again by the extra join. */
+    @Nullable
+    static Rematerialized analyze(Leaf leaf, RelDataType joinType, ImmutableBitSet projected,
+                                  ImmutableBitSet conditionFields, int narrowWidth) {
+        if (leaf.depth < MIN_DEPTH)
+            return null;
+        List<ImmutableBitSet> keys = leaf.scan.getTable().getKeys();
+        if (keys == null || keys.isEmpty())
+            return null;
+        List<RelDataTypeField> scanFields = leaf.scan.getRowType().getFieldList();
+        List<Integer> keyColumns = keys.get(0).asList();
+        if (keyColumns.isEmpty())
+            return null;
+        List<Integer> leafKeys = new ArrayList<>();
+        for (int keyColumn: keyColumns) {
+            if (scanFields.get(keyColumn).getType().isNullable())
+                return null;
+            int leafColumn = leaf.find(keyColumn);
+            if (leafColumn < 0)
+                return null;
+            leafKeys.add(leafColumn);
+        }
+
+        List<Integer> wide = new ArrayList<>();
+        int wideWidth = 0;
+        for (int i = 0; i < leaf.columns.length; i++) {
+            int index = leaf.offset + i;
+            if (leaf.columns[i] < 0 || !projected.get(index) || conditionFields.get(index))
+                continue;
+            RelDataType type = joinType.getFieldList().get(index).getType();
+            if (!isWide(type))
+                continue;
+            wide.add(i);
+            wideWidth += estimatedWidth(type);
+        }
+        if (wide.isEmpty())
+            return null;
+        // The wide columns are stored in one input trace of each join they cross.
+        long saved = (long) leaf.depth * wideWidth;
+        // The extra join stores a row of the table and the narrow columns of the join output.
+        long cost = estimatedWidth(leaf.scan.getRowType()) + narrowWidth;
+        if (saved <= cost)
+            return null;
+        return new Rematerialized(leaf, keyColumns, leafKeys, wide);
+    }
+
+    @Override public void onMatch(RelOptRuleCall call) {
+        Project project = call.rel(0);
+        Join join = call.rel(1);
+
+        List<Leaf> leaves = new ArrayList<>();
+        ImmutableBitSet.Builder conditionBuilder = ImmutableBitSet.builder();
+        collect(join, 0, 0, false, leaves, conditionBuilder);
+        ImmutableBitSet conditionFields = conditionBuilder.build();
+        ImmutableBitSet projected = RelOptUtil.InputFinder.bits(project.getProjects(), null);
+        int narrowWidth = 0;
+        for (int index: projected.union(conditionFields)) {
+            RelDataType type = join.getRowType().getFieldList().get(index).getType();
+            if (!isWide(type))
+                narrowWidth += estimatedWidth(type);
+        }
+
+        List<Rematerialized> rewrites = new ArrayList<>();
+        for (Leaf leaf: leaves) {
+            Rematerialized rewrite = analyze(leaf, join.getRowType(), projected, conditionFields, narrowWidth);
+            if (rewrite != null)
+                rewrites.add(rewrite);
+        }
+        if (rewrites.isEmpty())
+            return;
+
+        RelBuilder builder = call.builder();
+        builder.push(join);
+        int width = join.getRowType().getFieldCount();
+        // Maps a column of the join output to the column of the new join that replaces it
+        Map<Integer, Integer> replacement = new HashMap<>();
+        for (Rematerialized rewrite: rewrites) {
+            Leaf leaf = rewrite.leaf;
+            builder.push(leaf.scan);
+            List<RexNode> conditions = new ArrayList<>();
+            for (int i = 0; i < rewrite.keyColumns.size(); i++) {
+                conditions.add(builder.equals(
+                        builder.field(2, 0, leaf.offset + rewrite.leafKeys.get(i)),
+                        builder.field(2, 1, rewrite.keyColumns.get(i))));
+            }
+            builder.join(leaf.nullable ? JoinRelType.LEFT : JoinRelType.INNER, conditions);
+            for (int column: rewrite.wide)
+                replacement.put(leaf.offset + column, width + leaf.columns[column]);
+            width += leaf.scan.getRowType().getFieldCount();
+        }
+        RelNode rejoined = builder.build();
+
+        List<RelDataTypeField> joinFields = join.getRowType().getFieldList();
+        List<RelDataTypeField> fields = rejoined.getRowType().getFieldList();
+        if (fields.size() != width)
+            return;
+        for (Map.Entry<Integer, Integer> entry: replacement.entrySet()) {
+            RelDataType original = joinFields.get(entry.getKey()).getType();
+            RelDataType replaced = fields.get(entry.getValue()).getType();
+            if (!original.equals(replaced))
+                // E.g., a column which is nullable only because of an outer join
+                return;
+        }
+
+        RexShuttle shuttle = new RexShuttle() {
+            @Override public RexNode visitInputRef(RexInputRef ref) {
+                Integer index = replacement.get(ref.getIndex());
+                if (index == null)
+                    return ref;
+                return new RexInputRef(index, fields.get(index).getType());
+            }
+        };
+        List<RexNode> projections = Linq.map(project.getProjects(), p -> p.accept(shuttle));
+        call.transformTo(project.copy(project.getTraitSet(), rejoined, projections, project.getRowType()));
+    }
+
+    /** Rule configuration. */
+    private static final DefaultOptRuleConfig<LateMaterialization> CONFIG =
+            DefaultOptRuleConfig.<LateMaterialization>create()
+                    .withOperandSupplier(
+                            b0 -> b0.operand(Project.class)
+                                    .oneInput(b1 -> b1.operand(Join.class).anyInputs()));
+}
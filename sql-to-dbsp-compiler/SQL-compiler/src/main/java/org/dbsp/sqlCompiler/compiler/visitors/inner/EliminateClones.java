@@ -0,0 +1,184 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.IDBSPDeclaration;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPForExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPLazyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPLetExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRef;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Replaces clones of variables with moves when the clone is the only use of the variable.
+ * E.g., { let x = f(); g(x.clone()) } becomes { let x = f(); g(x) }.
+ *
+ * <p>Only variables that own their value are considered: closure parameters which are not
+ * references, and immutable let-bound variables.  A use inside a closure, a loop, or a lazy
+ * value that is nested within the declaration of the variable may be evaluated multiple times,
+ * so such a use is never converted to a move. */
+public class EliminateClones extends InnerRewriteVisitor {
+    final FindMovable movable;
+
+    /** Finds the variable references that can be moved instead of cloned. */
+    static class FindMovable extends InnerVisitor {
+        final ResolveReferences resolver;
+        /** Number of enclosing expressions that may be evaluated repeatedly:
+         * closures, loops, and lazy values. */
+        int depth;
+        /** Declarations of owned variables, and the depth where they are declared */
+        final Map<IDBSPDeclaration, Integer> declarationDepth;
+        /** Number of uses of each declaration */
+        final Map<IDBSPDeclaration, Integer> uses;
+        /** Variable references that are cloned at the depth where they are declared */
+        final Set<DBSPVariablePath> clonedReferences;
+        /** Result of the analysis: references that can be moved */
+        final Set<DBSPVariablePath> movable;
+
+        FindMovable(DBSPCompiler compiler) {
+            super(compiler);
+            this.resolver = new ResolveReferences(compiler, true);
+            this.declarationDepth = new HashMap<>();
+            this.uses = new HashMap<>();
+            this.clonedReferences = new HashSet<>();
+            this.movable = new HashSet<>();
+        }
+
+        void declare(IDBSPDeclaration declaration, DBSPType type) {
+            if (type.is(DBSPTypeRef.class))
+                return;
+            this.declarationDepth.put(declaration, this.depth);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPType type) {
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPClosureExpression expression) {
+            this.depth++;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPClosureExpression expression) {
+            this.depth--;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPForExpression expression) {
+            this.depth++;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPForExpression expression) {
+            this.depth--;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPLazyExpression expression) {
+            this.depth++;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPLazyExpression expression) {
+            this.depth--;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPParameter parameter) {
+            this.declare(parameter, parameter.type);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public void postorder(DBSPLetStatement statement) {
+            if (statement.initializer != null && !statement.mutable)
+                this.declare(statement, statement.type);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPLetExpression expression) {
+            this.push(expression);
+            // Do not visit the variable, it is not a use
+            expression.initializer.accept(this);
+            this.declare(expression, expression.variable.getType());
+            expression.consumer.accept(this);
+            this.pop(expression);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPVariablePath variable) {
+            IDBSPDeclaration declaration = this.resolver.reference.get(variable);
+            if (declaration == null || !this.declarationDepth.containsKey(declaration))
+                return VisitDecision.STOP;
+            this.uses.merge(declaration, 1, Integer::sum);
+            IDBSPInnerNode parent = this.getParent();
+            if (parent != null &&
+                    parent.is(DBSPCloneExpression.class) &&
+                    this.depth == this.declarationDepth.get(declaration))
+                this.clonedReferences.add(variable);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public void startVisit(IDBSPInnerNode node) {
+            this.resolver.apply(node);
+            this.depth = 0;
+            this.declarationDepth.clear();
+            this.uses.clear();
+            this.clonedReferences.clear();
+            this.movable.clear();
+            super.startVisit(node);
+        }
+
+        @Override
+        public void endVisit() {
+            for (DBSPVariablePath variable: this.clonedReferences) {
+                IDBSPDeclaration declaration = this.resolver.reference.getDeclaration(variable);
+                if (this.uses.get(declaration) == 1)
+                    this.movable.add(variable);
+            }
+            super.endVisit();
+        }
+    }
+
+    public EliminateClones(DBSPCompiler compiler) {
+        super(compiler, false);
+        this.movable = new FindMovable(compiler);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPCloneExpression expression) {
+        if (expression.expression.is(DBSPVariablePath.class) &&
+                this.movable.movable.contains(expression.expression.to(DBSPVariablePath.class))) {
+            this.push(expression);
+            DBSPExpression source = this.transform(expression.expression);
+            this.pop(expression);
+            this.map(expression, source);
+            return VisitDecision.STOP;
+        }
+        return super.preorder(expression);
+    }
+
+    @Override
+    public void startVisit(IDBSPInnerNode node) {
+        this.movable.apply(node);
+        super.startVisit(node);
+    }
+}
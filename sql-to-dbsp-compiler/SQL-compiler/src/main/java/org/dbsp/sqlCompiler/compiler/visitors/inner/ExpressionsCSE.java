@@ -7,19 +7,27 @@ import org.dbsp.sqlCompiler.ir.DBSPParameter;
 import org.dbsp.sqlCompiler.ir.IDBSPDeclaration;
 import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
 import org.dbsp.sqlCompiler.ir.expression.DBSPAssignmentExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBorrowExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPConditionalIncrementExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPForExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPLazyExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPLetExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPQuestionExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPReturnExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
 import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRawTuple;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeLazy;
@@ -27,9 +35,12 @@ import org.dbsp.util.Linq;
 import org.dbsp.util.Logger;
 import org.dbsp.util.Utilities;
 
+import javax.annotation.Nullable;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,10 +51,22 @@ public class ExpressionsCSE extends ExpressionTranslator {
     final Map<DBSPExpression, ValueNumbering.CanonicalExpression> numbering;
     final Map<DBSPExpression, DBSPVariablePath> cseVariables;
     final List<Assignment> assignments;
+    /** Canonical expressions that are evaluated every time the outer closure is evaluated.
+     * These are stored in variables that are initialized eagerly instead of lazily.  */
+    final Set<ValueNumbering.CanonicalExpression> unconditional;
 
+    /** Assigns a value to a variable.  If the variable has a Lazy type
+     * the value is computed on first use. */
     record Assignment(DBSPVariablePath var, DBSPExpression expression, Set<IDBSPDeclaration> dependsOn) {
         Assignment {
-            Utilities.enforce(var.getType().deref().sameType(expression.getType()));
+            DBSPType type = var.getType().is(DBSPTypeLazy.class) ? var.getType().deref() : var.getType();
+            Utilities.enforce(type.sameType(expression.getType()));
+        }
+
+        DBSPExpression initializer() {
+            if (this.var.getType().is(DBSPTypeLazy.class))
+                return new DBSPLazyExpression(this.expression);
+            return this.expression;
         }
 
         @Override
@@ -61,6 +84,143 @@ public class ExpressionsCSE extends ExpressionTranslator {
         this.numbering = numbering;
         this.cseVariables = new HashMap<>();
         this.assignments = new ArrayList<>();
+        this.unconditional = new HashSet<>();
+    }
+
+    /** Finds the expressions in a closure body which are evaluated every time the body is
+     * evaluated, before the body can exit early.  For example, for a chain of operators
+     * collapsed into a single closure, these are the expressions evaluated by the first
+     * filter, which are often used again by the following maps.  Computing such expressions
+     * eagerly is safe, and cheaper than computing them lazily. */
+    static class FindUnconditional extends InnerVisitor {
+        final Set<DBSPExpression> unconditional;
+        /** Set after visiting an expression that may make the body exit */
+        boolean mayExit;
+
+        FindUnconditional(DBSPCompiler compiler) {
+            super(compiler);
+            this.unconditional = new HashSet<>();
+            this.mayExit = false;
+        }
+
+        /** True if evaluating the expression may exit the enclosing closure */
+        boolean containsExit(DBSPExpression expression) {
+            boolean[] found = new boolean[1];
+            InnerVisitor visitor = new InnerVisitor(this.compiler) {
+                @Override
+                public VisitDecision preorder(DBSPType type) {
+                    return VisitDecision.STOP;
+                }
+
+                @Override
+                public VisitDecision preorder(DBSPClosureExpression expression) {
+                    // A return in a nested closure exits only that closure
+                    return VisitDecision.STOP;
+                }
+
+                @Override
+                public VisitDecision preorder(DBSPLazyExpression expression) {
+                    return VisitDecision.STOP;
+                }
+
+                @Override
+                public void postorder(DBSPReturnExpression expression) {
+                    found[0] = true;
+                }
+
+                @Override
+                public void postorder(DBSPQuestionExpression expression) {
+                    found[0] = true;
+                }
+            };
+            visitor.apply(expression);
+            return found[0];
+        }
+
+        /** Visit an expression that is evaluated only conditionally */
+        void conditional(@Nullable DBSPExpression expression) {
+            if (expression != null && this.containsExit(expression))
+                this.mayExit = true;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPType type) {
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPExpression expression) {
+            if (this.mayExit)
+                return VisitDecision.STOP;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPExpression expression) {
+            if (!this.mayExit)
+                this.unconditional.add(expression);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPIfExpression expression) {
+            if (this.mayExit)
+                return VisitDecision.STOP;
+            this.push(expression);
+            expression.condition.accept(this);
+            this.pop(expression);
+            this.conditional(expression.positive);
+            this.conditional(expression.negative);
+            this.postorder(expression);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPBinaryExpression expression) {
+            if (this.mayExit)
+                return VisitDecision.STOP;
+            if (expression.opcode != DBSPOpcode.AND && expression.opcode != DBSPOpcode.OR)
+                return VisitDecision.CONTINUE;
+            // Short-circuit evaluation
+            this.push(expression);
+            expression.left.accept(this);
+            this.pop(expression);
+            this.conditional(expression.right);
+            this.postorder(expression);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPConditionalIncrementExpression expression) {
+            this.conditional(expression);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPForExpression expression) {
+            this.conditional(expression);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPClosureExpression expression) {
+            // Body is evaluated separately
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPLazyExpression expression) {
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public void postorder(DBSPReturnExpression expression) {
+            this.mayExit = true;
+        }
+
+        @Override
+        public void postorder(DBSPQuestionExpression expression) {
+            this.mayExit = true;
+        }
     }
 
     @Override
@@ -77,12 +237,19 @@ public class ExpressionsCSE extends ExpressionTranslator {
                     canon.expensive &&
                     canon.manyUsers(this.numbering)) {
                 // Variable is worth creating
-                var = new DBSPTypeLazy(expression.getType()).var();
+                if (this.unconditional.contains(canon))
+                    var = expression.getType().var();
+                else
+                    var = new DBSPTypeLazy(expression.getType()).var();
                 Utilities.putNew(this.cseVariables, canon.expression, var);
                 this.assignments.add(new Assignment(var, result, canon.dependsOn));
             }
-            if (var != null)
-                result = var.deref().applyCloneIfNeeded();
+            if (var != null) {
+                if (var.getType().is(DBSPTypeLazy.class))
+                    result = var.deref().applyCloneIfNeeded();
+                else
+                    result = var.applyCloneIfNeeded();
+            }
             // If variable hasn't been created now, use the suggested result
         }
         if (!this.translationMap.containsKey(expression)) {
@@ -154,8 +321,7 @@ public class ExpressionsCSE extends ExpressionTranslator {
         this.assignments.clear();
         for (Assignment assign : assignments) {
             if (assign.dependsOn.contains(node)) {
-                consumer = new DBSPLetExpression(
-                        assign.var, new DBSPLazyExpression(assign.expression), consumer);
+                consumer = new DBSPLetExpression(assign.var, assign.initializer(), consumer);
             } else {
                 // Put it back, we'll insert it later
                 this.assignments.add(assign);
@@ -189,8 +355,7 @@ public class ExpressionsCSE extends ExpressionTranslator {
                 this.assignments.clear();
                 for (Assignment assign : assignments) {
                     if (assign.dependsOn.contains(let)) {
-                        var add = new DBSPLetStatement(
-                                assign.var.variable, new DBSPLazyExpression(assign.expression));
+                        var add = new DBSPLetStatement(assign.var.variable, assign.initializer());
                         result.add(add);
                     } else {
                         this.assignments.add(assign);
@@ -220,8 +385,7 @@ public class ExpressionsCSE extends ExpressionTranslator {
                 }
             }
             if (insert) {
-                translation = new DBSPLetExpression(
-                        assign.var, new DBSPLazyExpression(assign.expression), translation);
+                translation = new DBSPLetExpression(assign.var, assign.initializer(), translation);
             } else {
                 // Put it back, we'll insert it later
                 this.assignments.add(assign);
@@ -244,6 +408,16 @@ public class ExpressionsCSE extends ExpressionTranslator {
     public void startVisit(IDBSPInnerNode node) {
         this.assignments.clear();
         this.cseVariables.clear();
+        this.unconditional.clear();
+        if (node.is(DBSPClosureExpression.class)) {
+            FindUnconditional finder = new FindUnconditional(this.compiler);
+            finder.apply(node.to(DBSPClosureExpression.class).body);
+            for (DBSPExpression expression: finder.unconditional) {
+                ValueNumbering.CanonicalExpression canon = this.numbering.get(expression);
+                if (canon != null)
+                    this.unconditional.add(canon);
+            }
+        }
         super.startVisit(node);
     }
 
@@ -0,0 +1,264 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIsNullExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnwrapExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRef;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Rewrites a closure with a row parameter knowing that some nullable fields of the row are not null,
+ * e.g., because the row has passed a filter checking 'x IS NOT NULL', or a filter removing
+ * rows with null join keys.  Uses of such fields are unwrapped, and the non-nullability is
+ * propagated upwards through operations which only produce NULL for NULL inputs, so that
+ * these use the non-nullable implementations.  Where an expression with a tightened type is
+ * used in a context that is not refined, it is wrapped back in an Option, so the closure
+ * keeps its original type. */
+public class RefineNullability extends InnerRewriteVisitor {
+    /** Row parameter of the closure */
+    final DBSPParameter row;
+    /** Indexes of the fields of the row that are known to be non-null */
+    final Set<Integer> nonNull;
+
+    public RefineNullability(DBSPCompiler compiler, DBSPParameter row, Set<Integer> nonNull) {
+        super(compiler, false);
+        this.row = row;
+        this.nonNull = nonNull;
+    }
+
+    /** If the expression is a nullable field of the row parameter 'row' return the field,
+     * otherwise return null. */
+    @Nullable
+    static DBSPFieldExpression rowField(DBSPParameter row, DBSPExpression expression) {
+        DBSPFieldExpression field = expression.as(DBSPFieldExpression.class);
+        if (field == null || !field.getType().mayBeNull)
+            return null;
+        if (!field.expression.is(DBSPDerefExpression.class))
+            return null;
+        DBSPExpression source = field.expression.to(DBSPDerefExpression.class).expression;
+        if (!source.is(DBSPVariablePath.class) ||
+                !source.to(DBSPVariablePath.class).variable.equals(row.name))
+            return null;
+        return field;
+    }
+
+    /** True if the closure has a single parameter which is a reference to a tuple */
+    static boolean hasRowParameter(DBSPClosureExpression closure) {
+        if (closure.parameters.length != 1)
+            return false;
+        DBSPType type = closure.parameters[0].type;
+        return type.is(DBSPTypeRef.class) && type.to(DBSPTypeRef.class).type.is(DBSPTypeTuple.class);
+    }
+
+    /** Look through casts and clones; these produce NULL only for NULL inputs */
+    static DBSPExpression strip(DBSPExpression expression) {
+        while (true) {
+            if (expression.is(DBSPCastExpression.class))
+                expression = expression.to(DBSPCastExpression.class).source;
+            else if (expression.is(DBSPCloneExpression.class))
+                expression = expression.to(DBSPCloneExpression.class).expression;
+            else
+                return expression;
+        }
+    }
+
+    /** Collect the fields of the row that must be non-null when 'expression' evaluates to 'value'. */
+    static void collect(DBSPParameter row, DBSPExpression expression, boolean value, Set<Integer> result) {
+        expression = strip(expression);
+        if (expression.is(DBSPIsNullExpression.class)) {
+            if (!value) {
+                DBSPFieldExpression field = rowField(row, strip(expression.to(DBSPIsNullExpression.class).expression));
+                if (field != null)
+                    result.add(field.fieldNo);
+            }
+        } else if (expression.is(DBSPUnaryExpression.class)) {
+            DBSPUnaryExpression unary = expression.to(DBSPUnaryExpression.class);
+            if (unary.opcode == DBSPOpcode.NOT)
+                collect(row, unary.source, !value, result);
+            else if (unary.opcode == DBSPOpcode.WRAP_BOOL && value)
+                collect(row, unary.source, true, result);
+        } else if (expression.is(DBSPBinaryExpression.class)) {
+            DBSPBinaryExpression binary = expression.to(DBSPBinaryExpression.class);
+            switch (binary.opcode) {
+                case AND:
+                    if (value) {
+                        collect(row, binary.left, true, result);
+                        collect(row, binary.right, true, result);
+                    }
+                    break;
+                case OR:
+                    if (!value) {
+                        collect(row, binary.left, false, result);
+                        collect(row, binary.right, false, result);
+                    }
+                    break;
+                case EQ, NEQ, LT, GT, LTE, GTE:
+                    // A comparison with a NULL operand produces NULL, which is neither true nor false
+                    for (DBSPExpression operand: new DBSPExpression[] { binary.left, binary.right }) {
+                        DBSPFieldExpression field = rowField(row, strip(operand));
+                        if (field != null && binary.getType().mayBeNull)
+                            result.add(field.fieldNo);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /** The fields of the row parameter of a filter predicate which are non-null
+     * for all rows that pass the filter. */
+    public static Set<Integer> nonNullFields(DBSPClosureExpression predicate) {
+        Set<Integer> result = new HashSet<>();
+        if (!hasRowParameter(predicate))
+            return result;
+        collect(predicate.parameters[0], predicate.body, true, result);
+        return result;
+    }
+
+    /** Rewrite a closure knowing that the specified fields of its row parameter are non-null */
+    public static DBSPClosureExpression refine(
+            DBSPCompiler compiler, DBSPClosureExpression closure, Set<Integer> nonNull) {
+        if (nonNull.isEmpty() || !hasRowParameter(closure))
+            return closure;
+        RefineNullability refine = new RefineNullability(compiler, closure.parameters[0], nonNull);
+        return refine.apply(closure).to(DBSPClosureExpression.class);
+    }
+
+    boolean isNonNull(DBSPExpression expression) {
+        DBSPFieldExpression field = rowField(this.row, expression);
+        return field != null && this.nonNull.contains(field.fieldNo);
+    }
+
+    /** Transform an expression, allowing the result to have a non-nullable type
+     * even if the original expression is nullable */
+    DBSPExpression refined(DBSPExpression expression) {
+        return super.transform(expression);
+    }
+
+    /** Transform an expression preserving its type */
+    @Override
+    protected DBSPExpression transform(DBSPExpression expression) {
+        DBSPExpression result = this.refined(expression);
+        if (expression.getType().mayBeNull && !result.getType().mayBeNull)
+            return result.some();
+        return result;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPFieldExpression expression) {
+        // Only fields with Copy types can be unwrapped in place
+        if (this.isNonNull(expression) && expression.getType().hasCopy()) {
+            this.map(expression, new DBSPUnwrapExpression("", expression));
+            return VisitDecision.STOP;
+        }
+        return super.preorder(expression);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPCloneExpression expression) {
+        if (this.isNonNull(expression.expression)) {
+            this.map(expression, new DBSPUnwrapExpression("", expression));
+            return VisitDecision.STOP;
+        }
+        return super.preorder(expression);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPIsNullExpression expression) {
+        if (this.isNonNull(expression.expression)) {
+            this.map(expression, new DBSPBoolLiteral(expression.getNode(), expression.getType(), false));
+            return VisitDecision.STOP;
+        }
+        return super.preorder(expression);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPCastExpression expression) {
+        if (expression.safe != DBSPCastExpression.CastType.SqlUnsafe)
+            return super.preorder(expression);
+        this.push(expression);
+        DBSPExpression source = this.refined(expression.source);
+        this.pop(expression);
+        DBSPType type = expression.getType();
+        if (!expression.source.getType().mayBeNull || source.getType().mayBeNull) {
+            this.map(expression, source.cast(expression.getNode(), type, expression.safe));
+        } else {
+            // The cast of a non-null value is not null
+            this.map(expression, source.cast(expression.getNode(), type.withMayBeNull(false), expression.safe));
+        }
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPUnaryExpression expression) {
+        boolean strict = switch (expression.opcode) {
+            case NEG, NOT, WRAP_BOOL -> true;
+            default -> false;
+        };
+        if (!strict)
+            return super.preorder(expression);
+        this.push(expression);
+        DBSPExpression source = this.refined(expression.source);
+        this.pop(expression);
+        DBSPExpression result;
+        if (!expression.source.getType().mayBeNull || source.getType().mayBeNull) {
+            result = new DBSPUnaryExpression(expression.getNode(), expression.getType(), expression.opcode, source);
+        } else if (expression.opcode == DBSPOpcode.WRAP_BOOL) {
+            // wrap_bool(x) = x when x is not null
+            result = source;
+        } else {
+            result = new DBSPUnaryExpression(expression.getNode(),
+                    expression.getType().withMayBeNull(false), expression.opcode, source);
+        }
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPBinaryExpression expression) {
+        // Operations that produce NULL only for NULL operands
+        boolean strict = switch (expression.opcode) {
+            case ADD, SUB, MUL, EQ, NEQ, LT, GT, LTE, GTE, AND, OR, CONCAT, BW_AND, BW_OR, XOR -> true;
+            default -> false;
+        };
+        if (!strict || !expression.getType().mayBeNull)
+            return super.preorder(expression);
+        this.push(expression);
+        DBSPExpression left = this.refined(expression.left);
+        DBSPExpression right = this.refined(expression.right);
+        this.pop(expression);
+        DBSPExpression result;
+        if (left.getType().mayBeNull || right.getType().mayBeNull) {
+            // Restore the original operand types
+            if (expression.left.getType().mayBeNull && !left.getType().mayBeNull)
+                left = left.some();
+            if (expression.right.getType().mayBeNull && !right.getType().mayBeNull)
+                right = right.some();
+            result = new DBSPBinaryExpression(
+                    expression.getNode(), expression.getType(), expression.opcode, left, right);
+        } else {
+            result = new DBSPBinaryExpression(
+                    expression.getNode(), expression.getType().withMayBeNull(false), expression.opcode, left, right);
+        }
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+}
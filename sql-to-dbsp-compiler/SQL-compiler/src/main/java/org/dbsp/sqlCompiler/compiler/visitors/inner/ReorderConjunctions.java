@@ -0,0 +1,205 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinFilterMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinFilterMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStarJoinFilterMapOperator;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBorrowExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIsNullExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/** Reorders the terms of conjunctions (a && b && ...) so that the cheap terms are evaluated first.
+ * Since && short-circuits, a cheap term that is false avoids evaluating the expensive terms.
+ *
+ * <p>Only terms that are cheap and cannot cause runtime errors are moved: comparisons and
+ * null checks of fields and constants.  These terms are placed before all other terms,
+ * ordered by their estimated cost.  All other terms (function calls, casts, arithmetic,
+ * which may fail), keep their relative order, since an earlier term may guard
+ * a later one, as in x != 0 && 10 / x > 2. */
+public class ReorderConjunctions extends InnerRewriteVisitor {
+    public ReorderConjunctions(DBSPCompiler compiler) {
+        super(compiler, false);
+    }
+
+    /** Return 'true' for operators whose functions are (or contain) predicates */
+    public static boolean process(DBSPOperator operator) {
+        return operator.is(DBSPFilterOperator.class) ||
+                operator.is(DBSPJoinFilterMapOperator.class) ||
+                operator.is(DBSPLeftJoinFilterMapOperator.class) ||
+                operator.is(DBSPStarJoinFilterMapOperator.class);
+    }
+
+    /** Estimates the cost of evaluating an expression.
+     * Only computes a cost for expressions which are cheap and cannot fail. */
+    static class Cost extends InnerVisitor {
+        int cost;
+        /** True if the expression is cheap and cannot fail */
+        boolean cheap;
+
+        Cost(DBSPCompiler compiler) {
+            super(compiler);
+        }
+
+        /** Cost of comparing values which are not scalars, such as strings */
+        static final int COMPARE_COST = 10;
+
+        @Override
+        public void startVisit(IDBSPInnerNode node) {
+            super.startVisit(node);
+            this.cost = 0;
+            this.cheap = true;
+        }
+
+        VisitDecision add(int cost) {
+            this.cost += cost;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPType type) {
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPExpression expression) {
+            // Any other expression: function calls, casts, unwraps, etc.
+            this.cheap = false;
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPLiteral expression) {
+            return this.add(0);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPVariablePath expression) {
+            return this.add(0);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPFieldExpression expression) {
+            return this.add(1);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPDerefExpression expression) {
+            return this.add(0);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPBorrowExpression expression) {
+            return this.add(0);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPCloneExpression expression) {
+            return this.add(expression.getType().hasCopy() ? 0 : COMPARE_COST);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPIsNullExpression expression) {
+            return this.add(1);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPSomeExpression expression) {
+            return this.add(0);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPIfExpression expression) {
+            return this.add(1);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPUnaryExpression expression) {
+            return switch (expression.opcode) {
+                case WRAP_BOOL, NOT, INDICATOR, IS_FALSE, IS_TRUE, IS_NOT_TRUE, IS_NOT_FALSE -> this.add(1);
+                default -> this.preorder((DBSPExpression) expression);
+            };
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPBinaryExpression expression) {
+            return switch (expression.opcode) {
+                case AND, OR -> this.add(1);
+                case EQ, NEQ, LT, GT, LTE, GTE, IS_DISTINCT ->
+                        this.add(expression.left.getType().hasCopy() ? 1 : COMPARE_COST);
+                default -> this.preorder((DBSPExpression) expression);
+            };
+        }
+    }
+
+    record Term(DBSPExpression expression, int cost) {}
+
+    /** Collect the terms of a tree of conjunctions, and rewrite them */
+    void collect(DBSPExpression expression, List<DBSPExpression> terms) {
+        if (expression.is(DBSPBinaryExpression.class)) {
+            DBSPBinaryExpression binary = expression.to(DBSPBinaryExpression.class);
+            if (binary.opcode == DBSPOpcode.AND) {
+                this.collect(binary.left, terms);
+                this.collect(binary.right, terms);
+                return;
+            }
+        }
+        terms.add(this.transform(expression));
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPBinaryExpression expression) {
+        if (expression.opcode != DBSPOpcode.AND)
+            return super.preorder(expression);
+
+        List<DBSPExpression> terms = new ArrayList<>();
+        this.push(expression);
+        this.collect(expression, terms);
+        this.pop(expression);
+
+        List<Term> cheap = new ArrayList<>();
+        List<DBSPExpression> others = new ArrayList<>();
+        Cost cost = new Cost(this.compiler);
+        for (DBSPExpression term: terms) {
+            cost.apply(term);
+            if (cost.cheap)
+                cheap.add(new Term(term, cost.cost));
+            else
+                others.add(term);
+        }
+        // Stable sort
+        cheap.sort(Comparator.comparingInt(Term::cost));
+        List<DBSPExpression> ordered = new ArrayList<>();
+        for (Term term: cheap)
+            ordered.add(term.expression);
+        ordered.addAll(others);
+
+        DBSPExpression result = ordered.get(0);
+        for (int i = 1; i < ordered.size(); i++) {
+            DBSPExpression term = ordered.get(i);
+            DBSPType type = DBSPTypeBool.create(result.getType().mayBeNull || term.getType().mayBeNull);
+            result = new DBSPBinaryExpression(expression.getNode(), type, DBSPOpcode.AND, result, term);
+        }
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+}
@@ -0,0 +1,397 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPDateLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLongIntervalLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPShortIntervalLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPStringLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPTimestampLiteral;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeDate;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeString;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeTimestamp;
+
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/** Java implementations of some pure, deterministic functions of the SQL runtime library,
+ * used to evaluate calls whose arguments are all non-null literals at compilation time.
+ * Each implementation must produce exactly the same result as the corresponding
+ * Rust function in the sqllib crate, so functions whose behavior is hard to replicate
+ * exactly are only evaluated on arguments where the implementations are known to agree,
+ * e.g., case conversions only for ASCII strings and date functions only for
+ * dates between years 1 and 9999. */
+public class RuntimeFunctionEvaluator {
+    private RuntimeFunctionEvaluator() {}
+
+    static final long MICROS_PER_DAY = 86_400_000_000L;
+    /** Longest string produced by a function that is evaluated at compile time */
+    static final long MAX_FOLDED_STRING_LENGTH = 4096;
+
+    @Nullable
+    static String string(DBSPExpression expression) {
+        DBSPStringLiteral literal = expression.as(DBSPStringLiteral.class);
+        if (literal == null)
+            return null;
+        return literal.value;
+    }
+
+    @Nullable
+    static Integer i32(DBSPExpression expression) {
+        DBSPI32Literal literal = expression.as(DBSPI32Literal.class);
+        if (literal == null)
+            return null;
+        return literal.value;
+    }
+
+    @Nullable
+    static LocalDate date(DBSPExpression expression) {
+        DBSPDateLiteral literal = expression.as(DBSPDateLiteral.class);
+        if (literal == null || literal.value == null)
+            return null;
+        return inRange(LocalDate.ofEpochDay(literal.value));
+    }
+
+    @Nullable
+    static LocalDateTime timestamp(DBSPExpression expression) {
+        DBSPTimestampLiteral literal = expression.as(DBSPTimestampLiteral.class);
+        if (literal == null || literal.value == null)
+            return null;
+        long micros = literal.value;
+        LocalDateTime result = LocalDateTime.ofEpochSecond(
+                Math.floorDiv(micros, 1_000_000L), (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+        if (inRange(result.toLocalDate()) == null)
+            return null;
+        return result;
+    }
+
+    /** Dates outside the range supported by SQL are not evaluated */
+    @Nullable
+    static LocalDate inRange(LocalDate date) {
+        if (date.getYear() < 1 || date.getYear() > 9999)
+            return null;
+        return date;
+    }
+
+    static long micros(LocalDateTime timestamp) {
+        return Math.addExact(
+                Math.multiplyExact(timestamp.toEpochSecond(ZoneOffset.UTC), 1_000_000L),
+                timestamp.getNano() / 1000);
+    }
+
+    static boolean isAscii(String value) {
+        return value.chars().allMatch(c -> c < 128);
+    }
+
+    /** Substring of 'value' starting at code point 'start' with 'count' code points (clamped) */
+    static String codePoints(String value, long start, long count) {
+        int length = value.codePointCount(0, value.length());
+        start = Math.max(0, Math.min(start, length));
+        long end = Math.max(start, Math.min(start + count, length));
+        int from = value.offsetByCodePoints(0, (int) start);
+        int to = value.offsetByCodePoints(from, (int) (end - start));
+        return value.substring(from, to);
+    }
+
+    /** Same as the Rust trim_matches/trim_start_matches/trim_end_matches
+     * with a predicate checking membership in 'remove' */
+    static String trim(String value, String remove, boolean leading, boolean trailing) {
+        int[] points = value.codePoints().toArray();
+        int start = 0;
+        int end = points.length;
+        if (leading)
+            while (start < end && remove.indexOf(points[start]) >= 0)
+                start++;
+        if (trailing)
+            while (end > start && remove.indexOf(points[end - 1]) >= 0)
+                end--;
+        return new String(points, start, end - start);
+    }
+
+    @Nullable
+    static LocalDate dateTrunc(String unit, LocalDate date) {
+        int year = date.getYear();
+        return switch (unit) {
+            case "millennium" -> inRange(LocalDate.of(((year + 999) / 1000 - 1) * 1000 + 1, 1, 1));
+            case "century" -> inRange(LocalDate.of(((year + 99) / 100 - 1) * 100 + 1, 1, 1));
+            case "decade" -> inRange(LocalDate.of((year / 10) * 10, 1, 1));
+            case "year" -> LocalDate.of(year, 1, 1);
+            case "quarter" -> LocalDate.of(year, ((date.getMonthValue() - 1) / 3) * 3 + 1, 1);
+            case "month" -> LocalDate.of(year, date.getMonthValue(), 1);
+            // Weeks start on Sunday
+            case "week" -> inRange(date.minusDays(date.getDayOfWeek().getValue() % 7));
+            case "day" -> date;
+            default -> null;
+        };
+    }
+
+    /** String result; null if the value would need to be padded or truncated */
+    @Nullable
+    static DBSPLiteral stringResult(CalciteObject node, DBSPType type, String value, Charset charset) {
+        DBSPTypeString string = type.to(DBSPTypeString.class);
+        if (string.fixed)
+            return null;
+        if (string.precision != DBSPTypeString.UNLIMITED_PRECISION &&
+                value.codePointCount(0, value.length()) > string.precision)
+            return null;
+        return new DBSPStringLiteral(node, type, value, charset);
+    }
+
+    /** Evaluate the concatenation of two string literals.
+     * Returns null if the expression cannot be evaluated. */
+    @Nullable
+    public static DBSPLiteral concat(DBSPBinaryExpression expression, DBSPExpression left, DBSPExpression right) {
+        if (expression.opcode != DBSPOpcode.CONCAT || !expression.getType().is(DBSPTypeString.class))
+            return null;
+        String leftValue = string(left);
+        String rightValue = string(right);
+        if (leftValue == null || rightValue == null)
+            return null;
+        // CHAR values are padded
+        if (left.getType().to(DBSPTypeString.class).fixed || right.getType().to(DBSPTypeString.class).fixed)
+            return null;
+        DBSPType type = expression.getType();
+        DBSPLiteral result = stringResult(expression.getNode(), type.withMayBeNull(false),
+                leftValue + rightValue, left.to(DBSPStringLiteral.class).charset);
+        if (result == null)
+            return null;
+        return result.getWithNullable(type.mayBeNull);
+    }
+
+    /** Evaluate a call of the runtime library function 'function' with the specified arguments.
+     * Returns null if the function is not known or the arguments are not all non-null literals.
+     *
+     * @param node       Node used for the result.
+     * @param function   Name of the Rust function called.
+     * @param type       Type of the call result.
+     * @param arguments  Arguments of the call. */
+    @Nullable
+    public static DBSPLiteral evaluate(
+            CalciteObject node, String function, DBSPType type, DBSPExpression... arguments) {
+        for (DBSPExpression argument: arguments) {
+            if (!argument.is(DBSPLiteral.class) || argument.to(DBSPLiteral.class).isNull())
+                return null;
+        }
+        try {
+            DBSPLiteral result = evaluateLiterals(node, function, type, arguments);
+            if (result == null)
+                return null;
+            return result.getWithNullable(type.mayBeNull);
+        } catch (ArithmeticException | IndexOutOfBoundsException | java.time.DateTimeException ex) {
+            // Defer to runtime
+            return null;
+        }
+    }
+
+    @Nullable
+    static DBSPLiteral evaluateLiterals(
+            CalciteObject node, String function, DBSPType type, DBSPExpression... arguments) {
+        Charset charset = StandardCharsets.UTF_8;
+        if (arguments.length > 0 && arguments[0].is(DBSPStringLiteral.class))
+            charset = arguments[0].to(DBSPStringLiteral.class).charset;
+        DBSPType resultType = type.withMayBeNull(false);
+
+        if (type.is(DBSPTypeString.class)) {
+            switch (function) {
+                case "lower_", "upper_": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    if (!isAscii(value))
+                        return null;
+                    value = function.equals("lower_") ? value.toLowerCase(java.util.Locale.ROOT) :
+                            value.toUpperCase(java.util.Locale.ROOT);
+                    return stringResult(node, resultType, value, charset);
+                }
+                case "repeat__": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    int count = Objects.requireNonNull(i32(arguments[1]));
+                    if (count <= 0)
+                        return stringResult(node, resultType, "", charset);
+                    if ((long) value.length() * count > MAX_FOLDED_STRING_LENGTH)
+                        // Do not build large strings in the compiler or the generated code
+                        return null;
+                    return stringResult(node, resultType, value.repeat(count), charset);
+                }
+                case "replace___": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    String needle = Objects.requireNonNull(string(arguments[1]));
+                    String replacement = Objects.requireNonNull(string(arguments[2]));
+                    if (needle.isEmpty())
+                        // Rust inserts the replacement between all characters
+                        return null;
+                    return stringResult(node, resultType, value.replace(needle, replacement), charset);
+                }
+                case "substring2__": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    int left = Objects.requireNonNull(i32(arguments[1]));
+                    return stringResult(node, resultType,
+                            codePoints(value, Math.max(left, 1) - 1, Integer.MAX_VALUE), charset);
+                }
+                case "substring3___": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    long left = Objects.requireNonNull(i32(arguments[1]));
+                    long count = Objects.requireNonNull(i32(arguments[2]));
+                    if (count <= 0)
+                        return stringResult(node, resultType, "", charset);
+                    // Indexes in SQL start at 1
+                    long start = left < 1 ? 0 : left - 1;
+                    long length = left < 1 ? Math.max(count + left - 1, 0) : count;
+                    return stringResult(node, resultType, codePoints(value, start, length), charset);
+                }
+                case "left_s_i32", "right_s_i32": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    int count = Objects.requireNonNull(i32(arguments[1]));
+                    if (count <= 0)
+                        return stringResult(node, resultType, "", charset);
+                    int length = value.codePointCount(0, value.length());
+                    if (function.startsWith("left"))
+                        return stringResult(node, resultType, codePoints(value, 0, count), charset);
+                    return stringResult(node, resultType,
+                            codePoints(value, Math.max(length - count, 0), count), charset);
+                }
+                case "trim_both_s_s", "trim_leading_s_s", "trim_trailing_s_s": {
+                    String remove = Objects.requireNonNull(string(arguments[0]));
+                    String value = Objects.requireNonNull(string(arguments[1]));
+                    boolean leading = !function.startsWith("trim_trailing");
+                    boolean trailing = !function.startsWith("trim_leading");
+                    return stringResult(node, resultType, trim(value, remove, leading, trailing), charset);
+                }
+                default:
+                    return null;
+            }
+        } else if (type.is(DBSPTypeInteger.class) && type.code == DBSPTypeCode.INT32) {
+            switch (function) {
+                case "char_length_": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    return new DBSPI32Literal(node, resultType, value.codePointCount(0, value.length()));
+                }
+                case "ascii_": {
+                    String value = Objects.requireNonNull(string(arguments[0]));
+                    return new DBSPI32Literal(node, resultType, value.isEmpty() ? 0 : value.codePointAt(0));
+                }
+                case "position__": {
+                    String needle = Objects.requireNonNull(string(arguments[0]));
+                    String haystack = Objects.requireNonNull(string(arguments[1]));
+                    int index = haystack.indexOf(needle);
+                    int result = index < 0 ? 0 : haystack.codePointCount(0, index) + 1;
+                    return new DBSPI32Literal(node, resultType, result);
+                }
+                default:
+                    return null;
+            }
+        } else if (function.startsWith("date_trunc_") && arguments.length == 1) {
+            // date_trunc_{unit}_{Date|Timestamp}
+            String[] parts = function.split("_");
+            if (parts.length != 4)
+                return null;
+            String unit = parts[2];
+            if (parts[3].equals("Date") && type.is(DBSPTypeDate.class)) {
+                LocalDate date = date(arguments[0]);
+                if (date == null)
+                    return null;
+                LocalDate result = dateTrunc(unit, date);
+                if (result == null)
+                    return null;
+                return new DBSPDateLiteral(node, resultType, Math.toIntExact(result.toEpochDay()));
+            } else if (parts[3].equals("Timestamp") && type.is(DBSPTypeTimestamp.class)) {
+                LocalDateTime timestamp = timestamp(arguments[0]);
+                if (timestamp == null)
+                    return null;
+                LocalDate result = dateTrunc(unit, timestamp.toLocalDate());
+                if (result == null)
+                    return null;
+                return DBSPTimestampLiteral.fromMicroseconds(
+                        node, resultType, Math.multiplyExact(result.toEpochDay(), MICROS_PER_DAY));
+            }
+        }
+        return null;
+    }
+
+    /** Evaluate the addition or subtraction of an interval literal and a date or
+     * timestamp literal.  Returns null if the expression cannot be evaluated. */
+    @Nullable
+    public static DBSPLiteral evaluate(DBSPBinaryExpression expression, DBSPExpression left, DBSPExpression right) {
+        if (expression.opcode != DBSPOpcode.ADD && expression.opcode != DBSPOpcode.SUB)
+            return null;
+        if (!left.is(DBSPLiteral.class) || left.to(DBSPLiteral.class).isNull() ||
+                !right.is(DBSPLiteral.class) || right.to(DBSPLiteral.class).isNull())
+            return null;
+        if (expression.opcode == DBSPOpcode.ADD &&
+                (left.is(DBSPShortIntervalLiteral.class) || left.is(DBSPLongIntervalLiteral.class))) {
+            // Addition is commutative
+            DBSPExpression tmp = left;
+            left = right;
+            right = tmp;
+        }
+        boolean add = expression.opcode == DBSPOpcode.ADD;
+        DBSPType type = expression.getType();
+        DBSPType resultType = type.withMayBeNull(false);
+        CalciteObject node = expression.getNode();
+
+        try {
+            DBSPLiteral result = null;
+            if (right.is(DBSPShortIntervalLiteral.class)) {
+                long micros = Objects.requireNonNull(right.to(DBSPShortIntervalLiteral.class).value);
+                if (!add)
+                    micros = Math.negateExact(micros);
+                if (left.is(DBSPTimestampLiteral.class) && type.is(DBSPTypeTimestamp.class)) {
+                    if (timestamp(left) == null)
+                        return null;
+                    long value = Objects.requireNonNull(left.to(DBSPTimestampLiteral.class).value);
+                    result = DBSPTimestampLiteral.fromMicroseconds(node, resultType, Math.addExact(value, micros));
+                } else if (left.is(DBSPDateLiteral.class) && type.is(DBSPTypeTimestamp.class)) {
+                    LocalDate date = date(left);
+                    if (date == null)
+                        return null;
+                    long value = Math.multiplyExact(date.toEpochDay(), MICROS_PER_DAY);
+                    result = DBSPTimestampLiteral.fromMicroseconds(node, resultType, Math.addExact(value, micros));
+                } else if (left.is(DBSPDateLiteral.class) && type.is(DBSPTypeDate.class)) {
+                    LocalDate date = date(left);
+                    if (date == null)
+                        return null;
+                    // Partial days are truncated
+                    result = new DBSPDateLiteral(node, resultType,
+                            Math.toIntExact(date.toEpochDay() + micros / MICROS_PER_DAY));
+                }
+            } else if (right.is(DBSPLongIntervalLiteral.class)) {
+                long months = Objects.requireNonNull(right.to(DBSPLongIntervalLiteral.class).value);
+                if (!add)
+                    months = -months;
+                if (left.is(DBSPTimestampLiteral.class) && type.is(DBSPTypeTimestamp.class)) {
+                    LocalDateTime timestamp = timestamp(left);
+                    if (timestamp == null)
+                        return null;
+                    // Like chrono, clamps the day to the last day of the month
+                    LocalDateTime value = timestamp.plusMonths(months);
+                    if (inRange(value.toLocalDate()) == null)
+                        return null;
+                    result = DBSPTimestampLiteral.fromMicroseconds(node, resultType, micros(value));
+                } else if (left.is(DBSPDateLiteral.class) && type.is(DBSPTypeDate.class)) {
+                    LocalDate date = date(left);
+                    if (date == null)
+                        return null;
+                    LocalDate value = inRange(date.plusMonths(months));
+                    if (value == null)
+                        return null;
+                    result = new DBSPDateLiteral(node, resultType, Math.toIntExact(value.toEpochDay()));
+                }
+            }
+            if (result == null)
+                return null;
+            return result.getWithNullable(type.mayBeNull);
+        } catch (ArithmeticException | java.time.DateTimeException ex) {
+            return null;
+        }
+    }
+}
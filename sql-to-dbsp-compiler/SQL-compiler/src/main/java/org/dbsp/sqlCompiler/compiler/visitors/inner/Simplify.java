@@ -179,6 +179,17 @@ public class Simplify extends ExpressionTranslator {
                 }
             }
         }
+        if (function != null) {
+            DBSPExpression[] arguments = new DBSPExpression[expression.arguments.length];
+            for (int i = 0; i < arguments.length; i++)
+                arguments[i] = this.getE(expression.arguments[i]);
+            DBSPLiteral result = RuntimeFunctionEvaluator.evaluate(
+                    expression.getNode(), function, expression.getType(), arguments);
+            if (result != null) {
+                this.map(expression, result);
+                return;
+            }
+        }
         super.postorder(expression);
     }
 
@@ -903,6 +914,14 @@ public class Simplify extends ExpressionTranslator {
                     result = new DBSPBoolLiteral(expression.getNode(), expression.type, !same);
                 }
             }
+            if (result.is(DBSPBinaryExpression.class)) {
+                // Operations implemented by runtime library functions
+                DBSPLiteral folded = opcode == DBSPOpcode.CONCAT ?
+                        RuntimeFunctionEvaluator.concat(expression, left, right) :
+                        RuntimeFunctionEvaluator.evaluate(expression, left, right);
+                if (folded != null)
+                    result = folded;
+            }
         } catch (ArithmeticException unused) {
             // ignore, defer to runtime
         }
@@ -0,0 +1,213 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnwrapExpression;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPIntLiteral;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeSqlResult;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/** Replaces integer additions, subtractions, and multiplications which provably cannot
+ * overflow with operations that do not check for overflow.  The proof uses a simple
+ * range analysis: the range of values of an expression is derived from its type,
+ * from constants, from the source types of checked SQL casts, and from the ranges of the operands.
+ * For example, the sum of two SMALLINT values cast to INTEGER cannot overflow. */
+public class UncheckedArithmetic extends InnerRewriteVisitor {
+    /** Cache of ranges computed for expressions of the original tree */
+    final Map<DBSPExpression, Range> ranges;
+
+    public UncheckedArithmetic(DBSPCompiler compiler) {
+        super(compiler, false);
+        this.ranges = new IdentityHashMap<>();
+    }
+
+    /** A range of integer values, including both bounds */
+    public record Range(BigInteger min, BigInteger max) {
+        public static Range of(DBSPTypeInteger type) {
+            int width = type.getWidth();
+            if (type.signed)
+                return new Range(BigInteger.ONE.shiftLeft(width - 1).negate(),
+                        BigInteger.ONE.shiftLeft(width - 1).subtract(BigInteger.ONE));
+            return new Range(BigInteger.ZERO, BigInteger.ONE.shiftLeft(width).subtract(BigInteger.ONE));
+        }
+
+        public static Range of(BigInteger value) {
+            return new Range(value, value);
+        }
+
+        public boolean contains(Range other) {
+            return this.min.compareTo(other.min) <= 0 && this.max.compareTo(other.max) >= 0;
+        }
+
+        /** Smallest range containing the 4 values */
+        static Range hull(BigInteger a, BigInteger b, BigInteger c, BigInteger d) {
+            return new Range(a.min(b).min(c).min(d), a.max(b).max(c).max(d));
+        }
+
+        public Range add(Range other) {
+            return new Range(this.min.add(other.min), this.max.add(other.max));
+        }
+
+        public Range subtract(Range other) {
+            return new Range(this.min.subtract(other.max), this.max.subtract(other.min));
+        }
+
+        public Range multiply(Range other) {
+            return hull(this.min.multiply(other.min), this.min.multiply(other.max),
+                    this.max.multiply(other.min), this.max.multiply(other.max));
+        }
+
+        public Range negate() {
+            return new Range(this.max.negate(), this.min.negate());
+        }
+
+        @Nullable
+        public Range intersect(Range other) {
+            BigInteger min = this.min.max(other.min);
+            BigInteger max = this.max.min(other.max);
+            if (min.compareTo(max) > 0)
+                return null;
+            return new Range(min, max);
+        }
+    }
+
+    @Nullable
+    static DBSPTypeInteger integerType(DBSPType type) {
+        if (type.is(DBSPTypeSqlResult.class))
+            type = type.to(DBSPTypeSqlResult.class).getWrappedType();
+        return type.as(DBSPTypeInteger.class);
+    }
+
+    /** Range of values of an expression when it is not null;
+     * null if the expression does not have an integer type. */
+    @Nullable
+    Range range(DBSPExpression expression) {
+        DBSPTypeInteger type = integerType(expression.getType());
+        if (type == null)
+            return null;
+        Range result = this.ranges.get(expression);
+        if (result != null)
+            return result;
+
+        Range bounds = Range.of(type);
+        result = bounds;
+        if (expression.is(DBSPIntLiteral.class)) {
+            DBSPIntLiteral literal = expression.to(DBSPIntLiteral.class);
+            if (!literal.isNull())
+                result = Range.of(literal.getValue());
+        } else if (expression.is(DBSPCastExpression.class)) {
+            // A checked SQL cast either fails or produces the source value.
+            // Other casts may wrap, so they preserve the source range only if
+            // the result type can represent all the values in the source range.
+            DBSPCastExpression cast = expression.to(DBSPCastExpression.class);
+            Range source = this.range(cast.source);
+            if (source != null) {
+                if (cast.safe.isSql()) {
+                    Range intersection = source.intersect(bounds);
+                    if (intersection != null)
+                        result = intersection;
+                } else if (bounds.contains(source)) {
+                    result = source;
+                }
+            }
+        } else if (expression.is(DBSPCloneExpression.class)) {
+            result = this.range(expression.to(DBSPCloneExpression.class).expression);
+        } else if (expression.is(DBSPUnwrapExpression.class)) {
+            result = this.range(expression.to(DBSPUnwrapExpression.class).expression);
+        } else if (expression.is(DBSPSomeExpression.class)) {
+            result = this.range(expression.to(DBSPSomeExpression.class).expression);
+        } else if (expression.is(DBSPUnaryExpression.class)) {
+            DBSPUnaryExpression unary = expression.to(DBSPUnaryExpression.class);
+            Range source = this.range(unary.source);
+            if (source != null && unary.opcode == DBSPOpcode.NEG && bounds.contains(source.negate()))
+                result = source.negate();
+        } else if (expression.is(DBSPBinaryExpression.class)) {
+            DBSPBinaryExpression binary = expression.to(DBSPBinaryExpression.class);
+            Range exact = this.exactRange(binary);
+            if (exact != null && bounds.contains(exact))
+                result = exact;
+        }
+        if (result == null)
+            result = bounds;
+        this.ranges.put(expression, result);
+        return result;
+    }
+
+    /** The range of the result of a binary operation computed with unbounded integers */
+    @Nullable
+    Range exactRange(DBSPBinaryExpression expression) {
+        Range left = this.range(expression.left);
+        Range right = this.range(expression.right);
+        if (left == null || right == null)
+            return null;
+        return switch (expression.opcode) {
+            case ADD, ADD_UNCHECKED -> left.add(right);
+            case SUB, SUB_UNCHECKED -> left.subtract(right);
+            case MUL, MUL_UNCHECKED -> left.multiply(right);
+            case DIV -> {
+                // Only division by constants, which can be computed at the bounds
+                if (!right.min.equals(right.max) || right.min.signum() == 0)
+                    yield null;
+                BigInteger a = left.min.divide(right.min);
+                BigInteger b = left.max.divide(right.min);
+                yield new Range(a.min(b), a.max(b));
+            }
+            case MOD -> {
+                if (!right.min.equals(right.max) || right.min.signum() == 0)
+                    yield null;
+                // The sign of the result is the sign of the left operand
+                BigInteger limit = right.min.abs().subtract(BigInteger.ONE);
+                BigInteger min = left.min.signum() >= 0 ? BigInteger.ZERO : limit.negate();
+                BigInteger max = left.max.signum() <= 0 ? BigInteger.ZERO : limit;
+                yield new Range(min, max);
+            }
+            default -> null;
+        };
+    }
+
+    @Override
+    public void startVisit(IDBSPInnerNode node) {
+        super.startVisit(node);
+        this.ranges.clear();
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPBinaryExpression expression) {
+        DBSPOpcode unchecked = switch (expression.opcode) {
+            case ADD -> DBSPOpcode.ADD_UNCHECKED;
+            case SUB -> DBSPOpcode.SUB_UNCHECKED;
+            case MUL -> DBSPOpcode.MUL_UNCHECKED;
+            default -> null;
+        };
+        if (unchecked == null ||
+                !expression.getType().is(DBSPTypeInteger.class) ||
+                !expression.left.getType().is(DBSPTypeInteger.class) ||
+                !expression.right.getType().is(DBSPTypeInteger.class))
+            return super.preorder(expression);
+        Range exact = this.exactRange(expression);
+        if (exact == null || !Range.of(expression.getType().to(DBSPTypeInteger.class)).contains(exact))
+            return super.preorder(expression);
+
+        this.push(expression);
+        DBSPExpression left = this.transform(expression.left);
+        DBSPExpression right = this.transform(expression.right);
+        this.pop(expression);
+        this.map(expression, new DBSPBinaryExpression(
+                expression.getNode(), expression.getType(), unchecked, left, right));
+        return VisitDecision.STOP;
+    }
+}
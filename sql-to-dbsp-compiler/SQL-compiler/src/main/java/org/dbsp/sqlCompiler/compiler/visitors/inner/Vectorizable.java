@@ -0,0 +1,262 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRef;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeFP;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Visitor which detects whether an expression can be evaluated column-at-a-time
+ * on a batch of rows.  The supported expressions are arithmetic, comparisons, boolean
+ * connectives, and casts that widen numeric types, applied to non-nullable primitive
+ * columns of the row and to constants.  Such expressions compile to tight
+ * loops over arrays, which the Rust compiler can auto-vectorize.
+ * The visitor also collects the columns of the row that are used, and
+ * whether the expression performs any arithmetic. */
+public class Vectorizable extends InnerVisitor {
+    /** Row parameter of the closure */
+    final DBSPParameter row;
+    boolean vectorizable;
+    /** True if the expression contains arithmetic operations */
+    boolean arithmetic;
+    /** Row fields used by the expression */
+    public final Set<Integer> columns;
+
+    public Vectorizable(DBSPCompiler compiler, DBSPParameter row) {
+        super(compiler);
+        this.row = row;
+        this.vectorizable = true;
+        this.columns = new TreeSet<>();
+    }
+
+    /** True if values of this type are stored in vectors: non-nullable primitive types,
+     * which are all Copy in Rust. */
+    public static boolean isScalar(DBSPType type) {
+        if (type.mayBeNull)
+            return false;
+        return type.is(DBSPTypeInteger.class) ||
+                type.is(DBSPTypeFP.class) ||
+                type.is(DBSPTypeBool.class);
+    }
+
+    @Override
+    public void startVisit(IDBSPInnerNode node) {
+        super.startVisit(node);
+        this.vectorizable = true;
+        this.arithmetic = false;
+        this.columns.clear();
+    }
+
+    VisitDecision unsupported() {
+        this.vectorizable = false;
+        return VisitDecision.STOP;
+    }
+
+    VisitDecision check(DBSPExpression expression) {
+        if (!this.vectorizable || !isScalar(expression.getType()))
+            return this.unsupported();
+        return VisitDecision.CONTINUE;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPType type) {
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPExpression expression) {
+        // Any other expression: function calls, conditionals, variables, etc.
+        return this.unsupported();
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPFieldExpression expression) {
+        if (this.check(expression) == VisitDecision.STOP)
+            return VisitDecision.STOP;
+        if (!isRowField(this.row, expression))
+            return this.unsupported();
+        this.columns.add(expression.fieldNo);
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPLiteral expression) {
+        if (expression.isNull())
+            return this.unsupported();
+        this.check(expression);
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPCloneExpression expression) {
+        return this.check(expression);
+    }
+
+    /** True if every value of type 'from' can be represented exactly in type 'to':
+     * the cast only adds nullability, or widens a numeric type. */
+    public static boolean isWidening(DBSPType from, DBSPType to) {
+        if (from.mayBeNull && !to.mayBeNull)
+            return false;
+        if (from.sameTypeIgnoringNullability(to))
+            return true;
+        if (from.is(DBSPTypeInteger.class)) {
+            DBSPTypeInteger source = from.to(DBSPTypeInteger.class);
+            if (to.is(DBSPTypeInteger.class)) {
+                DBSPTypeInteger dest = to.to(DBSPTypeInteger.class);
+                return dest.getWidth() > source.getWidth() && (dest.signed || !source.signed);
+            }
+            // The mantissa of a REAL has 24 bits, the one of a DOUBLE 53
+            if (to.is(DBSPTypeFP.class))
+                return source.getWidth() <= to.to(DBSPTypeFP.class).getWidth() / 2;
+            return false;
+        }
+        if (from.is(DBSPTypeFP.class) && to.is(DBSPTypeFP.class))
+            return to.to(DBSPTypeFP.class).getWidth() > from.to(DBSPTypeFP.class).getWidth();
+        return false;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPCastExpression expression) {
+        if (expression.safe.isUnwrap() ||
+                !isWidening(expression.source.getType(), expression.getType()))
+            return this.unsupported();
+        return this.check(expression);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPUnaryExpression expression) {
+        return switch (expression.opcode) {
+            case NEG -> {
+                this.arithmetic = true;
+                yield this.check(expression);
+            }
+            case NOT -> this.check(expression);
+            default -> this.unsupported();
+        };
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPBinaryExpression expression) {
+        return switch (expression.opcode) {
+            case ADD, SUB, MUL, ADD_UNCHECKED, SUB_UNCHECKED, MUL_UNCHECKED -> {
+                this.arithmetic = true;
+                yield this.check(expression);
+            }
+            case EQ, NEQ, LT, GT, LTE, GTE, AND, OR -> this.check(expression);
+            default -> this.unsupported();
+        };
+    }
+
+    /** True if the expression has the shape (*row).field */
+    public static boolean isRowField(DBSPParameter row, DBSPFieldExpression expression) {
+        if (!expression.expression.is(DBSPDerefExpression.class))
+            return false;
+        DBSPExpression source = expression.expression.to(DBSPDerefExpression.class).expression;
+        return source.is(DBSPVariablePath.class) &&
+                source.to(DBSPVariablePath.class).variable.equals(row.name);
+    }
+
+    /** Name of the variable holding a column of the row in a vectorized computation */
+    public static String columnName(int fieldNo) {
+        return "x_" + fieldNo;
+    }
+
+    /** Rewrite an expression replacing each use of a field of the row with a
+     * variable holding the value of the field; see {@link #columnName}. */
+    public static DBSPExpression replaceColumns(DBSPCompiler compiler, DBSPParameter row, DBSPExpression expression) {
+        InnerRewriteVisitor rewriter = new InnerRewriteVisitor(compiler, false) {
+            @Override
+            public VisitDecision preorder(DBSPFieldExpression expression) {
+                if (!isRowField(row, expression))
+                    return super.preorder(expression);
+                this.map(expression, new DBSPVariablePath(
+                        expression.getNode(), columnName(expression.fieldNo), expression.getType()));
+                return VisitDecision.STOP;
+            }
+        };
+        return rewriter.apply(expression).to(DBSPExpression.class);
+    }
+
+    /** Returns the columns used by the expression, or null if the expression
+     * cannot be evaluated column-at-a-time. */
+    @Nullable
+    public static Set<Integer> getColumns(DBSPCompiler compiler, DBSPParameter row, DBSPExpression expression) {
+        Vectorizable vectorizable = new Vectorizable(compiler, row);
+        vectorizable.apply(expression);
+        if (!vectorizable.vectorizable)
+            return null;
+        return vectorizable.columns;
+    }
+
+    /** Returns the expressions computed by the function of an operator that can be evaluated
+     * column-at-a-time, or null if the operator has to be evaluated one row at a time.
+     * For a {@link DBSPMapOperator} these are the fields of the produced tuple, for a
+     * {@link DBSPFilterOperator} this is the predicate.  Only operators that consume and
+     * produce ZSets of tuples are candidates.  Maps that do not perform any arithmetic,
+     * such as projections, only copy fields, and gain nothing from the column layout. */
+    @Nullable
+    public static List<DBSPExpression> getColumnExpressions(DBSPCompiler compiler, DBSPSimpleOperator operator) {
+        if (!operator.is(DBSPMapOperator.class) && !operator.is(DBSPFilterOperator.class))
+            return null;
+        if (!operator.getFunction().is(DBSPClosureExpression.class))
+            return null;
+        if (!operator.inputs.get(0).outputType().is(DBSPTypeZSet.class) ||
+                !operator.outputType.is(DBSPTypeZSet.class))
+            return null;
+        DBSPClosureExpression closure = operator.getClosureFunction();
+        if (closure.parameters.length != 1)
+            return null;
+        DBSPParameter row = closure.parameters[0];
+        if (!row.type.is(DBSPTypeRef.class) ||
+                !row.type.to(DBSPTypeRef.class).type.is(DBSPTypeTuple.class))
+            return null;
+
+        List<DBSPExpression> result;
+        if (operator.is(DBSPMapOperator.class)) {
+            if (!closure.body.is(DBSPTupleExpression.class))
+                return null;
+            DBSPTupleExpression tuple = closure.body.to(DBSPTupleExpression.class);
+            if (tuple.fields == null)
+                return null;
+            result = List.of(tuple.fields);
+        } else {
+            result = List.of(closure.body);
+        }
+        boolean arithmetic = false;
+        Vectorizable vectorizable = new Vectorizable(compiler, row);
+        for (DBSPExpression expression: result) {
+            vectorizable.apply(expression);
+            if (!vectorizable.vectorizable)
+                return null;
+            arithmetic = arithmetic || vectorizable.arithmetic;
+        }
+        if (operator.is(DBSPMapOperator.class) && !arithmetic)
+            return null;
+        return result;
+    }
+}
@@ -0,0 +1,198 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.OutputPort;
+import org.dbsp.sqlCompiler.circuit.annotation.Workers;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperatorBase;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainKeysOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainNValuesOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainValuesOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNegateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNestedOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNoopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSinkOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAntiJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSubtractOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSumOperator;
+import org.dbsp.sqlCompiler.circuit.operator.IJoin;
+import org.dbsp.sqlCompiler.circuit.operator.ILinearAggregate;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.ProgramIdentifier;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Logger;
+import org.dbsp.util.graph.Port;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Implements the 'workers' view property.
+ *
+ * <p>The stateful operators (joins, aggregates, distinct, etc.) that only contribute
+ * to a view with a 'workers' property are annotated with a {@link Workers} annotation.
+ * When generating Rust the inputs of these operators are sent to a subset of the
+ * workers instead of being sharded across all workers; this reduces the exchange
+ * overhead for small views.
+ * The operators that compute a view are found by walking backwards from
+ * the view's sinks; an operator belongs to a view if all its successors do.
+ *
+ * <p>Each stream that enters the view is sent to the subset of workers once;
+ * inside the view the data stays on these workers.  Operators whose inputs are
+ * integrated streams, or streams whose traces are shared with other views,
+ * are not partitioned, since that would duplicate the traces, or move the whole
+ * integral at each step. */
+public class AssignWorkers extends Passes {
+    public AssignWorkers(DBSPCompiler compiler) {
+        super("AssignWorkers", compiler);
+        Graph graph = new Graph(compiler);
+        this.add(graph);
+        this.add(new FindViewOperators(compiler, graph.graphs));
+    }
+
+    /** True if the operator keeps state indexed by key, and thus shards its inputs */
+    static boolean isStateful(DBSPOperator operator) {
+        return operator.is(IJoin.class) ||
+                operator.is(DBSPStreamAntiJoinOperator.class) ||
+                operator.is(DBSPAggregateOperatorBase.class) ||
+                operator.is(ILinearAggregate.class) ||
+                operator.is(DBSPDistinctOperator.class) ||
+                operator.is(DBSPStreamDistinctOperator.class) ||
+                operator.is(DBSPIndexedTopKOperator.class) ||
+                operator.is(DBSPLagOperator.class);
+    }
+
+    /** True if the operator produces its outputs on the workers that hold its inputs */
+    public static boolean preservesWorkers(DBSPOperator operator) {
+        return operator.is(DBSPMapOperator.class) ||
+                operator.is(DBSPMapIndexOperator.class) ||
+                operator.is(DBSPFilterOperator.class) ||
+                operator.is(DBSPFlatMapOperator.class) ||
+                operator.is(DBSPFlatMapIndexOperator.class) ||
+                operator.is(DBSPNoopOperator.class) ||
+                operator.is(DBSPNegateOperator.class) ||
+                operator.is(DBSPSumOperator.class) ||
+                operator.is(DBSPSubtractOperator.class) ||
+                operator.is(DBSPDifferentiateOperator.class);
+    }
+
+    static class FindViewOperators extends CircuitWithGraphsVisitor {
+        /** Sinks of each view (a view and its indexes) with a 'workers' property */
+        final Map<ProgramIdentifier, List<DBSPSinkOperator>> sinks;
+
+        FindViewOperators(DBSPCompiler compiler, CircuitGraphs graphs) {
+            super(compiler, graphs);
+            this.sinks = new LinkedHashMap<>();
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPNestedOperator operator) {
+            // Recursive views are not partitioned
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public void postorder(DBSPSinkOperator operator) {
+            if (operator.metadata.getWorkers() > 0)
+                this.sinks.computeIfAbsent(operator.metadata.viewName, k -> new ArrayList<>()).add(operator);
+        }
+
+        /** True if the inputs of the operator can be sent to a subset of the workers */
+        boolean canPartition(DBSPOperator operator, Set<DBSPOperator> region, CircuitGraph graph) {
+            if (!isStateful(operator) || operator.inputs.isEmpty())
+                return false;
+            for (OutputPort input: operator.inputs) {
+                if (!input.outputType().is(DBSPTypeZSet.class) &&
+                        !input.outputType().is(DBSPTypeIndexedZSet.class))
+                    return false;
+                // Sending an integral to other workers would move all its data at each step
+                if (input.node().is(DBSPIntegrateOperator.class))
+                    return false;
+                // A stream from outside the view which is also used by stateful operators
+                // of other views: its trace is shared with them, and should not be duplicated
+                if (!region.contains(input.node()) &&
+                        Linq.any(graph.getSuccessors(input.node()),
+                                p -> !region.contains(p.node()) && isStateful(p.node())))
+                    return false;
+                // The garbage collection operators apply to the trace of the original input
+                for (Port<DBSPOperator> sibling: graph.getSuccessors(input.node())) {
+                    DBSPOperator node = sibling.node();
+                    if (node.is(DBSPIntegrateTraceRetainKeysOperator.class) ||
+                            node.is(DBSPIntegrateTraceRetainValuesOperator.class) ||
+                            node.is(DBSPIntegrateTraceRetainNValuesOperator.class))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /** The set of operators whose outputs are only used by the specified sinks */
+        Set<DBSPOperator> region(List<DBSPSinkOperator> sinks, CircuitGraph graph) {
+            Set<DBSPOperator> region = new HashSet<>(sinks);
+            List<DBSPOperator> candidates = new ArrayList<>();
+            for (DBSPSinkOperator sink: sinks)
+                candidates.add(sink.input().node());
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                List<DBSPOperator> pending = new ArrayList<>();
+                for (DBSPOperator candidate: candidates) {
+                    if (region.contains(candidate))
+                        continue;
+                    if (candidate.is(DBSPSourceBaseOperator.class) || candidate.is(DBSPNestedOperator.class))
+                        continue;
+                    boolean inRegion = Linq.all(graph.getSuccessors(candidate), p -> region.contains(p.node()));
+                    if (!inRegion) {
+                        pending.add(candidate);
+                        continue;
+                    }
+                    region.add(candidate);
+                    changed = true;
+                    for (OutputPort input: candidate.inputs)
+                        pending.add(input.node());
+                }
+                candidates = pending;
+            }
+            return region;
+        }
+
+        @Override
+        public void postorder(DBSPCircuit circuit) {
+            CircuitGraph graph = this.graphs.getGraph(circuit);
+            for (var entry: this.sinks.entrySet()) {
+                int workers = entry.getValue().get(0).metadata.getWorkers();
+                Set<DBSPOperator> region = this.region(entry.getValue(), graph);
+                for (DBSPOperator operator: region) {
+                    if (!this.canPartition(operator, region, graph))
+                        continue;
+                    Logger.INSTANCE.belowLevel(this, 1)
+                            .append("Evaluating ")
+                            .appendSupplier(operator::toString)
+                            .append(" on ")
+                            .append(workers)
+                            .append(" workers")
+                            .newline();
+                    operator.addAnnotation(new Workers(workers), DBSPOperator.class);
+                }
+            }
+        }
+    }
+}
@@ -443,6 +443,11 @@ public class CircuitCloneVisitor extends CircuitVisitor implements IWritesLogs,
         this.replace(operator);
     }
 
+    @Override
+    public void postorder(DBSPJoinRangeOperator operator) {
+        this.replace(operator);
+    }
+
     @Override
     public void postorder(DBSPAsofJoinOperator operator) {
         this.replace(operator);
@@ -32,13 +32,16 @@ import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.backend.MerkleOuter;
 import org.dbsp.sqlCompiler.compiler.errors.CompilationError;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.CanonicalForm;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.EliminateClones;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.EliminateDump;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.expandCasts.ExpandCasts;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.ExpandWriteLog;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.ImplementStatics;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.CreateRuntimeErrorWrappers;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.ReorderConjunctions;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.SimplifyWaterline;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.UncheckedArithmetic;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.indexSharing.ShareIndexes;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.indexSharing.ShareInputIndexes;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.intern.Intern;
@@ -128,6 +131,7 @@ public class CircuitOptimizer extends Passes {
         this.add(new OptimizeWithGraph(compiler, g -> new FilterJoinVisitor(compiler, g)));
         this.add(new DeadCode(compiler, true));
         this.add(new Simplify(compiler).circuitRewriter(true));
+        this.add(new CircuitRewriter(compiler, new ReorderConjunctions(compiler), false, ReorderConjunctions::process));
         if (options.languageOptions.incrementalize) {
             this.add(new NoIntegralVisitor(compiler));
         }
@@ -152,19 +156,23 @@ public class CircuitOptimizer extends Passes {
         this.add(new OptimizeWithGraph(compiler, g -> new BalancedJoins(compiler, g), 1));
         this.add(new OptimizeWithGraph(compiler, g -> new ChainVisitor(compiler, g)));
         this.add(new ImplementChains(compiler));
+        this.add(new OptimizeWithGraph(compiler, g -> new FlatMapFusion(compiler, g)));
         this.add(new ExpandCasts(compiler));
         this.add(new Simplify(compiler).getCircuitRewriter(true));
+        this.add(new UncheckedArithmetic(compiler).circuitRewriter(true));
         this.add(new ImplementJoins(compiler));
         this.add(new RemoveViewOperators(compiler, true));
         this.add(new OptimizeWithGraph(compiler, g -> new PushDifferentialsUp(compiler, g)));
         this.add(new CSE(compiler));
         this.add(new CircuitRewriter(compiler, new InnerCSE(compiler), true, InnerCSE::process));
         this.add(new CreateRuntimeErrorWrappers(compiler).getCircuitRewriter(true));
+        this.add(new EliminateClones(compiler).circuitRewriter(true));
         this.add(new OptimizeWithGraph(compiler, g -> new StrayGC(compiler, g)));
         // The canonical form is needed if we want the Merkle hashes to be "stable".
         this.add(new CanonicalForm(compiler).getCircuitRewriter(false));
         this.add(new StaticDeclarations(compiler, new ImplementStatics(compiler, !compiler.options.ioOptions.multiCrates())));
         // From now on we cannot really change the graph anymore.
+        this.add(new AssignWorkers(compiler));
 
         // this.add(new TestSerialize(compiler));
         this.add(new ComparatorDeclarations(compiler, new DeclareComparators(compiler)));
@@ -51,6 +51,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainValuesOpera
 import org.dbsp.sqlCompiler.circuit.operator.DBSPInternOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinFilterMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinFilterMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinIndexOperator;
@@ -645,6 +646,29 @@ public class CircuitRewriter extends CircuitCloneVisitor {
         this.map(operator, result);
     }
 
+    @Override
+    public void postorder(DBSPJoinRangeOperator operator) {
+        DBSPType outputType = this.transform(operator.outputType);
+        DBSPExpression function = this.transform(operator.getFunction());
+        DBSPClosureExpression rangeFunction = this.transform(operator.rangeFunction).to(DBSPClosureExpression.class);
+        DBSPClosureExpression inverseRangeFunction = this.transform(operator.inverseRangeFunction)
+                .to(DBSPClosureExpression.class);
+        List<OutputPort> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPSimpleOperator result = operator;
+        if (!outputType.sameType(operator.outputType)
+                || function != operator.function
+                || rangeFunction != operator.rangeFunction
+                || inverseRangeFunction != operator.inverseRangeFunction
+                || Linq.different(sources, operator.inputs)) {
+            result = new DBSPJoinRangeOperator(operator.getRelNode(),
+                    outputType.to(DBSPTypeZSet.class), function,
+                    rangeFunction, inverseRangeFunction, operator.isMultiset,
+                    sources.get(0), sources.get(1))
+                    .copyAnnotations(operator);
+        }
+        this.map(operator, result);
+    }
+
     @Override
     public void postorder(DBSPAsofJoinOperator operator) {
         DBSPType outputType = this.transform(operator.outputType);
@@ -809,7 +833,7 @@ public class CircuitRewriter extends CircuitCloneVisitor {
                 || comparator != operator.comparator) {
             result = new DBSPLagOperator(operator.getRelNode(), operator.offset,
                     projection, function, comparator,
-                    type.to(DBSPTypeIndexedZSet.class), input)
+                    type.to(DBSPTypeIndexedZSet.class), input, operator.appendOnly, operator.rows)
                     .copyAnnotations(operator);
         }
         this.map(operator, result);
@@ -414,6 +414,10 @@ public abstract class CircuitVisitor
         return this.preorder((DBSPJoinBaseOperator) node);
     }
 
+    public VisitDecision preorder(DBSPJoinRangeOperator node) {
+        return this.preorder((DBSPJoinBaseOperator) node);
+    }
+
     public VisitDecision preorder(DBSPAsofJoinOperator node) {
         return this.preorder((DBSPJoinBaseOperator) node);
     }
@@ -569,6 +573,10 @@ public abstract class CircuitVisitor
         this.postorder((DBSPJoinBaseOperator) node);
     }
 
+    public void postorder(DBSPJoinRangeOperator node) {
+        this.postorder((DBSPJoinBaseOperator) node);
+    }
+
     public void postorder(DBSPAsofJoinOperator node) {
         this.postorder((DBSPJoinBaseOperator) node);
     }
@@ -3,12 +3,17 @@ package org.dbsp.sqlCompiler.compiler.visitors.outer;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateLinearPostprocessOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPChainAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.OutputPort;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.IColumnMetadata;
 import org.dbsp.sqlCompiler.compiler.errors.InternalCompilerError;
 import org.dbsp.sqlCompiler.compiler.frontend.CalciteToDBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
@@ -21,15 +26,23 @@ import org.dbsp.sqlCompiler.ir.aggregate.MinMaxAggregate;
 import org.dbsp.sqlCompiler.ir.aggregate.NonLinearAggregate;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBaseTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldComparatorExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPNoComparatorExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.IHasZero;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeFunction;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeRawTuple;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTupleBase;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
 import org.dbsp.util.ExplicitShuffle;
 import org.dbsp.util.IdShuffle;
@@ -44,7 +57,8 @@ import java.util.function.Predicate;
 
 /**
  * Expand {@link DBSPStreamAggregateOperator} into multiple operators,
- * depending on whether the sources are append-only. */
+ * depending on whether the sources are append-only.
+ * Also selects the append-only implementation of {@link DBSPLagOperator}. */
 public class ExpandAggregates extends Passes {
     final AppendOnly appendOnly;
 
@@ -294,33 +308,136 @@ public class ExpandAggregates extends Passes {
             DBSPType valueType = group.getEmptySetResultType();
             DBSPTypeIndexedZSet outputType = TypeCompiler.makeIndexedZSet(keyType, valueType);
             DBSPSimpleOperator result;
-            if (first.is(NonLinearAggregate.class) && !first.is(MinMaxAggregate.class)) {
+            if (appendOnly && first.canBeChained()) {
+                result = this.implementChain(node, keyType, input, group);
+            } else if (first.is(NonLinearAggregate.class) && !first.is(MinMaxAggregate.class)) {
                 result = new DBSPStreamAggregateOperator(node, outputType, null, group, input);
+            } else if (first.is(LinearAggregate.class)) {
+                // incremental-only operator
+                DBSPDifferentiateOperator diff = new DBSPDifferentiateOperator(node, input);
+                this.addOperator(diff);
+                LinearAggregate linear = group.asLinear(this.compiler());
+                DBSPSimpleOperator aggOp = new DBSPAggregateLinearPostprocessOperator(
+                        node, outputType, linear.map, linear.postProcess, diff.outputPort());
+                this.addOperator(aggOp);
+                result = new DBSPIntegrateOperator(node, aggOp.outputPort());
             } else {
-                if (appendOnly) {
-                    result = this.implementChain(node, keyType, input, group);
-                } else {
-                    if (first.is(LinearAggregate.class)) {
-                        // incremental-only operator
-                        DBSPDifferentiateOperator diff = new DBSPDifferentiateOperator(node, input);
-                        this.addOperator(diff);
-                        LinearAggregate linear = group.asLinear(this.compiler());
-                        DBSPSimpleOperator aggOp = new DBSPAggregateLinearPostprocessOperator(
-                                node, outputType, linear.map, linear.postProcess, diff.outputPort());
-                        this.addOperator(aggOp);
-                        result = new DBSPIntegrateOperator(node, aggOp.outputPort());
-                    } else {
-                        Utilities.enforce(first.is(MinMaxAggregate.class));
-                        Utilities.enforce(group.size() == 1);
-                        result = this.implementOneMinMax(node, input, first.to(MinMaxAggregate.class), valueType);
-                    }
-                }
+                Utilities.enforce(first.is(MinMaxAggregate.class));
+                Utilities.enforce(group.size() == 1);
+                result = this.implementOneMinMax(node, input, first.to(MinMaxAggregate.class), valueType);
             }
             this.addOperator(result);
             return result;
         }
 
-        /** Implement multiple aggregates as a {@link DBSPChainAggregateOperator} */
+        /** If the expression is a field of the (only) parameter of the closure,
+         * return the field number, otherwise return -1. */
+        static int parameterField(DBSPClosureExpression closure, DBSPExpression expression) {
+            if (closure.parameters.length != 1)
+                return -1;
+            if (expression.is(DBSPCloneExpression.class))
+                expression = expression.to(DBSPCloneExpression.class).expression;
+            if (!expression.is(DBSPFieldExpression.class))
+                return -1;
+            DBSPFieldExpression field = expression.to(DBSPFieldExpression.class);
+            if (!field.expression.is(DBSPDerefExpression.class))
+                return -1;
+            DBSPExpression deref = field.expression.to(DBSPDerefExpression.class).expression;
+            if (!deref.is(DBSPVariablePath.class) ||
+                    !deref.to(DBSPVariablePath.class).variable.equals(closure.parameters[0].name))
+                return -1;
+            return field.fieldNo;
+        }
+
+        /** True if the rows of the (append-only) stream arrive in increasing order of the specified field.
+         * This is true when the field is a copy of a column of a source table which has a LATENESS of 0,
+         * and no other column of the table has a LATENESS, since late rows are discarded by the source.
+         *
+         * @param port  Stream that is analyzed; a ZSet or the values of an IndexedZSet.
+         * @param field Field of the stream rows (or values, for an indexed stream). */
+        static boolean arrivesInOrder(OutputPort port, int field) {
+            while (true) {
+                if (port.node().is(DBSPFilterOperator.class)) {
+                    port = port.node().to(DBSPFilterOperator.class).input();
+                    continue;
+                }
+                if (port.node().is(DBSPMapOperator.class) || port.node().is(DBSPMapIndexOperator.class)) {
+                    DBSPSimpleOperator operator = port.node().to(DBSPSimpleOperator.class);
+                    if (!operator.getFunction().is(DBSPClosureExpression.class) ||
+                            operator.inputs.get(0).outputType().is(DBSPTypeIndexedZSet.class))
+                        return false;
+                    DBSPClosureExpression closure = operator.getClosureFunction();
+                    DBSPExpression row = closure.body;
+                    if (operator.is(DBSPMapIndexOperator.class)) {
+                        if (!row.is(DBSPRawTupleExpression.class))
+                            return false;
+                        DBSPRawTupleExpression raw = row.to(DBSPRawTupleExpression.class);
+                        if (raw.fields == null || raw.fields.length != 2)
+                            return false;
+                        row = raw.fields[1];
+                    }
+                    if (!row.is(DBSPBaseTupleExpression.class))
+                        return false;
+                    DBSPBaseTupleExpression tuple = row.to(DBSPBaseTupleExpression.class);
+                    if (tuple.fields == null || field >= tuple.fields.length)
+                        return false;
+                    field = parameterField(closure, tuple.fields[field]);
+                    if (field < 0)
+                        return false;
+                    port = operator.inputs.get(0);
+                    continue;
+                }
+                if (!port.node().is(DBSPSourceMultisetOperator.class))
+                    return false;
+                DBSPSourceMultisetOperator source = port.node().to(DBSPSourceMultisetOperator.class);
+                int index = 0;
+                boolean sorted = false;
+                for (IColumnMetadata column: source.getColumnsMetadata()) {
+                    DBSPExpression lateness = column.getLateness();
+                    if (lateness != null) {
+                        if (index != field ||
+                                !lateness.is(DBSPLiteral.class) ||
+                                !lateness.getType().is(IHasZero.class) ||
+                                !lateness.getType().to(IHasZero.class).isZero(lateness.to(DBSPLiteral.class)))
+                            return false;
+                        sorted = true;
+                    }
+                    index++;
+                }
+                return sorted;
+            }
+        }
+
+        @Override
+        public void postorder(DBSPLagOperator operator) {
+            // The lag operator is surrounded by a differentiator and an integrator
+            OutputPort input = operator.input();
+            if (operator.offset <= 0 ||
+                    operator.rows ||
+                    !input.node().is(DBSPDifferentiateOperator.class) ||
+                    !operator.comparator.is(DBSPFieldComparatorExpression.class)) {
+                super.postorder(operator);
+                return;
+            }
+            DBSPFieldComparatorExpression comparator = operator.comparator.to(DBSPFieldComparatorExpression.class);
+            OutputPort data = input.node().to(DBSPDifferentiateOperator.class).input();
+            DBSPType orderType = data.getOutputIndexedZSetType().elementType
+                    .to(DBSPTypeTupleBase.class)
+                    .getFieldType(comparator.fieldNo);
+            if (!comparator.source.is(DBSPNoComparatorExpression.class) ||
+                    !comparator.ascending ||
+                    orderType.mayBeNull ||
+                    !this.isAppendOnly.test(data) ||
+                    !arrivesInOrder(data, comparator.fieldNo)) {
+                super.postorder(operator);
+                return;
+            }
+            DBSPSimpleOperator result = operator.asAppendOnly(this.mapped(input));
+            this.map(operator, result);
+        }
+
+        /** Implement multiple aggregates as a {@link DBSPChainAggregateOperator}.
+         * All aggregates in the group must satisfy {@link IAggregate#canBeChained()}. */
         DBSPSimpleOperator implementChain(
                 CalciteRelNode node, DBSPType keyType, OutputPort input, DBSPAggregateList group) {
             DBSPTypeIndexedZSet inputType = input.getOutputIndexedZSetType();
@@ -350,9 +467,9 @@ public class ExpandAggregates extends Passes {
                 DBSPExpression post;
                 DBSPExpression postField = postVar.field(1).deref().field(ix).applyCloneIfNeeded();
 
-                if (aggregate.is(MinMaxAggregate.class)) {
-                    MinMaxAggregate mmAggregate = aggregate.to(MinMaxAggregate.class);
-                    DBSPClosureExpression postProcess = mmAggregate.postProcess;
+                if (aggregate.is(NonLinearAggregate.class)) {
+                    NonLinearAggregate nonLinear = aggregate.to(NonLinearAggregate.class);
+                    DBSPClosureExpression postProcess = nonLinear.postProcess;
                     if (postProcess == null) {
                         postProcess = DBSPClosureExpression.id(accType);
                     } else {
@@ -361,9 +478,9 @@ public class ExpandAggregates extends Passes {
 
                     // The init function of the ChainAggregate takes the current data.
                     // We use increment(zero, row).
-                    init = mmAggregate.increment.call(
-                            mmAggregate.zero, inputVar, this.weightVar).reduce(this.compiler);
-                    comparison = mmAggregate.increment.call(
+                    init = nonLinear.increment.call(
+                            nonLinear.zero, inputVar, this.weightVar).reduce(this.compiler);
+                    comparison = nonLinear.increment.call(
                             acc.field(ix), inputVar, this.weightVar).reduce(this.compiler);
                     post = postProcess.call(postField).reduce(this.compiler);
                 } else {
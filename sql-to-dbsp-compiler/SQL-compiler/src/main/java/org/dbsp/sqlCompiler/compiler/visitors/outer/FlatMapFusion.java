@@ -0,0 +1,171 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.OutputPort;
+import org.dbsp.sqlCompiler.circuit.annotation.Unnest;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPUnaryOperator;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteRelNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyMethodExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFlatmap;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeAny;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/** Fuse a {@link DBSPFlatMapOperator} that implements an UNNEST with the
+ * Filter, Map, or filtering FlatMap (produced by {@link ImplementChains}) that follows it.
+ * Only the flatmaps created for an UNNEST, which carry the {@link Unnest} annotation, are fused.
+ * The unnest function is either a {@link DBSPFlatmap} (UNNEST of a single collection),
+ * which is lowered here, or has the shape
+ * |x| { ...; iter.map(move |e| Tup(...)) }
+ * After fusion the function becomes
+ * |x| { ...; iter.filter_map(move |e| { let t = Tup(...); if p(&t) { Some(t) } else { None } }) }
+ * or
+ * |x| { ...; iter.map(move |e| { let t = Tup(...); f(&t) }) }
+ * The tuple is built once per element and moved into the output, so the
+ * elements are not cloned again by the consumer, and no intermediate Z-set is built. */
+public class FlatMapFusion extends CircuitCloneWithGraphsVisitor {
+    public FlatMapFusion(DBSPCompiler compiler, CircuitGraphs graphs) {
+        super(compiler, graphs, false);
+    }
+
+    /** The function of a flatmap as a closure, lowering a {@link DBSPFlatmap} if necessary;
+     * null if the function is not a closure. */
+    @Nullable
+    DBSPClosureExpression getClosure(DBSPFlatMapOperator flatMap) {
+        DBSPExpression function = flatMap.getFunction();
+        if (function.is(DBSPFlatmap.class))
+            function = LowerCircuitVisitor.rewriteFlatmap(function.to(DBSPFlatmap.class), this.compiler);
+        if (!function.is(DBSPClosureExpression.class))
+            return null;
+        return function.to(DBSPClosureExpression.class);
+    }
+
+    /** If the closure is an unnest function, return the method call that
+     * converts each element into a tuple, otherwise return null. */
+    @Nullable
+    static DBSPApplyMethodExpression getElementMap(DBSPClosureExpression closure) {
+        if (!closure.body.is(DBSPBlockExpression.class))
+            return null;
+        DBSPBlockExpression block = closure.body.to(DBSPBlockExpression.class);
+        if (block.lastExpression == null || !block.lastExpression.is(DBSPApplyMethodExpression.class))
+            return null;
+        DBSPApplyMethodExpression map = block.lastExpression.to(DBSPApplyMethodExpression.class);
+        if (!map.function.is(DBSPPathExpression.class) ||
+                !map.function.to(DBSPPathExpression.class).path.asString().equals("map") ||
+                map.arguments.length != 1 ||
+                !map.arguments[0].is(DBSPClosureExpression.class))
+            return null;
+        return map;
+    }
+
+    /** Replace the element map of an unnest function.
+     * @param function  Unnest function.
+     * @param method    Method to use for the new element map.
+     * @param body      Body of the new closure applied to each element. */
+    static DBSPClosureExpression replaceElementMap(
+            DBSPClosureExpression function, String method, DBSPExpression body) {
+        DBSPBlockExpression block = function.body.to(DBSPBlockExpression.class);
+        DBSPApplyMethodExpression map = Objects.requireNonNull(block.lastExpression)
+                .to(DBSPApplyMethodExpression.class);
+        DBSPClosureExpression toTuple = map.arguments[0].to(DBSPClosureExpression.class);
+        DBSPClosureExpression newToTuple = new DBSPClosureExpression(
+                toTuple.getNode(), body, toTuple.parameters);
+        DBSPExpression newMap = new DBSPApplyMethodExpression(map.getNode(), method,
+                DBSPTypeAny.getDefault(), map.self, newToTuple);
+        DBSPBlockExpression newBlock = new DBSPBlockExpression(block.contents, newMap);
+        return new DBSPClosureExpression(function.getNode(), newBlock, function.parameters);
+    }
+
+    /** Fuse the operator with its source if possible.
+     *
+     * @param operator  Operator that follows a flatmap.
+     * @param function  Function computed by the operator.
+     * @param filter    True if the function is a predicate.
+     * @param optional  True if the function returns an Option, which is None for
+     *                  the rows that are dropped. */
+    void fuse(DBSPUnaryOperator operator, DBSPClosureExpression function, boolean filter, boolean optional) {
+        OutputPort source = this.mapped(operator.input());
+        int inputFanout = this.getGraph().getFanout(operator.input().node());
+        if (!source.node().is(DBSPFlatMapOperator.class) || inputFanout != 1) {
+            super.postorder(operator);
+            return;
+        }
+        DBSPFlatMapOperator flatMap = source.node().to(DBSPFlatMapOperator.class);
+        if (!flatMap.hasAnnotation(Unnest.class)) {
+            super.postorder(operator);
+            return;
+        }
+        DBSPClosureExpression unnest = this.getClosure(flatMap);
+        DBSPApplyMethodExpression map = unnest == null ? null : getElementMap(unnest);
+        if (map == null) {
+            super.postorder(operator);
+            return;
+        }
+        // let t = Tup(...);
+        DBSPExpression tuple = map.arguments[0].to(DBSPClosureExpression.class).body;
+        DBSPVariablePath var = tuple.getType().var();
+        DBSPLetStatement let = new DBSPLetStatement(var.variable, tuple);
+        DBSPExpression applied = function.call(var.borrow()).reduce(this.compiler);
+        String method;
+        DBSPExpression result = applied;
+        if (filter) {
+            // if p(&t) { Some(t) } else { None }
+            method = "filter_map";
+            DBSPType resultType = tuple.getType().withMayBeNull(true);
+            result = new DBSPIfExpression(function.getNode(), applied, var.some(), resultType.none());
+        } else {
+            method = optional ? "filter_map" : "map";
+        }
+        DBSPExpression body = new DBSPBlockExpression(Linq.list(let), result);
+        DBSPClosureExpression newFunction = replaceElementMap(unnest, method, body);
+        CalciteRelNode node = flatMap.getRelNode().after(operator.getRelNode());
+        DBSPSimpleOperator result = new DBSPFlatMapOperator(node, newFunction,
+                operator.getOutputZSetType(), operator.isMultiset, flatMap.input())
+                .copyAnnotations(operator)
+                .addAnnotation(Unnest.INSTANCE, DBSPFlatMapOperator.class);
+        this.map(operator, result);
+    }
+
+    @Override
+    public void postorder(DBSPFilterOperator operator) {
+        this.fuse(operator, operator.getClosureFunction(), true, false);
+    }
+
+    @Override
+    public void postorder(DBSPMapOperator operator) {
+        if (!operator.getFunction().is(DBSPClosureExpression.class)) {
+            super.postorder(operator);
+            return;
+        }
+        this.fuse(operator, operator.getClosureFunction(), false, false);
+    }
+
+    @Override
+    public void postorder(DBSPFlatMapOperator operator) {
+        DBSPExpression function = operator.getFunction();
+        // Only FlatMap operators produced from chains that contain filters,
+        // which return an Option for each input row
+        if (!function.is(DBSPClosureExpression.class) ||
+                function.to(DBSPClosureExpression.class).getResultType().is(DBSPTypeAny.class) ||
+                !function.to(DBSPClosureExpression.class).getResultType().mayBeNull ||
+                operator.getOutputZSetElementType().mayBeNull) {
+            super.postorder(operator);
+            return;
+        }
+        this.fuse(operator, operator.getClosureFunction(), false, true);
+    }
+}
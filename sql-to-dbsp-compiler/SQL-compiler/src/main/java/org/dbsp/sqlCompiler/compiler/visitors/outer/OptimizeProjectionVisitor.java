@@ -1,5 +1,6 @@
 package org.dbsp.sqlCompiler.compiler.visitors.outer;
 
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateLinearPostprocessOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAsofJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPConstantOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
@@ -19,18 +20,32 @@ import org.dbsp.sqlCompiler.circuit.OutputPort;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.errors.InternalCompilerError;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteRelNode;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.DetectShuffle;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.EquivalenceContext;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerRewriteVisitor;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.Projection;
+import org.dbsp.sqlCompiler.compiler.visitors.unusedFields.FieldUseMap;
+import org.dbsp.sqlCompiler.compiler.visitors.unusedFields.FindUsedFields;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPFlatmap;
 import org.dbsp.sqlCompiler.ir.expression.DBSPIndexedZSetExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
 import org.dbsp.sqlCompiler.ir.expression.DBSPZSetExpression;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTupleBase;
+import org.dbsp.util.Linq;
 import org.dbsp.util.Maybe;
 import org.dbsp.util.Utilities;
 
+import javax.annotation.Nullable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -42,6 +57,7 @@ import java.util.Objects;
  * - join followed by mapIndex projection
  * - indexJoin followed by mapIndex projection
  * - indexJoin followed by map projection
+ * - linear aggregate followed by mapIndex which only changes values
  * Projections are map operations that have a function with a very simple
  * structure.  The function is analyzed using the 'Projection' visitor. */
 public class OptimizeProjectionVisitor extends CircuitCloneWithGraphsVisitor {
@@ -125,6 +141,15 @@ public class OptimizeProjectionVisitor extends CircuitCloneWithGraphsVisitor {
         OutputPort source = this.mapped(operator.input());
         DBSPExpression function = operator.getFunction();
         int inputFanout = this.getGraph().getFanout(operator.input().node());
+        if (inputFanout == 1 && source.node().is(DBSPAggregateLinearPostprocessOperator.class)) {
+            // This does not need to be a projection
+            DBSPSimpleOperator result = mapIndexAfterLinearAggregate(
+                    this.compiler, source.node().to(DBSPAggregateLinearPostprocessOperator.class), operator);
+            if (result != null) {
+                this.map(operator, result);
+                return;
+            }
+        }
         Projection projection = new Projection(this.compiler, true, false);
         projection.apply(function);
         if (inputFanout == 1 && projection.isProjection && projection.isOnlyFieldAccesses()) {
@@ -167,6 +192,75 @@ public class OptimizeProjectionVisitor extends CircuitCloneWithGraphsVisitor {
         super.postorder(operator);
     }
 
+    /** Replaces the value field of the parameter of a MapIndex function with an expression */
+    static class ReplaceValue extends InnerRewriteVisitor {
+        final DBSPParameter parameter;
+        final DBSPExpression value;
+
+        ReplaceValue(DBSPCompiler compiler, DBSPParameter parameter, DBSPExpression value) {
+            super(compiler, false);
+            this.parameter = parameter;
+            this.value = value;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPFieldExpression expression) {
+            if (expression.fieldNo == 1 &&
+                    expression.expression.is(DBSPVariablePath.class) &&
+                    expression.expression.to(DBSPVariablePath.class).variable.equals(this.parameter.name)) {
+                this.map(expression, this.value.deepCopy());
+                return VisitDecision.STOP;
+            }
+            return super.preorder(expression);
+        }
+    }
+
+    /** A linear aggregate followed by a MapIndex which leaves the keys unchanged
+     * is a linear aggregate with a different post-processing function.
+     * Returns null if the MapIndex function modifies the keys or uses them
+     * to compute the values. */
+    @Nullable
+    static DBSPSimpleOperator mapIndexAfterLinearAggregate(
+            DBSPCompiler compiler, DBSPAggregateLinearPostprocessOperator source, DBSPMapIndexOperator operator) {
+        DBSPClosureExpression function = operator.getClosureFunction();
+        if (function.parameters.length != 1 || !function.body.is(DBSPRawTupleExpression.class))
+            return null;
+        DBSPType keyType = source.getOutputIndexedZSetType().keyType;
+        if (!operator.getOutputIndexedZSetType().keyType.sameType(keyType) ||
+                !keyType.is(DBSPTypeTupleBase.class))
+            return null;
+        DBSPRawTupleExpression body = function.body.to(DBSPRawTupleExpression.class);
+        DBSPParameter parameter = function.parameters[0];
+        DBSPVariablePath var = parameter.asVariable();
+
+        // Check that the key is unchanged
+        DBSPClosureExpression sameKey = new DBSPTupleExpression(
+                DBSPTypeTupleBase.flatten(var.field(0).deref()), false).closure(parameter);
+        if (!EquivalenceContext.equiv(body.get(0).closure(parameter), sameKey))
+            return null;
+        // Check that the value does not depend on the key
+        DBSPClosureExpression value = body.get(1).closure(parameter);
+        FieldUseMap used = FindUsedFields.computeUsedFields(value, compiler);
+        if (used.isUsed(0))
+            return null;
+
+        // |acc| { let tmp = postProcess(acc); value[param.1 -> &tmp] }
+        DBSPClosureExpression postProcess = source.postProcess;
+        DBSPVariablePath acc = postProcess.parameters[0].getType().var();
+        DBSPVariablePath tmp = postProcess.getResultType().var();
+        DBSPLetStatement let = new DBSPLetStatement(tmp.variable, postProcess.call(acc).reduce(compiler));
+        ReplaceValue replace = new ReplaceValue(compiler, parameter, tmp.borrow());
+        DBSPExpression newValue = replace.apply(body.get(1)).to(DBSPExpression.class);
+        DBSPClosureExpression newPostProcess = new DBSPBlockExpression(Linq.list(let), newValue)
+                .closure(acc)
+                .reduce(compiler)
+                .to(DBSPClosureExpression.class);
+        CalciteRelNode node = operator.getRelNode().after(source.getRelNode());
+        return new DBSPAggregateLinearPostprocessOperator(node, operator.getOutputIndexedZSetType(),
+                source.getFunction(), newPostProcess, source.input())
+                .copyAnnotations(source);
+    }
+
     static DBSPSimpleOperator mapAfterJoin(
             DBSPCompiler reporter, DBSPSimpleOperator source, DBSPMapOperator operator) {
         DBSPClosureExpression joinFunction = source.getClosureFunction();
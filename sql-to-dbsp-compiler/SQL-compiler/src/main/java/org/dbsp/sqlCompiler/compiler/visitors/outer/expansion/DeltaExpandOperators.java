@@ -17,6 +17,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinFilterMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLeftJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
@@ -188,6 +189,13 @@ public class DeltaExpandOperators extends CircuitCloneVisitor {
         this.identity(node);
     }
 
+    @Override
+    public void postorder(DBSPJoinRangeOperator node) {
+        // Like for the ASOF join, the two integrators and the three stream joins
+        // of the expansion are not modeled.
+        this.identity(node);
+    }
+
     @Override
     public void postorder(DBSPAggregateOperator operator) {
         OutputPort input = this.mapped(operator.input());
@@ -4,6 +4,7 @@ import org.dbsp.sqlCompiler.circuit.OutputPort;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAsofJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPConcreteAsofJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
@@ -61,7 +62,8 @@ class FindSharedIndexes extends CircuitWithGraphsVisitor {
         DBSPOperator successor = successors.get(0).node();
         if (successor.is(DBSPJoinBaseOperator.class) &&
                 !successor.is(DBSPAsofJoinOperator.class) &&
-                !successor.is(DBSPConcreteAsofJoinOperator.class)) {
+                !successor.is(DBSPConcreteAsofJoinOperator.class) &&
+                !successor.is(DBSPJoinRangeOperator.class)) {
             var join = successor.to(DBSPJoinBaseOperator.class);
             boolean isLeftInput = join.left().operator == operator;
             return new MapIndexAndConsumer(operator, join, isLeftInput);
@@ -0,0 +1,89 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer.indexSharing;
+
+import org.dbsp.sqlCompiler.circuit.OutputPort;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Projection;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitCloneWithGraphsVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitGraph;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitGraphs;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Maybe;
+import org.dbsp.util.graph.Port;
+
+import java.util.List;
+
+/** Swap a projection followed by a filter which feeds only {@link DBSPMapIndexOperator}s
+ * that are consumed by joins, when the input of the projection is shared.
+ *
+ * <pre>
+ *     source              source
+ *    /     \                 |
+ *  map    map      =>     filter
+ *   |       |              /   \
+ * filter  filter         map   map
+ *   |       |             |     |
+ * index   index         index  index
+ * </pre>
+ *
+ * <p>Each view applies its own projection to a common source, so the filters
+ * (e.g., the filters that remove null join keys) are different operators, and
+ * the indexes that follow them cannot be shared.  After the swap the filters
+ * apply to the same source, and they can be merged by CSE if they are identical.
+ * Indexes feeding other operators, such as aggregates, are left alone: widening
+ * their values would change the input of value-based aggregates such as MIN/MAX. */
+class PushFiltersAboveProjections extends CircuitCloneWithGraphsVisitor {
+    PushFiltersAboveProjections(DBSPCompiler compiler, CircuitGraphs graphs) {
+        super(compiler, graphs, false);
+    }
+
+    /** True if the operator is a {@link DBSPMapIndexOperator} whose outputs feed only joins */
+    boolean indexForJoins(DBSPOperator operator) {
+        if (!operator.is(DBSPMapIndexOperator.class))
+            return false;
+        List<Port<DBSPOperator>> successors = this.getGraph().getSuccessors(operator);
+        return !successors.isEmpty() &&
+                Linq.all(successors, p -> p.node().is(DBSPJoinBaseOperator.class));
+    }
+
+    @Override
+    public void postorder(DBSPFilterOperator operator) {
+        CircuitGraph graph = this.getGraph();
+        OutputPort source = this.mapped(operator.input());
+        DBSPOperator input = operator.input().node();
+        if (!source.node().is(DBSPMapOperator.class) || graph.getFanout(input) != 1) {
+            super.postorder(operator);
+            return;
+        }
+        DBSPMapOperator map = source.node().to(DBSPMapOperator.class);
+        List<Port<DBSPOperator>> successors = graph.getSuccessors(operator);
+        boolean onlyIndexes = !successors.isEmpty() &&
+                Linq.all(successors, p -> this.indexForJoins(p.node()));
+        boolean sharedSource = graph.getFanout(input.inputs.get(0).node()) > 1;
+        if (!onlyIndexes || !sharedSource) {
+            super.postorder(operator);
+            return;
+        }
+        Projection projection = new Projection(this.compiler, true, false);
+        DBSPClosureExpression function = map.getClosureFunction();
+        projection.apply(function);
+        if (!projection.isProjection) {
+            // Do not evaluate expensive functions twice
+            super.postorder(operator);
+            return;
+        }
+
+        DBSPClosureExpression condition = operator.getClosureFunction()
+                .applyAfter(this.compiler, function, Maybe.YES);
+        DBSPFilterOperator filter = new DBSPFilterOperator(operator.getRelNode(), condition, map.input());
+        this.addOperator(filter);
+        DBSPMapOperator result = new DBSPMapOperator(map.getRelNode(), function,
+                map.getOutputZSetType(), map.isMultiset, filter.outputPort());
+        this.map(operator, result);
+    }
+}
@@ -1,8 +1,10 @@
 package org.dbsp.sqlCompiler.compiler.visitors.outer.indexSharing;
 
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CSE;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.DeadCode;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.Graph;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.OptimizeWithGraph;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.Passes;
 
 /** Find patterns where the same collection is indexed twice on the same key with different values
@@ -25,10 +27,19 @@ import org.dbsp.sqlCompiler.compiler.visitors.outer.Passes;
  * </pre>
  * <p>where the common index produces the union of the fields of the two indexes.
  * The two joins need to have their functions adjusted to read the appropriate fields.
+ *
+ * <p>The source can be shared by operators in different views; each view usually
+ * applies its own projection and filters before indexing, so filters are first moved
+ * above the projections and deduplicated, making the indexes siblings.
  * */
 public class ShareIndexes extends Passes {
     public ShareIndexes(DBSPCompiler compiler) {
         super("ShareIndexes", compiler);
+        // Move filters that precede indexes above projections of shared sources,
+        // and merge the identical ones
+        this.add(new OptimizeWithGraph(compiler, g -> new PushFiltersAboveProjections(compiler, g)));
+        this.add(new CSE(compiler));
+
         // Detect patterns of the form
         //    source
         //     /  \
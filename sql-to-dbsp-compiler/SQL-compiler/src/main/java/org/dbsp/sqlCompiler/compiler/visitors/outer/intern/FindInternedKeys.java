@@ -0,0 +1,248 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer.intern;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.OutputPort;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperatorBase;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNestedOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNoopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceTableOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBaseTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/** Discover string columns of input tables that are used as keys of joins and aggregations.
+ * These are interned automatically (as if they had been declared INTERNED), so that the traces
+ * of joins and aggregates are keyed by compact integer ids instead of strings.
+ * A column is not interned if it is a key of a join whose other side cannot be interned,
+ * since such a join would have to unintern the keys; this also applies to columns
+ * that are used as keys of aggregations.
+ * {@link RewriteInternedFields} then propagates the interned values and unintern them at the sinks.
+ * This is only profitable for low-cardinality columns, so it is enabled by an option. */
+public class FindInternedKeys extends CircuitVisitor {
+    final Map<DBSPSourceTableOperator, Intern.InternedColumnList> internedInputs;
+    /** Columns found; only committed to {@link #internedInputs} at the end of the analysis */
+    final Set<SourceColumn> found;
+    /** Columns used as keys of joins where the other side of the join cannot be interned */
+    final Set<SourceColumn> rejected;
+    /** Pairs of columns compared by joins; they must be both interned or both not interned */
+    final List<JoinedColumns> joined;
+    /** Set if the circuit contains recursive components.  Recursive views declare their types,
+     * including the INTERNED annotations, so we cannot change the types of their inputs. */
+    boolean recursive;
+
+    /** A column of an input table */
+    record SourceColumn(DBSPSourceMultisetOperator source, int column) {}
+
+    /** Two columns compared by a join */
+    record JoinedColumns(SourceColumn left, SourceColumn right) {}
+
+    public FindInternedKeys(DBSPCompiler compiler,
+                            Map<DBSPSourceTableOperator, Intern.InternedColumnList> internedInputs) {
+        super(compiler);
+        this.internedInputs = internedInputs;
+        this.found = new HashSet<>();
+        this.rejected = new HashSet<>();
+        this.joined = new ArrayList<>();
+        this.recursive = false;
+    }
+
+    /** If the expression is a (possibly cloned, or cast to a different nullability)
+     * field of the parameter return the field index, otherwise -1. */
+    static int parameterField(DBSPExpression expression, DBSPParameter parameter) {
+        while (true) {
+            DBSPCloneExpression clone = expression.as(DBSPCloneExpression.class);
+            if (clone != null) {
+                expression = clone.expression;
+                continue;
+            }
+            DBSPCastExpression cast = expression.as(DBSPCastExpression.class);
+            if (cast != null && cast.source.getType().sameTypeIgnoringNullability(cast.getType())) {
+                expression = cast.source;
+                continue;
+            }
+            break;
+        }
+        DBSPFieldExpression field = expression.as(DBSPFieldExpression.class);
+        if (field == null)
+            return -1;
+        DBSPDerefExpression deref = field.expression.as(DBSPDerefExpression.class);
+        if (deref == null)
+            return -1;
+        DBSPVariablePath var = deref.expression.as(DBSPVariablePath.class);
+        if (var == null || !var.variable.equals(parameter.name))
+            return -1;
+        return field.fieldNo;
+    }
+
+    /** Trace a field of a Z-set backwards through filters and projections
+     * to a string column of an input table.  Return null if this is not possible. */
+    @Nullable
+    static SourceColumn trace(OutputPort port, int field) {
+        DBSPOperator operator = port.operator;
+        if (operator.is(DBSPSourceMultisetOperator.class)) {
+            DBSPSourceMultisetOperator source = operator.to(DBSPSourceMultisetOperator.class);
+            if (source.tableName.name().toLowerCase(Locale.ENGLISH).startsWith("feldera"))
+                return null;
+            DBSPType type = source.getOutputZSetElementType().to(DBSPTypeTuple.class).getFieldType(field);
+            if (type.code != DBSPTypeCode.STRING)
+                return null;
+            return new SourceColumn(source, field);
+        } else if (operator.is(DBSPFilterOperator.class)) {
+            return trace(operator.to(DBSPFilterOperator.class).input(), field);
+        } else if (operator.is(DBSPNoopOperator.class)) {
+            return trace(operator.to(DBSPNoopOperator.class).input(), field);
+        } else if (operator.is(DBSPMapOperator.class)) {
+            DBSPMapOperator map = operator.to(DBSPMapOperator.class);
+            DBSPClosureExpression closure = map.getClosureFunction();
+            DBSPBaseTupleExpression tuple = closure.body.as(DBSPBaseTupleExpression.class);
+            if (tuple == null || tuple.fields == null || closure.parameters.length != 1)
+                return null;
+            int inputField = parameterField(tuple.fields[field], closure.parameters[0]);
+            if (inputField < 0)
+                return null;
+            return trace(map.input(), inputField);
+        }
+        return null;
+    }
+
+    /** Given a stream that is the input of a join or aggregation, find for each key field
+     * the source column it comes from.  Returns null if the input is not an index
+     * computed by a {@link DBSPMapIndexOperator}. */
+    @Nullable
+    static List<SourceColumn> keyColumns(OutputPort port) {
+        if (!port.operator.is(DBSPMapIndexOperator.class))
+            return null;
+        DBSPMapIndexOperator index = port.operator.to(DBSPMapIndexOperator.class);
+        DBSPClosureExpression closure = index.getClosureFunction();
+        DBSPRawTupleExpression kv = closure.body.as(DBSPRawTupleExpression.class);
+        if (kv == null || kv.fields == null || closure.parameters.length != 1)
+            return null;
+        DBSPBaseTupleExpression key = kv.fields[0].as(DBSPBaseTupleExpression.class);
+        if (key == null || key.fields == null)
+            return null;
+        List<SourceColumn> result = new ArrayList<>();
+        for (DBSPExpression keyField: key.fields) {
+            int inputField = parameterField(keyField, closure.parameters[0]);
+            SourceColumn column = null;
+            if (inputField >= 0)
+                column = trace(index.input(), inputField);
+            result.add(column);
+        }
+        return result;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPNestedOperator operator) {
+        this.recursive = true;
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public void postorder(DBSPJoinBaseOperator operator) {
+        List<SourceColumn> left = keyColumns(operator.left());
+        List<SourceColumn> right = keyColumns(operator.right());
+        if (left == null || right == null || left.size() != right.size()) {
+            this.reject(left);
+            this.reject(right);
+            return;
+        }
+        for (int i = 0; i < left.size(); i++) {
+            // If only one side is interned the join has to unintern the keys,
+            // which is worse than not interning at all.
+            SourceColumn l = left.get(i);
+            SourceColumn r = right.get(i);
+            if (l == null || r == null) {
+                if (l != null)
+                    this.rejected.add(l);
+                if (r != null)
+                    this.rejected.add(r);
+                continue;
+            }
+            this.found.add(l);
+            this.found.add(r);
+            this.joined.add(new JoinedColumns(l, r));
+        }
+    }
+
+    void reject(@Nullable List<SourceColumn> columns) {
+        if (columns == null)
+            return;
+        for (SourceColumn column: columns) {
+            if (column != null)
+                this.rejected.add(column);
+        }
+    }
+
+    void aggregate(DBSPAggregateOperatorBase operator) {
+        List<SourceColumn> columns = keyColumns(operator.input());
+        if (columns == null)
+            return;
+        for (SourceColumn column: columns) {
+            if (column != null)
+                this.found.add(column);
+        }
+    }
+
+    @Override
+    public void postorder(DBSPStreamAggregateOperator operator) {
+        this.aggregate(operator);
+    }
+
+    @Override
+    public void postorder(DBSPAggregateOperator operator) {
+        this.aggregate(operator);
+    }
+
+    @Override
+    public void postorder(DBSPCircuit circuit) {
+        if (this.recursive)
+            return;
+        // A column compared by a join with a rejected column is rejected too
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (JoinedColumns pair: this.joined) {
+                if (this.rejected.contains(pair.left()))
+                    changed |= this.rejected.add(pair.right());
+                if (this.rejected.contains(pair.right()))
+                    changed |= this.rejected.add(pair.left());
+            }
+        }
+        for (SourceColumn column: this.found) {
+            if (this.rejected.contains(column))
+                continue;
+            Intern.InternedColumnList list = this.internedInputs.computeIfAbsent(
+                    column.source, k -> new Intern.InternedColumnList());
+            list.add(column.column);
+        }
+    }
+}
@@ -47,6 +47,8 @@ public class Intern extends Passes {
         super("Intern", compiler);
         this.internedInputs = new HashMap<>();
         this.add(new FindInternedInputs(compiler, this.internedInputs));
+        if (compiler.options.languageOptions.internKeys)
+            this.add(new FindInternedKeys(compiler, this.internedInputs));
         this.add(new RewriteInternedFields(compiler, this.internedInputs));
         this.add(new DeadCode(compiler, true));
     }
@@ -449,6 +449,12 @@ public class RewriteInternedFields extends CircuitCloneVisitor {
         this.uninternAllInputs(operator);
     }
 
+    @Override
+    public void postorder(DBSPJoinRangeOperator operator) {
+        // TODO: this can be optimized
+        this.uninternAllInputs(operator);
+    }
+
     @Override
     public void postorder(DBSPAggregateLinearPostprocessOperator operator) {
         OutputPort input = this.mapped(operator.input());
@@ -666,7 +666,9 @@ public class InsertLimiters extends CircuitCloneVisitor {
             return;
         }
 
-        this.createRetainKeys(aggregator.getRelNode(), source, projection, limiter);
+        if (!aggregator.appendOnly)
+            // The append-only implementation does not keep the integral of the input
+            this.createRetainKeys(aggregator.getRelNode(), source, projection, limiter);
         IMaybeMonotoneType projection2 = Monotonicity.getBodyType(Objects.requireNonNull(monotoneValue2));
         OutputPort aggLimiter = this.addBounds(aggregator, ae.replacement, 0);
         if (aggLimiter == null) {
@@ -1082,6 +1084,48 @@ public class InsertLimiters extends CircuitCloneVisitor {
         return this.createApply(source, null, tsFunction);
     }
 
+    /** Extract the waterline of the timestamp column of an input of an ASOF join.
+     *
+     * @param input    Input of the expanded join.
+     * @param tsIndex  Index of the timestamp column in the value part of the input.
+     * @param limiter  Limiter of the input.
+     * @return         The operator producing the waterline, or null if the input has none. */
+    @Nullable
+    OutputPort extractAsofTimestamp(OutputPort input, int tsIndex, @Nullable OutputPort limiter) {
+        if (limiter == null)
+            return null;
+        MonotoneExpression monotone = this.expansionMonotoneValues.get(input);
+        if (monotone == null)
+            return null;
+        PartiallyMonotoneTuple mono = Monotonicity.getBodyType(monotone).to(PartiallyMonotoneTuple.class);
+        // Extract the value part from the key-value tuple
+        IMaybeMonotoneType value = mono.getField(1);
+        if (!value.mayBeMonotone())
+            return null;
+        IMaybeMonotoneType ts = value.to(PartiallyMonotoneTuple.class).getField(tsIndex);
+        if (!ts.mayBeMonotone())
+            return null;
+        return this.extractTimestamp(mono, tsIndex, limiter);
+    }
+
+    /** Projection of an input of an ASOF join that only keeps the timestamp column. */
+    PartiallyMonotoneTuple asofDataProjection(DBSPTypeTuple keyType, DBSPTypeTupleBase valueType, int tsIndex) {
+        PartiallyMonotoneTuple keyPart = PartiallyMonotoneTuple.noMonotoneFields(keyType);
+        List<IMaybeMonotoneType> valueFields = new ArrayList<>();
+        for (int i = 0; i < valueType.size(); i++) {
+            DBSPType field = valueType.getFieldType(i);
+            IMaybeMonotoneType mono;
+            if (i == tsIndex) {
+                mono = new MonotoneType(field);
+            } else {
+                mono = NonMonotoneType.nonMonotone(field);
+            }
+            valueFields.add(mono);
+        }
+        PartiallyMonotoneTuple valuePart = new PartiallyMonotoneTuple(valueFields, false, false);
+        return new PartiallyMonotoneTuple(Linq.list(keyPart, valuePart), true, false);
+    }
+
     @Override
     public void postorder(DBSPAsofJoinOperator join) {
         OperatorDeltaExpansion expansion = this.expandedInto.get(join);
@@ -1096,103 +1140,148 @@ public class InsertLimiters extends CircuitCloneVisitor {
 
         OutputPort leftLimiter = this.bound.get(join.left());
         OutputPort rightLimiter = this.bound.get(join.right());
-        if (leftLimiter == null || rightLimiter == null) {
+        // Waterlines of the timestamp columns of the two inputs, when they exist
+        OutputPort extractRightTS = this.extractAsofTimestamp(expanded.right(), join.rightTimestampIndex, rightLimiter);
+        if (extractRightTS == null) {
             super.postorder(join);
             this.nonMonotone(join);
             return;
         }
+        OutputPort extractLeftTS = this.extractAsofTimestamp(expanded.left(), join.leftTimestampIndex, leftLimiter);
 
-        PartiallyMonotoneTuple leftMono = null;
-        MonotoneExpression lm = this.expansionMonotoneValues.get(expanded.left());
-        if (lm != null) {
-            leftMono = Monotonicity.getBodyType(lm).to(PartiallyMonotoneTuple.class);
-        }
-        PartiallyMonotoneTuple rightMono = null;
-        MonotoneExpression rm = this.expansionMonotoneValues.get(expanded.right());
-        if (rm != null) {
-            rightMono = Monotonicity.getBodyType(rm).to(PartiallyMonotoneTuple.class);
-        }
-
-        if (leftMono == null || rightMono == null) {
-            super.postorder(join);
-            this.nonMonotone(join);
-            return;
-        }
+        DBSPTypeTuple keyType = join.getKeyType().to(DBSPTypeTuple.class);
+        DBSPTypeTupleBase leftValueType = join.getLeftInputValueType().to(DBSPTypeTupleBase.class);
+        DBSPTypeTupleBase rightValueType = join.getRightInputValueType().to(DBSPTypeTupleBase.class);
+        PartiallyMonotoneTuple leftDataProjection = this.asofDataProjection(
+                keyType, leftValueType, join.leftTimestampIndex);
+        PartiallyMonotoneTuple rightDataProjection = this.asofDataProjection(
+                keyType, rightValueType, join.rightTimestampIndex);
 
-        // Extract the value part from the key-value tuple
-        IMaybeMonotoneType leftValue = leftMono.getField(1);
-        IMaybeMonotoneType rightValue = rightMono.getField(1);
-        if (!leftValue.mayBeMonotone() || !rightValue.mayBeMonotone()) {
-            super.postorder(join);
-            this.nonMonotone(join);
-            return;
-        }
+        if (INSERT_RETAIN_VALUES) {
+            // A left row with a timestamp below the right waterline is never affected
+            // by future right changes, so the left side only needs the right waterline.
+            DBSPVariablePath rightVar = this.getLimiterDataOutputType(extractRightTS).ref().var();
+            DBSPExpression rightValue = new DBSPTupleExpression(rightVar.deref().applyCloneIfNeeded());
+            OutputPort leftBound = this.createApply(extractRightTS, null, rightValue.closure(rightVar));
+            DBSPSimpleOperator retainLeft = DBSPIntegrateTraceRetainValuesOperator.create(
+                    join.getRelNode(), this.mapped(join.left()), leftDataProjection, this.createDelay(leftBound));
+            this.addOperator(retainLeft);
 
-        PartiallyMonotoneTuple leftValueTuple = leftValue.to(PartiallyMonotoneTuple.class);
-        PartiallyMonotoneTuple rightValueTuple = rightValue.to(PartiallyMonotoneTuple.class);
-        IMaybeMonotoneType leftTS = leftValueTuple.getField(join.leftTimestampIndex);
-        IMaybeMonotoneType rightTS = rightValueTuple.getField(join.rightTimestampIndex);
-        if (!leftTS.mayBeMonotone() || !rightTS.mayBeMonotone()) {
-            super.postorder(join);
-            this.nonMonotone(join);
-            return;
+            if (extractLeftTS != null) {
+                // Right rows may still be matched by future left rows (above the left waterline),
+                // or by existing left rows whose output is retracted (above the right waterline).
+                // Below the min of the two waterlines only the last right row for each key can match.
+                DBSPVariablePath leftVar = this.getLimiterDataOutputType(extractLeftTS).ref().var();
+                rightVar = this.getLimiterDataOutputType(extractRightTS).ref().var();
+                DBSPExpression minValue = new DBSPTupleExpression(this.min(leftVar.deref(), rightVar.deref()));
+                OutputPort minOperator = this.createApply2(
+                        extractLeftTS, extractRightTS, minValue.closure(leftVar, rightVar));
+                DBSPSimpleOperator retainRight = DBSPIntegrateTraceRetainNValuesOperator.create(
+                        join.getRelNode(), this.mapped(join.right()), rightDataProjection,
+                        this.createDelay(minOperator), 1, DBSPIntegrateTraceRetainNValuesOperator.WhichN.LastN);
+                this.addOperator(retainRight);
+            }
         }
 
-        // Extract the timestamps from the limiters
-        OutputPort extractLeftTS = this.extractTimestamp(leftMono, join.leftTimestampIndex, leftLimiter);
-        OutputPort extractRightTS = this.extractTimestamp(rightMono, join.rightTimestampIndex, rightLimiter);
+        super.postorder(join);
+    }
 
-        // Compute the min of the timestamps
-        DBSPVariablePath leftVar = this.getLimiterDataOutputType(extractLeftTS).ref().var();
-        DBSPVariablePath rightVar = this.getLimiterDataOutputType(extractRightTS).ref().var();
-        DBSPExpression minValue = new DBSPTupleExpression(this.min(leftVar.deref(), rightVar.deref()));
-        OutputPort minOperator = this.createApply2(extractLeftTS, extractRightTS, minValue.closure(leftVar, rightVar));
+    /** Extract the waterline of the range column of an input of a range join.
+     *
+     * @param input    Input of the expanded join.
+     * @param keyIndex Index of the range column in the key part of the input.
+     * @param limiter  Limiter of the input.
+     * @return         The operator producing the waterline, or null if the input has none. */
+    @Nullable
+    OutputPort extractRangeKey(OutputPort input, int keyIndex, @Nullable OutputPort limiter) {
+        if (limiter == null)
+            return null;
+        MonotoneExpression monotone = this.expansionMonotoneValues.get(input);
+        if (monotone == null)
+            return null;
+        PartiallyMonotoneTuple mono = Monotonicity.getBodyType(monotone).to(PartiallyMonotoneTuple.class);
+        PartiallyMonotoneTuple key = mono.getField(0).as(PartiallyMonotoneTuple.class);
+        if (key == null || !key.getField(keyIndex).mayBeMonotone())
+            return null;
+        // The key is always first in the limiter, if it has any monotone fields
+        int innerIndex = 0;
+        for (int i = 0; i < keyIndex; i++) {
+            if (key.getField(i).mayBeMonotone())
+                innerIndex++;
+        }
 
-        DBSPTypeTuple keyType = join.getKeyType().to(DBSPTypeTuple.class);
-        PartiallyMonotoneTuple keyPart = PartiallyMonotoneTuple.noMonotoneFields(keyType);
+        DBSPVariablePath var = this.getLimiterDataOutputType(limiter).ref().var();
+        DBSPClosureExpression function = var
+                .deref()
+                .field(0)
+                .field(innerIndex)
+                .applyCloneIfNeeded()
+                .closure(var);
+        return this.createApply(limiter, null, function);
+    }
 
-        DBSPTypeTupleBase leftValueType = join.getLeftInputValueType().to(DBSPTypeTupleBase.class);
-        List<IMaybeMonotoneType> leftValueFields = new ArrayList<>();
-        for (int i = 0; i < leftValueType.size(); i++) {
-            DBSPType field = leftValueType.getFieldType(i);
+    /** Projection of an input of a range join that only keeps the range column of the key. */
+    PartiallyMonotoneTuple rangeDataProjection(DBSPTypeTuple keyType, DBSPTypeTupleBase valueType) {
+        List<IMaybeMonotoneType> keyFields = new ArrayList<>();
+        for (int i = 0; i < keyType.size(); i++) {
+            DBSPType field = keyType.getFieldType(i);
             IMaybeMonotoneType mono;
-            if (i == join.leftTimestampIndex) {
+            if (i == keyType.size() - 1) {
                 mono = new MonotoneType(field);
             } else {
                 mono = NonMonotoneType.nonMonotone(field);
             }
-            leftValueFields.add(mono);
+            keyFields.add(mono);
         }
-        PartiallyMonotoneTuple leftValuePart = new PartiallyMonotoneTuple(leftValueFields, false, false);
-        PartiallyMonotoneTuple leftDataProjection = new PartiallyMonotoneTuple(
-                Linq.list(keyPart, leftValuePart), true, false);
+        PartiallyMonotoneTuple keyPart = new PartiallyMonotoneTuple(keyFields, false, false);
+        PartiallyMonotoneTuple valuePart = PartiallyMonotoneTuple.noMonotoneFields(valueType);
+        return new PartiallyMonotoneTuple(Linq.list(keyPart, valuePart), true, false);
+    }
 
-        DBSPTypeTupleBase rightValueType = join.getRightInputValueType().to(DBSPTypeTupleBase.class);
-        List<IMaybeMonotoneType> rightValueFields = new ArrayList<>();
-        for (int i = 0; i < rightValueType.size(); i++) {
-            DBSPType field = rightValueType.getFieldType(i);
-            IMaybeMonotoneType mono;
-            if (i == join.rightTimestampIndex) {
-                mono = new MonotoneType(field);
-            } else {
-                mono = NonMonotoneType.nonMonotone(field);
-            }
-            rightValueFields.add(mono);
-        }
-        PartiallyMonotoneTuple rightValuePart = new PartiallyMonotoneTuple(rightValueFields, false, false);
-        PartiallyMonotoneTuple rightDataProjection = new PartiallyMonotoneTuple(
-                Linq.list(keyPart, rightValuePart), true, false);
+    /** Given the waterline of the range column of one input of a range join, create
+     * the lower bound of the range column for the rows of the other input that
+     * can still be matched.
+     *
+     * @param waterline Waterline of the range column.
+     * @param range     Range function mapping a value of the range column to the matching range. */
+    OutputPort rangeLowerBound(OutputPort waterline, DBSPClosureExpression range) {
+        DBSPVariablePath var = this.getLimiterDataOutputType(waterline).ref().var();
+        DBSPExpression lower = range.call(var).field(0).reduce(this.compiler);
+        DBSPExpression bound = new DBSPRawTupleExpression(new DBSPTupleExpression(lower));
+        return this.createApply(waterline, null, bound.closure(var));
+    }
 
+    @Override
+    public void postorder(DBSPJoinRangeOperator join) {
+        OperatorDeltaExpansion expansion = this.expandedInto.get(join);
+        if (expansion == null) {
+            super.postorder(join);
+            this.nonMonotone(join);
+            return;
+        }
+        ReplacementDeltaExpansion repl = expansion.to(ReplacementDeltaExpansion.class);
+        DBSPJoinRangeOperator expanded = repl.replacement.to(DBSPJoinRangeOperator.class);
+        this.processJoin(expanded);
 
-        if (INSERT_RETAIN_VALUES) {
-            DBSPSimpleOperator retainLeft = DBSPIntegrateTraceRetainValuesOperator.create(
-                    join.getRelNode(), this.mapped(join.left()), leftDataProjection, this.createDelay(minOperator));
-            this.addOperator(retainLeft);
+        int keyIndex = join.getRangeKeyIndex();
+        // Waterlines of the range columns of the two inputs, when they exist
+        OutputPort extractLeft = this.extractRangeKey(expanded.left(), keyIndex, this.bound.get(join.left()));
+        OutputPort extractRight = this.extractRangeKey(expanded.right(), keyIndex, this.bound.get(join.right()));
 
-            DBSPSimpleOperator retainRight = DBSPIntegrateTraceRetainNValuesOperator.create(
-                    join.getRelNode(), this.mapped(join.right()), rightDataProjection, this.createDelay(minOperator),
-                    1, DBSPIntegrateTraceRetainNValuesOperator.WhichN.LastN);
-            this.addOperator(retainRight);
+        DBSPTypeTuple keyType = join.getKeyType().to(DBSPTypeTuple.class);
+        if (extractRight != null) {
+            // Future right rows are above the right waterline, so they can
+            // only match left rows above the start of the matching range.
+            OutputPort leftBound = this.rangeLowerBound(extractRight, join.inverseRangeFunction);
+            PartiallyMonotoneTuple leftProjection = this.rangeDataProjection(
+                    keyType, join.getLeftInputValueType().to(DBSPTypeTupleBase.class));
+            this.createRetainKeys(join.getRelNode(), this.mapped(join.left()), leftProjection, leftBound);
+        }
+        if (extractLeft != null) {
+            OutputPort rightBound = this.rangeLowerBound(extractLeft, join.rangeFunction);
+            PartiallyMonotoneTuple rightProjection = this.rangeDataProjection(
+                    keyType, join.getRightInputValueType().to(DBSPTypeTupleBase.class));
+            this.createRetainKeys(join.getRelNode(), this.mapped(join.right()), rightProjection, rightBound);
         }
 
         super.postorder(join);
@@ -13,6 +13,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPHopOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
@@ -449,6 +450,11 @@ public class Monotonicity extends CircuitVisitor {
         this.processJoinBase(node);
     }
 
+    @Override
+    public void postorder(DBSPJoinRangeOperator node) {
+        this.processJoinBase(node);
+    }
+
     @Override
     public void postorder(DBSPAntiJoinOperator node) {
         // Preserve monotonicity of left input
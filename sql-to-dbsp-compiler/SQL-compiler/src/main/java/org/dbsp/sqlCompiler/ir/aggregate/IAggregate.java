@@ -49,4 +49,8 @@ public abstract class IAggregate extends DBSPExpression implements IDBSPInnerNod
      * @param other   Aggregate to check compatibility with.
      * @param appendOnly  True if the source of the aggregates is append-only. */
     public abstract boolean compatible(IAggregate other, boolean appendOnly);
+
+    /** True if the aggregate can be computed from its previous value and the new rows
+     * when the input is append-only, i.e., as a {@code DBSPChainAggregateOperator}. */
+    public abstract boolean canBeChained();
 }
@@ -131,7 +131,12 @@ public class LinearAggregate extends IAggregate {
 
     @Override
     public boolean compatible(IAggregate other, boolean appendOnly) {
-        return other.is(LinearAggregate.class) || (appendOnly && other.is(MinMaxAggregate.class));
+        return other.is(LinearAggregate.class) || (appendOnly && other.canBeChained());
+    }
+
+    @Override
+    public boolean canBeChained() {
+        return true;
     }
 
     @Override
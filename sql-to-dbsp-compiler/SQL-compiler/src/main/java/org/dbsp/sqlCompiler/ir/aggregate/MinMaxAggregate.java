@@ -69,7 +69,12 @@ public class MinMaxAggregate extends NonLinearAggregate {
 
     @Override
     public boolean compatible(IAggregate other, boolean appendOnly) {
-        return appendOnly && (other.is(MinMaxAggregate.class) || other.is(LinearAggregate.class));
+        return appendOnly && other.canBeChained();
+    }
+
+    @Override
+    public boolean canBeChained() {
+        return true;
     }
 
     @Override
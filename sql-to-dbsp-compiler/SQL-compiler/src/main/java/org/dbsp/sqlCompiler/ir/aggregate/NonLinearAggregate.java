@@ -13,6 +13,7 @@ import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
 import org.dbsp.sqlCompiler.ir.expression.DBSPAssignmentExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPConditionalIncrementExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
@@ -95,10 +96,28 @@ public class NonLinearAggregate extends IAggregate {
 
     @Override
     public boolean compatible(IAggregate other, boolean appendOnly) {
+        if (appendOnly)
+            return this.canBeChained() == other.canBeChained() &&
+                    (this.canBeChained() || other.is(NonLinearAggregate.class));
         return other.is(NonLinearAggregate.class) &&
                 !other.is(MinMaxAggregate.class);
     }
 
+    /** True if the increment only combines the accumulator with the current row
+     * using an operation that is associative and commutative, and which handles weights,
+     * such as BIT_AND, BIT_OR, BIT_XOR, or MIN and MAX with a FILTER. */
+    @Override
+    public boolean canBeChained() {
+        if (!this.increment.body.is(DBSPConditionalIncrementExpression.class))
+            return false;
+        DBSPConditionalIncrementExpression increment =
+                this.increment.body.to(DBSPConditionalIncrementExpression.class);
+        return switch (increment.opcode) {
+            case AGG_AND, AGG_OR, AGG_XOR, AGG_MIN, AGG_MAX, AGG_MIN1, AGG_MAX1 -> true;
+            default -> false;
+        };
+    }
+
     @Override
     public List<DBSPParameter> getRowVariableReferences() {
         return Linq.list(this.increment.parameters[1]);
@@ -34,6 +34,10 @@ public enum DBSPOpcode {
     // DIV_NULL is like DIV, but returns NULL for a 0 denominator
     DIV_NULL("div_null", false),
     MOD("%", false),
+    // Integer operations which are known not to overflow, and thus need no overflow checks
+    ADD_UNCHECKED("plus_unchecked", false),
+    SUB_UNCHECKED("minus_unchecked", false),
+    MUL_UNCHECKED("times_unchecked", false),
     EQ("==", false),
     NEQ("!=", false),
     LT("<", false),
@@ -135,7 +139,7 @@ public enum DBSPOpcode {
                  SHORT_INTERVAL_TO_INTEGER, INTEGER_TO_SHORT_INTERVAL,
                  RUST_INDEX, VARIANT_INDEX, MAP_INDEX,
                  SQL_INDEX, XOR, BW_OR, MUL_WEIGHT, BW_AND, GTE, LTE, GT, LT, NEQ, EQ, MOD, DIV_NULL, DIV, MUL, SUB,
-                 ADD, TYPEDBOX, IS_TRUE, IS_FALSE, NOT, UNARY_PLUS -> true;
+                 ADD, ADD_UNCHECKED, SUB_UNCHECKED, MUL_UNCHECKED, TYPEDBOX, IS_TRUE, IS_FALSE, NOT, UNARY_PLUS -> true;
             default -> throw new UnimplementedException();
         };
     }
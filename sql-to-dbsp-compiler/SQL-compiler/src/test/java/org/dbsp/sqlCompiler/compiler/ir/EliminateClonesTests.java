@@ -0,0 +1,76 @@
+package org.dbsp.sqlCompiler.compiler.ir;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.EliminateClones;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/** Tests for the EliminateClones visitor */
+public class EliminateClonesTests {
+    static int countClones(DBSPCompiler compiler, IDBSPInnerNode node) {
+        int[] count = new int[1];
+        InnerVisitor visitor = new InnerVisitor(compiler) {
+            @Override
+            public void postorder(DBSPCloneExpression expression) {
+                count[0]++;
+            }
+        };
+        visitor.apply(node);
+        return count[0];
+    }
+
+    @Test
+    public void eliminateClones() {
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        DBSPType i32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, true);
+        DBSPType pair = new DBSPTypeTuple(i32, i32);
+        DBSPVariablePath x = pair.ref().var();
+
+        // |x: &Tup2<i32?, i32?>| {
+        //    let a = f(x.0.clone());
+        //    let b = f(x.1.clone());
+        //    Tup3::new(a.clone(), b.clone(), b.clone())
+        // }
+        DBSPLetStatement a = new DBSPLetStatement("a",
+                new DBSPApplyExpression("f", i32, x.deref().field(0).applyClone()));
+        DBSPLetStatement b = new DBSPLetStatement("b",
+                new DBSPApplyExpression("f", i32, x.deref().field(1).applyClone()));
+        DBSPClosureExpression closure = new DBSPBlockExpression(List.of(a, b),
+                new DBSPTupleExpression(
+                        a.getVarReference().applyClone(),
+                        b.getVarReference().applyClone(),
+                        b.getVarReference().applyClone())).closure(x);
+        Assert.assertEquals(5, countClones(compiler, closure));
+
+        EliminateClones eliminate = new EliminateClones(compiler);
+        IDBSPInnerNode result = eliminate.apply(closure);
+        // The clones of the fields of the borrowed parameter are needed.
+        // b is used twice, so both its clones are needed.
+        Assert.assertEquals(4, countClones(compiler, result));
+
+        // |x: &Tup2<i32?, i32?>| { let a = f(x.0.clone()); |y: &i32?| a.clone() }
+        // A use in an inner closure may be evaluated many times.
+        DBSPVariablePath y = i32.ref().var();
+        DBSPClosureExpression nested = new DBSPBlockExpression(List.of(a),
+                a.getVarReference().applyClone().closure(y)).closure(x);
+        result = eliminate.apply(nested);
+        Assert.assertEquals(2, countClones(compiler, result));
+    }
+}
@@ -13,13 +13,16 @@ import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.ResolveReferences;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.ValueNumbering;
 import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPLazyExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPLetExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPReturnExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
@@ -177,6 +180,67 @@ public class EquivalenceTests {
         visitor.apply(translated);
     }
 
+    @Test
+    public void testChainCSE() {
+        // Shape of a Filter/Filter/Map chain collapsed into a single closure:
+        // |x| { if !(f(x.0) >= 1) { return None; }
+        //       if !(h(x.1) >= 1) { return None; }
+        //       Some(Tup2::new(f(x.0), h(x.1))) }
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        DBSPType i = new DBSPTypeInteger(CalciteObject.EMPTY, 32, true, true);
+        DBSPType b = DBSPTypeBool.create(true);
+        DBSPTypeTuple tuple = new DBSPTypeTuple(i, i);
+        DBSPVariablePath var = tuple.ref().var();
+        DBSPExpression none = tuple.withMayBeNull(true).none();
+
+        DBSPExpression[] filters = new DBSPExpression[2];
+        DBSPExpression[] fields = new DBSPExpression[2];
+        String[] functions = new String[] { "f", "h" };
+        for (int index = 0; index < 2; index++) {
+            DBSPExpression call = new DBSPApplyExpression(functions[index], i, var.deref().field(index));
+            DBSPExpression cond = new DBSPBinaryExpression(
+                    CalciteObject.EMPTY, b, DBSPOpcode.GTE, call, new DBSPI32Literal(1))
+                    .wrapBoolIfNeeded();
+            filters[index] = new DBSPIfExpression(CalciteObject.EMPTY, cond.not(),
+                    new DBSPReturnExpression(CalciteObject.EMPTY, none), null);
+            fields[index] = new DBSPApplyExpression(functions[index], i, var.deref().field(index));
+        }
+        DBSPExpression body = new DBSPBlockExpression(
+                Linq.list(filters[0].toStatement(), filters[1].toStatement()),
+                new DBSPTupleExpression(fields).some());
+        DBSPClosureExpression closure = body.closure(var.asParameter());
+
+        DBSPOperator fake = new DBSPConstantOperator(
+                CalciteEmptyRel.INSTANCE, new DBSPZSetExpression(new DBSPBoolLiteral()), false);
+        ValueNumbering numbering = new ValueNumbering(compiler);
+        numbering.setOperatorContext(fake);
+        numbering.apply(closure);
+        ExpressionsCSE cse = new ExpressionsCSE(compiler, numbering.canonical);
+        cse.setOperatorContext(fake);
+        cse.apply(closure);
+        IDBSPInnerNode translated = cse.get(closure);
+
+        InnerVisitor visitor = new InnerVisitor(compiler) {
+            int vars = 0;
+            int lazy = 0;
+
+            public void postorder(DBSPLetExpression expression) {
+                this.vars++;
+                if (expression.initializer.is(DBSPLazyExpression.class))
+                    this.lazy++;
+            }
+
+            @Override
+            public void endVisit() {
+                // f(x.0) is always computed by the first filter, so it is computed eagerly.
+                // h(x.1) is not computed if the first filter fails.
+                Assert.assertEquals(2, this.vars);
+                Assert.assertEquals(1, this.lazy);
+            }
+        };
+        visitor.apply(translated);
+    }
+
     @Test
     public void testEquiv() {
         DBSPLiteral zero0 = new DBSPI32Literal(0);
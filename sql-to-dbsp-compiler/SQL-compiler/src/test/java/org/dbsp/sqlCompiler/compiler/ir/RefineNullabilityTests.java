@@ -0,0 +1,61 @@
+package org.dbsp.sqlCompiler.compiler.ir;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.RefineNullability;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+/** Tests for the RefineNullability visitor */
+public class RefineNullabilityTests {
+    @Test
+    public void refineNullability() {
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        DBSPType ni32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, true);
+        DBSPType nbool = DBSPTypeBool.create(true);
+        DBSPTypeTuple tuple = new DBSPTypeTuple(ni32, ni32, ni32);
+
+        // |x| !x.0.is_null() && wrap_bool(x.1 > 2)
+        DBSPVariablePath x = tuple.ref().var();
+        DBSPExpression gt = new DBSPBinaryExpression(CalciteObject.EMPTY, nbool, DBSPOpcode.GT,
+                x.deref().field(1), new DBSPI32Literal(2));
+        DBSPExpression predicate = new DBSPBinaryExpression(CalciteObject.EMPTY, DBSPTypeBool.create(false),
+                DBSPOpcode.AND, x.deref().field(0).is_null().not(), gt.wrapBoolIfNeeded());
+        Set<Integer> nonNull = RefineNullability.nonNullFields(predicate.closure(x));
+        Assert.assertEquals(Set.of(0, 1), nonNull);
+
+        // |y| Tup2(y.0 + y.1, y.0 + y.2)
+        DBSPVariablePath y = tuple.ref().var();
+        DBSPClosureExpression map = new DBSPTupleExpression(
+                new DBSPBinaryExpression(CalciteObject.EMPTY, ni32, DBSPOpcode.ADD,
+                        y.deref().field(0), y.deref().field(1)),
+                new DBSPBinaryExpression(CalciteObject.EMPTY, ni32, DBSPOpcode.ADD,
+                        y.deref().field(0), y.deref().field(2))).closure(y);
+        DBSPClosureExpression refined = RefineNullability.refine(compiler, map, nonNull);
+        Assert.assertTrue(refined.getResultType().sameType(map.getResultType()));
+        DBSPTupleExpression body = refined.body.to(DBSPTupleExpression.class);
+        // The first addition has non-null operands, and is wrapped in Some
+        Assert.assertTrue(body.get(0).is(DBSPSomeExpression.class));
+        DBSPBinaryExpression first = body.get(0).to(DBSPSomeExpression.class).expression.to(DBSPBinaryExpression.class);
+        Assert.assertFalse(first.getType().mayBeNull);
+        // The second addition keeps its nullable type
+        Assert.assertTrue(body.get(1).is(DBSPBinaryExpression.class));
+        Assert.assertTrue(body.get(1).getType().mayBeNull);
+    }
+}
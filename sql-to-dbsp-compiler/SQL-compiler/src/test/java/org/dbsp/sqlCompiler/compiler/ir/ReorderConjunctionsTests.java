@@ -0,0 +1,72 @@
+package org.dbsp.sqlCompiler.compiler.ir;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.ReorderConjunctions;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for the ReorderConjunctions visitor */
+public class ReorderConjunctionsTests {
+    static DBSPExpression and(DBSPExpression left, DBSPExpression right) {
+        return new DBSPBinaryExpression(CalciteObject.EMPTY, DBSPTypeBool.create(false),
+                DBSPOpcode.AND, left, right);
+    }
+
+    static void terms(DBSPExpression expression, List<DBSPExpression> terms) {
+        DBSPBinaryExpression binary = expression.as(DBSPBinaryExpression.class);
+        if (binary != null && binary.opcode == DBSPOpcode.AND) {
+            terms(binary.left, terms);
+            terms(binary.right, terms);
+        } else {
+            terms.add(expression);
+        }
+    }
+
+    @Test
+    public void reorderConjunctions() {
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        DBSPType i32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, false);
+        DBSPType bool = DBSPTypeBool.create(false);
+        DBSPVariablePath x = new DBSPTypeTuple(i32, i32).ref().var();
+
+        // |x| f(x.0) && (10 / x.1 > 2) && x.1 != 0 && x.0 > 1
+        DBSPExpression call = new DBSPApplyExpression("f", bool, x.deref().field(0));
+        DBSPExpression div = new DBSPBinaryExpression(CalciteObject.EMPTY, bool, DBSPOpcode.GT,
+                new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.DIV,
+                        new DBSPI32Literal(10), x.deref().field(1)),
+                new DBSPI32Literal(2));
+        DBSPExpression neq = new DBSPBinaryExpression(CalciteObject.EMPTY, bool, DBSPOpcode.NEQ,
+                x.deref().field(1), new DBSPI32Literal(0));
+        DBSPExpression gt = new DBSPBinaryExpression(CalciteObject.EMPTY, bool, DBSPOpcode.GT,
+                x.deref().field(0), new DBSPI32Literal(1));
+        DBSPClosureExpression closure = and(and(and(call, div), neq), gt).closure(x);
+
+        ReorderConjunctions reorder = new ReorderConjunctions(compiler);
+        DBSPClosureExpression result = reorder.apply(closure).to(DBSPClosureExpression.class);
+        List<DBSPExpression> terms = new ArrayList<>();
+        terms(result.body, terms);
+        Assert.assertEquals(4, terms.size());
+        // The cheap comparisons move first, the other terms keep their order
+        Assert.assertEquals(neq.toString(), terms.get(0).toString());
+        Assert.assertEquals(gt.toString(), terms.get(1).toString());
+        Assert.assertEquals(call.toString(), terms.get(2).toString());
+        Assert.assertEquals(div.toString(), terms.get(3).toString());
+    }
+}
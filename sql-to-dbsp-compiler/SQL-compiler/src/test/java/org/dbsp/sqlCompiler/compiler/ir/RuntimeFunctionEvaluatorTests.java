@@ -0,0 +1,95 @@
+package org.dbsp.sqlCompiler.compiler.ir;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPDateLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLongIntervalLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPStringLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPTimestampLiteral;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeDate;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeLongInterval;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeString;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeTimestamp;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the evaluation of runtime functions with constant arguments */
+public class RuntimeFunctionEvaluatorTests {
+    static DBSPExpression simplify(DBSPExpression expression) {
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        Simplify simplify = new Simplify(compiler);
+        return simplify.apply(expression).to(DBSPExpression.class);
+    }
+
+    static void folds(DBSPExpression expression, DBSPLiteral expected) {
+        DBSPExpression result = simplify(expression);
+        Assert.assertTrue(result.is(DBSPLiteral.class));
+        Assert.assertTrue(expected.sameValue(result.to(DBSPLiteral.class)));
+    }
+
+    @Test
+    public void stringFunctions() {
+        DBSPType string = DBSPTypeString.varchar(false);
+        DBSPType i32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, false);
+        DBSPExpression abc = new DBSPStringLiteral("aBc");
+
+        folds(new DBSPApplyExpression("lower_", string, abc), new DBSPStringLiteral("abc"));
+        folds(new DBSPApplyExpression("upper_", string, abc), new DBSPStringLiteral("ABC"));
+        folds(new DBSPApplyExpression("char_length_", i32, new DBSPStringLiteral("añb")), new DBSPI32Literal(3));
+        folds(new DBSPApplyExpression("substring3___", string, abc, new DBSPI32Literal(0), new DBSPI32Literal(2)),
+                new DBSPStringLiteral("a"));
+        folds(new DBSPApplyExpression("substring2__", string, abc, new DBSPI32Literal(2)),
+                new DBSPStringLiteral("Bc"));
+        folds(new DBSPApplyExpression("position__", i32, new DBSPStringLiteral("c"), abc), new DBSPI32Literal(3));
+        folds(new DBSPApplyExpression("trim_both_s_s", string, new DBSPStringLiteral("ac"), abc),
+                new DBSPStringLiteral("B"));
+        folds(new DBSPApplyExpression("right_s_i32", string, abc, new DBSPI32Literal(5)), abc.to(DBSPLiteral.class));
+        folds(new DBSPBinaryExpression(CalciteObject.EMPTY, string, DBSPOpcode.CONCAT, abc, abc),
+                new DBSPStringLiteral("aBcaBc"));
+
+        // Non-ASCII case conversions are left to the runtime
+        DBSPExpression lower = new DBSPApplyExpression("lower_", string, new DBSPStringLiteral("Ñ"));
+        Assert.assertFalse(simplify(lower).is(DBSPLiteral.class));
+        // Large results are left to the runtime
+        DBSPExpression repeat = new DBSPApplyExpression("repeat__", string,
+                new DBSPStringLiteral("x"), new DBSPI32Literal(2000000000));
+        Assert.assertFalse(simplify(repeat).is(DBSPLiteral.class));
+        // Unknown functions are not evaluated
+        DBSPExpression unknown = new DBSPApplyExpression("f", string, abc);
+        Assert.assertFalse(simplify(unknown).is(DBSPLiteral.class));
+    }
+
+    @Test
+    public void dateFunctions() {
+        DBSPType date = DBSPTypeDate.create(false);
+        DBSPType timestamp = DBSPTypeTimestamp.create(false);
+        DBSPExpression day = new DBSPDateLiteral("2024-05-17");
+        DBSPExpression ts = new DBSPTimestampLiteral("2024-05-17 10:20:30", false);
+
+        folds(new DBSPApplyExpression("date_trunc_month_Date", date, day), new DBSPDateLiteral("2024-05-01"));
+        folds(new DBSPApplyExpression("date_trunc_quarter_Date", date, day), new DBSPDateLiteral("2024-04-01"));
+        // 2024-05-17 is a Friday
+        folds(new DBSPApplyExpression("date_trunc_week_Date", date, day), new DBSPDateLiteral("2024-05-12"));
+        folds(new DBSPApplyExpression("date_trunc_century_Date", date, day), new DBSPDateLiteral("2001-01-01"));
+        folds(new DBSPApplyExpression("date_trunc_day_Timestamp", timestamp, ts),
+                new DBSPTimestampLiteral("2024-05-17 00:00:00", false));
+
+        DBSPType months = new DBSPTypeLongInterval(CalciteObject.EMPTY, DBSPTypeLongInterval.Units.MONTHS, false);
+        DBSPExpression month = new DBSPLongIntervalLiteral(CalciteObject.EMPTY, months, 1);
+        folds(new DBSPBinaryExpression(CalciteObject.EMPTY, date, DBSPOpcode.ADD,
+                new DBSPDateLiteral("2024-01-31"), month), new DBSPDateLiteral("2024-02-29"));
+        folds(new DBSPBinaryExpression(CalciteObject.EMPTY, timestamp, DBSPOpcode.SUB, ts, month),
+                new DBSPTimestampLiteral("2024-04-17 10:20:30", false));
+    }
+}
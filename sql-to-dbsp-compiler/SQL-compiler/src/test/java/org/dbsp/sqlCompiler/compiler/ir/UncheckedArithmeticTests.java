@@ -0,0 +1,68 @@
+package org.dbsp.sqlCompiler.compiler.ir;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.UncheckedArithmetic;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the UncheckedArithmetic visitor */
+public class UncheckedArithmeticTests {
+    static DBSPOpcode rewrite(DBSPExpression expression) {
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        UncheckedArithmetic unchecked = new UncheckedArithmetic(compiler);
+        return unchecked.apply(expression).to(DBSPBinaryExpression.class).opcode;
+    }
+
+    @Test
+    public void uncheckedArithmetic() {
+        DBSPType i16 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT16, false);
+        DBSPType i32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, false);
+        DBSPVariablePath x = new DBSPTypeTuple(i16, i16, i32).ref().var();
+        DBSPExpression s0 = x.deref().field(0).cast(CalciteObject.EMPTY, i32, DBSPCastExpression.CastType.SqlUnsafe);
+        DBSPExpression s1 = x.deref().field(1).cast(CalciteObject.EMPTY, i32, DBSPCastExpression.CastType.SqlUnsafe);
+        DBSPExpression i = x.deref().field(2);
+
+        // (i32)x.0 + (i32)x.1 cannot overflow
+        DBSPExpression add = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.ADD, s0, s1);
+        Assert.assertEquals(DBSPOpcode.ADD_UNCHECKED, rewrite(add));
+        // (i32)x.0 * (i32)x.1 cannot overflow
+        DBSPExpression mul = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.MUL, s0, s1);
+        Assert.assertEquals(DBSPOpcode.MUL_UNCHECKED, rewrite(mul));
+        // (x.2 % 1000) - 1 cannot overflow
+        DBSPExpression mod = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.MOD, i, new DBSPI32Literal(1000));
+        DBSPExpression sub = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.SUB, mod, new DBSPI32Literal(1));
+        Assert.assertEquals(DBSPOpcode.SUB_UNCHECKED, rewrite(sub));
+        // x.2 + 1 may overflow
+        DBSPExpression inc = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.ADD, i, new DBSPI32Literal(1));
+        Assert.assertEquals(DBSPOpcode.ADD, rewrite(inc));
+        // ((i32)x.0 * (i32)x.1) * (i32)x.0 may overflow
+        DBSPExpression mul3 = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.MUL, mul, s0);
+        Assert.assertEquals(DBSPOpcode.MUL, rewrite(mul3));
+
+        // A checked cast of x.0 to u16 produces values in [0, 32767], and the product fits in i32
+        DBSPType u16 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.UINT16, false);
+        DBSPExpression c0 = x.deref().field(0)
+                .cast(CalciteObject.EMPTY, u16, DBSPCastExpression.CastType.SqlUnsafe)
+                .cast(CalciteObject.EMPTY, i32, DBSPCastExpression.CastType.SqlUnsafe);
+        DBSPExpression checked = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.MUL, c0, c0);
+        Assert.assertEquals(DBSPOpcode.MUL_UNCHECKED, rewrite(checked));
+        // A Rust cast of x.0 to u16 may wrap, producing values in [0, 65535]
+        DBSPExpression w0 = x.deref().field(0)
+                .cast(CalciteObject.EMPTY, u16, DBSPCastExpression.CastType.RustCast)
+                .cast(CalciteObject.EMPTY, i32, DBSPCastExpression.CastType.RustCast);
+        DBSPExpression wrapping = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.MUL, w0, w0);
+        Assert.assertEquals(DBSPOpcode.MUL, rewrite(wrapping));
+    }
+}
@@ -0,0 +1,90 @@
+package org.dbsp.sqlCompiler.compiler.ir;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Vectorizable;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeDouble;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+/** Tests for the Vectorizable visitor */
+public class VectorizableTests {
+    @Test
+    public void vectorizable() {
+        DBSPCompiler compiler = new DBSPCompiler(new CompilerOptions());
+        DBSPType i32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, false);
+        DBSPType ni32 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, true);
+        DBSPType bool = DBSPTypeBool.create(false);
+        DBSPVariablePath x = new DBSPTypeTuple(i32, i32, ni32, i32).ref().var();
+        DBSPParameter row = x.asParameter();
+
+        // x.0 + x.3 * 2 > x.1
+        DBSPExpression arithmetic = new DBSPBinaryExpression(CalciteObject.EMPTY, bool, DBSPOpcode.GT,
+                new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.ADD,
+                        x.deref().field(0),
+                        new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.MUL,
+                                x.deref().field(3), new DBSPI32Literal(2))),
+                x.deref().field(1));
+        Set<Integer> columns = Vectorizable.getColumns(compiler, row, arithmetic);
+        Assert.assertNotNull(columns);
+        Assert.assertEquals(Set.of(0, 1, 3), columns);
+
+        DBSPExpression replaced = Vectorizable.replaceColumns(compiler, row, arithmetic);
+        String text = replaced.toString();
+        Assert.assertTrue(text.contains("x_0"));
+        Assert.assertTrue(text.contains("x_1"));
+        Assert.assertTrue(text.contains("x_3"));
+        Assert.assertFalse(text.contains(x.variable));
+
+        // Nullable columns are not supported
+        DBSPExpression nullable = new DBSPBinaryExpression(CalciteObject.EMPTY, ni32, DBSPOpcode.ADD,
+                x.deref().field(2), x.deref().field(2));
+        Assert.assertNull(Vectorizable.getColumns(compiler, row, nullable));
+
+        // Function calls are not supported
+        DBSPExpression call = new DBSPApplyExpression("f", i32, x.deref().field(0));
+        Assert.assertNull(Vectorizable.getColumns(compiler, row, call));
+
+        // Division may fail
+        DBSPExpression div = new DBSPBinaryExpression(CalciteObject.EMPTY, i32, DBSPOpcode.DIV,
+                x.deref().field(0), x.deref().field(1));
+        Assert.assertNull(Vectorizable.getColumns(compiler, row, div));
+
+        // Widening casts are supported
+        DBSPType i64 = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT64, false);
+        DBSPType f64 = DBSPTypeDouble.create(false);
+        DBSPExpression widen = new DBSPCastExpression(
+                CalciteObject.EMPTY, x.deref().field(0), i64, DBSPCastExpression.CastType.SqlUnsafe);
+        Assert.assertEquals(Set.of(0), Vectorizable.getColumns(compiler, row, widen));
+        DBSPExpression toDouble = new DBSPCastExpression(
+                CalciteObject.EMPTY, x.deref().field(0), f64, DBSPCastExpression.CastType.SqlUnsafe);
+        Assert.assertEquals(Set.of(0), Vectorizable.getColumns(compiler, row, toDouble));
+
+        // Narrowing casts may fail or lose precision
+        DBSPExpression narrow = new DBSPCastExpression(CalciteObject.EMPTY, widen, i32,
+                DBSPCastExpression.CastType.SqlUnsafe);
+        Assert.assertNull(Vectorizable.getColumns(compiler, row, narrow));
+        DBSPExpression lossy = new DBSPCastExpression(CalciteObject.EMPTY, widen, f64,
+                DBSPCastExpression.CastType.SqlUnsafe);
+        Assert.assertNull(Vectorizable.getColumns(compiler, row, lossy));
+        DBSPExpression toBool = new DBSPCastExpression(CalciteObject.EMPTY, x.deref().field(0), bool,
+                DBSPCastExpression.CastType.SqlUnsafe);
+        Assert.assertNull(Vectorizable.getColumns(compiler, row, toBool));
+    }
+}
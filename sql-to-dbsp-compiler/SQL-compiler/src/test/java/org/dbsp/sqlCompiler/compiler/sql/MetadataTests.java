@@ -1250,6 +1250,9 @@ public class MetadataTests extends BaseSQLTests {
                     --ignoreOrder
                       Ignore ORDER BY clauses at the end
                       Default: false
+                    --internKeys
+                      Intern string columns used as join or GROUP BY keys
+                      Default: false
                     --je, -je
                       Emit error messages as a JSON array to the error output
                       Default: false
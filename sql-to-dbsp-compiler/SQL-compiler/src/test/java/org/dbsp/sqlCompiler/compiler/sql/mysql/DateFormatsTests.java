@@ -17,6 +17,10 @@ public class DateFormatsTests extends SqlIoTest {
                 create table t3 (f1 date);
                 insert into t3 (f1) values ('2005-01-01');
                 insert into t3 (f1) values ('2005-02-01');
+
+                create table formats (f varchar, s varchar);
+                insert into formats values ('%Y-%m-%d', '2020-10-01'), ('%d/%m/%Y', '01/10/2020'),
+                                           ('%Y-%m-%d', '2021-12-31'), (NULL, '2020-10-01');
                 """);
     }
 
@@ -87,6 +91,19 @@ public class DateFormatsTests extends SqlIoTest {
                 (1 row)""");
     }
 
+    @Test
+    public void testNonConstantFormat() {
+        // Formats that are not constant are parsed at runtime
+        this.q("""
+                select parse_date(f, s), format_date(f, DATE '2020-10-01') from formats;
+                d	f
+                ----
+                2020-10-01	 2020-10-01
+                2020-10-01	 01/10/2020
+                2021-12-31	 2020-10-01
+                NULL	NULL""");
+    }
+
     @Test
     public void testIncorrectOrder() {
         // Returns NULL in MySQL
@@ -1235,6 +1235,30 @@ public class PostgresStringTests extends SqlIoTest {
         this.getCCS(sql);
     }
 
+    @Test
+    public void testLikeConstantPatterns() {
+        // Constant patterns are compiled into specialized matchers
+        var ccs = this.getCCS("""
+                CREATE TABLE T(name VARCHAR);
+                CREATE VIEW V AS SELECT name,
+                   name LIKE 'a.c' AS eq,
+                   name LIKE 'a.%' AS prefix,
+                   name LIKE '%c' AS suffix,
+                   name LIKE '%.%' AS infix,
+                   name LIKE 'a%c' AS presuffix,
+                   name LIKE 'a_c' AS underscore,
+                   name LIKE 'a!%%' ESCAPE '!' AS escaped
+                FROM T;""");
+        ccs.step("INSERT INTO T VALUES ('a.c'), ('abc'), ('a%c'), ('ac'), (NULL);", """
+                 name | eq    | prefix | suffix | infix | presuffix | underscore | escaped | weight
+                -----------------------------------------------------------------------------------
+                 a.c| true  | true   | true   | true  | true      | true       | false   | 1
+                 abc| false | false  | true   | false | true      | true       | false   | 1
+                 a%c| false | false  | true   | false | true      | true       | true    | 1
+                 ac| false | false  | true   | false | true      | false      | false   | 1
+                NULL | NULL  | NULL   | NULL   | NULL  | NULL      | NULL       | NULL    | 1""");
+    }
+
     // TODO: bytea computations
     // TODO unistr
 }
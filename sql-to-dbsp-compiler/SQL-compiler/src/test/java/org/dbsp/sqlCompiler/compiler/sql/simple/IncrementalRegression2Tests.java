@@ -1,13 +1,24 @@
 package org.dbsp.sqlCompiler.compiler.sql.simple;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.dbsp.sqlCompiler.circuit.annotation.Workers;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateLinearPostprocessOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperatorBase;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainKeysOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinFilterMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinRangeOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.backend.rust.ToRustVisitor;
+import org.dbsp.sqlCompiler.compiler.backend.rust.multi.ProjectDeclarations;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
 import org.dbsp.sqlCompiler.compiler.sql.tools.Change;
 import org.dbsp.sqlCompiler.compiler.sql.tools.SqlIoTest;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.LateMaterializations;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPZSetExpression;
@@ -15,13 +26,21 @@ import org.dbsp.sqlCompiler.ir.expression.literal.DBSPI32Literal;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeCode;
 import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTuple;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.dbsp.util.IndentStreamBuilder;
+import org.dbsp.util.Linq;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /** Regression tests that executed in incremental mode */
 public class IncrementalRegression2Tests extends SqlIoTest {
@@ -36,6 +55,286 @@ public class IncrementalRegression2Tests extends SqlIoTest {
         return options;
     }
 
+    static final String LATE_MATERIALIZATION_TABLES = """
+            CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT, payload VARCHAR(1000));
+            CREATE TABLE S(a INT, b INT);
+            CREATE TABLE R(b INT, c INT);
+            """;
+
+    @Test
+    public void lateMaterialization() {
+        // T.payload crosses two joins, it is read back from T using the primary key
+        var ccs = this.getCCS(LATE_MATERIALIZATION_TABLES + """
+                CREATE VIEW V AS SELECT T.id, T.payload, R.c
+                FROM T JOIN S ON T.a = S.a JOIN R ON S.b = R.b;""");
+        ccs.step("""
+                INSERT INTO T VALUES (1, 10, 'first'), (2, 20, 'second');
+                INSERT INTO S VALUES (10, 100), (20, 200);
+                INSERT INTO R VALUES (100, 7), (100, 8), (300, 9);
+                """, """
+                 id | payload | c | weight
+                ---------------------------
+                 1  | first|  7 | 1
+                 1  | first|  8 | 1""");
+        ccs.step("INSERT INTO R VALUES (200, 5);", """
+                 id | payload | c | weight
+                ---------------------------
+                 2  | second| 5 | 1""");
+    }
+
+    int countJoins(String sql) {
+        var ccs = this.getCCS(sql);
+        int[] joins = new int[1];
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            @Override
+            public void postorder(DBSPJoinBaseOperator node) {
+                joins[0]++;
+            }
+        });
+        return joins[0];
+    }
+
+    @Test
+    public void lateMaterializationShape() {
+        String view = """
+                CREATE TABLE S(a INT, b INT);
+                CREATE TABLE R(b INT, c INT);
+                CREATE VIEW V AS SELECT T.id, T.payload, R.c
+                FROM T JOIN S ON T.a = S.a JOIN R ON S.b = R.b;""";
+        // A column with a large declared length is read back from T with an extra join
+        int wide = this.countJoins(
+                "CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT, payload VARCHAR(1000));" + view);
+        // A column with no declared length is considered wide
+        int unbounded = this.countJoins(
+                "CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT, payload VARCHAR);" + view);
+        // A column with a small declared length is not wide
+        int narrow = this.countJoins(
+                "CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT, payload VARCHAR(10));" + view);
+        // The savings (2 joins * 100 bytes) do not cover the cost of storing a row of T again (308 bytes)
+        int small = this.countJoins(
+                "CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT, payload VARCHAR(100), other VARCHAR(200));" + view);
+        Assert.assertTrue(wide > narrow);
+        Assert.assertEquals(wide, unbounded);
+        Assert.assertEquals(narrow, small);
+    }
+
+    @Test
+    public void lateMaterializationUnbounded() {
+        // A single VARCHAR payload without a declared length is read back from T
+        String sql = """
+                CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT, payload VARCHAR);
+                CREATE TABLE S(a INT, b INT);
+                CREATE TABLE R(b INT, c INT);
+                CREATE VIEW V AS SELECT T.id, T.payload, R.c
+                FROM T JOIN S ON T.a = S.a JOIN R ON S.b = R.b;""";
+        int joins = this.countJoins(sql.replace("payload VARCHAR", "payload VARCHAR(10)"));
+        Assert.assertTrue(this.countJoins(sql) > joins);
+        var ccs = this.getCCS(sql);
+        ccs.step("""
+                INSERT INTO T VALUES (1, 10, 'first'), (2, 20, 'second');
+                INSERT INTO S VALUES (10, 100), (20, 200);
+                INSERT INTO R VALUES (100, 7), (300, 9);
+                """, """
+                 id | payload | c | weight
+                ---------------------------
+                 1  | first|  7 | 1""");
+        ccs.step("INSERT INTO T VALUES (3, 10, 'third');", """
+                 id | payload | c | weight
+                ---------------------------
+                 3  | third|  7 | 1""");
+    }
+
+    @Test
+    public void lateMaterializationOuter() {
+        var ccs = this.getCCS(LATE_MATERIALIZATION_TABLES + """
+                CREATE VIEW V AS SELECT T.id, T.payload, R.c
+                FROM R LEFT JOIN (T JOIN S ON T.a = S.a) ON S.b = R.b;""");
+        ccs.step("""
+                INSERT INTO T VALUES (1, 10, 'first'), (2, 20, 'second');
+                INSERT INTO S VALUES (10, 100), (20, 200);
+                INSERT INTO R VALUES (100, 7), (100, 8), (300, 9);
+                """, """
+                 id | payload | c | weight
+                ---------------------------
+                 1  | first|  7 | 1
+                 1  | first|  8 | 1
+                 NULL |NULL | 9 | 1""");
+    }
+
+    @Test
+    public void rollupAggregate() {
+        // COARSE is computed from the output of FINE
+        var ccs = this.getCCS("""
+                CREATE TABLE T(a INT, b INT, v INT);
+                CREATE LOCAL VIEW FINE AS SELECT a, b, SUM(v) AS s, COUNT(*) AS c FROM T GROUP BY a, b;
+                CREATE LOCAL VIEW COARSE AS SELECT a, SUM(v) AS s, COUNT(*) AS c FROM T GROUP BY a;
+                CREATE VIEW V AS (SELECT * FROM FINE) UNION ALL
+                (SELECT a, CAST(NULL AS INT), s, c FROM COARSE);""");
+        ccs.step("INSERT INTO T VALUES (1, 1, 10), (1, 2, 20), (2, 1, NULL);", """
+                 a | b    | s    | c | weight
+                --------------------------------
+                 1 | 1    | 10   | 1 | 1
+                 1 | 2    | 20   | 1 | 1
+                 2 | 1    | NULL | 1 | 1
+                 1 | NULL | 30   | 2 | 1
+                 2 | NULL | NULL | 1 | 1""");
+        ccs.step("INSERT INTO T VALUES (1, 1, 5);", """
+                 a | b    | s    | c | weight
+                --------------------------------
+                 1 | 1    | 10   | 1 | -1
+                 1 | 1    | 15   | 2 | 1
+                 1 | NULL | 30   | 2 | -1
+                 1 | NULL | 35   | 3 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            // Operators which consume the output of an aggregate, directly or indirectly
+            final Set<DBSPOperator> afterAggregate = new HashSet<>();
+            int aggregates = 0;
+            int rollups = 0;
+
+            @Override
+            public void postorder(DBSPOperator operator) {
+                boolean isAggregate = operator.is(DBSPAggregateOperatorBase.class) ||
+                        operator.is(DBSPAggregateLinearPostprocessOperator.class);
+                boolean after = Linq.any(operator.inputs, i -> this.afterAggregate.contains(i.node()));
+                if (isAggregate) {
+                    this.aggregates++;
+                    if (after)
+                        this.rollups++;
+                }
+                if (isAggregate || after)
+                    this.afterAggregate.add(operator);
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(2, this.aggregates);
+                Assert.assertEquals(1, this.rollups);
+            }
+        });
+    }
+
+    @Test
+    public void workersProperty() {
+        var ccs = this.getCCS("""
+                CREATE TABLE T(a INT, b INT);
+                CREATE TABLE S(a INT, c INT);
+                CREATE VIEW V WITH ('workers' = '1') AS
+                SELECT T.a, SUM(c) AS s FROM T JOIN S ON T.a = S.a GROUP BY T.a;""");
+        ccs.step("INSERT INTO T VALUES (1, 1), (2, 2); INSERT INTO S VALUES (1, 10), (1, 20);", """
+                 a | s  | weight
+                -----------------
+                 1 | 30 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int annotated = 0;
+
+            @Override
+            public void postorder(DBSPOperator operator) {
+                Workers workers = operator.annotations.first(Workers.class);
+                if (workers != null) {
+                    Assert.assertEquals(1, workers.workers);
+                    this.annotated++;
+                }
+            }
+
+            @Override
+            public void endVisit() {
+                // The join and the aggregate
+                Assert.assertTrue(this.annotated >= 2);
+            }
+        });
+
+        this.statementsFailingInCompilation("""
+                CREATE TABLE T(a INT);
+                CREATE VIEW V WITH ('workers' = '0') AS SELECT DISTINCT a FROM T;""",
+                "Expected a positive integer value for property 'workers'");
+    }
+
+    /** Generate the Rust code for the circuit of a program */
+    String rustCode(String sql) {
+        var cc = this.getCC(sql);
+        IndentStreamBuilder builder = new IndentStreamBuilder();
+        ToRustVisitor visitor = new ToRustVisitor(
+                cc.compiler, builder, cc.getCircuit().getMetadata(),
+                new ProjectDeclarations(), new LateMaterializations(cc.compiler));
+        visitor.apply(cc.getCircuit());
+        return builder.toString();
+    }
+
+    @Test
+    public void vectorizedMap() {
+        // More rows than fit in a chunk of a batched operator
+        String table = "CREATE TABLE T(a INT NOT NULL, b INT NOT NULL);";
+        String view = "CREATE VIEW V AS SELECT a + b AS s, a * 2 - b AS d FROM T;";
+        Assert.assertTrue(this.rustCode(table + view).contains(".map_batched("));
+        var ccs = this.getCCS(table + view);
+        StringBuilder insert = new StringBuilder("INSERT INTO T VALUES (0, 0)");
+        for (int i = 1; i < 1500; i++)
+            insert.append(", (").append(i).append(", ").append(i).append(")");
+        ccs.step(insert + ";", """
+                 s | d | weight
+                ----------------""" + IntStream.range(0, 1500)
+                .mapToObj(i -> "\n " + (2 * i) + " | " + i + " | 1")
+                .collect(Collectors.joining()));
+        ccs.step("INSERT INTO T VALUES (1, -1), (-2, 3);", """
+                 s | d  | weight
+                -----------------
+                 0 | 3  | 1
+                 1 | -7 | 1""");
+    }
+
+    @Test
+    public void vectorizedFilter() {
+        String sql = """
+                CREATE TABLE T(a INT NOT NULL, b INT NOT NULL);
+                CREATE VIEW V AS SELECT * FROM T WHERE a > b + 1;""";
+        Assert.assertTrue(this.rustCode(sql).contains(".filter_batched("));
+        var ccs = this.getCCS(sql);
+        ccs.step("INSERT INTO T VALUES (1, 0), (3, 1), (5, 1), (0, -2), (2, 2);", """
+                 a | b  | weight
+                -----------------
+                 3 | 1  | 1
+                 5 | 1  | 1
+                 0 | -2 | 1""");
+        ccs.step("DELETE FROM T WHERE a = 5;", """
+                 a | b | weight
+                ----------------
+                 5 | 1 | -1""");
+    }
+
+    @Test
+    public void workersPropertyCode() {
+        // The test harness runs circuits with 2 workers
+        String tables = """
+                CREATE TABLE T(a INT, b INT);
+                CREATE TABLE S(a INT, c INT);
+                CREATE VIEW V WITH ('workers' = '1') AS
+                SELECT T.a, SUM(c) AS s, COUNT(DISTINCT S.c) AS d
+                FROM T JOIN S ON T.a = S.a GROUP BY T.a;""";
+        var ccs = this.getCCS(tables);
+        ccs.step("""
+                INSERT INTO T VALUES (1, 1), (2, 2), (3, 3);
+                INSERT INTO S VALUES (1, 10), (1, 20), (1, 20), (2, 5), (4, 1);""", """
+                 a | s  | d | weight
+                ---------------------
+                 1 | 50 | 2 | 1
+                 2 | 5  | 1 | 1""");
+        ccs.step("DELETE FROM S WHERE c = 20;", """
+                 a | s  | d | weight
+                ---------------------
+                 1 | 50 | 2 | -1
+                 1 | 10 | 1 | 1""");
+
+        // W shares the data of T with V
+        String code = this.rustCode(tables + """
+                CREATE VIEW W AS SELECT a, SUM(b) AS s FROM T GROUP BY a;""");
+        // Each stream is sent to worker 0 at most once
+        Matcher matcher = Pattern.compile("= (\\w+)\\.gather\\(0\\)").matcher(code);
+        Set<String> gathered = new HashSet<>();
+        while (matcher.find())
+            Assert.assertTrue(gathered.add(matcher.group(1)));
+        Assert.assertFalse(gathered.isEmpty());
+    }
+
     @Test
     public void issue5815() {
         var ccs = this.getCCS("""
@@ -407,6 +706,104 @@ public class IncrementalRegression2Tests extends SqlIoTest {
         });
     }
 
+    @Test
+    public void testSharedIndexAcrossViews() {
+        // Each view projects different columns of orders, and filters the nullable key;
+        // all views should share the same index of orders.
+        var ccs = this.getCCS("""
+                CREATE TABLE orders(id INT, customer_id INT, amount INT, note VARCHAR);
+                CREATE TABLE c1(customer_id INT NOT NULL, name VARCHAR);
+                CREATE TABLE c2(customer_id INT NOT NULL, city VARCHAR);
+                CREATE LOCAL VIEW V1 AS SELECT o.id AS x, c1.name AS s
+                FROM orders o JOIN c1 ON o.customer_id = c1.customer_id;
+                CREATE LOCAL VIEW V2 AS SELECT o.amount AS x, c2.city AS s
+                FROM orders o JOIN c2 ON o.customer_id = c2.customer_id;
+                CREATE VIEW V AS (SELECT * FROM V1) UNION ALL (SELECT * FROM V2);""");
+        ccs.step("""
+                INSERT INTO orders VALUES (1, 10, 100, 'x'), (2, NULL, 200, 'y');
+                INSERT INTO c1 VALUES (10, 'Alice');
+                INSERT INTO c2 VALUES (10, 'Paris');""", """
+                 x   | s     | weight
+                ---------------------
+                 1   | Alice| 1
+                 100 | Paris| 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int mapIndex = 0;
+
+            @Override
+            public void postorder(DBSPFlatMapIndexOperator node) {
+                this.mapIndex++;
+            }
+
+            @Override
+            public void postorder(DBSPMapIndexOperator node) {
+                this.mapIndex++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(3, this.mapIndex);
+            }
+        });
+    }
+
+    @Test
+    public void testSharedIndexWithAggregate() {
+        // The filtered projection of orders that feeds an aggregate is not rewritten
+        var ccs = this.getCCS("""
+                CREATE TABLE orders(id INT, customer_id INT, amount INT);
+                CREATE TABLE c1(customer_id INT NOT NULL, name VARCHAR);
+                CREATE LOCAL VIEW V1 AS SELECT o.id AS x, c1.name AS s
+                FROM orders o JOIN c1 ON o.customer_id = c1.customer_id;
+                CREATE LOCAL VIEW V2 AS SELECT MIN(amount) AS x, 'min' AS s
+                FROM (SELECT customer_id, amount FROM orders WHERE customer_id IS NOT NULL)
+                GROUP BY customer_id;
+                CREATE VIEW V AS (SELECT * FROM V1) UNION ALL (SELECT * FROM V2);""");
+        ccs.step("""
+                INSERT INTO orders VALUES (1, 10, 100), (2, NULL, 200), (3, 10, 50);
+                INSERT INTO c1 VALUES (10, 'Alice');""", """
+                 x  | s     | weight
+                ---------------------
+                 1  | Alice| 1
+                 3  | Alice| 1
+                 50 | min| 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int mapIndex = 0;
+            final Set<DBSPOperator> joinInputs = new HashSet<>();
+            final Set<DBSPOperator> aggregateInputs = new HashSet<>();
+
+            @Override
+            public void postorder(DBSPFlatMapIndexOperator node) {
+                this.mapIndex++;
+            }
+
+            @Override
+            public void postorder(DBSPMapIndexOperator node) {
+                this.mapIndex++;
+            }
+
+            @Override
+            public void postorder(DBSPJoinBaseOperator node) {
+                for (var input: node.inputs)
+                    this.joinInputs.add(input.node());
+            }
+
+            @Override
+            public void postorder(DBSPAggregateOperatorBase node) {
+                this.aggregateInputs.add(node.input().node());
+            }
+
+            @Override
+            public void endVisit() {
+                // One index of orders for the join, one index of orders for the aggregate,
+                // and one index of c1; the aggregate does not share the index of the join
+                Assert.assertEquals(3, this.mapIndex);
+                Assert.assertFalse(this.aggregateInputs.isEmpty());
+                Assert.assertTrue(Linq.all(this.aggregateInputs, i -> !this.joinInputs.contains(i)));
+            }
+        });
+    }
+
     @Test
     public void testSharedIndexGC() {
         // Example from issue5815 with LATENESS
@@ -684,4 +1081,53 @@ public class IncrementalRegression2Tests extends SqlIoTest {
             ccs.step(new Change("T", delta), new Change("V", outputDelta));
         }
     }
+
+    @Test
+    public void rangeJoinTest() {
+        var ccs = this.getCCS("""
+                CREATE TABLE T(id INT, ts TIMESTAMP NOT NULL LATENESS INTERVAL 1 HOUR, x INT);
+                CREATE TABLE S(id INT, ts TIMESTAMP NOT NULL LATENESS INTERVAL 1 HOUR, y INT);
+                CREATE VIEW V AS SELECT T.x, S.y FROM T JOIN S
+                ON T.id = S.id AND T.ts BETWEEN S.ts - INTERVAL 5 MINUTES AND S.ts;""");
+        ccs.step("""
+                INSERT INTO T VALUES (1, '2024-01-01 00:00:00', 1), (1, '2024-01-01 00:10:00', 2);
+                INSERT INTO S VALUES (1, '2024-01-01 00:03:00', 10), (1, '2024-01-01 00:10:00', 20),
+                                     (2, '2024-01-01 00:10:00', 30), (1, '2024-01-01 00:20:00', 40);""", """
+                 x | y  | weight
+                -----------------
+                 1 | 10 | 1
+                 2 | 20 | 1""");
+        ccs.step("INSERT INTO T VALUES (1, '2024-01-01 00:15:00', 3);", """
+                 x | y  | weight
+                -----------------
+                 3 | 40 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int rangeJoins = 0;
+            int joins = 0;
+            int retainKeys = 0;
+
+            @Override
+            public void postorder(DBSPJoinRangeOperator unused) {
+                this.rangeJoins++;
+            }
+
+            @Override
+            public void postorder(DBSPJoinFilterMapOperator unused) {
+                this.joins++;
+            }
+
+            @Override
+            public void postorder(DBSPIntegrateTraceRetainKeysOperator unused) {
+                this.retainKeys++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.rangeJoins);
+                Assert.assertEquals(0, this.joins);
+                // Both inputs of the range join are garbage-collected
+                Assert.assertTrue(this.retainKeys >= 2);
+            }
+        });
+    }
 }
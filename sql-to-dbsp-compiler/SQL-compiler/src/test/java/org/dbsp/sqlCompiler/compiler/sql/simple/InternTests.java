@@ -1,10 +1,14 @@
 package org.dbsp.sqlCompiler.compiler.sql.simple;
 
+import org.dbsp.sqlCompiler.circuit.operator.DBSPInternOperator;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.TestUtil;
 import org.dbsp.sqlCompiler.compiler.frontend.ExpressionCompiler;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.sql.tools.CompilerCircuitStream;
 import org.dbsp.sqlCompiler.compiler.sql.tools.SqlIoTest;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
@@ -130,6 +134,78 @@ public class InternTests extends SqlIoTest {
                  a|NULL| 1""");
     }
 
+    @Test
+    public void testInternKeys() {
+        // No INTERNED annotations; the join and group-by keys are interned by the compiler
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.options.languageOptions.internKeys = true;
+        compiler.submitStatementsForCompilation("""
+            CREATE TABLE T(x VARCHAR NOT NULL, y INT);
+            CREATE TABLE S(z VARCHAR, a INT);
+            CREATE VIEW V AS SELECT T.x, SUM(S.a) AS s FROM T JOIN S ON T.x = S.z GROUP BY T.x;""");
+        var ccs = new CompilerCircuitStream(compiler, this);
+        ccs.step("""
+                INSERT INTO T VALUES('a', 0), ('b', 1);
+                INSERT INTO S VALUES('a', 1), ('a', 2), ('c', 3), (NULL, 4);
+                """, """
+                 x | s | weight
+                ----------------
+                 a| 3 | 1""");
+        ccs.step("INSERT INTO S VALUES('b', 5);", """
+                 x | s | weight
+                ----------------
+                 b| 5 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int interned = 0;
+
+            @Override
+            public void postorder(DBSPInternOperator unused) {
+                this.interned++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.interned);
+            }
+        });
+    }
+
+    @Test
+    public void testInternKeysOneSidedJoin() {
+        // T.x is a GROUP BY key, but it is also joined with an expression, which cannot be interned;
+        // interning T.x would require uninterning it in the join, so nothing is interned.
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.options.languageOptions.internKeys = true;
+        compiler.submitStatementsForCompilation("""
+            CREATE TABLE T(x VARCHAR NOT NULL, y INT);
+            CREATE TABLE S(z VARCHAR, a INT);
+            CREATE VIEW V AS (SELECT x, SUM(y) AS s FROM T GROUP BY x)
+            UNION ALL (SELECT T.x, S.a FROM T JOIN S ON T.x = UPPER(S.z));""");
+        var ccs = new CompilerCircuitStream(compiler, this);
+        ccs.step("""
+                INSERT INTO T VALUES('a', 1), ('A', 2), ('A', 3);
+                INSERT INTO S VALUES('a', 10);
+                """, """
+                 x | s  | weight
+                -----------------
+                 a| 1  | 1
+                 A| 5  | 1
+                 A| 10 | 2""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int interned = 0;
+
+            @Override
+            public void postorder(DBSPInternOperator unused) {
+                this.interned++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(0, this.interned);
+            }
+        });
+    }
+
     @Test
     public void testCastExpansions() {
         DBSPType i = DBSPTypeInteger.getType(CalciteObject.EMPTY, DBSPTypeCode.INT32, true);
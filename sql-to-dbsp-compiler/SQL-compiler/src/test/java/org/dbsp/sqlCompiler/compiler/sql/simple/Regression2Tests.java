@@ -5,9 +5,15 @@ import org.dbsp.sqlCompiler.circuit.annotation.OperatorHash;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateLinearPostprocessOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperatorBase;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPChainAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSimpleOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPWindowOperator;
 import org.dbsp.sqlCompiler.compiler.TestUtil;
@@ -18,6 +24,7 @@ import org.dbsp.sqlCompiler.ir.aggregate.DBSPFold;
 import org.dbsp.sqlCompiler.ir.aggregate.DBSPMinMax;
 import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
+import org.dbsp.sqlCompiler.ir.type.derived.DBSPTypeTupleBase;
 import org.dbsp.util.HashString;
 import org.dbsp.util.NullPrintStream;
 import org.dbsp.util.Utilities;
@@ -794,7 +801,7 @@ public class Regression2Tests extends SqlIoTest {
 
     @Test
     public void rowsTest() {
-        this.statementsFailingInCompilation("""
+        this.getCCS("""
                 CREATE TABLE purchase (
                     ts TIMESTAMP NOT NULL,
                     amount BIGINT,
@@ -804,7 +811,58 @@ public class Regression2Tests extends SqlIoTest {
                 CREATE MATERIALIZED VIEW rolling_sum AS
                 SELECT ts,
                     SUM(value) OVER (ORDER BY ts ROWS BETWEEN 2 PRECEDING AND CURRENT ROW) AS rolling_sum
-                    FROM purchase;""", "Not yet implemented: Window aggregates with ROWS");
+                    FROM purchase;""");
+        // The frame size does not change the shape of the circuit: a single lag operator
+        var ccs = this.getCCS("""
+                CREATE TABLE T(o INT, v INT);
+                CREATE VIEW V AS
+                SELECT SUM(v) OVER (ORDER BY o ROWS BETWEEN 100 PRECEDING AND CURRENT ROW) FROM T;""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int lags = 0;
+
+            @Override
+            public void postorder(DBSPLagOperator operator) {
+                Assert.assertTrue(operator.rows);
+                Assert.assertEquals(100, operator.offset);
+                this.lags++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.lags);
+            }
+        });
+        this.statementsFailingInCompilation("""
+                CREATE TABLE T(o INT, v INT);
+                CREATE VIEW V AS
+                SELECT SUM(v) OVER (ORDER BY o ROWS BETWEEN 3000000000 PRECEDING AND CURRENT ROW) FROM T;""",
+                "is too large");
+    }
+
+    @Test
+    public void rowsPrecedingTest() {
+        var ccs = this.getCCS("""
+                CREATE TABLE T(p INT, o INT LATENESS 10, v INT);
+                CREATE VIEW V AS SELECT p, o,
+                   SUM(v) OVER (PARTITION BY p ORDER BY o ROWS BETWEEN 2 PRECEDING AND CURRENT ROW) AS s,
+                   COUNT(*) OVER (PARTITION BY p ORDER BY o ROWS BETWEEN 2 PRECEDING AND CURRENT ROW) AS c
+                FROM T;""");
+        ccs.step("INSERT INTO T VALUES(1, 1, 10), (1, 2, 20), (1, 3, 30), (1, 4, 40), (2, 1, 5);", """
+                 p | o | s  | c | weight
+                --------------------------
+                 1 | 1 | 10 | 1 | 1
+                 1 | 2 | 30 | 2 | 1
+                 1 | 3 | 60 | 3 | 1
+                 1 | 4 | 90 | 3 | 1
+                 2 | 1 | 5  | 1 | 1""");
+        ccs.step("INSERT INTO T VALUES(1, 0, 1);", """
+                 p | o | s  | c | weight
+                --------------------------
+                 1 | 0 | 1  | 1 | 1
+                 1 | 1 | 10 | 1 | -1
+                 1 | 1 | 11 | 2 | 1
+                 1 | 2 | 30 | 2 | -1
+                 1 | 2 | 31 | 3 | 1""");
     }
 
     @Test
@@ -944,4 +1002,358 @@ public class Regression2Tests extends SqlIoTest {
                 ---
                 NULL""");
     }
+
+    @Test
+    public void testConstantFunctionFolding() {
+        // Calls with constant arguments are evaluated by the compiler,
+        // the same calls with column arguments are evaluated at runtime
+        var ccs = this.getCCS("""
+                CREATE TABLE T(s VARCHAR, d DATE, ts TIMESTAMP, n INT);
+                CREATE VIEW V AS SELECT
+                   LOWER(s) = LOWER('aBc') AS l,
+                   UPPER(s) || s = UPPER('aBc') || 'aBc' AS u,
+                   SUBSTRING(s FROM n FOR n) = SUBSTRING('aBc' FROM 2 FOR 2) AS sub,
+                   TRIM(BOTH 'a' FROM s) = TRIM(BOTH 'a' FROM 'aBc') AS t,
+                   CHAR_LENGTH(s) = CHAR_LENGTH('aBc') AS c,
+                   DATE_TRUNC(d, MONTH) = DATE_TRUNC(DATE '2024-05-17', MONTH) AS dm,
+                   DATE_TRUNC(d, WEEK) = DATE_TRUNC(DATE '2024-05-17', WEEK) AS dw,
+                   DATE_TRUNC(ts, YEAR) = DATE_TRUNC(TIMESTAMP '2024-05-17 10:20:30', YEAR) AS ty,
+                   d + INTERVAL '1' MONTH = DATE '2024-05-17' + INTERVAL '1' MONTH AS dmonth,
+                   ts - INTERVAL '36' HOURS = TIMESTAMP '2024-05-17 10:20:30' - INTERVAL '36' HOURS AS th
+                FROM T;""");
+        ccs.step("INSERT INTO T VALUES('aBc', '2024-05-17', '2024-05-17 10:20:30', 2)", """
+                 l | u | sub | t | c | dm | dw | ty | dmonth | th | weight
+                ------------------------------------------------------------
+                 true | true | true | true | true | true | true | true | true | true | 1""");
+    }
+
+    @Test
+    public void testRefineNullability() {
+        var ccs = this.getCCS("""
+                CREATE TABLE T(x INT, y INT, z INT);
+                CREATE VIEW V AS SELECT x + y AS s, x + z AS t, CASE WHEN x IS NULL THEN 0 ELSE x END AS c
+                FROM T WHERE x IS NOT NULL AND y > 2;""");
+        ccs.step("INSERT INTO T VALUES(1, 3, NULL), (NULL, 3, 1), (2, NULL, 1), (4, 5, 6)", """
+                 s | t | c | weight
+                ---------------------
+                 4 | NULL | 1 | 1
+                 9 | 10 | 4 | 1""");
+    }
+
+    @Test
+    public void testUncheckedArithmetic() {
+        // Operations that cannot overflow use unchecked arithmetic
+        var ccs = this.getCCS("""
+                CREATE TABLE T(x SMALLINT NOT NULL, y SMALLINT, z INT);
+                CREATE VIEW V AS SELECT
+                   CAST(x AS INT) * CAST(y AS INT) AS m,
+                   CAST(x AS INT) + y AS s,
+                   MOD(z, 1000) - 1 AS d
+                FROM T;""");
+        ccs.step("INSERT INTO T VALUES(-32768, -32768, -2147483648), (32767, NULL, 2147483647)", """
+                 m | s | d | weight
+                ---------------------
+                 1073741824 | -65536 | -649 | 1
+                 NULL | NULL | 646 | 1""");
+    }
+
+    @Test
+    public void testFuseLinearAggregatePostprocessing() {
+        // The index of the aggregate result for the join is computed by the aggregate
+        var ccs = this.getCCS("""
+                CREATE TABLE T(x INT, y INT);
+                CREATE TABLE S(x INT, w INT);
+                CREATE VIEW V AS SELECT S.w, A.a
+                FROM (SELECT x, SUM(y) / COUNT(y) AS a FROM T GROUP BY x) A
+                JOIN S ON A.x = S.x;""");
+        ccs.step("""
+                INSERT INTO T VALUES(1, 2), (1, 4), (2, 6);
+                INSERT INTO S VALUES(1, 10), (2, 20);""", """
+                 w | a | weight
+                -----------------
+                 10 | 3 | 1
+                 20 | 6 | 1""");
+        ccs.step("INSERT INTO T VALUES(1, 6);", """
+                 w | a | weight
+                -----------------
+                 10 | 3 | -1
+                 10 | 4 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int linear = 0;
+
+            @Override
+            public void postorder(DBSPAggregateLinearPostprocessOperator operator) {
+                this.linear++;
+            }
+
+            @Override
+            public void postorder(DBSPMapIndexOperator operator) {
+                // The post-processing map is folded into the aggregate
+                Assert.assertFalse(operator.input().node().is(DBSPAggregateLinearPostprocessOperator.class));
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.linear);
+            }
+        });
+    }
+
+    @Test
+    public void testCombinedWindowFrames() {
+        // Window aggregates with the same partition and order but different frames
+        // are joined with the input once
+        var ccs = this.getCCS("""
+                CREATE TABLE T(p INT, o INT, v INT);
+                CREATE VIEW V AS SELECT p, o,
+                   SUM(v) OVER (PARTITION BY p ORDER BY o RANGE BETWEEN 1 PRECEDING AND CURRENT ROW) AS s1,
+                   SUM(v) OVER (PARTITION BY p ORDER BY o RANGE BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW) AS s2,
+                   COUNT(*) OVER (PARTITION BY p ORDER BY o RANGE BETWEEN CURRENT ROW AND 2 FOLLOWING) AS c
+                FROM T;""");
+        ccs.step("INSERT INTO T VALUES(1, 1, 10), (1, 2, 20), (1, 4, 40), (2, 1, 5);", """
+                 p | o | s1 | s2 | c | weight
+                -------------------------------
+                 1 | 1 | 10 | 10 | 2 | 1
+                 1 | 2 | 30 | 30 | 2 | 1
+                 1 | 4 | 40 | 70 | 1 | 1
+                 2 | 1 | 5  | 5  | 1 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int rolling = 0;
+            int combine = 0;
+            int join = 0;
+
+            @Override
+            public void postorder(DBSPPartitionedRollingAggregateOperator operator) {
+                this.rolling++;
+            }
+
+            @Override
+            public void postorder(DBSPStreamJoinIndexOperator operator) {
+                this.combine++;
+            }
+
+            @Override
+            public void postorder(DBSPStreamJoinOperator operator) {
+                this.join++;
+            }
+
+            @Override
+            public void endVisit() {
+                // One rolling aggregate per frame; the aggregates are joined with each other,
+                // and the result is joined with the input once.
+                Assert.assertEquals(3, this.rolling);
+                Assert.assertEquals(2, this.combine);
+                Assert.assertEquals(1, this.join);
+            }
+        });
+    }
+
+    @Test
+    public void testMultiColumnOrderInOver() {
+        // The ORDER BY columns are packed into a single key for the rolling aggregate
+        var ccs = this.getCCS("""
+                CREATE TABLE T(p INT, ts TIMESTAMP, seq INT, v INT);
+                CREATE VIEW V AS SELECT p, ts, seq,
+                   SUM(v) OVER (PARTITION BY p ORDER BY ts, seq) AS s,
+                   COUNT(*) OVER (PARTITION BY p ORDER BY ts DESC, seq) AS c
+                FROM T;""");
+        ccs.step("""
+                INSERT INTO T VALUES(1, '2024-01-01 00:00:00', 1, 10), (1, '2024-01-01 00:00:00', 2, 20),
+                                    (1, '2024-01-01 00:00:01', 0, 30), (2, '2024-01-01 00:00:00', 1, 5);""", """
+                 p | ts                  | seq | s  | c | weight
+                --------------------------------------------------
+                 1 | 2024-01-01 00:00:00 | 1   | 10 | 2 | 1
+                 1 | 2024-01-01 00:00:00 | 2   | 30 | 3 | 1
+                 1 | 2024-01-01 00:00:01 | 0   | 60 | 1 | 1
+                 2 | 2024-01-01 00:00:00 | 1   | 5  | 1 | 1""");
+    }
+
+    @Test
+    public void testWindowAggregatedFields() {
+        // The rolling aggregate only stores the fields used by the aggregates
+        var ccs = this.getCCS("""
+                CREATE TABLE T(name VARCHAR, a INT, b INT, c INT);
+                CREATE VIEW V AS SELECT name,
+                   SUM(c) OVER (PARTITION BY a ORDER BY b RANGE BETWEEN 1 PRECEDING AND CURRENT ROW) AS s,
+                   MAX(c + 1) OVER (PARTITION BY a ORDER BY b RANGE BETWEEN 1 PRECEDING AND CURRENT ROW) AS m
+                FROM T;""");
+        ccs.step("INSERT INTO T VALUES('x', 1, 1, 10), ('y', 1, 2, 20), ('z', 1, 4, 40);", """
+                 name | s  | m  | weight
+                --------------------------
+                 x    | 10 | 11 | 1
+                 y    | 30 | 21 | 1
+                 z    | 40 | 41 | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int rolling = 0;
+
+            @Override
+            public void postorder(DBSPPartitionedRollingAggregateOperator operator) {
+                // The input values have the shape Tup2(partition, aggregatedFields);
+                // the aggregated fields are c and c + 1
+                DBSPTypeTupleBase value = operator.input().getOutputIndexedZSetType()
+                        .elementType.to(DBSPTypeTupleBase.class);
+                Assert.assertEquals(2, value.getFieldType(1).to(DBSPTypeTupleBase.class).size());
+                this.rolling++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.rolling);
+            }
+        });
+    }
+
+    @Test
+    public void testUnnestMultipleArrays() {
+        // The arrays are zipped, and the shorter one is padded with NULL
+        var ccs = this.getCCS("""
+                CREATE TABLE T(id INT, a INT ARRAY, b VARCHAR ARRAY);
+                CREATE VIEW V AS SELECT id, x, y, o
+                FROM T CROSS JOIN UNNEST(T.a, T.b) WITH ORDINALITY AS R(x, y, o);""");
+        ccs.step("INSERT INTO T VALUES(1, ARRAY[1, 2, 3], ARRAY['a', 'b']), (2, NULL, ARRAY['c']);", """
+                 id | x | y    | o | weight
+                ---------------------------
+                 1  | 1 | a|   | 1 | 1
+                 1  | 2 | b|   | 2 | 1
+                 1  | 3 |NULL  | 3 | 1
+                 2  |   | c|   | 1 | 1""");
+    }
+
+    @Test
+    public void testUnnestSingleArrayFilterFusion() {
+        // An UNNEST of a single array is fused with the filter that follows it
+        var ccs = this.getCCS("""
+                CREATE TABLE T(id INT, a VARCHAR ARRAY);
+                CREATE VIEW V AS SELECT id, x
+                FROM T CROSS JOIN UNNEST(T.a) AS R(x)
+                WHERE x > 'a';""");
+        ccs.step("INSERT INTO T VALUES(1, ARRAY['a', 'b', 'c']), (2, ARRAY['a']), (3, NULL);", """
+                 id | x    | weight
+                -------------------
+                 1  | b|   | 1
+                 1  | c|   | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int flatMap = 0;
+
+            @Override
+            public void postorder(DBSPFlatMapOperator unused) {
+                this.flatMap++;
+            }
+
+            @Override
+            public void postorder(DBSPFilterOperator unused) {
+                Assert.fail("Filter should be fused with the flatmap");
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.flatMap);
+            }
+        });
+    }
+
+    @Test
+    public void testUnnestFilterFusion() {
+        // The filter and the projection are evaluated in the flatmap that implements the UNNEST
+        var ccs = this.getCCS("""
+                CREATE TABLE T(id INT, a INT ARRAY, b VARCHAR ARRAY);
+                CREATE VIEW V AS SELECT id, y
+                FROM T CROSS JOIN UNNEST(T.a, T.b) AS R(x, y)
+                WHERE x > 1;""");
+        ccs.step("INSERT INTO T VALUES(1, ARRAY[1, 2, 3], ARRAY['a', 'b']), (2, ARRAY[0], ARRAY['c']);", """
+                 id | y    | weight
+                -------------------
+                 1  | b|   | 1
+                 1  |NULL  | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int flatMap = 0;
+
+            @Override
+            public void postorder(DBSPFlatMapOperator unused) {
+                this.flatMap++;
+            }
+
+            @Override
+            public void postorder(DBSPFilterOperator unused) {
+                Assert.fail("Filter should be fused with the flatmap");
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.flatMap);
+            }
+        });
+    }
+
+    @Test
+    public void testAppendOnlyLag() {
+        // The table is append-only and rows arrive in ts order, so LAG only keeps the last row per partition
+        var ccs = this.getCCS("""
+                CREATE TABLE T(dev INT, ts INT NOT NULL LATENESS 0, v INT) WITH ('append_only' = 'true');
+                CREATE VIEW V AS SELECT dev, ts, LAG(v) OVER (PARTITION BY dev ORDER BY ts) AS prev FROM T;""");
+        ccs.step("INSERT INTO T VALUES(1, 1, 10), (1, 2, 20), (2, 1, 100);", """
+                 dev | ts | prev | weight
+                -------------------------
+                 1   | 1  |      | 1
+                 1   | 2  | 10   | 1
+                 2   | 1  |      | 1""");
+        ccs.step("INSERT INTO T VALUES(1, 3, 30), (2, 2, 200);", """
+                 dev | ts | prev | weight
+                -------------------------
+                 1   | 3  | 20   | 1
+                 2   | 2  | 100  | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int lag = 0;
+
+            @Override
+            public void postorder(DBSPLagOperator operator) {
+                Assert.assertTrue(operator.appendOnly);
+                this.lag++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.lag);
+            }
+        });
+    }
+
+    @Test
+    public void testAppendOnlyChainAggregates() {
+        // All these aggregates are implemented by a single chain aggregate over an append-only table
+        var ccs = this.getCCS("""
+                CREATE TABLE T(g INT, x INT, y INT) WITH ('append_only' = 'true');
+                CREATE VIEW V AS SELECT g, BIT_AND(x) AS a, BIT_OR(x) AS o, MAX(y) FILTER (WHERE x > 1) AS m
+                FROM T GROUP BY g;""");
+        ccs.step("INSERT INTO T VALUES(1, 3, 10), (1, 5, 20), (2, 6, 7);", """
+                 g | a | o | m  | weight
+                ------------------------
+                 1 | 1 | 7 | 20 | 1
+                 2 | 6 | 6 | 7  | 1""");
+        ccs.step("INSERT INTO T VALUES(1, 8, 30), (2, 1, 40);", """
+                 g | a | o  | m  | weight
+                -------------------------
+                 1 | 1 | 7  | 20 | -1
+                 1 | 0 | 15 | 30 | 1
+                 2 | 6 | 6  | 7  | -1
+                 2 | 0 | 7  | 7  | 1""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int chain = 0;
+
+            @Override
+            public void postorder(DBSPChainAggregateOperator operator) {
+                this.chain++;
+            }
+
+            @Override
+            public void postorder(DBSPAggregateOperatorBase operator) {
+                Assert.fail("No aggregate should integrate the input");
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.chain);
+            }
+        });
+    }
 }
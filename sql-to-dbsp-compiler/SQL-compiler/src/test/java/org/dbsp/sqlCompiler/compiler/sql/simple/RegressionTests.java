@@ -1982,9 +1982,25 @@ public class RegressionTests extends SqlIoTest {
 
     @Test
     public void issue3547() {
-        this.queryFailingInCompilation(
-                "SELECT * FROM UNNEST(ARRAY [1, 2, 3, 4, 5], ARRAY[3, 2, 1]);",
-                "UNNEST with multiple vectors");
+        // The shorter array is padded with NULL values
+        this.q("""
+                SELECT * FROM UNNEST(ARRAY [1, 2, 3, 4, 5], ARRAY[3, 2, 1]);
+                 a | b
+                -------
+                 1 | 3
+                 2 | 2
+                 3 | 1
+                 4 | NULL
+                 5 | NULL""");
+        var ccs = this.getCCS("""
+                CREATE TABLE T(id INT, a INT NOT NULL ARRAY, b INT NOT NULL ARRAY);
+                CREATE VIEW V AS SELECT id, x, y FROM T, UNNEST(T.a, T.b) AS R(x, y);""");
+        ccs.step("INSERT INTO T VALUES(1, ARRAY[1, 2], ARRAY[3]), (2, NULL, ARRAY[4]);", """
+                 id | x | y | weight
+                ---------------------
+                 1  | 1 | 3 | 1
+                 1  | 2 |   | 1
+                 2  |   | 4 | 1""");
     }
 
     @Test
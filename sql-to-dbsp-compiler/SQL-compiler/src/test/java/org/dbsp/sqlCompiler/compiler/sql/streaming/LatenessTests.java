@@ -345,4 +345,38 @@ public class LatenessTests  extends StreamingTestBase {
             }
         });
     }
+
+    @Test
+    public void filteredMinMaxLateness() {
+        // MIN and MAX with FILTER are implemented like ARG_MIN and ARG_MAX, and can be GC-ed
+        var ccs = this.getCCS("""
+                CREATE TABLE T(ts INT, z VARCHAR, x INT LATENESS 2);
+                CREATE VIEW V AS SELECT ts, MIN(x) FILTER (WHERE z > 'a'), MAX(x) FILTER (WHERE z > 'a')
+                FROM t GROUP BY ts;""");
+        ccs.visit(new CircuitVisitor(ccs.compiler) {
+            int retain = 0;
+
+            @Override
+            public void postorder(DBSPIntegrateTraceRetainNValuesOperator operator) {
+                this.retain++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(2, this.retain);
+            }
+        });
+        ccs.step("INSERT INTO T VALUES (0, 'b', 2), (0, 'a', 5), (0, 'c', NULL), (1, 'a', 3)", """
+                 ts | min | max | weight
+                -------------------------
+                 0  | 2   | 2   | 1
+                 1  |     |     | 1""");
+        ccs.step("INSERT INTO T VALUES (0, 'c', 4), (1, 'b', 6)", """
+                 ts | min | max | weight
+                -------------------------
+                 0  | 2   | 2   | -1
+                 0  | 2   | 4   | 1
+                 1  |     |     | -1
+                 1  | 6   | 6   | 1""");
+    }
 }
@@ -759,6 +759,80 @@ public class StreamingTests extends StreamingTestBase {
 
     }
 
+    @Test
+    public void testAsofRightLateness() {
+        // Only the right input has lateness: the left input can still be GC-ed,
+        // but the right input cannot, since left rows can have any timestamp.
+        String sql = """
+                create table TRANSACTION (
+                    id bigint NOT NULL,
+                    region VARCHAR NOT NULL,
+                    unix_time BIGINT LATENESS 100
+                );
+                
+                create table FEEDBACK (
+                    id bigint,
+                    region VARCHAR,
+                    status int,
+                    unix_time bigint NOT NULL
+                );
+                
+                CREATE VIEW TRANSACT AS
+                    SELECT feedback.*, transaction.*
+                    FROM
+                    feedback LEFT ASOF JOIN transaction
+                    MATCH_CONDITION(transaction.unix_time <= feedback.unix_time)
+                    ON transaction.id = feedback.id AND transaction.region = feedback.region;
+                """;
+        CompilerCircuitStream ccs = this.getCCS(sql);
+        CircuitVisitor visitor = new CircuitVisitor(ccs.compiler) {
+            int integrate_trace = 0;
+            int integrate_trace_last = 0;
+
+            @Override
+            public void postorder(DBSPIntegrateTraceRetainValuesOperator operator) {
+                this.integrate_trace++;
+            }
+
+            @Override
+            public void postorder(DBSPIntegrateTraceRetainNValuesOperator operator) {
+                this.integrate_trace_last++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(1, this.integrate_trace);
+                Assert.assertEquals(0, this.integrate_trace_last);
+            }
+        };
+        ccs.visit(visitor);
+
+        ccs.step("""
+                INSERT INTO TRANSACTION VALUES(1, 'a', 0), (1, 'b', 5);
+                INSERT INTO FEEDBACK VALUES(1, 'a', 1, 10), (1, 'b', 1, 3);
+                """, """
+                 id | region | status | time | tid | tregion | ttime | weight
+                ----------------------------------------------------------------
+                  1 | a|     |      1 |   10 |   1 | a|      |     0 | 1
+                  1 | b|     |      1 |    3 |     |         |       | 1""");
+        // right waterline moves to 200
+        ccs.step("""
+                INSERT INTO TRANSACTION VALUES(1, 'b', 300)""", """
+                 id | region | status | time | tid | tregion | ttime | weight
+                ----------------------------------------------------------------""");
+        ccs.step("""
+                INSERT INTO FEEDBACK VALUES(1, 'b', 2, 400)""", """
+                 id | region | status | time | tid | tregion | ttime | weight
+                ----------------------------------------------------------------
+                  1 | b|     |      2 |  400 |   1 | b|      |   300 | 1""");
+        // Left row below the right waterline is retracted
+        ccs.step("""
+                REMOVE FROM FEEDBACK VALUES(1, 'a', 1, 10)""", """
+                 id | region | status | time | tid | tregion | ttime | weight
+                ----------------------------------------------------------------
+                  1 | a|     |      1 |   10 |   1 | a|      |     0 | -1""");
+    }
+
     @Test
     public void issue2004() {
         String sql = """